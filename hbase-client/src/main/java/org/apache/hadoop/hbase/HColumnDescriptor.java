@@ -127,6 +127,8 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
   public static final String DFS_REPLICATION = "DFS_REPLICATION";
   public static final short DEFAULT_DFS_REPLICATION = 0;
 
+  public static final String IN_MEMORY_COMPACTION = "IN_MEMORY_COMPACTION";
+
   /**
    * Default compression type.
    */
@@ -877,6 +879,26 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     return setValue(KEEP_DELETED_CELLS, keepDeletedCells.toString());
   }
 
+  /**
+   * @return the in-memory compaction policy set for this family, or null if none is set, in
+   *   which case the region server default applies
+   */
+  public MemoryCompactionPolicy getInMemoryCompaction() {
+    String value = getValue(IN_MEMORY_COMPACTION);
+    if (value != null) {
+      return MemoryCompactionPolicy.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+    return null;
+  }
+
+  /**
+   * @param inMemoryCompaction the in-memory compaction policy for this family
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setInMemoryCompaction(MemoryCompactionPolicy inMemoryCompaction) {
+    return setValue(IN_MEMORY_COMPACTION, inMemoryCompaction.toString());
+  }
+
   /**
    * @return Time-to-live of cell contents, in seconds.
    */
@@ -0,0 +1,46 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+
+/**
+ * Whether, and how, a column family compacts its memstore in memory before flushing it to disk.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public enum MemoryCompactionPolicy {
+  /**
+   * No memory compaction; the family uses the memstore configured for the region server.
+   */
+  NONE,
+  /**
+   * Basic policy: the active segment is flattened into an immutable, array-based segment when it
+   * fills up, and the flat segments are merged into one once there are too many of them. No
+   * cells are dropped.
+   */
+  BASIC,
+  /**
+   * Eager policy: like BASIC, but the flat segments are compacted rather than merged, dropping
+   * versions and deleted cells that are no longer visible. Pays off for update-heavy families
+   * where the same cells are written over and over.
+   */
+  EAGER
+}
@@ -57,6 +57,7 @@ public class TestHColumnDescriptor {
     hcd.setBloomFilterType(BloomType.ROW);
     hcd.setCompressionType(Algorithm.SNAPPY);
     hcd.setDFSReplication((short) v);
+    hcd.setInMemoryCompaction(MemoryCompactionPolicy.EAGER);
 
     byte [] bytes = hcd.toByteArray();
     HColumnDescriptor deserializedHcd = HColumnDescriptor.parseFrom(bytes);
@@ -73,6 +74,7 @@ public class TestHColumnDescriptor {
     assertTrue(deserializedHcd.getDataBlockEncoding().equals(DataBlockEncoding.FAST_DIFF));
     assertTrue(deserializedHcd.getBloomFilterType().equals(BloomType.ROW));
     assertEquals(v, deserializedHcd.getDFSReplication());
+    assertEquals(MemoryCompactionPolicy.EAGER, deserializedHcd.getInMemoryCompaction());
   }
 
   @Test
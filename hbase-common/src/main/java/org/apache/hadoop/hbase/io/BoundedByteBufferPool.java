@@ -110,6 +110,55 @@ public class BoundedByteBufferPool {
     return bb;
   }
 
+  /**
+   * Like {@link #getBuffer()} but the returned ByteBuffer has room for at least
+   * <code>minCapacity</code> bytes. We hand out the first pooled ByteBuffer that is big enough;
+   * the smaller ones we pass over go back into the pool. If none fits we allocate one that does;
+   * that one is retained in its turn when put back, as long as it is no bigger than the max size
+   * to cache.
+   * @param minCapacity the least capacity the caller needs
+   * @return a cleared ByteBuffer of at least <code>minCapacity</code> capacity
+   */
+  public ByteBuffer getBuffer(final int minCapacity) {
+    ByteBuffer bb = null;
+    lock.lock();
+    try {
+      for (int i = this.buffers.size(); i > 0; i--) {
+        ByteBuffer pooled = this.buffers.poll();
+        if (pooled.capacity() >= minCapacity) {
+          this.totalReservoirCapacity.addAndGet(-pooled.capacity());
+          bb = pooled;
+          break;
+        }
+        // Too small for this caller but still good for others.
+        this.buffers.offer(pooled);
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (bb != null) {
+      bb.clear();
+    } else {
+      int capacity = Math.max(minCapacity, this.runningAverage);
+      bb = this.createDirectByteBuffer ? ByteBuffer.allocateDirect(capacity)
+          : ByteBuffer.allocate(capacity);
+      this.allocations.incrementAndGet();
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("minCapacity=" + minCapacity + ", runningAverage=" + this.runningAverage +
+        ", totalCapacity=" + this.totalReservoirCapacity + ", count=" + this.buffers.size() +
+        ", allocations=" + this.allocations.get());
+    }
+    return bb;
+  }
+
+  /**
+   * @return the size above which a ByteBuffer is let go rather than retained in the pool
+   */
+  public int getMaxByteBufferSizeToCache() {
+    return this.maxByteBufferSizeToCache;
+  }
+
   public void putBuffer(ByteBuffer bb) {
     // If buffer is larger than we want to keep around, just let it go.
     if (bb.capacity() > this.maxByteBufferSizeToCache) return;
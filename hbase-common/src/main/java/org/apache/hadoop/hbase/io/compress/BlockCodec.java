@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * Compresses and decompresses a whole HFile block from one buffer into another, without
+ * the codec streams, buffering and pooled compressors of the Hadoop codecs. The compressed
+ * form must be the same as what the stream of the Hadoop codec of the
+ * {@link Compression.Algorithm} produces, so that blocks can be read either way.
+ * <p>
+ * Implementations are stateless and shared by all threads.
+ */
+@InterfaceAudience.Private
+public interface BlockCodec {
+
+  /**
+   * @param uncompressedLength number of bytes to compress
+   * @return the maximum length of the compressed form of that many bytes
+   */
+  int maxCompressedLength(int uncompressedLength);
+
+  /**
+   * Compresses the remaining bytes of src into dest, which must have room for
+   * {@link #maxCompressedLength(int)} bytes. Advances the positions of both buffers.
+   * @return the compressed length
+   */
+  int compress(ByteBuffer src, ByteBuffer dest) throws IOException;
+
+  /**
+   * Decompresses from src until the remaining bytes of dest are filled. Advances the
+   * positions of both buffers; src may hold more bytes than the compressed data.
+   * @throws IOException if the compressed data is corrupt
+   */
+  void decompress(ByteBuffer src, ByteBuffer dest) throws IOException;
+}
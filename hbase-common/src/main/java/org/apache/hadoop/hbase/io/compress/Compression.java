@@ -213,6 +213,12 @@ public final class Compression {
       // Use base type to avoid compile-time dependencies.
       private volatile transient CompressionCodec lz4Codec;
       private final transient Object lock = new Object();
+      private final transient BlockCodec blockCodec = new Lz4BlockCodec();
+
+      @Override
+      public BlockCodec getBlockCodec() {
+        return blockCodec;
+      }
 
       @Override
       CompressionCodec getCodec(Configuration conf) {
@@ -306,6 +312,14 @@ public final class Compression {
 
     abstract CompressionCodec getCodec(Configuration conf);
 
+    /**
+     * @return the codec that compresses HFile blocks directly from buffer to buffer, or null
+     *         if blocks of this algorithm go through the streams of the Hadoop codec
+     */
+    public BlockCodec getBlockCodec() {
+      return null;
+    }
+
     public InputStream createDecompressionStream(
         InputStream downStream, Decompressor decompressor,
         int downStreamBufferSize) throws IOException {
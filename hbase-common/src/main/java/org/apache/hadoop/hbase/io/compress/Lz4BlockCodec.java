@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Pure Java LZ4 {@link BlockCodec}, so that LZ4 compressed blocks can be read and written
+ * without libhadoop.
+ * <p>
+ * The output is framed the way the Hadoop Lz4Codec block stream frames it: the
+ * uncompressed length as a big endian int, followed by one or more chunks of at most
+ * {@link #MAX_INPUT_SIZE} input bytes, each a big endian int with the compressed length
+ * followed by a raw LZ4 block. Blocks written by either implementation can be read by the
+ * other.
+ * <p>
+ * The compressor is the greedy single hash table algorithm of the LZ4 reference
+ * implementation, and follows the end of block rules of the LZ4 block format.
+ */
+@InterfaceAudience.Private
+public class Lz4BlockCodec implements BlockCodec {
+
+  /** Buffer size of the Hadoop Lz4Codec, io.compression.codec.lz4.buffersize */
+  static final int BUFFER_SIZE = 256 * 1024;
+
+  /** Most bytes the Hadoop Lz4Codec compresses into one LZ4 block */
+  static final int MAX_INPUT_SIZE = BUFFER_SIZE - (BUFFER_SIZE / 255 + 16);
+
+  private static final int MIN_MATCH = 4;
+  /** The last bytes of a block are always literals */
+  private static final int LAST_LITERALS = 5;
+  /** The last match must start at least this many bytes before the end of a block */
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_DISTANCE = 65535;
+  private static final int RUN_MASK = 15;
+  private static final int HASH_LOG = 12;
+  /** Search step grows by one every 2^SKIP_TRIGGER misses, to go fast over incompressible data */
+  private static final int SKIP_TRIGGER = 6;
+
+  @Override
+  public int maxCompressedLength(int uncompressedLength) {
+    int chunks = Math.max(1, (uncompressedLength + MAX_INPUT_SIZE - 1) / MAX_INPUT_SIZE);
+    return Bytes.SIZEOF_INT + chunks * (Bytes.SIZEOF_INT + 16) + uncompressedLength
+        + uncompressedLength / 255;
+  }
+
+  @Override
+  public int compress(ByteBuffer src, ByteBuffer dest) throws IOException {
+    int length = src.remaining();
+    byte[] in;
+    int inOffset;
+    if (src.hasArray()) {
+      in = src.array();
+      inOffset = src.arrayOffset() + src.position();
+    } else {
+      in = new byte[length];
+      src.duplicate().get(in);
+      inOffset = 0;
+    }
+    int maxLength = maxCompressedLength(length);
+    if (dest.remaining() < maxLength) {
+      throw new IllegalArgumentException("Output buffer has room for " + dest.remaining()
+          + " bytes, " + maxLength + " needed to compress " + length + " bytes");
+    }
+    byte[] out;
+    int outOffset;
+    if (dest.hasArray()) {
+      out = dest.array();
+      outOffset = dest.arrayOffset() + dest.position();
+    } else {
+      out = new byte[maxLength];
+      outOffset = 0;
+    }
+
+    int dp = Bytes.putInt(out, outOffset, length);
+    int[] table = new int[1 << HASH_LOG];
+    for (int done = 0; done < length;) {
+      int chunk = Math.min(length - done, MAX_INPUT_SIZE);
+      int compressed = compressBlock(in, inOffset + done, chunk, out, dp + Bytes.SIZEOF_INT,
+          table);
+      dp = Bytes.putInt(out, dp, compressed) + compressed;
+      done += chunk;
+    }
+
+    int compressedLength = dp - outOffset;
+    src.position(src.position() + length);
+    if (dest.hasArray()) {
+      dest.position(dest.position() + compressedLength);
+    } else {
+      dest.put(out, 0, compressedLength);
+    }
+    return compressedLength;
+  }
+
+  @Override
+  public void decompress(ByteBuffer src, ByteBuffer dest) throws IOException {
+    byte[] in;
+    int inOffset;
+    int inLength = src.remaining();
+    if (src.hasArray()) {
+      in = src.array();
+      inOffset = src.arrayOffset() + src.position();
+    } else {
+      in = new byte[inLength];
+      src.duplicate().get(in);
+      inOffset = 0;
+    }
+    int outLength = dest.remaining();
+    byte[] out;
+    int outOffset;
+    if (dest.hasArray()) {
+      out = dest.array();
+      outOffset = dest.arrayOffset() + dest.position();
+    } else {
+      out = new byte[outLength];
+      outOffset = 0;
+    }
+
+    int sp = inOffset;
+    int inEnd = inOffset + inLength;
+    int dp = outOffset;
+    int outEnd = outOffset + outLength;
+    while (dp < outEnd) {
+      if (inEnd - sp < Bytes.SIZEOF_INT) {
+        throw new IOException("Truncated LZ4 data, " + (outEnd - dp) + " bytes missing");
+      }
+      int rawLength = Bytes.toInt(in, sp);
+      sp += Bytes.SIZEOF_INT;
+      if (rawLength < 0 || rawLength > outEnd - dp) {
+        throw new IOException("Corrupt LZ4 data, uncompressed length " + rawLength
+            + " with room for " + (outEnd - dp) + " bytes");
+      }
+      int rawEnd = dp + rawLength;
+      while (dp < rawEnd) {
+        if (inEnd - sp < Bytes.SIZEOF_INT) {
+          throw new IOException("Truncated LZ4 data, " + (outEnd - dp) + " bytes missing");
+        }
+        int compressedLength = Bytes.toInt(in, sp);
+        sp += Bytes.SIZEOF_INT;
+        if (compressedLength <= 0 || compressedLength > inEnd - sp) {
+          throw new IOException("Corrupt LZ4 data, compressed length " + compressedLength
+              + " with " + (inEnd - sp) + " bytes left");
+        }
+        dp += decompressBlock(in, sp, compressedLength, out, dp, rawEnd);
+        sp += compressedLength;
+      }
+    }
+
+    src.position(src.position() + (sp - inOffset));
+    if (dest.hasArray()) {
+      dest.position(dest.position() + outLength);
+    } else {
+      dest.put(out, 0, outLength);
+    }
+  }
+
+  /**
+   * Compresses src into a raw LZ4 block.
+   * @param table hash table of positions, may hold positions before srcOffset
+   * @return the compressed length
+   */
+  static int compressBlock(byte[] src, int srcOffset, int srcLength, byte[] dest,
+      int destOffset, int[] table) {
+    int srcEnd = srcOffset + srcLength;
+    int anchor = srcOffset;
+    int dp = destOffset;
+    if (srcLength > MF_LIMIT) {
+      int mfLimit = srcEnd - MF_LIMIT;
+      int matchLimit = srcEnd - LAST_LITERALS;
+      int sp = srcOffset;
+      int searchCount = 1 << SKIP_TRIGGER;
+      while (sp < mfLimit) {
+        int sequence = readInt(src, sp);
+        int h = hash(sequence);
+        int ref = table[h];
+        table[h] = sp;
+        if (ref < srcOffset || ref >= sp || sp - ref > MAX_DISTANCE
+            || readInt(src, ref) != sequence) {
+          sp += searchCount++ >>> SKIP_TRIGGER;
+          continue;
+        }
+        searchCount = 1 << SKIP_TRIGGER;
+
+        while (sp > anchor && ref > srcOffset && src[sp - 1] == src[ref - 1]) {
+          sp--;
+          ref--;
+        }
+        int matchLength = MIN_MATCH;
+        while (sp + matchLength < matchLimit && src[sp + matchLength] == src[ref + matchLength]) {
+          matchLength++;
+        }
+
+        int literalLength = sp - anchor;
+        int tokenPos = dp++;
+        int token;
+        if (literalLength >= RUN_MASK) {
+          token = RUN_MASK << 4;
+          dp = writeLength(dest, dp, literalLength - RUN_MASK);
+        } else {
+          token = literalLength << 4;
+        }
+        System.arraycopy(src, anchor, dest, dp, literalLength);
+        dp += literalLength;
+        int offset = sp - ref;
+        dest[dp++] = (byte) offset;
+        dest[dp++] = (byte) (offset >>> 8);
+        int extraLength = matchLength - MIN_MATCH;
+        if (extraLength >= RUN_MASK) {
+          token |= RUN_MASK;
+          dp = writeLength(dest, dp, extraLength - RUN_MASK);
+        } else {
+          token |= extraLength;
+        }
+        dest[tokenPos] = (byte) token;
+
+        sp += matchLength;
+        anchor = sp;
+        // Also index a position within the match, it is likely to repeat
+        table[hash(readInt(src, sp - 2))] = sp - 2;
+      }
+    }
+
+    int literalLength = srcEnd - anchor;
+    int tokenPos = dp++;
+    if (literalLength >= RUN_MASK) {
+      dest[tokenPos] = (byte) (RUN_MASK << 4);
+      dp = writeLength(dest, dp, literalLength - RUN_MASK);
+    } else {
+      dest[tokenPos] = (byte) (literalLength << 4);
+    }
+    System.arraycopy(src, anchor, dest, dp, literalLength);
+    dp += literalLength;
+    return dp - destOffset;
+  }
+
+  /**
+   * Decompresses a raw LZ4 block.
+   * @param destEnd end of the room for the decompressed bytes
+   * @return the decompressed length
+   * @throws IOException if the block is corrupt
+   */
+  static int decompressBlock(byte[] src, int srcOffset, int srcLength, byte[] dest,
+      int destOffset, int destEnd) throws IOException {
+    int sp = srcOffset;
+    int srcEnd = srcOffset + srcLength;
+    int dp = destOffset;
+    while (true) {
+      if (sp >= srcEnd) {
+        throw new IOException("Corrupt LZ4 block, no last literals");
+      }
+      int token = src[sp++] & 0xff;
+      int literalLength = token >>> 4;
+      if (literalLength == RUN_MASK) {
+        int b;
+        do {
+          if (sp >= srcEnd) {
+            throw new IOException("Corrupt LZ4 block, truncated literal length");
+          }
+          b = src[sp++] & 0xff;
+          literalLength += b;
+        } while (b == 255);
+      }
+      if (literalLength > srcEnd - sp || literalLength > destEnd - dp) {
+        throw new IOException("Corrupt LZ4 block, " + literalLength + " literals overflow");
+      }
+      System.arraycopy(src, sp, dest, dp, literalLength);
+      sp += literalLength;
+      dp += literalLength;
+      if (sp == srcEnd) {
+        // The last sequence has no match
+        return dp - destOffset;
+      }
+
+      if (srcEnd - sp < 2) {
+        throw new IOException("Corrupt LZ4 block, truncated match offset");
+      }
+      int offset = (src[sp] & 0xff) | ((src[sp + 1] & 0xff) << 8);
+      sp += 2;
+      int ref = dp - offset;
+      if (offset == 0 || ref < destOffset) {
+        throw new IOException("Corrupt LZ4 block, match offset " + offset + " out of range");
+      }
+      int matchLength = token & RUN_MASK;
+      if (matchLength == RUN_MASK) {
+        int b;
+        do {
+          if (sp >= srcEnd) {
+            throw new IOException("Corrupt LZ4 block, truncated match length");
+          }
+          b = src[sp++] & 0xff;
+          matchLength += b;
+        } while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      if (matchLength > destEnd - dp) {
+        throw new IOException("Corrupt LZ4 block, match of " + matchLength + " bytes overflows");
+      }
+      if (offset >= matchLength) {
+        System.arraycopy(dest, ref, dest, dp, matchLength);
+        dp += matchLength;
+      } else {
+        // Overlapping match repeats the last offset bytes
+        for (int end = dp + matchLength; dp < end;) {
+          dest[dp++] = dest[ref++];
+        }
+      }
+    }
+  }
+
+  private static int writeLength(byte[] dest, int dp, int length) {
+    while (length >= 255) {
+      dest[dp++] = (byte) 255;
+      length -= 255;
+    }
+    dest[dp++] = (byte) length;
+    return dp;
+  }
+
+  private static int readInt(byte[] buf, int offset) {
+    return (buf[offset] & 0xff) | ((buf[offset + 1] & 0xff) << 8)
+        | ((buf[offset + 2] & 0xff) << 16) | ((buf[offset + 3] & 0xff) << 24);
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (Integer.SIZE - HASH_LOG);
+  }
+}
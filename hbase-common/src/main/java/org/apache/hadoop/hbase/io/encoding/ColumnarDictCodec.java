@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+
+/**
+ * Store the cells of a block column by column. Rows, columns (family and qualifier), values and
+ * tags are each kept once in a per block dictionary and cells refer to them by id, which suits
+ * wide rows that repeat the same qualifiers and values. Timestamps and sequence ids are stored as
+ * differences to the smallest one in the block. All per cell fields have a fixed width, so the
+ * seeker can decode any cell directly and binary search the block.
+ *
+ * Format:
+ * integer: number of cells
+ * byte: flags, whether mvcc and tags are included
+ * long: minimum timestamp, byte: width of timestamp deltas
+ * long: minimum sequence id, byte: width of sequence id deltas (only if mvcc is included)
+ * dictionary: rows
+ * integer: index of the first cell of row0
+ * integer: index of the first cell of row1
+ * ....
+ * dictionary: columns, each entry is family length byte, family and qualifier
+ * dictionary: values
+ * dictionary: tags (only if tags are included)
+ * column id of every cell
+ * timestamp delta of every cell
+ * type byte of every cell
+ * value id of every cell
+ * tags id of every cell (only if tags are included)
+ * sequence id delta of every cell (only if mvcc is included)
+ *
+ * A dictionary is an integer count, count + 1 integer offsets and the entries one after the
+ * other. Ids take 1 to 4 bytes depending on the size of their dictionary, deltas take as many
+ * bytes as the largest delta of the block needs. Fixed width numbers are little endian.
+ */
+@InterfaceAudience.Private
+public class ColumnarDictCodec extends AbstractDataBlockEncoder {
+
+  static final int INCLUDES_MVCC = 1;
+  static final int INCLUDES_TAGS = 2;
+
+  private static class ColumnarDictEncodingState extends EncodingState {
+    ColumnarDictEncoder encoder = null;
+  }
+
+  /** @return the number of bytes the ids of a dictionary of the given size take */
+  static int idWidth(int dictionarySize) {
+    return dictionarySize <= 1 ? 1 : ByteBufferUtils.longFitsIn(dictionarySize - 1);
+  }
+
+  @Override
+  public void startBlockEncoding(HFileBlockEncodingContext blkEncodingCtx,
+      DataOutputStream out) throws IOException {
+    if (blkEncodingCtx.getClass() != HFileBlockDefaultEncodingContext.class) {
+      throw new IOException(this.getClass().getName() + " only accepts "
+          + HFileBlockDefaultEncodingContext.class.getName() + " as the "
+          + "encoding context.");
+    }
+
+    HFileBlockDefaultEncodingContext encodingCtx = (HFileBlockDefaultEncodingContext) blkEncodingCtx;
+    encodingCtx.prepareEncoding(out);
+
+    ColumnarDictEncodingState state = new ColumnarDictEncodingState();
+    state.encoder = new ColumnarDictEncoder(out, encodingCtx);
+    blkEncodingCtx.setEncodingState(state);
+  }
+
+  @Override
+  public int encode(Cell cell, HFileBlockEncodingContext encodingCtx,
+      DataOutputStream out) throws IOException {
+    ColumnarDictEncodingState state = (ColumnarDictEncodingState) encodingCtx
+        .getEncodingState();
+    return state.encoder.write(cell);
+  }
+
+  @Override
+  public void endBlockEncoding(HFileBlockEncodingContext encodingCtx,
+      DataOutputStream out, byte[] uncompressedBytesWithHeader)
+      throws IOException {
+    ColumnarDictEncodingState state = (ColumnarDictEncodingState) encodingCtx
+        .getEncodingState();
+    state.encoder.flush();
+    postEncoding(encodingCtx);
+  }
+
+  @Override
+  public ByteBuffer decodeKeyValues(DataInputStream source,
+      HFileBlockDecodingContext decodingCtx) throws IOException {
+    ByteBuffer sourceAsBuffer = ByteBufferUtils.drainInputStreamToBuffer(source);
+    ColumnarDictSeeker seeker = new ColumnarDictSeeker(KeyValue.COMPARATOR, decodingCtx);
+    seeker.setCurrentBuffer(sourceAsBuffer);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(sourceAsBuffer.remaining() * 2);
+    DataOutputStream out = new DataOutputStream(baos);
+    if (seeker.getCellCount() > 0) {
+      do {
+        seeker.writeKeyValue(out);
+      } while (seeker.next());
+    }
+    return ByteBuffer.wrap(baos.toByteArray());
+  }
+
+  @Override
+  public ByteBuffer getFirstKeyInBlock(ByteBuffer block) {
+    ColumnarDictSeeker seeker = new ColumnarDictSeeker(KeyValue.COMPARATOR, null);
+    seeker.setCurrentBuffer(block);
+    return seeker.getKeyDeepCopy();
+  }
+
+  @Override
+  public EncodedSeeker createSeeker(KVComparator comparator,
+      HFileBlockDecodingContext decodingCtx) {
+    return new ColumnarDictSeeker(comparator, decodingCtx);
+  }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable
+ * law or agreed to in writing, software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License
+ * for the specific language governing permissions and limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.ByteRange;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.SimpleByteRange;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Collects the cells of one block column by column and writes them out in the format described
+ * in {@link ColumnarDictCodec} when the block is finished.
+ */
+@InterfaceAudience.Private
+public class ColumnarDictEncoder {
+  private static final Log LOG = LogFactory.getLog(ColumnarDictEncoder.class);
+
+  private final DataOutputStream out;
+  private final boolean includesMvcc;
+  private final boolean includesTags;
+
+  private final Dictionary rows = new Dictionary(false);
+  private final Dictionary columns = new Dictionary(true);
+  private final Dictionary values = new Dictionary(true);
+  private final Dictionary tags = new Dictionary(true);
+
+  private int cellCount = 0;
+  private int[] rowFirstCells = new int[16];
+  private int[] columnIds = new int[64];
+  private int[] valueIds = new int[64];
+  private int[] tagsIds;
+  private long[] timestamps = new long[64];
+  private long[] mvccs;
+  private byte[] types = new byte[64];
+
+  /** Family length, family and qualifier of the current cell, the key of the columns */
+  private byte[] columnBuffer = new byte[64];
+  private ByteRange lastRow = null;
+
+  public ColumnarDictEncoder(DataOutputStream out,
+      HFileBlockDefaultEncodingContext encodingCtx) {
+    this.out = out;
+    this.includesMvcc = encodingCtx.getHFileContext().isIncludesMvcc();
+    this.includesTags = encodingCtx.getHFileContext().isIncludesTags();
+    if (includesMvcc) {
+      mvccs = new long[64];
+    }
+    if (includesTags) {
+      tagsIds = new int[64];
+    }
+  }
+
+  public int write(Cell cell) throws IOException {
+    if (cellCount == columnIds.length) {
+      grow();
+    }
+    if (!checkRow(cell)) {
+      int rowCount = rows.size();
+      if (rowCount == rowFirstCells.length) {
+        rowFirstCells = Arrays.copyOf(rowFirstCells, rowCount * 2);
+      }
+      rowFirstCells[rowCount] = cellCount;
+      lastRow = rows.add(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+    }
+
+    int familyLength = cell.getFamilyLength();
+    int columnLength = Bytes.SIZEOF_BYTE + familyLength + cell.getQualifierLength();
+    if (columnLength > columnBuffer.length) {
+      columnBuffer = new byte[Math.max(columnLength, columnBuffer.length * 2)];
+    }
+    columnBuffer[0] = (byte) familyLength;
+    System.arraycopy(cell.getFamilyArray(), cell.getFamilyOffset(), columnBuffer,
+        Bytes.SIZEOF_BYTE, familyLength);
+    System.arraycopy(cell.getQualifierArray(), cell.getQualifierOffset(), columnBuffer,
+        Bytes.SIZEOF_BYTE + familyLength, cell.getQualifierLength());
+    columnIds[cellCount] = columns.findOrAdd(columnBuffer, 0, columnLength);
+
+    timestamps[cellCount] = cell.getTimestamp();
+    types[cellCount] = cell.getTypeByte();
+    int vlength = cell.getValueLength();
+    valueIds[cellCount] = values.findOrAdd(cell.getValueArray(), cell.getValueOffset(), vlength);
+
+    int size = KeyValueUtil.keyLength(cell) + vlength + KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE;
+    if (includesTags) {
+      int tagsLength = cell.getTagsLength();
+      tagsIds[cellCount] = tags.findOrAdd(cell.getTagsArray(), cell.getTagsOffset(), tagsLength);
+      size += tagsLength + KeyValue.TAGS_LENGTH_SIZE;
+    }
+    if (includesMvcc) {
+      mvccs[cellCount] = cell.getSequenceId();
+      size += WritableUtils.getVIntSize(cell.getSequenceId());
+    }
+    cellCount++;
+    return size;
+  }
+
+  protected boolean checkRow(final Cell cell) throws IOException {
+    boolean isDuplicateRow = false;
+    if (cell == null) {
+      throw new IOException("Key cannot be null or empty");
+    }
+    if (lastRow != null) {
+      int keyComp = KeyValue.COMPARATOR.compareRows(lastRow.getBytes(), lastRow.getOffset(),
+          lastRow.getLength(), cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+      if (keyComp > 0) {
+        throw new IOException("Added a key not lexically larger than"
+            + " previous. Current cell = " + cell + ", lastRow = " + lastRow);
+      } else if (keyComp == 0) {
+        isDuplicateRow = true;
+      }
+    }
+    return isDuplicateRow;
+  }
+
+  private void grow() {
+    int capacity = cellCount * 2;
+    columnIds = Arrays.copyOf(columnIds, capacity);
+    valueIds = Arrays.copyOf(valueIds, capacity);
+    timestamps = Arrays.copyOf(timestamps, capacity);
+    types = Arrays.copyOf(types, capacity);
+    if (includesTags) {
+      tagsIds = Arrays.copyOf(tagsIds, capacity);
+    }
+    if (includesMvcc) {
+      mvccs = Arrays.copyOf(mvccs, capacity);
+    }
+  }
+
+  public void flush() throws IOException {
+    int startOffset = out.size();
+    long minTimestamp = min(timestamps);
+    int timestampWidth = deltaWidth(timestamps, minTimestamp);
+    long minMvcc = includesMvcc ? min(mvccs) : 0;
+    int mvccWidth = includesMvcc ? deltaWidth(mvccs, minMvcc) : 0;
+
+    out.writeInt(cellCount);
+    out.writeByte((includesMvcc ? ColumnarDictCodec.INCLUDES_MVCC : 0)
+        | (includesTags ? ColumnarDictCodec.INCLUDES_TAGS : 0));
+    out.writeLong(minTimestamp);
+    out.writeByte(timestampWidth);
+    if (includesMvcc) {
+      out.writeLong(minMvcc);
+      out.writeByte(mvccWidth);
+    }
+    rows.write(out);
+    for (int i = 0; i < rows.size(); i++) {
+      out.writeInt(rowFirstCells[i]);
+    }
+    columns.write(out);
+    values.write(out);
+    if (includesTags) {
+      tags.write(out);
+    }
+
+    writeIds(columnIds, columns.size());
+    writeDeltas(timestamps, minTimestamp, timestampWidth);
+    out.write(types, 0, cellCount);
+    writeIds(valueIds, values.size());
+    if (includesTags) {
+      writeIds(tagsIds, tags.size());
+    }
+    if (includesMvcc) {
+      writeDeltas(mvccs, minMvcc, mvccWidth);
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Cells: " + cellCount + ", rows: " + rows.size() + ", columns: "
+          + columns.size() + ", values: " + values.size() + ", totalOnDiskSize: "
+          + (out.size() - startOffset));
+    }
+  }
+
+  private long min(long[] longs) {
+    if (cellCount == 0) {
+      return 0;
+    }
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < cellCount; i++) {
+      min = Math.min(min, longs[i]);
+    }
+    return min;
+  }
+
+  /** @return the number of bytes needed to store the difference of any of the longs to min */
+  private int deltaWidth(long[] longs, long min) {
+    long max = min;
+    for (int i = 0; i < cellCount; i++) {
+      max = Math.max(max, longs[i]);
+    }
+    return ByteBufferUtils.longFitsIn(max - min);
+  }
+
+  private void writeDeltas(long[] longs, long min, int width) throws IOException {
+    for (int i = 0; i < cellCount; i++) {
+      ByteBufferUtils.putLong(out, longs[i] - min, width);
+    }
+  }
+
+  private void writeIds(int[] ids, int dictionarySize) throws IOException {
+    int width = ColumnarDictCodec.idWidth(dictionarySize);
+    for (int i = 0; i < cellCount; i++) {
+      ByteBufferUtils.putLong(out, ids[i], width);
+    }
+  }
+
+  /**
+   * The distinct byte strings of one column of the block, numbered in the order they were
+   * first added.
+   */
+  private static class Dictionary {
+    private final Map<ByteRange, Integer> ids;
+    private final List<ByteRange> entries = new ArrayList<ByteRange>();
+    private int totalLength = 0;
+
+    Dictionary(boolean lookup) {
+      this.ids = lookup ? new HashMap<ByteRange, Integer>() : null;
+    }
+
+    int size() {
+      return entries.size();
+    }
+
+    /** Adds a copy of the given bytes as a new entry */
+    ByteRange add(byte[] bytes, int offset, int length) {
+      ByteRange entry = new SimpleByteRange(Bytes.copy(bytes, offset, length));
+      entries.add(entry);
+      totalLength += length;
+      return entry;
+    }
+
+    /** @return the id of the entry with the given bytes, added if it is not there yet */
+    int findOrAdd(byte[] bytes, int offset, int length) {
+      Integer id = ids.get(new SimpleByteRange(bytes, offset, length));
+      if (id == null) {
+        id = entries.size();
+        ids.put(add(bytes, offset, length), id);
+      }
+      return id;
+    }
+
+    /** Writes the entry count, the entry offsets, and the entries one after the other */
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(entries.size());
+      int offset = 0;
+      for (ByteRange entry : entries) {
+        out.writeInt(offset);
+        offset += entry.getLength();
+      }
+      out.writeInt(totalLength);
+      for (ByteRange entry : entries) {
+        out.write(entry.getBytes(), entry.getOffset(), entry.getLength());
+      }
+    }
+  }
+}
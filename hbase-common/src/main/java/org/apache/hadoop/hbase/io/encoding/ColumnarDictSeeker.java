@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.encoding.AbstractDataBlockEncoder.AbstractEncodedSeeker;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Seeker for blocks written by {@link ColumnarDictEncoder}. Any cell of the block can be decoded
+ * from its index, so seeks are binary searches over the cells of the block.
+ */
+@InterfaceAudience.Private
+public class ColumnarDictSeeker extends AbstractEncodedSeeker {
+
+  private ByteBuffer currentBuffer;
+  private int cellCount;
+  private boolean hasMvcc;
+  private boolean hasTags;
+  private long minTimestamp;
+  private int timestampWidth;
+  private long minMvcc;
+  private int mvccWidth;
+
+  // Start offsets of the sections of the block
+  private int rows;
+  private int rowFirstCells;
+  private int columns;
+  private int values;
+  private int tags;
+  private int columnIds;
+  private int timestamps;
+  private int types;
+  private int valueIds;
+  private int tagsIds;
+  private int mvccs;
+  private int rowCount;
+  private int columnIdWidth;
+  private int valueIdWidth;
+  private int tagsIdWidth;
+
+  // The current cell
+  private int index = -1;
+  private int rowIndex = -1;
+  /** The row whose key is at the start of keyBuffer */
+  private int keyRowIndex = -1;
+  private byte[] keyBuffer = new byte[128];
+  private int keyLength;
+  private int valueOffset;
+  private int valueLength;
+  private int tagsOffset;
+  private int tagsLength;
+  private long memstoreTS;
+  private KeyValue.KeyOnlyKeyValue currentKey = new KeyValue.KeyOnlyKeyValue();
+
+  public ColumnarDictSeeker(KVComparator comparator,
+      HFileBlockDecodingContext decodingCtx) {
+    super(comparator, decodingCtx);
+  }
+
+  @Override
+  public void setCurrentBuffer(ByteBuffer buffer) {
+    currentBuffer = buffer.slice();
+    int pos = 0;
+    cellCount = currentBuffer.getInt(pos);
+    pos += Bytes.SIZEOF_INT;
+    int flags = currentBuffer.get(pos++);
+    hasMvcc = (flags & ColumnarDictCodec.INCLUDES_MVCC) != 0;
+    hasTags = (flags & ColumnarDictCodec.INCLUDES_TAGS) != 0;
+    minTimestamp = currentBuffer.getLong(pos);
+    pos += Bytes.SIZEOF_LONG;
+    timestampWidth = currentBuffer.get(pos++);
+    if (hasMvcc) {
+      minMvcc = currentBuffer.getLong(pos);
+      pos += Bytes.SIZEOF_LONG;
+      mvccWidth = currentBuffer.get(pos++);
+    }
+
+    rows = pos;
+    rowCount = currentBuffer.getInt(rows);
+    rowFirstCells = dictionaryEnd(rows);
+    columns = rowFirstCells + rowCount * Bytes.SIZEOF_INT;
+    values = dictionaryEnd(columns);
+    tags = dictionaryEnd(values);
+    pos = hasTags ? dictionaryEnd(tags) : tags;
+
+    columnIdWidth = ColumnarDictCodec.idWidth(currentBuffer.getInt(columns));
+    valueIdWidth = ColumnarDictCodec.idWidth(currentBuffer.getInt(values));
+    tagsIdWidth = hasTags ? ColumnarDictCodec.idWidth(currentBuffer.getInt(tags)) : 0;
+    columnIds = pos;
+    timestamps = columnIds + cellCount * columnIdWidth;
+    types = timestamps + cellCount * timestampWidth;
+    valueIds = types + cellCount;
+    tagsIds = valueIds + cellCount * valueIdWidth;
+    mvccs = tagsIds + cellCount * tagsIdWidth;
+
+    index = -1;
+    rowIndex = -1;
+    keyRowIndex = -1;
+    if (cellCount > 0) {
+      decode(0);
+    }
+  }
+
+  int getCellCount() {
+    return cellCount;
+  }
+
+  private int dictionaryEnd(int dictionary) {
+    int count = currentBuffer.getInt(dictionary);
+    int entries = dictionary + (count + 2) * Bytes.SIZEOF_INT;
+    return entries + currentBuffer.getInt(entries - Bytes.SIZEOF_INT);
+  }
+
+  private int entryOffset(int dictionary, int id) {
+    int count = currentBuffer.getInt(dictionary);
+    return dictionary + (count + 2) * Bytes.SIZEOF_INT
+        + currentBuffer.getInt(dictionary + (id + 1) * Bytes.SIZEOF_INT);
+  }
+
+  private int entryLength(int dictionary, int id) {
+    int offsets = dictionary + Bytes.SIZEOF_INT;
+    return currentBuffer.getInt(offsets + (id + 1) * Bytes.SIZEOF_INT)
+        - currentBuffer.getInt(offsets + id * Bytes.SIZEOF_INT);
+  }
+
+  /** Reads a little endian number of the given width */
+  private long readFixed(int pos, int width) {
+    long value = 0;
+    for (int i = 0; i < width; ++i) {
+      value |= (currentBuffer.get(pos + i) & 0xffL) << (8 * i);
+    }
+    return value;
+  }
+
+  private int rowFirstCell(int row) {
+    return currentBuffer.getInt(rowFirstCells + row * Bytes.SIZEOF_INT);
+  }
+
+  /** @return the row of the cell with the given index */
+  private int findRow(int cell) {
+    int low = 0;
+    int high = rowCount - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (rowFirstCell(mid) <= cell) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /** Makes the cell with the given index the current one */
+  private void decode(int cell) {
+    if (cell == index + 1 && rowIndex >= 0) {
+      if (rowIndex + 1 < rowCount && rowFirstCell(rowIndex + 1) == cell) {
+        rowIndex++;
+      }
+    } else {
+      rowIndex = findRow(cell);
+    }
+    index = cell;
+
+    int rowLength = entryLength(rows, rowIndex);
+    int columnId = (int) readFixed(columnIds + cell * columnIdWidth, columnIdWidth);
+    int columnLength = entryLength(columns, columnId);
+    keyLength = Bytes.SIZEOF_SHORT + rowLength + columnLength + KeyValue.TIMESTAMP_TYPE_SIZE;
+    if (keyLength > keyBuffer.length) {
+      keyBuffer = Arrays.copyOf(keyBuffer, Math.max(keyLength, keyBuffer.length * 2));
+    }
+    int pos = 0;
+    if (keyRowIndex != rowIndex) {
+      Bytes.putShort(keyBuffer, pos, (short) rowLength);
+      ByteBufferUtils.copyFromBufferToArray(keyBuffer, currentBuffer,
+          entryOffset(rows, rowIndex), Bytes.SIZEOF_SHORT, rowLength);
+      keyRowIndex = rowIndex;
+    }
+    pos += Bytes.SIZEOF_SHORT + rowLength;
+    ByteBufferUtils.copyFromBufferToArray(keyBuffer, currentBuffer,
+        entryOffset(columns, columnId), pos, columnLength);
+    pos += columnLength;
+    pos = Bytes.putLong(keyBuffer, pos,
+        minTimestamp + readFixed(timestamps + cell * timestampWidth, timestampWidth));
+    keyBuffer[pos] = currentBuffer.get(types + cell);
+    currentKey.setKey(keyBuffer, 0, keyLength);
+
+    int valueId = (int) readFixed(valueIds + cell * valueIdWidth, valueIdWidth);
+    valueOffset = entryOffset(values, valueId);
+    valueLength = entryLength(values, valueId);
+    if (hasTags) {
+      int tagsId = (int) readFixed(tagsIds + cell * tagsIdWidth, tagsIdWidth);
+      tagsOffset = entryOffset(tags, tagsId);
+      tagsLength = entryLength(tags, tagsId);
+    } else {
+      tagsLength = 0;
+    }
+    memstoreTS = hasMvcc ? minMvcc + readFixed(mvccs + cell * mvccWidth, mvccWidth) : 0;
+  }
+
+  @Override
+  public ByteBuffer getKeyDeepCopy() {
+    return ByteBuffer.wrap(Bytes.copy(keyBuffer, 0, keyLength));
+  }
+
+  @Override
+  public ByteBuffer getValueShallowCopy() {
+    ByteBuffer dup = currentBuffer.duplicate();
+    dup.position(valueOffset);
+    dup.limit(valueOffset + valueLength);
+    return dup.slice();
+  }
+
+  @Override
+  public Cell getKeyValue() {
+    byte[] bytes = new byte[(int) KeyValue.getKeyValueDataStructureSize(keyLength, valueLength,
+        tagsLength)];
+    int pos = Bytes.putInt(bytes, 0, keyLength);
+    pos = Bytes.putInt(bytes, pos, valueLength);
+    pos = Bytes.putBytes(bytes, pos, keyBuffer, 0, keyLength);
+    ByteBufferUtils.copyFromBufferToArray(bytes, currentBuffer, valueOffset, pos, valueLength);
+    pos += valueLength;
+    if (tagsLength > 0) {
+      pos = Bytes.putAsShort(bytes, pos, tagsLength);
+      ByteBufferUtils.copyFromBufferToArray(bytes, currentBuffer, tagsOffset, pos, tagsLength);
+    }
+    KeyValue kv = new KeyValue(bytes, 0, bytes.length);
+    if (hasMvcc) {
+      kv.setSequenceId(memstoreTS);
+    }
+    return kv;
+  }
+
+  /**
+   * Writes the current cell in the unencoded format of a data block.
+   */
+  void writeKeyValue(DataOutputStream out) throws IOException {
+    out.writeInt(keyLength);
+    out.writeInt(valueLength);
+    out.write(keyBuffer, 0, keyLength);
+    ByteBufferUtils.copyBufferToStream(out, currentBuffer, valueOffset, valueLength);
+    if (hasTags) {
+      out.writeShort(tagsLength);
+      ByteBufferUtils.copyBufferToStream(out, currentBuffer, tagsOffset, tagsLength);
+    }
+    if (hasMvcc) {
+      WritableUtils.writeVLong(out, memstoreTS);
+    }
+  }
+
+  @Override
+  public void rewind() {
+    if (cellCount > 0) {
+      decode(0);
+    }
+  }
+
+  @Override
+  public boolean next() {
+    if (index + 1 >= cellCount) {
+      return false;
+    }
+    decode(index + 1);
+    return true;
+  }
+
+  @Override
+  public int seekToKeyInBlock(byte[] key, int offset, int length,
+      boolean seekBefore) {
+    return seekToKeyInBlock(new KeyValue.KeyOnlyKeyValue(key, offset, length),
+        seekBefore);
+  }
+
+  @Override
+  public int seekToKeyInBlock(Cell seekCell, boolean seekBefore) {
+    // Find the last cell before the seek key, or at it if not seekBefore
+    int low = 0;
+    int high = cellCount - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      decode(mid);
+      int comp = comparator.compareOnlyKeyPortion(seekCell, currentKey);
+      if (comp > 0 || (comp == 0 && !seekBefore)) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (found < 0) {
+      decode(0);
+      if (seekBefore && comparator.compareOnlyKeyPortion(seekCell, currentKey) == 0) {
+        // The caller (seekBefore) has to ensure that we are not at the
+        // first key in the block.
+        throw new IllegalStateException("Cannot seekBefore if "
+            + "positioned at the first key in the block: key="
+            + Bytes.toStringBinary(seekCell.getRowArray()));
+      }
+      return HConstants.INDEX_KEY_MAGIC; // using optimized index key
+    }
+    decode(found);
+    if (!seekBefore && comparator.compareOnlyKeyPortion(seekCell, currentKey) == 0) {
+      return 0;
+    }
+    return 1;
+  }
+
+  @Override
+  public int compareKey(KVComparator comparator, byte[] key, int offset,
+      int length) {
+    return comparator.compareFlatKey(key, offset, length, keyBuffer, 0, keyLength);
+  }
+
+  @Override
+  public int compareKey(KVComparator comparator, Cell key) {
+    return comparator.compareOnlyKeyPortion(key, currentKey);
+  }
+}
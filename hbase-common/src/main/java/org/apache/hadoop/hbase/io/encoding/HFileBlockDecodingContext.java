@@ -36,7 +36,8 @@ public interface HFileBlockDecodingContext {
    * Decompression needs to be done if {@link HFileContext#getCompression()} returns a valid compression
    * algorithm.
    *
-   * @param onDiskSizeWithoutHeader numBytes after block and encoding headers
+   * @param onDiskSizeWithoutHeader numBytes after block and encoding headers, without the
+   *          checksums
    * @param uncompressedSizeWithoutHeader numBytes without header required to store the block after
    *          decompressing (not decoding)
    * @param blockBufferWithoutHeader ByteBuffer pointed after the header but before the data
@@ -25,6 +25,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.io.ByteBufferInputStream;
 import org.apache.hadoop.hbase.io.TagCompressionContext;
+import org.apache.hadoop.hbase.io.compress.BlockCodec;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.crypto.Cipher;
 import org.apache.hadoop.hbase.io.crypto.Decryptor;
@@ -87,9 +88,27 @@ public class HFileBlockDefaultDecodingContext implements
     Compression.Algorithm compression = fileContext.getCompression();
     assert blockBufferWithoutHeader.hasArray();
     if (compression != Compression.Algorithm.NONE) {
-      Compression.decompress(blockBufferWithoutHeader.array(),
-        blockBufferWithoutHeader.arrayOffset(), in, onDiskSizeWithoutHeader,
-        uncompressedSizeWithoutHeader, compression);
+      BlockCodec codec = compression.getBlockCodec();
+      if (codec != null) {
+        ByteBuffer compressed;
+        if (cryptoContext != Encryption.Context.NONE) {
+          byte[] decrypted = new byte[onDiskSizeWithoutHeader];
+          IOUtils.readFully(in, decrypted);
+          compressed = ByteBuffer.wrap(decrypted);
+        } else {
+          // Decompress straight from the on-disk block, without the checksums that follow it
+          compressed = onDiskBlock.duplicate();
+          compressed.limit(compressed.position() + onDiskSizeWithoutHeader);
+        }
+        ByteBuffer dest = blockBufferWithoutHeader.duplicate();
+        dest.position(0);
+        dest.limit(uncompressedSizeWithoutHeader);
+        codec.decompress(compressed, dest);
+      } else {
+        Compression.decompress(blockBufferWithoutHeader.array(),
+          blockBufferWithoutHeader.arrayOffset(), in, onDiskSizeWithoutHeader,
+          uncompressedSizeWithoutHeader, compression);
+      }
     } else {
       IOUtils.readFully(in, blockBufferWithoutHeader.array(),
         blockBufferWithoutHeader.arrayOffset(), onDiskSizeWithoutHeader);
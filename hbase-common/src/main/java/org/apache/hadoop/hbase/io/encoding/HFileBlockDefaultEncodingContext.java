@@ -22,11 +22,13 @@ import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.io.ByteArrayOutputStream;
 import org.apache.hadoop.hbase.io.TagCompressionContext;
+import org.apache.hadoop.hbase.io.compress.BlockCodec;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.crypto.Cipher;
 import org.apache.hadoop.hbase.io.crypto.Encryption;
@@ -54,6 +56,8 @@ public class HFileBlockDefaultEncodingContext implements
 
   private byte[] dummyHeader;
 
+  private static final byte[] NO_HEADER = new byte[0];
+
   // Compression state
 
   /** Compressor, which is also reused between consecutive blocks. */
@@ -62,6 +66,10 @@ public class HFileBlockDefaultEncodingContext implements
   private CompressionOutputStream compressionStream;
   /** Underlying stream to write compressed bytes to */
   private ByteArrayOutputStream compressedByteStream;
+  /** Codec that compresses without streams, if the compression algorithm has one */
+  private BlockCodec blockCodec;
+  /** Buffer the block codec compresses into, reused between blocks */
+  private byte[] compressedBuffer;
 
   private HFileContext fileContext;
   private TagCompressionContext tagCompressionContext;
@@ -87,6 +95,9 @@ public class HFileBlockDefaultEncodingContext implements
     Compression.Algorithm compressionAlgorithm =
         fileContext.getCompression() == null ? NONE : fileContext.getCompression();
     if (compressionAlgorithm != NONE) {
+      blockCodec = compressionAlgorithm.getBlockCodec();
+    }
+    if (compressionAlgorithm != NONE && blockCodec == null) {
       compressor = compressionAlgorithm.getCompressor();
       compressedByteStream = new ByteArrayOutputStream();
       try {
@@ -154,7 +165,12 @@ public class HFileBlockDefaultEncodingContext implements
       InputStream in;
       int plaintextLength;
       // Run any compression before encryption
-      if (fileContext.getCompression() != Compression.Algorithm.NONE) {
+      if (blockCodec != null) {
+        plaintextLength = compressWithBlockCodec(uncompressedBytesWithHeaderBuffer,
+          headerBytes.length + uncompressedBytesWithHeaderOffset,
+          uncompressedBytesWithHeaderLength - headerBytes.length, NO_HEADER);
+        in = new ByteArrayInputStream(compressedBuffer, 0, plaintextLength);
+      } else if (fileContext.getCompression() != Compression.Algorithm.NONE) {
         compressedByteStream.reset();
         compressionStream.resetState();
         compressionStream.write(uncompressedBytesWithHeaderBuffer,
@@ -200,7 +216,12 @@ public class HFileBlockDefaultEncodingContext implements
 
     } else {
 
-      if (this.fileContext.getCompression() != NONE) {
+      if (blockCodec != null) {
+        int length = compressWithBlockCodec(uncompressedBytesWithHeaderBuffer,
+          headerBytes.length + uncompressedBytesWithHeaderOffset,
+          uncompressedBytesWithHeaderLength - headerBytes.length, headerBytes);
+        return new Bytes(compressedBuffer, 0, length);
+      } else if (this.fileContext.getCompression() != NONE) {
         compressedByteStream.reset();
         compressedByteStream.write(headerBytes);
         compressionStream.resetState();
@@ -216,6 +237,21 @@ public class HFileBlockDefaultEncodingContext implements
     }
   }
 
+  /**
+   * Compresses the data with the block codec into {@link #compressedBuffer}, after the header.
+   * @return the length of the header and the compressed data
+   */
+  private int compressWithBlockCodec(byte[] data, int offset, int length, byte[] header)
+      throws IOException {
+    int capacity = header.length + blockCodec.maxCompressedLength(length);
+    if (compressedBuffer == null || compressedBuffer.length < capacity) {
+      compressedBuffer = new byte[capacity];
+    }
+    System.arraycopy(header, 0, compressedBuffer, 0, header.length);
+    return header.length + blockCodec.compress(ByteBuffer.wrap(data, offset, length),
+      ByteBuffer.wrap(compressedBuffer, header.length, capacity - header.length));
+  }
+
   @Override
   public BlockType getBlockType() {
     return blockType;
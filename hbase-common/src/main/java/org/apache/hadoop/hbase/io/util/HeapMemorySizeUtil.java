@@ -36,6 +36,10 @@ public class HeapMemorySizeUtil {
       "hbase.regionserver.global.memstore.size.lower.limit";
   public static final String MEMSTORE_SIZE_LOWER_LIMIT_OLD_KEY =
       "hbase.regionserver.global.memstore.lowerLimit";
+  // Max global off heap memory that can be used for all memstores
+  // This should be an absolute value in MBs and not percent.
+  public static final String OFFHEAP_MEMSTORE_SIZE_KEY =
+      "hbase.regionserver.offheap.global.memstore.size";
 
   public static final float DEFAULT_MEMSTORE_SIZE = 0.4f;
   // Default lower water mark limit is 95% size of memstore size.
@@ -110,6 +114,18 @@ public class HeapMemorySizeUtil {
     return limit;
   }
 
+  /**
+   * Retrieve configured size for the global off heap memstore. If it is set, memstore cells keep
+   * their keys on heap and their values and tags in off heap MemStoreLAB chunks.
+   * @param conf
+   * @return the size in bytes, or 0 if the memstore is on heap
+   */
+  public static long getOffheapMemstoreSize(final Configuration conf) {
+    // Size in MBs
+    long offheapMSGlobal = conf.getLong(OFFHEAP_MEMSTORE_SIZE_KEY, 0);
+    return offheapMSGlobal <= 0 ? 0 : offheapMSGlobal * 1024 * 1024;
+  }
+
   /**
    * Retrieve configured size for global memstore lower water mark as fraction of global memstore
    * size.
@@ -18,6 +18,7 @@
  */
 package org.apache.hadoop.hbase.util;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -50,7 +51,32 @@ public final class ByteBufferArray {
    * @param directByteBuffer true if we allocate direct buffer
    */
   public ByteBufferArray(long capacity, boolean directByteBuffer) {
-    this.bufferSize = DEFAULT_BUFFER_SIZE;
+    init(capacity, DEFAULT_BUFFER_SIZE, directByteBuffer);
+    for (int i = 0; i < bufferCount; i++) {
+      buffers[i] = directByteBuffer ? ByteBuffer.allocateDirect(bufferSize)
+          : ByteBuffer.allocate(bufferSize);
+    }
+  }
+
+  /**
+   * Like {@link #ByteBufferArray(long, boolean)}, but the buffers are created by
+   * the given allocator, e.g. as memory mapped regions of a file
+   * @param capacity total size of the byte buffer array
+   * @param maxBufferSize the size of each buffer, for a large enough capacity
+   * @param directByteBuffer true if we allocate direct buffer
+   * @param allocator creates each of the buffers
+   * @throws IOException if the allocator fails
+   */
+  public ByteBufferArray(long capacity, int maxBufferSize, boolean directByteBuffer,
+      ByteBufferAllocator allocator) throws IOException {
+    init(capacity, maxBufferSize, directByteBuffer);
+    for (int i = 0; i < bufferCount; i++) {
+      buffers[i] = allocator.allocate(bufferSize, directByteBuffer);
+    }
+  }
+
+  private void init(long capacity, int maxBufferSize, boolean directByteBuffer) {
+    this.bufferSize = maxBufferSize;
     if (this.bufferSize > (capacity / 16))
       this.bufferSize = (int) roundUp(capacity / 16, 32768);
     this.bufferCount = (int) (roundUp(capacity, bufferSize) / bufferSize);
@@ -61,14 +87,8 @@ public final class ByteBufferArray {
     locks = new Lock[bufferCount + 1];
     for (int i = 0; i <= bufferCount; i++) {
       locks[i] = new ReentrantLock();
-      if (i < bufferCount) {
-        buffers[i] = directByteBuffer ? ByteBuffer.allocateDirect(bufferSize)
-            : ByteBuffer.allocate(bufferSize);
-      } else {
-        buffers[i] = ByteBuffer.allocate(0);
-      }
-
     }
+    buffers[bufferCount] = ByteBuffer.allocate(0);
   }
 
   private long roundUp(long n, long to) {
@@ -136,6 +156,40 @@ public final class ByteBufferArray {
     }
   };
 
+  /**
+   * Creates a ByteBuffer which shares the memory of this buffer array from the
+   * given offset on, without copying. This is only possible if the whole range
+   * lies within one of the underlying buffers.
+   * @param start start offset of this buffer array
+   * @param len the length of the range to share
+   * @return a buffer with position 0 and limit len, or null if the range spans
+   *         more than one underlying buffer
+   */
+  public ByteBuffer asSubByteBuffer(long start, int len) {
+    assert len >= 0;
+    int bufferIndex = (int) (start / bufferSize), bufferOffset = (int) (start % bufferSize);
+    if (bufferIndex < 0 || bufferIndex >= bufferCount) {
+      String msg = "Failed asSubByteBuffer, start=" + start + ",bufferIndex="
+          + bufferIndex + ",bufferSize=" + bufferSize;
+      LOG.error(msg);
+      throw new RuntimeException(msg);
+    }
+    if (len > bufferSize - bufferOffset) {
+      return null;
+    }
+    ByteBuffer dup;
+    Lock lock = locks[bufferIndex];
+    lock.lock();
+    try {
+      // Readers and writers move position and limit of the buffer under the lock
+      dup = buffers[bufferIndex].duplicate();
+    } finally {
+      lock.unlock();
+    }
+    dup.limit(bufferOffset + len).position(bufferOffset);
+    return dup.slice();
+  }
+
   private interface Visitor {
     /**
      * Visit the given byte buffer, if it is a read action, we will transfer the
@@ -18,6 +18,9 @@
 package org.apache.hadoop.hbase.io;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentLinkedDeque;
@@ -86,6 +89,44 @@ public class TestBoundedByteBufferPool {
     assertEquals(maxToCache, this.reservoir.buffers.size());
   }
 
+  @Test
+  public void testGetWithMinCapacity() {
+    // Nothing pooled yet so we allocate, at least the running average.
+    ByteBuffer bb = this.reservoir.getBuffer(4);
+    assertEquals(4, bb.capacity());
+    bb = this.reservoir.getBuffer(0);
+    assertEquals(initialByteBufferSize, bb.capacity());
+    // A pooled buffer that is big enough is handed out again.
+    ByteBuffer pooled = ByteBuffer.allocate(8);
+    this.reservoir.putBuffer(pooled);
+    assertSame(pooled, this.reservoir.getBuffer(6));
+    assertEquals(0, this.reservoir.buffers.size());
+    // One that is too small stays in the pool and a fitting buffer is made.
+    ByteBuffer small = ByteBuffer.allocate(2);
+    this.reservoir.putBuffer(small);
+    bb = this.reservoir.getBuffer(6);
+    assertNotSame(small, bb);
+    assertTrue(bb.capacity() >= 6);
+    assertEquals(1, this.reservoir.buffers.size());
+    assertSame(small, this.reservoir.getBuffer(1));
+  }
+
+  @Test
+  public void testGetWithMinCapacityPassesOverSmallBuffers() {
+    ByteBuffer small = ByteBuffer.allocate(2);
+    ByteBuffer big = ByteBuffer.allocate(8);
+    this.reservoir.putBuffer(small);
+    this.reservoir.putBuffer(ByteBuffer.allocate(3));
+    this.reservoir.putBuffer(big);
+    // The big enough buffer behind the small ones is handed out rather than a new one.
+    assertSame(big, this.reservoir.getBuffer(6));
+    assertEquals(2, this.reservoir.buffers.size());
+    // The small ones are all still pooled.
+    assertSame(small, this.reservoir.getBuffer(2));
+    assertEquals(3, this.reservoir.getBuffer(3).capacity());
+    assertEquals(0, this.reservoir.buffers.size());
+  }
+
   @Test
   public void testBufferSizeGrowWithMultiThread() throws Exception {
     final ConcurrentLinkedDeque<ByteBuffer> bufferQueue = new ConcurrentLinkedDeque<ByteBuffer>();
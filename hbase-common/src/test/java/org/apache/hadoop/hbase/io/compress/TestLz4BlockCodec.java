@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.NativeCodeLoader;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestLz4BlockCodec {
+
+  private final Lz4BlockCodec codec = new Lz4BlockCodec();
+
+  /** Data that looks like a block of cells: repeating keys and some random values */
+  private static byte[] createBlockData(Random rand, int length) {
+    byte[] data = new byte[length];
+    int i = 0;
+    for (int row = 0; i < length; row++) {
+      byte[] key = Bytes.toBytes(String.format("row%08d/family:qualifier/", row / 4));
+      byte[] value = new byte[rand.nextInt(20)];
+      rand.nextBytes(value);
+      for (byte[] part : new byte[][] { key, value }) {
+        int n = Math.min(part.length, length - i);
+        System.arraycopy(part, 0, data, i, n);
+        i += n;
+      }
+    }
+    return data;
+  }
+
+  private byte[] compress(byte[] data) throws IOException {
+    ByteBuffer dest = ByteBuffer.allocate(codec.maxCompressedLength(data.length));
+    int length = codec.compress(ByteBuffer.wrap(data), dest);
+    assertEquals(length, dest.position());
+    return Bytes.copy(dest.array(), 0, length);
+  }
+
+  private byte[] decompress(byte[] compressed, int length) throws IOException {
+    ByteBuffer dest = ByteBuffer.allocate(length);
+    codec.decompress(ByteBuffer.wrap(compressed), dest);
+    assertEquals(length, dest.position());
+    return dest.array();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Random rand = new Random(1);
+    for (int length : new int[] { 0, 1, 12, 13, 100, 4096, 65536, 200000,
+        Lz4BlockCodec.MAX_INPUT_SIZE, Lz4BlockCodec.MAX_INPUT_SIZE + 1, 600000 }) {
+      byte[] data = createBlockData(rand, length);
+      byte[] compressed = compress(data);
+      if (length >= 4096) {
+        assertTrue("length=" + length + ", compressed=" + compressed.length,
+            compressed.length < length / 2);
+      }
+      assertArrayEquals(data, decompress(compressed, length));
+    }
+  }
+
+  @Test
+  public void testIncompressible() throws IOException {
+    Random rand = new Random(2);
+    for (int length : new int[] { 13, 1000, 65536, 300000 }) {
+      byte[] data = new byte[length];
+      rand.nextBytes(data);
+      byte[] compressed = compress(data);
+      assertTrue(compressed.length <= codec.maxCompressedLength(length));
+      assertArrayEquals(data, decompress(compressed, length));
+    }
+  }
+
+  @Test
+  public void testRepeats() throws IOException {
+    // Long runs make overlapping matches and long length encodings
+    byte[] data = new byte[100000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i < 50000 ? 'a' : "abc".charAt(i % 3));
+    }
+    byte[] compressed = compress(data);
+    assertTrue(compressed.length < 1000);
+    assertArrayEquals(data, decompress(compressed, data.length));
+  }
+
+  @Test
+  public void testDirectBuffersAndOffsets() throws IOException {
+    byte[] data = createBlockData(new Random(3), 70000);
+    ByteBuffer src = ByteBuffer.allocateDirect(data.length + 10);
+    src.position(10);
+    src.put(data);
+    src.position(10);
+    ByteBuffer compressed = ByteBuffer.allocateDirect(codec.maxCompressedLength(data.length) + 5);
+    compressed.position(5);
+    int length = codec.compress(src, compressed);
+    assertEquals(data.length + 10, src.position());
+    assertEquals(length + 5, compressed.position());
+
+    // Trailing bytes after the compressed data, like the checksums of a block, are ignored
+    compressed.limit(compressed.position() + 4);
+    compressed.position(5);
+    ByteBuffer dest = ByteBuffer.allocate(data.length + 20);
+    dest.position(20);
+    codec.decompress(compressed, dest);
+    assertEquals(length + 5, compressed.position());
+    assertArrayEquals(data, Bytes.copy(dest.array(), 20, data.length));
+  }
+
+  @Test
+  public void testCorruptData() throws IOException {
+    byte[] data = createBlockData(new Random(4), 10000);
+    byte[] compressed = compress(data);
+    try {
+      decompress(Bytes.copy(compressed, 0, compressed.length / 2), data.length);
+      fail("Truncated data should not decompress");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      decompress(compressed, data.length - 1);
+      fail("Data should not decompress into a smaller buffer");
+    } catch (IOException e) {
+      // expected
+    }
+    Random rand = new Random(5);
+    for (int i = 0; i < 1000; i++) {
+      byte[] corrupt = compressed.clone();
+      corrupt[8 + rand.nextInt(corrupt.length - 8)] = (byte) rand.nextInt();
+      try {
+        decompress(corrupt, data.length);
+      } catch (IOException e) {
+        // expected, corruption must be detected or produce wrong data, but no other error
+      }
+    }
+  }
+
+  @Test
+  public void testHadoopCodecCompatibility() throws IOException {
+    Assume.assumeTrue(NativeCodeLoader.isNativeCodeLoaded());
+    Compression.Algorithm algo = Compression.Algorithm.LZ4;
+    byte[] data = createBlockData(new Random(6), 300000);
+
+    // Compressed by the Hadoop codec stream, as blocks were written before the block codec
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    Compressor compressor = algo.getCompressor();
+    CompressionOutputStream out = algo.createPlainCompressionStream(baos, compressor);
+    out.write(data);
+    out.flush();
+    out.finish();
+    algo.returnCompressor(compressor);
+    assertArrayEquals(data, decompress(baos.toByteArray(), data.length));
+
+    // And the other way around
+    byte[] result = new byte[data.length];
+    Decompressor decompressor = algo.getDecompressor();
+    InputStream in = algo.createDecompressionStream(new ByteArrayInputStream(compress(data)),
+        decompressor, 0);
+    IOUtils.readFully(in, result, 0, result.length);
+    algo.returnDecompressor(decompressor);
+    assertArrayEquals(data, result);
+  }
+
+  @Test
+  public void testAlgorithm() {
+    assertTrue(Compression.Algorithm.LZ4.getBlockCodec() instanceof Lz4BlockCodec);
+    assertEquals(null, Compression.Algorithm.GZ.getBlockCodec());
+  }
+}
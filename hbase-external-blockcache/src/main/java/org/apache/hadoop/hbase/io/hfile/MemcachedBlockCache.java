@@ -155,6 +155,17 @@ public class MemcachedBlockCache implements BlockCache {
     return result;
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Blocks are deserialized from their own buffers; nothing to release.
+  }
+
+  @Override
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    // Finding out takes a round trip to memcached
+    return false;
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
     try {
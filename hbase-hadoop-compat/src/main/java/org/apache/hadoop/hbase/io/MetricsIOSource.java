@@ -48,6 +48,9 @@ public interface MetricsIOSource extends BaseSource {
   String FS_WRITE_HISTO_KEY = "fsWriteTime";
 
   String CHECKSUM_FAILURES_KEY = "fsChecksumFailureCount";
+  String READAHEAD_BLOCKS_KEY = "fsReadaheadBlockCount";
+  String READAHEAD_HITS_KEY = "fsReadaheadHitCount";
+  String READAHEAD_WASTE_KEY = "fsReadaheadWasteCount";
 
   String FS_READ_TIME_HISTO_DESC
     = "Latency of HFile's sequential reads on this region server in milliseconds";
@@ -58,6 +61,9 @@ public interface MetricsIOSource extends BaseSource {
 
   String CHECKSUM_FAILURES_DESC = "Number of checksum failures for the HBase HFile checksums at the"
       + " HBase level (separate from HDFS checksums)";
+  String READAHEAD_BLOCKS_DESC = "Number of HFile blocks read ahead for scanners";
+  String READAHEAD_HITS_DESC = "Number of HFile blocks read ahead and used by scanners";
+  String READAHEAD_WASTE_DESC = "Number of HFile blocks read ahead and never used by scanners";
 
 
   /**
@@ -21,4 +21,19 @@ package org.apache.hadoop.hbase.io;
 public interface MetricsIOWrapper {
 
   long getChecksumFailures();
+
+  /**
+   * @return Number of HFile blocks scanners read ahead
+   */
+  long getReadaheadBlocks();
+
+  /**
+   * @return Number of HFile blocks read ahead that scanners went on to use
+   */
+  long getReadaheadHits();
+
+  /**
+   * @return Number of HFile blocks read ahead that scanners never used
+   */
+  long getReadaheadWaste();
 }
@@ -51,6 +51,14 @@ public interface MetricsRegionSource extends Comparable<MetricsRegionSource> {
   String COPROCESSOR_EXECUTION_STATISTICS_DESC = "Statistics for coprocessor execution times";
   String REPLICA_ID = "replicaid";
   String REPLICA_ID_DESC = "The replica ID of a region. 0 is primary, otherwise is secondary";
+  String ROW_LOCK_WAIT_COUNT = "rowLockWaitCount";
+  String ROW_LOCK_WAIT_COUNT_DESC = "Number of row locks of this region that were waited for";
+  String ROW_LOCK_WAIT_TIME = "rowLockWaitTime";
+  String ROW_LOCK_WAIT_TIME_DESC =
+      "Total time in milliseconds row locks of this region were waited for";
+  String CONTENDED_ROWS = "contendedRows";
+  String CONTENDED_ROWS_DESC =
+      "Number of rows of this region locked with other threads waiting for their lock";
 
   /**
    * Close the region's metrics as this region is closing.
@@ -64,6 +64,11 @@ public interface MetricsRegionWrapper {
    */
   long getStoreFileSize();
 
+  /**
+   * Get the heap size of the block indexes of the store files of this region.
+   */
+  long getStoreFileIndexSize();
+
   /**
    * Get the total number of read requests that have been issued against this region
    */
@@ -94,6 +99,22 @@ public interface MetricsRegionWrapper {
    */
   long getWriteRequestCount();
 
+  /**
+   * @return the number of row locks of this region that were waited for
+   */
+  long getRowLockWaitCount();
+
+  /**
+   * @return the total time in milliseconds row locks of this region were waited for
+   */
+  long getRowLockWaitTime();
+
+  /**
+   * @return the number of rows of this region currently locked with other threads waiting for
+   *         their lock
+   */
+  long getNumContendedRows();
+
   long getNumFilesCompacted();
 
   long getNumBytesCompacted();
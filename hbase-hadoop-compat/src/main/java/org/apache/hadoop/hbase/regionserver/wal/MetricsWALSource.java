@@ -57,6 +57,11 @@ public interface MetricsWALSource extends BaseSource {
   String SLOW_APPEND_COUNT_DESC = "Number of appends that were slow.";
   String SYNC_TIME = "syncTime";
   String SYNC_TIME_DESC = "The time it took to sync the WAL to HDFS.";
+  String SYNC_BATCH_SIZE = "syncBatchSize";
+  String SYNC_BATCH_SIZE_DESC = "Number of handler syncs released by a sync of the WAL to HDFS.";
+  String IN_FLIGHT_SYNCS = "inFlightSyncs";
+  String IN_FLIGHT_SYNCS_DESC =
+      "Number of syncs of a WAL to HDFS running as one starts, that one included.";
   String ROLL_REQUESTED = "rollRequest";
   String ROLL_REQUESTED_DESC = "How many times a log roll has been requested total";
   String LOW_REPLICA_ROLL_REQUESTED = "lowReplicaRollRequest";
@@ -90,6 +95,16 @@ public interface MetricsWALSource extends BaseSource {
    */
   void incrementSyncTime(long time);
 
+  /**
+   * Add the number of handler syncs released by a sync of the wal.
+   */
+  void updateSyncBatchSize(int handlerSyncs);
+
+  /**
+   * Add the number of syncs of a wal running as one starts.
+   */
+  void updateInFlightSyncs(int inFlightSyncs);
+
   void incrementLogRollRequested();
 
   void incrementLowReplicationLogRoll();
@@ -76,6 +76,12 @@ public class MetricsIOSourceImpl extends BaseSourceImpl implements MetricsIOSour
     if (wrapper != null) {
       mrb.addCounter(Interns.info(CHECKSUM_FAILURES_KEY, CHECKSUM_FAILURES_DESC),
         wrapper.getChecksumFailures());
+      mrb.addCounter(Interns.info(READAHEAD_BLOCKS_KEY, READAHEAD_BLOCKS_DESC),
+        wrapper.getReadaheadBlocks());
+      mrb.addCounter(Interns.info(READAHEAD_HITS_KEY, READAHEAD_HITS_DESC),
+        wrapper.getReadaheadHits());
+      mrb.addCounter(Interns.info(READAHEAD_WASTE_KEY, READAHEAD_WASTE_DESC),
+        wrapper.getReadaheadWaste());
     }
 
     metricsRegistry.snapshot(mrb, all);
@@ -237,6 +237,10 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
               regionNamePrefix + MetricsRegionServerSource.STOREFILE_SIZE,
               MetricsRegionServerSource.STOREFILE_SIZE_DESC),
           this.regionWrapper.getStoreFileSize());
+      mrb.addGauge(Interns.info(
+              regionNamePrefix + MetricsRegionServerSource.STOREFILE_INDEX_SIZE,
+              MetricsRegionServerSource.STOREFILE_INDEX_SIZE_DESC),
+          this.regionWrapper.getStoreFileIndexSize());
       mrb.addCounter(Interns.info(
               regionNamePrefix + MetricsRegionSource.COMPACTIONS_COMPLETED_COUNT,
               MetricsRegionSource.COMPACTIONS_COMPLETED_DESC),
@@ -265,6 +269,18 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
               regionNamePrefix + MetricsRegionServerSource.WRITE_REQUEST_COUNT,
               MetricsRegionServerSource.WRITE_REQUEST_COUNT_DESC),
           this.regionWrapper.getWriteRequestCount());
+      mrb.addCounter(Interns.info(
+              regionNamePrefix + MetricsRegionSource.ROW_LOCK_WAIT_COUNT,
+              MetricsRegionSource.ROW_LOCK_WAIT_COUNT_DESC),
+          this.regionWrapper.getRowLockWaitCount());
+      mrb.addCounter(Interns.info(
+              regionNamePrefix + MetricsRegionSource.ROW_LOCK_WAIT_TIME,
+              MetricsRegionSource.ROW_LOCK_WAIT_TIME_DESC),
+          this.regionWrapper.getRowLockWaitTime());
+      mrb.addGauge(Interns.info(
+              regionNamePrefix + MetricsRegionSource.CONTENDED_ROWS,
+              MetricsRegionSource.CONTENDED_ROWS_DESC),
+          this.regionWrapper.getNumContendedRows());
       mrb.addCounter(Interns.info(
               regionNamePrefix + MetricsRegionSource.REPLICA_ID,
               MetricsRegionSource.REPLICA_ID_DESC),
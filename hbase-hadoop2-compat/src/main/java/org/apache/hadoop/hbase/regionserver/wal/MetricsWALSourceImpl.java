@@ -36,6 +36,8 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
   private final MetricHistogram appendSizeHisto;
   private final MetricHistogram appendTimeHisto;
   private final MetricHistogram syncTimeHisto;
+  private final MetricHistogram syncBatchSizeHisto;
+  private final MetricHistogram inFlightSyncsHisto;
   private final MutableFastCounter appendCount;
   private final MutableFastCounter slowAppendCount;
   private final MutableFastCounter logRollRequested;
@@ -59,6 +61,10 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
     slowAppendCount =
         this.getMetricsRegistry().newCounter(SLOW_APPEND_COUNT, SLOW_APPEND_COUNT_DESC, 0l);
     syncTimeHisto = this.getMetricsRegistry().newTimeHistogram(SYNC_TIME, SYNC_TIME_DESC);
+    syncBatchSizeHisto =
+        this.getMetricsRegistry().newHistogram(SYNC_BATCH_SIZE, SYNC_BATCH_SIZE_DESC);
+    inFlightSyncsHisto =
+        this.getMetricsRegistry().newHistogram(IN_FLIGHT_SYNCS, IN_FLIGHT_SYNCS_DESC);
     logRollRequested =
         this.getMetricsRegistry().newCounter(ROLL_REQUESTED, ROLL_REQUESTED_DESC, 0L);
     lowReplicationLogRollRequested = this.getMetricsRegistry()
@@ -91,6 +97,16 @@ public class MetricsWALSourceImpl extends BaseSourceImpl implements MetricsWALSo
     syncTimeHisto.add(time);
   }
 
+  @Override
+  public void updateSyncBatchSize(int handlerSyncs) {
+    syncBatchSizeHisto.add(handlerSyncs);
+  }
+
+  @Override
+  public void updateInFlightSyncs(int inFlightSyncs) {
+    inFlightSyncsHisto.add(inFlightSyncs);
+  }
+
   @Override
   public void incrementLogRollRequested() {
     logRollRequested.incr();
@@ -104,6 +104,11 @@ public class TestMetricsRegionSourceImpl {
       return 0;
     }
 
+    @Override
+    public long getStoreFileIndexSize() {
+      return 0;
+    }
+
     @Override
     public long getReadRequestCount() {
       return 0;
@@ -134,6 +139,21 @@ public class TestMetricsRegionSourceImpl {
       return 0;
     }
 
+    @Override
+    public long getRowLockWaitCount() {
+      return 0;
+    }
+
+    @Override
+    public long getRowLockWaitTime() {
+      return 0;
+    }
+
+    @Override
+    public long getNumContendedRows() {
+      return 0;
+    }
+
     @Override
     public long getNumFilesCompacted() {
       return 0;
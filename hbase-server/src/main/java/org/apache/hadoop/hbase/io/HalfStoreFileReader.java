@@ -323,8 +323,14 @@ public class HalfStoreFileReader extends StoreFile.Reader {
         return null;
       }
 
+      @Override
+      public void setSkipTimeRange(TimeRange timeRange) {
+        delegate.setSkipTimeRange(timeRange);
+      }
+
       @Override
       public void close() {
+        delegate.close();
       }
     };
   }
@@ -347,6 +353,8 @@ public class HalfStoreFileReader extends StoreFile.Reader {
       }
     } catch (IOException e) {
       LOG.warn("Failed seekBefore " + Bytes.toStringBinary(this.splitkey), e);
+    } finally {
+      scanner.close();
     }
     return null;
   }
@@ -368,6 +376,8 @@ public class HalfStoreFileReader extends StoreFile.Reader {
         firstKeySeeked = true;
       } catch (IOException e) {
         LOG.warn("Failed seekTo first KV in the file", e);
+      } finally {
+        scanner.close();
       }
     }
     return this.firstKey;
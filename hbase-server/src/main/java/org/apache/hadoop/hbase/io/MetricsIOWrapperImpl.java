@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.hbase.io;
 
+import org.apache.hadoop.hbase.io.hfile.BlockReadahead;
 import org.apache.hadoop.hbase.io.hfile.HFile;
 
 public class MetricsIOWrapperImpl implements MetricsIOWrapper {
@@ -26,4 +27,19 @@ public class MetricsIOWrapperImpl implements MetricsIOWrapper {
   public long getChecksumFailures() {
     return HFile.getAndResetChecksumFailuresCount();
   }
+
+  @Override
+  public long getReadaheadBlocks() {
+    return BlockReadahead.getBlocksRead();
+  }
+
+  @Override
+  public long getReadaheadHits() {
+    return BlockReadahead.getBlocksUsed();
+  }
+
+  @Override
+  public long getReadaheadWaste() {
+    return BlockReadahead.getBlocksWasted();
+  }
 }
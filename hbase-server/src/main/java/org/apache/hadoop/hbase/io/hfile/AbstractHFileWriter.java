@@ -94,6 +94,9 @@ public abstract class AbstractHFileWriter implements HFile.Writer {
   /** Cache configuration for caching data on write. */
   protected final CacheConfig cacheConf;
 
+  /** Key ranges of the data blocks to cache on write, if any. */
+  protected CachedKeyRanges cacheOnWriteKeyRanges;
+
   /**
    * Name for this object used when logging or in toString. Is either
    * the result of a toString on stream or else name of passed file Path.
@@ -128,6 +131,11 @@ public abstract class AbstractHFileWriter implements HFile.Writer {
     this.cacheConf = cacheConf;
   }
 
+  @Override
+  public void setCacheOnWriteKeyRanges(CachedKeyRanges keyRanges) {
+    this.cacheOnWriteKeyRanges = keyRanges;
+  }
+
   /**
    * Add last bits of metadata to file info before it is written out.
    */
@@ -58,6 +58,23 @@ public interface BlockCache extends Iterable<CachedBlock> {
   Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
     boolean updateCacheMetrics);
 
+  /**
+   * Called when the user of a block fetched from this cache is done with it. Blocks whose
+   * {@link Cacheable#getMemoryType()} is SHARED refer to the memory of the cache and cannot be
+   * evicted while they are in use, so every such block must be returned exactly once.
+   * @param cacheKey the cache key of the block
+   * @param block the block, as returned by {@link #getBlock(BlockCacheKey, boolean, boolean,
+   *          boolean)}
+   */
+  void returnBlock(BlockCacheKey cacheKey, Cacheable block);
+
+  /**
+   * Whether the cache contains the block with the specified cacheKey, without reading it
+   * @param cacheKey block's cache key
+   * @return true if it contains the block
+   */
+  boolean containsBlock(BlockCacheKey cacheKey);
+
   /**
    * Evict block from cache.
    * @param cacheKey Block to evict
@@ -0,0 +1,228 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Counter;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Reads ahead of a scanner that loads the blocks of an HFile one after the other with
+ * positional reads. Once the scanner has loaded {@link #READAHEAD_THRESHOLD_KEY} blocks in
+ * sequence from the file system, the following {@link #READAHEAD_BLOCKS_KEY} blocks are read
+ * with one positional read on a pool shared by all scanners, and kept for the scanner until it
+ * gets to them. The next read is started when the scanner is half way through the blocks read
+ * ahead, so a long scan rarely waits for the file system.
+ * <p>
+ * Blocks read ahead are handed to the reader on a block cache miss, so they are cached the same
+ * way as blocks the scanner reads itself. Not thread safe, each scanner has its own instance.
+ */
+@InterfaceAudience.Private
+public class BlockReadahead {
+
+  private static final Log LOG = LogFactory.getLog(BlockReadahead.class);
+
+  /** Number of blocks to read ahead at a time. Zero, the default, disables readahead. */
+  public static final String READAHEAD_BLOCKS_KEY = "hbase.hfile.readahead.blocks";
+  public static final int DEFAULT_READAHEAD_BLOCKS = 0;
+
+  /** Number of blocks a scanner has to load in sequence before reading ahead */
+  public static final String READAHEAD_THRESHOLD_KEY = "hbase.hfile.readahead.threshold";
+  public static final int DEFAULT_READAHEAD_THRESHOLD = 4;
+
+  /** Number of threads shared among all scanners for reading ahead */
+  public static final String READAHEAD_THREADS_KEY = "hbase.hfile.readahead.threads";
+  public static final int DEFAULT_READAHEAD_THREADS = 4;
+
+  // Blocks read ahead, used by their scanner, and read ahead but never used
+  static final Counter BLOCKS_READ = new Counter();
+  static final Counter BLOCKS_USED = new Counter();
+  static final Counter BLOCKS_WASTED = new Counter();
+
+  /** Executor pool shared among all scanners for reading ahead */
+  private static final ThreadPoolExecutor readaheadPool;
+  static {
+    Configuration conf = HBaseConfiguration.create();
+    int threads = conf.getInt(READAHEAD_THREADS_KEY, DEFAULT_READAHEAD_THREADS);
+    readaheadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), Threads.newDaemonThreadFactory("hfile-readahead"));
+    readaheadPool.allowCoreThreadTimeOut(true);
+  }
+
+  private final HFileBlock.FSReader fsReader;
+  /** Blocks are only read ahead up to here, the end of the data section of the file */
+  private final long endOffset;
+  private final int readaheadBlocks;
+  private final int threshold;
+
+  private int sequentialBlocks = 0;
+  /** Offset of the block after the last one the scanner loaded */
+  private long nextOffset = -1;
+  /** End of the last block read ahead so far */
+  private long readEnd = -1;
+  private final TreeMap<Long, HFileBlock> blocks = new TreeMap<Long, HFileBlock>();
+
+  private Future<List<HFileBlock>> pending;
+  private long pendingOffset;
+  private boolean disabled = false;
+
+  BlockReadahead(HFileBlock.FSReader fsReader, long endOffset, int readaheadBlocks,
+      int threshold) {
+    this.fsReader = fsReader;
+    this.endOffset = endOffset;
+    this.readaheadBlocks = readaheadBlocks;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Returns the block at the given offset if it was read ahead, waiting for a pending read that
+   * covers it. Blocks read ahead before that offset are dropped.
+   * @return the packed block, or null if it was not read ahead
+   */
+  HFileBlock take(long offset) {
+    if (pending != null && offset >= pendingOffset) {
+      collect();
+    }
+    while (!blocks.isEmpty() && blocks.firstKey() < offset) {
+      blocks.pollFirstEntry();
+      BLOCKS_WASTED.increment();
+    }
+    HFileBlock block = blocks.remove(offset);
+    if (block != null) {
+      BLOCKS_USED.increment();
+    }
+    return block;
+  }
+
+  /**
+   * Tells the readahead about a block the scanner loaded from the file system or took from
+   * {@link #take(long)}, and starts reading ahead if the scanner is reading sequentially.
+   */
+  void loaded(HFileBlock block) {
+    long offset = block.getOffset();
+    sequentialBlocks = offset == nextOffset ? sequentialBlocks + 1 : 1;
+    nextOffset = offset + block.getOnDiskSizeWithHeader();
+    if (disabled || sequentialBlocks < threshold) {
+      return;
+    }
+    if (pending != null) {
+      if (!pending.isDone()) {
+        return;
+      }
+      collect();
+    }
+
+    // Read ahead again once the scanner is half way through the blocks read ahead
+    long windowSize = (long) readaheadBlocks * block.getOnDiskSizeWithHeader();
+    long start = Math.max(readEnd, nextOffset);
+    if (start - nextOffset > windowSize / 2) {
+      return;
+    }
+    // Always read at least two blocks worth, so one bigger block does not stall the readahead
+    final long readOffset = start;
+    final int length = (int) Math.min(Math.max(windowSize, 2L * block.getOnDiskSizeWithHeader()),
+        endOffset - start);
+    if (length <= 0) {
+      return;
+    }
+    try {
+      pending = readaheadPool.submit(new Callable<List<HFileBlock>>() {
+        @Override
+        public List<HFileBlock> call() throws IOException {
+          return fsReader.readBlocksData(readOffset, length);
+        }
+      });
+      pendingOffset = readOffset;
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Readahead request rejected", e);
+    }
+  }
+
+  /** Waits for the pending read and keeps its blocks */
+  private void collect() {
+    try {
+      List<HFileBlock> read = pending.get();
+      BLOCKS_READ.add(read.size());
+      for (HFileBlock block : read) {
+        blocks.put(block.getOffset(), block);
+      }
+      if (read.isEmpty()) {
+        // Nothing could be read from there, let the scanner read it
+        disabled = true;
+      } else {
+        HFileBlock last = read.get(read.size() - 1);
+        readEnd = last.getOffset() + last.getOnDiskSizeWithHeader();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.debug("Readahead failed at offset " + pendingOffset + ", disabling it for this scanner",
+          e.getCause());
+      disabled = true;
+    } finally {
+      pending = null;
+    }
+  }
+
+  /** Drops the blocks read ahead and not used */
+  void close() {
+    if (pending != null) {
+      if (pending.isDone()) {
+        collect();
+      } else {
+        pending.cancel(false);
+        pending = null;
+      }
+    }
+    BLOCKS_WASTED.add(blocks.size());
+    blocks.clear();
+  }
+
+  /** @return the number of blocks currently held for the scanner */
+  int getBufferedBlocks() {
+    return blocks.size();
+  }
+
+  public static long getBlocksRead() {
+    return BLOCKS_READ.get();
+  }
+
+  public static long getBlocksUsed() {
+    return BLOCKS_USED.get();
+  }
+
+  public static long getBlocksWasted() {
+    return BLOCKS_WASTED.get();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.util.Counter;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The smallest and largest timestamp of every data block of an HFile, kept in a meta block so
+ * that a scanner reading blocks in sequence can step over the blocks that hold no cell in the
+ * time range of its scan. The file wide time range in the file info only lets a scan skip a
+ * whole file.
+ * <p>
+ * A block is only skipped when all its cells are older than the time range, or when they are all
+ * newer and none of them is a delete marker, since a newer delete marker may still mask cells in
+ * the time range.
+ * <p>
+ * Format: integer count, then for every data block, in file order, its offset (long), its on
+ * disk size with header (integer), its smallest and largest timestamp (longs) and whether it
+ * holds a delete marker (boolean).
+ */
+@InterfaceAudience.Private
+public class BlockTimeRangeIndex {
+
+  /** Whether HFile writers write the index, off by default */
+  public static final String BLOCK_TIME_RANGE_INDEX_KEY = "hfile.block.timerange.index";
+  public static final boolean DEFAULT_BLOCK_TIME_RANGE_INDEX = false;
+
+  /** Name of the meta block holding the index */
+  public static final String META_BLOCK_NAME = "BLOCK_TIME_RANGE_INDEX";
+
+  /** Number of data blocks scanners stepped over */
+  static final Counter SKIPPED_BLOCKS = new Counter();
+
+  private final long[] offsets;
+  private final int[] onDiskSizes;
+  private final long[] minTimestamps;
+  private final long[] maxTimestamps;
+  private final boolean[] hasDeletes;
+
+  private BlockTimeRangeIndex(long[] offsets, int[] onDiskSizes, long[] minTimestamps,
+      long[] maxTimestamps, boolean[] hasDeletes) {
+    this.offsets = offsets;
+    this.onDiskSizes = onDiskSizes;
+    this.minTimestamps = minTimestamps;
+    this.maxTimestamps = maxTimestamps;
+    this.hasDeletes = hasDeletes;
+  }
+
+  /** Reads an index from the content of its meta block */
+  static BlockTimeRangeIndex read(ByteBuffer buf) {
+    int count = buf.getInt();
+    long[] offsets = new long[count];
+    int[] onDiskSizes = new int[count];
+    long[] minTimestamps = new long[count];
+    long[] maxTimestamps = new long[count];
+    boolean[] hasDeletes = new boolean[count];
+    for (int i = 0; i < count; i++) {
+      offsets[i] = buf.getLong();
+      onDiskSizes[i] = buf.getInt();
+      minTimestamps[i] = buf.getLong();
+      maxTimestamps[i] = buf.getLong();
+      hasDeletes[i] = buf.get() != 0;
+    }
+    return new BlockTimeRangeIndex(offsets, onDiskSizes, minTimestamps, maxTimestamps,
+        hasDeletes);
+  }
+
+  /** @return the number of data blocks scanners stepped over since startup */
+  public static long getSkippedBlockCount() {
+    return SKIPPED_BLOCKS.get();
+  }
+
+  /** @return the number of data blocks in the index */
+  public int size() {
+    return offsets.length;
+  }
+
+  /**
+   * @return whether the data block at the given offset holds no cell a scan of the given time
+   *         range needs, false if there is no data block at that offset in the index
+   */
+  public boolean canSkip(long offset, TimeRange timeRange) {
+    int i = Arrays.binarySearch(offsets, offset);
+    return i >= 0 && canSkip(i, timeRange);
+  }
+
+  private boolean canSkip(int i, TimeRange timeRange) {
+    return maxTimestamps[i] < timeRange.getMin()
+        || (!hasDeletes[i] && minTimestamps[i] >= timeRange.getMax());
+  }
+
+  /**
+   * Steps over the data blocks from the given offset on that a scan of the given time range does
+   * not need.
+   * @return the offset of the first block from the given offset on that cannot be skipped
+   */
+  public long skip(long offset, TimeRange timeRange) {
+    int i = Arrays.binarySearch(offsets, offset);
+    if (i < 0) {
+      return offset;
+    }
+    while (i < offsets.length && offsets[i] == offset && canSkip(i, timeRange)) {
+      offset += onDiskSizes[i];
+      i++;
+      SKIPPED_BLOCKS.increment();
+    }
+    return offset;
+  }
+
+  /**
+   * Collects the time ranges of the data blocks as they are written.
+   */
+  static class Writer implements Writable {
+    private int count = 0;
+    private long[] offsets = new long[64];
+    private int[] onDiskSizes = new int[64];
+    private long[] minTimestamps = new long[64];
+    private long[] maxTimestamps = new long[64];
+    private boolean[] hasDeletes = new boolean[64];
+
+    void add(long offset, int onDiskSize, long minTimestamp, long maxTimestamp,
+        boolean hasDelete) {
+      if (count == offsets.length) {
+        int capacity = count * 2;
+        offsets = Arrays.copyOf(offsets, capacity);
+        onDiskSizes = Arrays.copyOf(onDiskSizes, capacity);
+        minTimestamps = Arrays.copyOf(minTimestamps, capacity);
+        maxTimestamps = Arrays.copyOf(maxTimestamps, capacity);
+        hasDeletes = Arrays.copyOf(hasDeletes, capacity);
+      }
+      offsets[count] = offset;
+      onDiskSizes[count] = onDiskSize;
+      minTimestamps[count] = minTimestamp;
+      maxTimestamps[count] = maxTimestamp;
+      hasDeletes[count] = hasDelete;
+      count++;
+    }
+
+    int size() {
+      return count;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(count);
+      for (int i = 0; i < count; i++) {
+        out.writeLong(offsets[i]);
+        out.writeInt(onDiskSizes[i]);
+        out.writeLong(minTimestamps[i]);
+        out.writeLong(maxTimestamps[i]);
+        out.writeBoolean(hasDeletes[i]);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      throw new IOException("Cant read with this class.");
+    }
+  }
+}
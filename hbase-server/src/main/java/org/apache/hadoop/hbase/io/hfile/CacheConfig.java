@@ -91,6 +91,8 @@ public class CacheConfig {
    * <code>/tmp/bucketcache.data</code> but the metadata on where the data is in the supplied file
    * is an in-memory map that needs to be persisted across restarts. Where to store this
    * in-memory state is what you supply here: e.g. <code>/tmp/bucketcache.map</code>.
+   * Besides on shutdown, the map is checkpointed periodically while running, so the cache
+   * survives a crash too; see <code>hbase.bucketcache.persist.intervalinmillis</code>.
    */
   public static final String BUCKET_CACHE_PERSISTENT_PATH_KEY = 
       "hbase.bucketcache.persistent.path";
@@ -126,6 +128,14 @@ public class CacheConfig {
   public static final String PREFETCH_BLOCKS_ON_OPEN_KEY =
       "hbase.rs.prefetchblocksonopen";
 
+  /**
+   * Configuration key to cache on write the blocks of a compaction's output that hold keys of
+   * data blocks of its input files which were in the block cache when the compaction started.
+   */
+  public static final String CACHE_HOT_BLOCKS_ON_COMPACTION_KEY =
+      "hbase.rs.cachehotblocksoncompaction";
+  public static final boolean DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION = false;
+
   /**
    * The target block size used by blockcache instances. Defaults to
    * {@link HConstants#DEFAULT_BLOCKSIZE}.
@@ -134,6 +144,13 @@ public class CacheConfig {
    */
   public static final String BLOCKCACHE_BLOCKSIZE_KEY = "hbase.offheapcache.minblocksize";
 
+  /**
+   * Which on heap block cache to use as L1. "LRU" is the {@link LruBlockCache}, "ShardedLRU" the
+   * {@link ShardedLruBlockCache}, which evicts on insert instead of in a background thread.
+   */
+  public static final String BLOCKCACHE_POLICY_KEY = "hfile.block.cache.policy";
+  public static final String BLOCKCACHE_POLICY_DEFAULT = "LRU";
+
   private static final String EXTERNAL_BLOCKCACHE_KEY = "hbase.blockcache.use.external";
   private static final boolean EXTERNAL_BLOCKCACHE_DEFAULT = false;
 
@@ -525,7 +542,7 @@ public class CacheConfig {
   // Clear this if in tests you'd make more than one block cache instance.
   @VisibleForTesting
   static BlockCache GLOBAL_BLOCK_CACHE_INSTANCE;
-  private static LruBlockCache GLOBAL_L1_CACHE_INSTANCE = null;
+  private static FirstLevelBlockCache GLOBAL_L1_CACHE_INSTANCE = null;
   private static BlockCache GLOBAL_L2_CACHE_INSTANCE = null;
 
   /** Boolean whether we have disabled the block cache entirely. */
@@ -534,9 +551,9 @@ public class CacheConfig {
 
   /**
    * @param c Configuration to use.
-   * @return An L1 instance.  Currently an instance of LruBlockCache.
+   * @return An L1 instance, a LruBlockCache or a ShardedLruBlockCache as configured.
    */
-  private static synchronized LruBlockCache getL1(final Configuration c) {
+  private static synchronized FirstLevelBlockCache getL1(final Configuration c) {
     if (GLOBAL_L1_CACHE_INSTANCE != null) return GLOBAL_L1_CACHE_INSTANCE;
     final long lruCacheSize = HeapMemorySizeUtil.getLruCacheSize(c);
     if (lruCacheSize < 0) {
@@ -544,9 +561,18 @@ public class CacheConfig {
     }
     if (blockCacheDisabled) return null;
     int blockSize = c.getInt(BLOCKCACHE_BLOCKSIZE_KEY, HConstants.DEFAULT_BLOCKSIZE);
-    LOG.info("Allocating LruBlockCache size=" +
-      StringUtils.byteDesc(lruCacheSize) + ", blockSize=" + StringUtils.byteDesc(blockSize));
-    GLOBAL_L1_CACHE_INSTANCE = new LruBlockCache(lruCacheSize, blockSize, true, c);
+    String policy = c.get(BLOCKCACHE_POLICY_KEY, BLOCKCACHE_POLICY_DEFAULT);
+    if (policy.equalsIgnoreCase("ShardedLRU")) {
+      LOG.info("Allocating ShardedLruBlockCache size=" +
+        StringUtils.byteDesc(lruCacheSize) + ", blockSize=" + StringUtils.byteDesc(blockSize));
+      GLOBAL_L1_CACHE_INSTANCE = new ShardedLruBlockCache(lruCacheSize, blockSize, c);
+    } else if (policy.equalsIgnoreCase("LRU")) {
+      LOG.info("Allocating LruBlockCache size=" +
+        StringUtils.byteDesc(lruCacheSize) + ", blockSize=" + StringUtils.byteDesc(blockSize));
+      GLOBAL_L1_CACHE_INSTANCE = new LruBlockCache(lruCacheSize, blockSize, true, c);
+    } else {
+      throw new IllegalArgumentException("Unknown " + BLOCKCACHE_POLICY_KEY + ": " + policy);
+    }
     return GLOBAL_L1_CACHE_INSTANCE;
   }
 
@@ -675,7 +701,7 @@ public class CacheConfig {
   public static synchronized BlockCache instantiateBlockCache(Configuration conf) {
     if (GLOBAL_BLOCK_CACHE_INSTANCE != null) return GLOBAL_BLOCK_CACHE_INSTANCE;
     if (blockCacheDisabled) return null;
-    LruBlockCache l1 = getL1(conf);
+    FirstLevelBlockCache l1 = getL1(conf);
     // blockCacheDisabled is set as a side-effect of getL1Internal(), so check it again after the call.
     if (blockCacheDisabled) return null;
     BlockCache l2 = getL2(conf);
@@ -691,7 +717,7 @@ public class CacheConfig {
         if (combinedWithLru) {
           GLOBAL_BLOCK_CACHE_INSTANCE = new CombinedBlockCache(l1, l2);
         } else {
-          // L1 and L2 are not 'combined'.  They are connected via the LruBlockCache victimhandler
+          // L1 and L2 are not 'combined'.  They are connected via the L1 cache's victimhandler
           // mechanism.  It is a little ugly but works according to the following: when the
           // background eviction thread runs, blocks evicted from L1 will go to L2 AND when we get
           // a block from the L1 cache, if not in L1, we will search L2.
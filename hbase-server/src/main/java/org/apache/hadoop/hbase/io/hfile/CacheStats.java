@@ -73,6 +73,9 @@ public class CacheStats {
   /** The total number of blocks that were not inserted. */
   private final AtomicLong failedInserts = new AtomicLong(0);
 
+  /** The number of blocks the admission policy kept out of the cache */
+  private final Counter rejectedAdmissionCount = new Counter();
+
   /** Per Block Type Counts */
   private final Counter dataMissCount = new Counter(0);
   private final Counter leafIndexMissCount = new Counter(0);
@@ -260,6 +263,10 @@ public class CacheStats {
     return failedInserts.incrementAndGet();
   }
 
+  public void rejectAdmission() {
+    rejectedAdmissionCount.increment();
+  }
+
 
   // All of the counts of misses and hits.
   public long getDataMissCount() {
@@ -410,6 +417,19 @@ public class CacheStats {
     return failedInserts.get();
   }
 
+  public long getRejectedAdmissionCount() {
+    return rejectedAdmissionCount.get();
+  }
+
+  /**
+   * @return hit ratio of data blocks only; the ratio an admission policy is meant to improve,
+   *         as index and bloom blocks are hit nearly always
+   */
+  public double getDataHitRatio() {
+    long requests = getDataHitCount() + getDataMissCount();
+    return requests == 0 ? 0 : (double) getDataHitCount() / requests;
+  }
+
   public void rollMetricsPeriod() {
     hitCounts[windowIndex] = getHitCount() - lastHitCount;
     lastHitCount = getHitCount();
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 
 /**
  * Interface for a deserializer. Throws an IOException if the serialized data is
@@ -45,6 +46,17 @@ public interface CacheableDeserializer<T extends Cacheable> {
    */
   T deserialize(ByteBuffer b, boolean reuse) throws IOException;
 
+  /**
+   * @param b
+   * @param reuse true if Cacheable object can use the given buffer as its
+   *          content
+   * @param memType the {@link MemoryType} of the buffer; a deserializer may
+   *          still copy a SHARED buffer and return an EXCLUSIVE object
+   * @return T the deserialized object.
+   * @throws IOException
+   */
+  T deserialize(ByteBuffer b, boolean reuse, MemoryType memType) throws IOException;
+
   /**
    * Get the identifier of this deserialiser. Identifier is unique for each
    * deserializer and generated by {@link CacheableDeserializerIdManager}
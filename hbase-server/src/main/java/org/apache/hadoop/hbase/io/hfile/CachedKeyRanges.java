@@ -0,0 +1,147 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * The key ranges covered by the data blocks of a set of HFiles that are in the block cache. A
+ * compaction records them for its input files before it starts, so the writer of its output can
+ * cache on write the blocks holding keys that were read often enough to be cached, instead of
+ * leaving the output to start cold once the input blocks are evicted.
+ * <p>
+ * A cached block covers the keys from its first key up to the key the block index of its file
+ * has for the next data block, or the last key of the file for the last block. Overlapping
+ * ranges of different files are merged.
+ */
+@InterfaceAudience.Private
+public class CachedKeyRanges {
+
+  private final KVComparator comparator;
+  /** Sorted, disjoint, inclusive ranges */
+  private final List<Cell> starts;
+  private final List<Cell> ends;
+
+  private CachedKeyRanges(KVComparator comparator, List<Cell> starts, List<Cell> ends) {
+    this.comparator = comparator;
+    this.starts = starts;
+    this.ends = ends;
+  }
+
+  /**
+   * Finds the data blocks of the given files that are in the block cache and the key ranges they
+   * cover. Only the blocks listed in the block indexes of the files are looked up in the cache,
+   * and the ranges are taken from the indexes too, so no data block is read.
+   * @param cache the block cache
+   * @param readers readers of the files, all using the same comparator
+   * @param comparator comparator of the files
+   */
+  public static CachedKeyRanges fromBlockCache(BlockCache cache,
+      Collection<? extends HFile.Reader> readers, final KVComparator comparator)
+      throws IOException {
+    List<Cell[]> ranges = new ArrayList<Cell[]>();
+    for (HFile.Reader reader : readers) {
+      addRanges(cache, reader, ranges);
+    }
+    Collections.sort(ranges, new Comparator<Cell[]>() {
+      @Override
+      public int compare(Cell[] left, Cell[] right) {
+        return comparator.compareOnlyKeyPortion(left[0], right[0]);
+      }
+    });
+
+    List<Cell> starts = new ArrayList<Cell>();
+    List<Cell> ends = new ArrayList<Cell>();
+    for (Cell[] range : ranges) {
+      int last = ends.size() - 1;
+      if (last >= 0 && comparator.compareOnlyKeyPortion(range[0], ends.get(last)) <= 0) {
+        if (comparator.compareOnlyKeyPortion(range[1], ends.get(last)) > 0) {
+          ends.set(last, range[1]);
+        }
+      } else {
+        starts.add(range[0]);
+        ends.add(range[1]);
+      }
+    }
+    return new CachedKeyRanges(comparator, starts, ends);
+  }
+
+  /**
+   * Adds the ranges of the cached data blocks of a file. A range ends at the indexed key of the
+   * next data block, which is after the last key of the cached one, or at the last key of the
+   * file.
+   */
+  private static void addRanges(BlockCache cache, HFile.Reader reader, List<Cell[]> ranges)
+      throws IOException {
+    if (reader.getEntries() == 0) {
+      return;
+    }
+    List<Long> offsets = new ArrayList<Long>();
+    List<byte[]> keys = new ArrayList<byte[]>();
+    reader.getDataBlockIndexReader().getDataBlockEntries(offsets, keys);
+    for (int i = 0; i < offsets.size(); i++) {
+      if (!cache.containsBlock(new BlockCacheKey(reader.getName(), offsets.get(i)))) {
+        continue;
+      }
+      byte[] end = i + 1 < keys.size() ? keys.get(i + 1) : reader.getLastKey();
+      ranges.add(new Cell[] { toCell(keys.get(i)), toCell(end) });
+    }
+  }
+
+  private static Cell toCell(byte[] key) {
+    return new KeyValue.KeyOnlyKeyValue(key, 0, key.length);
+  }
+
+  /**
+   * @return whether any of the ranges overlaps the keys from first to last, both included
+   */
+  public boolean overlaps(Cell first, Cell last) {
+    // Find the last range starting at or before last
+    int low = 0;
+    int high = starts.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (comparator.compareOnlyKeyPortion(starts.get(mid), last) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high >= 0 && comparator.compareOnlyKeyPortion(ends.get(high), first) >= 0;
+  }
+
+  /** @return the number of disjoint ranges */
+  public int size() {
+    return starts.size();
+  }
+
+  public boolean isEmpty() {
+    return starts.isEmpty();
+  }
+}
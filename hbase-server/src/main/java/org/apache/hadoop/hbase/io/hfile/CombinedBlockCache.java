@@ -23,13 +23,14 @@ import java.util.Iterator;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 
 
 /**
- * CombinedBlockCache is an abstraction layer that combines
- * {@link LruBlockCache} and {@link BucketCache}. The smaller lruCache is used
- * to cache bloom blocks and index blocks.  The larger l2Cache is used to
+ * CombinedBlockCache is an abstraction layer that combines an on heap
+ * {@link FirstLevelBlockCache}, such as {@link LruBlockCache}, and {@link BucketCache}. The
+ * smaller lruCache is used to cache bloom blocks and index blocks.  The larger l2Cache is used to
  * cache data blocks. {@link #getBlock(BlockCacheKey, boolean, boolean, boolean)} reads
  * first from the smaller lruCache before looking for the block in the l2Cache.  Blocks evicted
  * from lruCache are put into the bucket cache. 
@@ -38,11 +39,11 @@ import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
  */
 @InterfaceAudience.Private
 public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
-  protected final LruBlockCache lruCache;
+  protected final FirstLevelBlockCache lruCache;
   protected final BlockCache l2Cache;
   protected final CombinedCacheStats combinedCacheStats;
 
-  public CombinedBlockCache(LruBlockCache lruCache, BlockCache l2Cache) {
+  public CombinedBlockCache(FirstLevelBlockCache lruCache, BlockCache l2Cache) {
     this.lruCache = lruCache;
     this.l2Cache = l2Cache;
     this.combinedCacheStats = new CombinedCacheStats(lruCache.getStats(),
@@ -84,6 +85,19 @@ public class CombinedBlockCache implements ResizableBlockCache, HeapSize {
         l2Cache.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Only the L2 cache hands out blocks that share its memory
+    if (block.getMemoryType() == MemoryType.SHARED) {
+      l2Cache.returnBlock(cacheKey, block);
+    }
+  }
+
+  @Override
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    return lruCache.containsBlock(cacheKey) || l2Cache.containsBlock(cacheKey);
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
     return lruCache.evictBlock(cacheKey) || l2Cache.evictBlock(cacheKey);
@@ -261,6 +261,12 @@ public class HFile {
      * Return the file context for the HFile this writer belongs to
      */
     HFileContext getFileContext();
+
+    /**
+     * Caches on write the data blocks holding keys in the given ranges, whether or not the cache
+     * configuration caches data blocks on write.
+     */
+    void setCacheOnWriteKeyRanges(CachedKeyRanges keyRanges);
   }
 
   /**
@@ -408,6 +414,14 @@ public class HFile {
         final boolean updateCacheMetrics, BlockType expectedBlockType,
         DataBlockEncoding expectedDataBlockEncoding)
         throws IOException;
+
+    /**
+     * Return the given block back to the cache, if it was obtained from cache. Blocks which
+     * share the memory of the block cache, see {@link HFileBlock#usesSharedMemory()}, can not
+     * be evicted until then.
+     * @param block Block to be returned.
+     */
+    void returnBlock(HFileBlock block);
   }
 
   /** An interface used by clients to open and iterate an {@link HFile}. */
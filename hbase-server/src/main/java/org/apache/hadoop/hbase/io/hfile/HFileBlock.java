@@ -23,6 +23,9 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -44,6 +47,7 @@ import org.apache.hadoop.hbase.io.encoding.HFileBlockDecodingContext;
 import org.apache.hadoop.hbase.io.encoding.HFileBlockDefaultDecodingContext;
 import org.apache.hadoop.hbase.io.encoding.HFileBlockDefaultEncodingContext;
 import org.apache.hadoop.hbase.io.encoding.HFileBlockEncodingContext;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ChecksumType;
@@ -173,6 +177,13 @@ public class HFileBlock implements Cacheable {
    */
   private int nextBlockOnDiskSize = UNSET;
 
+  /**
+   * SHARED if {@link #buf} is the memory of the block cache this block was read from rather than
+   * a copy; such a block has to be returned to the cache once done with, see
+   * {@link BlockCache#returnBlock(BlockCacheKey, Cacheable)}.
+   */
+  private MemoryType memType = MemoryType.EXCLUSIVE;
+
   /**
    * On a checksum failure, do these many succeeding read requests using hdfs checksums before
    * auto-reenabling hbase checksum verification.
@@ -225,7 +236,13 @@ public class HFileBlock implements Cacheable {
   static final CacheableDeserializer<Cacheable> BLOCK_DESERIALIZER =
       new CacheableDeserializer<Cacheable>() {
         @Override
-        public HFileBlock deserialize(ByteBuffer buf, boolean reuse) throws IOException{
+        public HFileBlock deserialize(ByteBuffer buf, boolean reuse) throws IOException {
+          return deserialize(buf, reuse, MemoryType.EXCLUSIVE);
+        }
+
+        @Override
+        public HFileBlock deserialize(ByteBuffer buf, boolean reuse, MemoryType memType)
+            throws IOException {
           // The buf has the file block followed by block metadata.
           // Set limit to just before the BLOCK_METADATA_SPACE then rewind.
           buf.limit(buf.limit() - BLOCK_METADATA_SPACE).rewind();
@@ -246,6 +263,15 @@ public class HFileBlock implements Cacheable {
           int nextBlockOnDiskSize = buf.getInt();
           HFileBlock hFileBlock =
               new HFileBlock(newByteBuff, usesChecksum, offset, nextBlockOnDiskSize, null);
+          if (memType == MemoryType.SHARED && reuse) {
+            // Only the scanners of plain data blocks know to work on a buffer they do not own.
+            // Index, bloom, meta and encoded blocks are parsed by code that expects an array
+            // backed buffer and may keep references into it, so they get their own copy.
+            if (hFileBlock.getBlockType() != BlockType.DATA) {
+              return hFileBlock.deepClone();
+            }
+            hFileBlock.memType = MemoryType.SHARED;
+          }
           return hFileBlock;
         }
 
@@ -417,6 +443,32 @@ public class HFileBlock implements Cacheable {
     return blockType;
   }
 
+  @Override
+  public MemoryType getMemoryType() {
+    return this.memType;
+  }
+
+  /**
+   * @return true if this block refers to the memory of the block cache it was read from
+   */
+  public boolean usesSharedMemory() {
+    return this.memType == MemoryType.SHARED;
+  }
+
+  /**
+   * @return a copy of this block backed by its own on heap buffer, the copy is always
+   *         {@link MemoryType#EXCLUSIVE}
+   */
+  HFileBlock deepClone() {
+    HFileBlock clone = new HFileBlock(this);
+    ByteBuffer dup = getBufferReadOnly();
+    dup.rewind();
+    clone.buf = ByteBuffer.allocate(dup.limit());
+    clone.buf.put(dup);
+    clone.buf.rewind();
+    return clone;
+  }
+
   /** @return get data block encoding id that was used to encode this block */
   public short getDataBlockEncodingId() {
     if (blockType != BlockType.ENCODED_DATA) {
@@ -618,7 +670,7 @@ public class HFileBlock implements Cacheable {
     ByteBuffer dup = this.buf.duplicate();
     dup.position(this.headerSize());
     dup = dup.slice();
-    ctx.prepareDecoding(unpacked.getOnDiskSizeWithoutHeader(),
+    ctx.prepareDecoding(unpacked.getOnDiskDataSizeWithHeader() - unpacked.headerSize(),
       unpacked.getUncompressedSizeWithoutHeader(), unpacked.getBufferWithoutHeader(),
       dup);
     return unpacked;
@@ -695,8 +747,8 @@ public class HFileBlock implements Cacheable {
   public long heapSize() {
     long size = ClassSize.align(
         ClassSize.OBJECT +
-        // Block type, byte buffer and meta references
-        3 * ClassSize.REFERENCE +
+        // Block type, byte buffer, meta and memory type references
+        4 * ClassSize.REFERENCE +
         // On-disk size, uncompressed size, and next block's on-disk size
         // bytePerChecksum and onDiskDataSize
         4 * Bytes.SIZEOF_INT +
@@ -1347,6 +1399,17 @@ public class HFileBlock implements Cacheable {
     HFileBlock readBlockData(long offset, long onDiskSize, boolean pread, boolean updateMetrics)
         throws IOException;
 
+    /**
+     * Reads the blocks that lie entirely within the given range of the file with a single
+     * positional read. Used to read ahead of a scanner, so it stops at the first block that is
+     * cut off by the end of the range or fails its checksum instead of failing.
+     *
+     * @param offset the offset of the first block
+     * @param length the number of bytes to read
+     * @return the blocks read, packed and in file order, possibly none
+     */
+    List<HFileBlock> readBlocksData(long offset, int length) throws IOException;
+
     /**
      * Creates a block iterator over the given portion of the {@link HFile}.
      * The iterator returns blocks starting with offset such that offset &lt;=
@@ -1645,6 +1708,44 @@ public class HFileBlock implements Cacheable {
       return blk;
     }
 
+    @Override
+    public List<HFileBlock> readBlocksData(long offset, int length) throws IOException {
+      boolean verifyChecksum = streamWrapper.shouldUseHBaseChecksum();
+      FSDataInputStream is = streamWrapper.getStream(verifyChecksum);
+      long startTime = System.currentTimeMillis();
+      byte[] buf = new byte[length];
+      positionalReadWithExtra(is, offset, buf, 0, length, 0);
+      HFile.updateReadLatency(System.currentTimeMillis() - startTime, true);
+
+      List<HFileBlock> blocks = new ArrayList<HFileBlock>();
+      boolean useHBaseChecksum = fileContext.isUseHBaseChecksum();
+      int pos = 0;
+      while (pos + hdrSize <= length) {
+        int onDiskSizeWithHeader = getOnDiskSizeWithHeader(
+            ByteBuffer.wrap(buf, pos, hdrSize).slice(), useHBaseChecksum);
+        if (onDiskSizeWithHeader <= hdrSize || pos + onDiskSizeWithHeader > length) {
+          break;
+        }
+        ByteBuffer onDiskBlock =
+            ByteBuffer.wrap(Arrays.copyOfRange(buf, pos, pos + onDiskSizeWithHeader));
+        if (verifyChecksum && !validateChecksum(offset + pos, onDiskBlock, hdrSize)) {
+          // Leave it to the regular read to deal with the checksum failure
+          break;
+        }
+        int nextPos = pos + onDiskSizeWithHeader;
+        int nextBlockOnDiskSize = nextPos + hdrSize <= length ? getOnDiskSizeWithHeader(
+            ByteBuffer.wrap(buf, nextPos, hdrSize).slice(), useHBaseChecksum) : -1;
+        HFileBlock block = new HFileBlock(onDiskBlock, useHBaseChecksum, offset + pos,
+            nextBlockOnDiskSize, fileContext);
+        if (!fileContext.isCompressedOrEncrypted()) {
+          block.sanityCheckUncompressed();
+        }
+        blocks.add(block);
+        pos = nextPos;
+      }
+      return blocks;
+    }
+
      /**
      * @return Check <code>onDiskSizeWithHeaderL</code> size is healthy and then return it as an int
      * @throws IOException
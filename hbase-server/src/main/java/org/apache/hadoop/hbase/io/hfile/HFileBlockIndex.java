@@ -26,6 +26,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
@@ -83,6 +84,15 @@ public class HFileBlockIndex {
 
   static final int DEFAULT_MIN_INDEX_NUM_ENTRIES = 16;
 
+  /**
+   * Whether leaf and intermediate-level index blocks read from the file system are cached with
+   * in-memory priority, so they stay in the in-memory share of the block cache instead of being
+   * evicted by scans over data blocks.
+   */
+  public static final String INDEX_BLOCKS_IN_MEMORY_KEY = "hfile.index.block.inmemory";
+
+  static final boolean DEFAULT_INDEX_BLOCKS_IN_MEMORY = false;
+
   /**
    * The number of bytes stored in each "secondary index" entry in addition to
    * key bytes in the non-root index block format. The first long is the file
@@ -112,6 +122,10 @@ public class HFileBlockIndex {
    * blocks at all other levels will be cached in the LRU cache in practice,
    * although this API does not enforce that.
    *
+   * <p>The root level keys are kept back to back in a single array, with the
+   * offset of every key in a second array, instead of an array per key, which
+   * saves an object header and a reference per entry for every open file.
+   *
    * <p>All non-root (leaf and intermediate) index blocks contain what we call a
    * "secondary index": an array of offsets to the entries within the block.
    * This allows us to do binary search for the entry corresponding to the
@@ -121,8 +135,12 @@ public class HFileBlockIndex {
     /** Needed doing lookup on blocks. */
     private final KVComparator comparator;
 
-    // Root-level data.
-    private byte[][] blockKeys;
+    // Root-level data. The i-th key spans rootKeyOffsets[i] to
+    // rootKeyOffsets[i + 1] in rootKeys.
+    private byte[] rootKeys;
+    private int[] rootKeyOffsets;
+    // A copy of the first root-level key, i.e. the first key of the file, which is asked for often
+    private byte[] firstKey;
     private long[] blockOffsets;
     private int[] blockDataSizes;
     private int rootCount = 0;
@@ -160,7 +178,7 @@ public class HFileBlockIndex {
      * @return true if the block index is empty.
      */
     public boolean isEmpty() {
-      return blockKeys.length == 0;
+      return blockOffsets.length == 0;
     }
 
     /**
@@ -168,7 +186,7 @@ public class HFileBlockIndex {
      * {@link IllegalStateException} otherwise.
      */
     public void ensureNonEmpty() {
-      if (blockKeys.length == 0) {
+      if (blockOffsets.length == 0) {
         throw new IllegalStateException("Block index is empty or not loaded");
       }
     }
@@ -234,8 +252,9 @@ public class HFileBlockIndex {
       long currentOffset = blockOffsets[rootLevelIndex];
       int currentOnDiskSize = blockDataSizes[rootLevelIndex];
 
-      if (rootLevelIndex < blockKeys.length - 1) {
-        nextIndexedKey = new KeyValue.KeyOnlyKeyValue(blockKeys[rootLevelIndex + 1]);
+      if (rootLevelIndex < rootCount - 1) {
+        nextIndexedKey = new KeyValue.KeyOnlyKeyValue(rootKeys, rootKeyOffsets[rootLevelIndex + 1],
+            rootKeyLength(rootLevelIndex + 1));
       } else {
         nextIndexedKey = KeyValueScanner.NO_NEXT_INDEXED_KEY;
       }
@@ -359,7 +378,7 @@ public class HFileBlockIndex {
         targetMidKey = ByteBufferUtils.toBytes(b, keyOffset, keyLen);
       } else {
         // The middle of the root-level index.
-        targetMidKey = blockKeys[rootCount / 2];
+        targetMidKey = getRootBlockKey(rootCount / 2);
       }
 
       this.midKey.set(targetMidKey);
@@ -370,7 +389,59 @@ public class HFileBlockIndex {
      * @param i from 0 to {@link #getRootBlockCount() - 1}
      */
     public byte[] getRootBlockKey(int i) {
-      return blockKeys[i];
+      if (i == 0) {
+        return firstKey;
+      }
+      return Arrays.copyOfRange(rootKeys, rootKeyOffsets[i], rootKeyOffsets[i + 1]);
+    }
+
+    private int rootKeyLength(int i) {
+      return rootKeyOffsets[i + 1] - rootKeyOffsets[i];
+    }
+
+    /**
+     * Lists the data blocks of the file, in order, with the keys this index has for them. With
+     * more than one level, the intermediate and leaf index blocks are read, and cached, as for a
+     * seek.
+     * @param offsets receives the offset of every data block
+     * @param keys receives the indexed key of every data block, which is at or before its first
+     *          key, and after the last key of the data block before it
+     * @throws IOException if an index block cannot be read
+     */
+    public void getDataBlockEntries(List<Long> offsets, List<byte[]> keys) throws IOException {
+      for (int i = 0; i < rootCount; i++) {
+        addDataBlockEntries(blockOffsets[i], blockDataSizes[i], getRootBlockKey(i), 1, offsets,
+            keys);
+      }
+    }
+
+    /**
+     * Adds the data blocks under the given entry of an index block at the given level
+     */
+    private void addDataBlockEntries(long offset, int onDiskSize, byte[] key, int level,
+        List<Long> offsets, List<byte[]> keys) throws IOException {
+      if (level == searchTreeLevel) {
+        offsets.add(offset);
+        keys.add(key);
+        return;
+      }
+      if (cachingBlockReader == null) {
+        throw new IOException("Have to read index blocks but no block reader available");
+      }
+      BlockType expectedBlockType = level < searchTreeLevel - 1 ? BlockType.INTERMEDIATE_INDEX
+          : BlockType.LEAF_INDEX;
+      HFileBlock block = cachingBlockReader.readBlock(offset, onDiskSize, true, true, false,
+          false, expectedBlockType, null);
+      ByteBuffer buffer = block.getBufferWithoutHeader();
+      int numEntries = buffer.getInt(0);
+      // Entries start after the number of entries and the secondary index
+      int entriesOffset = Bytes.SIZEOF_INT * (numEntries + 2);
+      for (int i = 0; i < numEntries; i++) {
+        int entryOffset = entriesOffset + buffer.getInt(Bytes.SIZEOF_INT * (i + 1));
+        addDataBlockEntries(buffer.getLong(entryOffset),
+            buffer.getInt(entryOffset + Bytes.SIZEOF_LONG), getNonRootIndexedKey(buffer, i),
+            level + 1, offsets, keys);
+      }
     }
 
     /**
@@ -406,24 +477,28 @@ public class HFileBlockIndex {
      *         request.
      */
     public int rootBlockContainingKey(final byte[] key, int offset, int length) {
-      int pos = Bytes.binarySearch(blockKeys, key, offset, length, comparator);
-      // pos is between -(blockKeys.length + 1) to blockKeys.length - 1, see
-      // binarySearch's javadoc.
-
-      if (pos >= 0) {
-        // This means this is an exact match with an element of blockKeys.
-        assert pos < blockKeys.length;
-        return pos;
+      int low = 0;
+      int high = rootCount - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        // we have to compare in this order, because the comparator order
+        // has special logic when the 'left side' is a special key.
+        int cmp = comparator.compare(key, offset, length, rootKeys, rootKeyOffsets[mid],
+            rootKeyLength(mid));
+        if (cmp > 0) {
+          low = mid + 1;
+        } else if (cmp < 0) {
+          high = mid - 1;
+        } else {
+          // An exact match with a root-level key.
+          return mid;
+        }
       }
 
-      // Otherwise, pos = -(i + 1), where blockKeys[i - 1] < key < blockKeys[i],
-      // and i is in [0, blockKeys.length]. We are returning j = i - 1 such that
-      // blockKeys[j] <= key < blockKeys[j + 1]. In particular, j = -1 if
-      // key < blockKeys[0], meaning the file does not contain the given key.
-
-      int i = -pos - 1;
-      assert 0 <= i && i <= blockKeys.length;
-      return i - 1;
+      // Otherwise, key[high] < key < key[low], with low in [0, rootCount].
+      // We are returning high = low - 1, which is -1 if key < key[0],
+      // meaning the file does not contain the given key.
+      return high;
     }
 
     /**
@@ -433,38 +508,29 @@ public class HFileBlockIndex {
      *          Key to find
      */
     public int rootBlockContainingKey(final Cell key) {
-      int pos = Bytes.binarySearch(blockKeys, key, comparator);
-      // pos is between -(blockKeys.length + 1) to blockKeys.length - 1, see
-      // binarySearch's javadoc.
-
-      if (pos >= 0) {
-        // This means this is an exact match with an element of blockKeys.
-        assert pos < blockKeys.length;
-        return pos;
+      KeyValue.KeyOnlyKeyValue r = new KeyValue.KeyOnlyKeyValue();
+      int low = 0;
+      int high = rootCount - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        // we have to compare in this order, because the comparator order
+        // has special logic when the 'left side' is a special key.
+        r.setKey(rootKeys, rootKeyOffsets[mid], rootKeyLength(mid));
+        int cmp = comparator.compare(key, r);
+        if (cmp > 0) {
+          low = mid + 1;
+        } else if (cmp < 0) {
+          high = mid - 1;
+        } else {
+          // An exact match with a root-level key.
+          return mid;
+        }
       }
 
-      // Otherwise, pos = -(i + 1), where blockKeys[i - 1] < key < blockKeys[i],
-      // and i is in [0, blockKeys.length]. We are returning j = i - 1 such that
-      // blockKeys[j] <= key < blockKeys[j + 1]. In particular, j = -1 if
-      // key < blockKeys[0], meaning the file does not contain the given key.
-
-      int i = -pos - 1;
-      assert 0 <= i && i <= blockKeys.length;
-      return i - 1;
-    }
-
-    /**
-     * Adds a new entry in the root block index. Only used when reading.
-     *
-     * @param key Last key in the block
-     * @param offset file offset where the block is stored
-     * @param dataSize the uncompressed data size
-     */
-    private void add(final byte[] key, final long offset, final int dataSize) {
-      blockOffsets[rootCount] = offset;
-      blockKeys[rootCount] = key;
-      blockDataSizes[rootCount] = dataSize;
-      rootCount++;
+      // Otherwise, key[high] < key < key[low], with low in [0, rootCount].
+      // We are returning high = low - 1, which is -1 if key < key[0],
+      // meaning the file does not contain the given key.
+      return high;
     }
 
     /**
@@ -638,18 +704,28 @@ public class HFileBlockIndex {
     public void readRootIndex(DataInput in, final int numEntries)
         throws IOException {
       blockOffsets = new long[numEntries];
-      blockKeys = new byte[numEntries][];
       blockDataSizes = new int[numEntries];
+      rootKeyOffsets = new int[numEntries + 1];
+      byte[] keys = new byte[0];
+      int keysLength = 0;
 
       // If index size is zero, no index was written.
-      if (numEntries > 0) {
-        for (int i = 0; i < numEntries; ++i) {
-          long offset = in.readLong();
-          int dataSize = in.readInt();
-          byte[] key = Bytes.readByteArray(in);
-          add(key, offset, dataSize);
+      rootCount = numEntries;
+      for (int i = 0; i < numEntries; ++i) {
+        blockOffsets[i] = in.readLong();
+        blockDataSizes[i] = in.readInt();
+        int keyLength = WritableUtils.readVInt(in);
+        if (keysLength + keyLength > keys.length) {
+          // Guess the space the remaining keys need from the ones read so far
+          int expected = (keysLength + keyLength) / (i + 1) * numEntries;
+          keys = Arrays.copyOf(keys, Math.max(expected, keysLength + keyLength));
         }
+        in.readFully(keys, keysLength, keyLength);
+        keysLength += keyLength;
+        rootKeyOffsets[i + 1] = keysLength;
       }
+      rootKeys = keys.length == keysLength ? keys : Arrays.copyOf(keys, keysLength);
+      firstKey = numEntries == 0 ? null : Arrays.copyOf(rootKeys, rootKeyOffsets[1]);
     }
     
     /**
@@ -698,7 +774,8 @@ public class HFileBlockIndex {
       StringBuilder sb = new StringBuilder();
       sb.append("size=" + rootCount).append("\n");
       for (int i = 0; i < rootCount; i++) {
-        sb.append("key=").append(KeyValue.keyToString(blockKeys[i]))
+        sb.append("key=").append(KeyValue.keyToString(rootKeys, rootKeyOffsets[i],
+            rootKeyLength(i)))
             .append("\n  offset=").append(blockOffsets[i])
             .append(", dataSize=" + blockDataSizes[i]).append("\n");
       }
@@ -707,22 +784,23 @@ public class HFileBlockIndex {
 
     @Override
     public long heapSize() {
-      long heapSize = ClassSize.align(6 * ClassSize.REFERENCE +
+      long heapSize = ClassSize.align(8 * ClassSize.REFERENCE +
           2 * Bytes.SIZEOF_INT + ClassSize.OBJECT);
 
       // Mid-key metadata.
       heapSize += MID_KEY_METADATA_SIZE;
 
-      // Calculating the size of blockKeys
-      if (blockKeys != null) {
-        // Adding array + references overhead
-        heapSize += ClassSize.align(ClassSize.ARRAY + blockKeys.length
-            * ClassSize.REFERENCE);
+      if (rootKeys != null) {
+        heapSize += ClassSize.align(ClassSize.ARRAY + rootKeys.length);
+      }
 
-        // Adding bytes
-        for (byte[] key : blockKeys) {
-          heapSize += ClassSize.align(ClassSize.ARRAY + key.length);
-        }
+      if (firstKey != null) {
+        heapSize += ClassSize.align(ClassSize.ARRAY + firstKey.length);
+      }
+
+      if (rootKeyOffsets != null) {
+        heapSize += ClassSize.align(ClassSize.ARRAY + rootKeyOffsets.length
+            * Bytes.SIZEOF_INT);
       }
 
       if (blockOffsets != null) {
@@ -326,6 +326,7 @@ public class HFilePrettyPrinter extends Configured implements Tool {
           /* isCompaction */ false, /* updateCacheMetrics */ false, null, null);
         offset += block.getOnDiskSizeWithHeader();
         out.println(block);
+        reader.returnBlock(block);
       }
     }
 
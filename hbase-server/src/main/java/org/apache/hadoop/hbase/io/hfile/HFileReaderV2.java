@@ -36,11 +36,13 @@ import org.apache.hadoop.hbase.NoTagsKeyValue;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
+import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoder;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.encoding.HFileBlockDecodingContext;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.IdLock;
 import org.apache.hadoop.io.WritableUtils;
@@ -108,6 +110,20 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
   HFileContext hfileContext;
 
+  /** Blocks pread scanners read ahead at a time, zero if they do not read ahead */
+  private final int readaheadBlocks;
+  private final int readaheadThreshold;
+
+  /** Whether index blocks are cached with in-memory priority */
+  private final boolean indexBlocksInMemory;
+
+  /** Locks serializing the loading of every meta block */
+  private Object[] metaBlockLocks;
+
+  /** Time ranges of the data blocks, see {@link #getBlockTimeRangeIndex()} */
+  private BlockTimeRangeIndex blockTimeRangeIndex;
+  private boolean blockTimeRangeIndexLoaded = false;
+
   /**
    * Opens a HFile. You must load the index before you can use it by calling
    * {@link #loadFileInfo()}.
@@ -131,6 +147,12 @@ public class HFileReaderV2 extends AbstractHFileReader {
     HFileBlock.FSReaderImpl fsBlockReaderV2 =
       new HFileBlock.FSReaderImpl(fsdis, fileSize, hfs, path, hfileContext);
     this.fsBlockReader = fsBlockReaderV2; // upcast
+    this.readaheadBlocks = conf.getInt(BlockReadahead.READAHEAD_BLOCKS_KEY,
+        BlockReadahead.DEFAULT_READAHEAD_BLOCKS);
+    this.readaheadThreshold = conf.getInt(BlockReadahead.READAHEAD_THRESHOLD_KEY,
+        BlockReadahead.DEFAULT_READAHEAD_THRESHOLD);
+    this.indexBlocksInMemory = conf.getBoolean(HFileBlockIndex.INDEX_BLOCKS_IN_MEMORY_KEY,
+        HFileBlockIndex.DEFAULT_INDEX_BLOCKS_IN_MEMORY);
 
     // Comparator class name is stored in the trailer in version 2.
     comparator = trailer.createComparator();
@@ -155,6 +177,10 @@ public class HFileReaderV2 extends AbstractHFileReader {
     metaBlockIndexReader.readRootIndex(
         blockIter.nextBlockWithBlockType(BlockType.ROOT_INDEX),
         trailer.getMetaIndexCount());
+    metaBlockLocks = new Object[trailer.getMetaIndexCount()];
+    for (int i = 0; i < metaBlockLocks.length; i++) {
+      metaBlockLocks[i] = new Object();
+    }
 
     // File info
     fileInfo = new FileInfo();
@@ -210,6 +236,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
                 null, null);
               prevBlock = block;
               offset += block.getOnDiskSizeWithHeader();
+              returnBlock(block);
             }
           } catch (IOException e) {
             // IOExceptions are probably due to region closes (relocation, etc.)
@@ -280,9 +307,19 @@ public class HFileReaderV2 extends AbstractHFileReader {
          updateCacheMetrics);
        if (cachedBlock != null) {
          if (cacheConf.shouldCacheCompressed(cachedBlock.getBlockType().getCategory())) {
-           cachedBlock = cachedBlock.unpack(hfileContext, fsBlockReader);
+           HFileBlock compressedBlock = cachedBlock;
+           cachedBlock = compressedBlock.unpack(hfileContext, fsBlockReader);
+           // The unpacked block has its own buffer, we are done with the cached one.
+           if (compressedBlock != cachedBlock) {
+             cache.returnBlock(cacheKey, compressedBlock);
+           }
+         }
+         try {
+           validateBlockType(cachedBlock, expectedBlockType);
+         } catch (IOException e) {
+           returnBlock(cache, cacheKey, cachedBlock);
+           throw e;
          }
-         validateBlockType(cachedBlock, expectedBlockType);
 
          if (expectedDataBlockEncoding == null) {
            return cachedBlock;
@@ -318,6 +355,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
                      ", actual: " + actualDataBlockEncoding);
              cache.evictBlock(cacheKey);
            }
+           returnBlock(cache, cacheKey, cachedBlock);
            return null;
          }
          return cachedBlock;
@@ -325,6 +363,21 @@ public class HFileReaderV2 extends AbstractHFileReader {
      }
      return null;
    }
+
+  private void returnBlock(BlockCache cache, BlockCacheKey cacheKey, HFileBlock block) {
+    if (block.usesSharedMemory()) {
+      cache.returnBlock(cacheKey, block);
+    }
+  }
+
+  @Override
+  public void returnBlock(HFileBlock block) {
+    if (block != null && block.usesSharedMemory()) {
+      BlockCacheKey cacheKey = new BlockCacheKey(name, block.getOffset(),
+        this.isPrimaryReplicaReader(), block.getBlockType());
+      returnBlock(cacheConf.getBlockCache(), cacheKey, block);
+    }
+  }
   /**
    * @param metaBlockName
    * @param cacheBlock Add block to cache, if found
@@ -351,7 +404,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
     // Per meta key from any given file, synchronize reads for said block. This
     // is OK to do for meta blocks because the meta block index is always
     // single-level.
-    synchronized (metaBlockIndexReader.getRootBlockKey(block)) {
+    synchronized (metaBlockLocks[block]) {
       // Check cache for block. If found return.
       long metaBlockOffset = metaBlockIndexReader.getRootBlockOffset(block);
       BlockCacheKey cacheKey = new BlockCacheKey(name, metaBlockOffset,
@@ -383,12 +436,40 @@ public class HFileReaderV2 extends AbstractHFileReader {
     }
   }
 
+  /**
+   * @return the time ranges of the data blocks of this file, loaded on first use, or null if the
+   *         file was written without them
+   */
+  synchronized BlockTimeRangeIndex getBlockTimeRangeIndex() throws IOException {
+    if (!blockTimeRangeIndexLoaded) {
+      ByteBuffer buf = getMetaBlock(BlockTimeRangeIndex.META_BLOCK_NAME, true);
+      blockTimeRangeIndex = buf == null ? null : BlockTimeRangeIndex.read(buf);
+      blockTimeRangeIndexLoaded = true;
+    }
+    return blockTimeRangeIndex;
+  }
+
   @Override
   public HFileBlock readBlock(long dataBlockOffset, long onDiskBlockSize,
       final boolean cacheBlock, boolean pread, final boolean isCompaction,
       boolean updateCacheMetrics, BlockType expectedBlockType,
       DataBlockEncoding expectedDataBlockEncoding)
       throws IOException {
+    return readBlock(dataBlockOffset, onDiskBlockSize, cacheBlock, pread, isCompaction,
+        updateCacheMetrics, expectedBlockType, expectedDataBlockEncoding, null);
+  }
+
+  /**
+   * Same as {@link #readBlock(long, long, boolean, boolean, boolean, boolean, BlockType,
+   * DataBlockEncoding)}, but on a block cache miss the block is taken from the given readahead
+   * if it was read ahead, and the readahead is told about the block.
+   * @param readahead the scanner's readahead, or null
+   */
+  HFileBlock readBlock(long dataBlockOffset, long onDiskBlockSize,
+      final boolean cacheBlock, boolean pread, final boolean isCompaction,
+      boolean updateCacheMetrics, BlockType expectedBlockType,
+      DataBlockEncoding expectedDataBlockEncoding, BlockReadahead readahead)
+      throws IOException {
     if (dataBlockIndexReader == null) {
       throw new IOException("Block index not loaded");
     }
@@ -450,18 +531,26 @@ public class HFileReaderV2 extends AbstractHFileReader {
         if (Trace.isTracing()) {
           traceScope.getSpan().addTimelineAnnotation("blockCacheMiss");
         }
-        // Load block from filesystem.
-        HFileBlock hfileBlock = fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize,
-            pread, !isCompaction);
+        // Load block from filesystem, unless it was read ahead.
+        HFileBlock hfileBlock = readahead == null ? null : readahead.take(dataBlockOffset);
+        if (hfileBlock == null) {
+          hfileBlock = fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize,
+              pread, !isCompaction);
+        }
+        if (readahead != null) {
+          readahead.loaded(hfileBlock);
+        }
         validateBlockType(hfileBlock, expectedBlockType);
         HFileBlock unpacked = hfileBlock.unpack(hfileContext, fsBlockReader);
         BlockType.BlockCategory category = hfileBlock.getBlockType().getCategory();
 
         // Cache the block if necessary
         if (cacheBlock && cacheConf.shouldCacheBlockOnRead(category)) {
+          boolean inMemory = cacheConf.isInMemory()
+              || (indexBlocksInMemory && category == BlockType.BlockCategory.INDEX);
           cacheConf.getBlockCache().cacheBlock(cacheKey,
             cacheConf.shouldCacheCompressed(category) ? hfileBlock : unpacked,
-            cacheConf.isInMemory(), this.cacheConf.isCacheDataInL1());
+            inMemory, this.cacheConf.isCacheDataInL1());
         }
 
         if (updateCacheMetrics && hfileBlock.getBlockType().isData()) {
@@ -574,13 +663,39 @@ public class HFileReaderV2 extends AbstractHFileReader {
      */
     protected Cell nextIndexedKey;
 
+    /** Reads ahead of a long pread scan, null if the scanner does not read ahead */
+    protected BlockReadahead readahead;
+
+    /** Time range of the blocks the scanner needs, null if it needs all blocks */
+    protected TimeRange skipTimeRange;
+    protected BlockTimeRangeIndex blockTimeRanges;
+
     public AbstractScannerV2(HFileReaderV2 r, boolean cacheBlocks,
         final boolean pread, final boolean isCompaction) {
       super(r, cacheBlocks, pread, isCompaction);
+      // Stream reads already get the file system's readahead
+      if (r.readaheadBlocks > 0 && pread && !isCompaction) {
+        readahead = new BlockReadahead(r.fsBlockReader, r.getTrailer().getLoadOnOpenDataOffset(),
+            r.readaheadBlocks, r.readaheadThreshold);
+      }
     }
 
     protected abstract ByteBuffer getFirstKeyInBlock(HFileBlock curBlock);
 
+    @Override
+    public void setSkipTimeRange(TimeRange timeRange) {
+      BlockTimeRangeIndex index = null;
+      if (timeRange != null && !timeRange.isAllTime()) {
+        try {
+          index = ((HFileReaderV2) reader).getBlockTimeRangeIndex();
+        } catch (IOException e) {
+          LOG.warn("Failed to load the block time range index of " + reader.getName(), e);
+        }
+      }
+      this.blockTimeRanges = index;
+      this.skipTimeRange = index == null ? null : timeRange;
+    }
+
     protected abstract int loadBlockAndSeekToKey(HFileBlock seekToBlock, Cell nextIndexedKey,
         boolean rewind, Cell key, boolean seekBefore) throws IOException;
 
@@ -671,16 +786,18 @@ public class HFileReaderV2 extends AbstractHFileReader {
       if (seekToBlock == null) {
         return false;
       }
-      ByteBuffer firstKey = getFirstKeyInBlock(seekToBlock);
+      // Copy the first key out, seekToBlock may be returned to the cache below
+      ByteBuffer firstKeyBuffer = getFirstKeyInBlock(seekToBlock);
+      byte[] firstKey = ByteBufferUtils.toBytes(firstKeyBuffer, 0, firstKeyBuffer.limit());
 
       if (reader.getComparator()
           .compareOnlyKeyPortion(
-              new KeyValue.KeyOnlyKeyValue(firstKey.array(), firstKey.arrayOffset(),
-                  firstKey.limit()), key) >= 0) {
+              new KeyValue.KeyOnlyKeyValue(firstKey, 0, firstKey.length), key) >= 0) {
         long previousBlockOffset = seekToBlock.getPrevBlockOffset();
         // The key we are interested in
         if (previousBlockOffset == -1) {
           // we have a 'problem', the key we want is the first of the file.
+          returnBlockIfNotCurrent(seekToBlock);
           return false;
         }
 
@@ -690,13 +807,15 @@ public class HFileReaderV2 extends AbstractHFileReader {
         // correctly in the general case however.
         // TODO: See https://issues.apache.org/jira/browse/HBASE-14576
         int prevBlockSize = -1;
-        seekToBlock = reader.readBlock(previousBlockOffset,
+        HFileBlock prevBlock = reader.readBlock(previousBlockOffset,
             prevBlockSize, cacheBlocks,
             pread, isCompaction, true, BlockType.DATA, getEffectiveDataBlockEncoding());
+        returnBlockIfNotCurrent(seekToBlock);
+        seekToBlock = prevBlock;
         // TODO shortcut: seek forward in this block to the last key of the
         // block.
       }
-      Cell firstKeyInCurrentBlock = new KeyValue.KeyOnlyKeyValue(Bytes.getBytes(firstKey));
+      Cell firstKeyInCurrentBlock = new KeyValue.KeyOnlyKeyValue(firstKey);
       loadBlockAndSeekToKey(seekToBlock, firstKeyInCurrentBlock, true, key, true);
       return true;
     }
@@ -719,24 +838,74 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
       do {
         if (curBlock.getOffset() >= lastDataBlockOffset) {
+          returnBlockIfNotCurrent(curBlock);
           return null;
         }
 
         if (curBlock.getOffset() < 0) {
+          returnBlockIfNotCurrent(curBlock);
           throw new IOException("Invalid block file offset: " + block);
         }
 
+        long nextOffset = curBlock.getOffset() + curBlock.getOnDiskSizeWithHeader();
+        int nextOnDiskSize = curBlock.getNextBlockOnDiskSize();
+        if (skipTimeRange != null) {
+          // Step over the data blocks holding no cell in the time range of the scan
+          long offset = blockTimeRanges.skip(nextOffset, skipTimeRange);
+          if (offset != nextOffset) {
+            nextOffset = offset;
+            nextOnDiskSize = -1;
+            if (nextOffset > lastDataBlockOffset) {
+              returnBlockIfNotCurrent(curBlock);
+              return null;
+            }
+          }
+        }
+
         // We are reading the next block without block type validation, because
         // it might turn out to be a non-data block.
-        curBlock = reader.readBlock(curBlock.getOffset()
-            + curBlock.getOnDiskSizeWithHeader(),
-            curBlock.getNextBlockOnDiskSize(), cacheBlocks, pread,
-            isCompaction, true, null, getEffectiveDataBlockEncoding());
+        HFileBlock nextBlock = ((HFileReaderV2) reader).readBlock(nextOffset,
+            nextOnDiskSize, cacheBlocks, pread,
+            isCompaction, true, null, getEffectiveDataBlockEncoding(), readahead);
+        // Done with the non-data block we skipped, if any
+        returnBlockIfNotCurrent(curBlock);
+        curBlock = nextBlock;
       } while (!curBlock.getBlockType().isData());
 
       return curBlock;
     }
 
+    /**
+     * Returns the given block to the block cache unless it is the block the
+     * scanner is positioned on.
+     */
+    protected void returnBlockIfNotCurrent(HFileBlock otherBlock) {
+      if (otherBlock != block) {
+        reader.returnBlock(otherBlock);
+      }
+    }
+
+    /**
+     * Makes the given block the current one, returning the previous current
+     * block to the block cache.
+     */
+    protected void setCurrentBlock(HFileBlock newBlock) {
+      if (block != newBlock) {
+        reader.returnBlock(block);
+      }
+      block = newBlock;
+    }
+
+    @Override
+    public void close() {
+      // Let go of the current block so the block cache can evict it
+      setCurrentBlock(null);
+      if (readahead != null) {
+        readahead.close();
+      }
+      super.close();
+    }
+
     public DataBlockEncoding getEffectiveDataBlockEncoding() {
       return ((HFileReaderV2)reader).getEffectiveEncodingInCache(isCompaction);
     }
@@ -760,6 +929,14 @@ public class HFileReaderV2 extends AbstractHFileReader {
   protected static class ScannerV2 extends AbstractScannerV2 {
     private HFileReaderV2 reader;
 
+    /**
+     * Array and offset of the key last located by {@link #loadKey(int, int)}. For blocks that
+     * are not backed by an array the key is first copied into {@link #keyScratch}.
+     */
+    protected byte[] keyArray;
+    protected int keyArrayOffset;
+    private byte[] keyScratch = HConstants.EMPTY_BYTE_ARRAY;
+
     public ScannerV2(HFileReaderV2 r, boolean cacheBlocks,
         final boolean pread, final boolean isCompaction) {
       super(r, cacheBlocks, pread, isCompaction);
@@ -775,8 +952,13 @@ public class HFileReaderV2 extends AbstractHFileReader {
     }
 
     protected Cell formNoTagsKeyValue() {
-      NoTagsKeyValue ret = new NoTagsKeyValue(blockBuffer.array(), blockBuffer.arrayOffset()
-          + blockBuffer.position(), getCellBufSize());
+      NoTagsKeyValue ret;
+      if (block.usesSharedMemory()) {
+        ret = new NoTagsKeyValue(copyFromBlock(0, getCellBufSize()), 0, getCellBufSize());
+      } else {
+        ret = new NoTagsKeyValue(blockBuffer.array(), blockBuffer.arrayOffset()
+            + blockBuffer.position(), getCellBufSize());
+      }
       if (this.reader.shouldIncludeMemstoreTS()) {
         ret.setSequenceId(currMemstoreTS);
       }
@@ -787,9 +969,57 @@ public class HFileReaderV2 extends AbstractHFileReader {
       return KEY_VALUE_LEN_SIZE + currKeyLen + currValueLen;
     }
 
+    /**
+     * Copies bytes of the current cell out of the block. Cells must not point into blocks
+     * whose memory is owned by the block cache, as that may be reused once the block is returned.
+     * @param offset offset from the start of the current cell
+     * @param length number of bytes to copy
+     */
+    protected byte[] copyFromBlock(int offset, int length) {
+      byte[] copy = new byte[length];
+      ByteBufferUtils.copyFromBufferToArray(copy, blockBuffer, blockBuffer.position() + offset,
+          0, length);
+      return copy;
+    }
+
+    /**
+     * Points {@link #keyArray} and {@link #keyArrayOffset} at the key starting at the given
+     * position of the block buffer.
+     */
+    protected void loadKey(int position, int klen) {
+      if (blockBuffer.hasArray()) {
+        keyArray = blockBuffer.array();
+        keyArrayOffset = blockBuffer.arrayOffset() + position;
+      } else {
+        if (keyScratch.length < klen) {
+          keyScratch = new byte[klen];
+        }
+        ByteBufferUtils.copyFromBufferToArray(keyScratch, blockBuffer, position, 0, klen);
+        keyArray = keyScratch;
+        keyArrayOffset = 0;
+      }
+    }
+
+    /**
+     * Reads a vlong at the given position of the block buffer without moving its position.
+     */
+    protected long readVLong(int position) {
+      if (blockBuffer.hasArray()) {
+        return Bytes.readAsVLong(blockBuffer.array(), blockBuffer.arrayOffset() + position);
+      }
+      int oldPosition = blockBuffer.position();
+      blockBuffer.position(position);
+      long value = ByteBufferUtils.readVLong(blockBuffer);
+      blockBuffer.position(oldPosition);
+      return value;
+    }
+
     @Override
     public ByteBuffer getKey() {
       assertSeeked();
+      if (block.usesSharedMemory()) {
+        return ByteBuffer.wrap(copyFromBlock(KEY_VALUE_LEN_SIZE, currKeyLen));
+      }
       return ByteBuffer.wrap(
           blockBuffer.array(),
           blockBuffer.arrayOffset() + blockBuffer.position()
@@ -798,13 +1028,16 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
     @Override
     public int compareKey(KVComparator comparator, byte[] key, int offset, int length) {
-      return comparator.compareFlatKey(key, offset, length, blockBuffer.array(),
-          blockBuffer.arrayOffset() + blockBuffer.position() + KEY_VALUE_LEN_SIZE, currKeyLen);
+      loadKey(blockBuffer.position() + KEY_VALUE_LEN_SIZE, currKeyLen);
+      return comparator.compareFlatKey(key, offset, length, keyArray, keyArrayOffset, currKeyLen);
     }
 
     @Override
     public ByteBuffer getValue() {
       assertSeeked();
+      if (block.usesSharedMemory()) {
+        return ByteBuffer.wrap(copyFromBlock(KEY_VALUE_LEN_SIZE + currKeyLen, currValueLen));
+      }
       return ByteBuffer.wrap(
           blockBuffer.array(),
           blockBuffer.arrayOffset() + blockBuffer.position()
@@ -812,7 +1045,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
     }
 
     protected void setNonSeekedState() {
-      block = null;
+      setCurrentBlock(null);
       blockBuffer = null;
       currKeyLen = 0;
       currValueLen = 0;
@@ -919,12 +1152,13 @@ public class HFileReaderV2 extends AbstractHFileReader {
         return true;
       }
 
-      block = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks, pread,
+      HFileBlock newBlock = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks, pread,
           isCompaction, true, BlockType.DATA, getEffectiveDataBlockEncoding());
-      if (block.getOffset() < 0) {
-        throw new IOException("Invalid block offset: " + block.getOffset());
+      if (newBlock.getOffset() < 0) {
+        reader.returnBlock(newBlock);
+        throw new IOException("Invalid block offset: " + newBlock.getOffset());
       }
-      updateCurrBlock(block);
+      updateCurrBlock(newBlock);
       return true;
     }
 
@@ -933,8 +1167,12 @@ public class HFileReaderV2 extends AbstractHFileReader {
         boolean rewind, Cell key, boolean seekBefore) throws IOException {
       if (block == null || block.getOffset() != seekToBlock.getOffset()) {
         updateCurrBlock(seekToBlock);
-      } else if (rewind) {
-        blockBuffer.rewind();
+      } else {
+        // We already are on this block; let go of the extra reference, if any
+        returnBlockIfNotCurrent(seekToBlock);
+        if (rewind) {
+          blockBuffer.rewind();
+        }
       }
 
       // Update the nextIndexedKey
@@ -949,7 +1187,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
      * @param newBlock the block to make current
      */
     protected void updateCurrBlock(HFileBlock newBlock) {
-      block = newBlock;
+      setCurrentBlock(newBlock);
 
       // sanity check
       if (block.getBlockType() != BlockType.DATA) {
@@ -1002,10 +1240,12 @@ public class HFileReaderV2 extends AbstractHFileReader {
       // inlined and is not too big to compile. We also manage position in ByteBuffer ourselves
       // because it is faster than going via range-checked ByteBuffer methods or going through a
       // byte buffer array a byte at a time.
-      int p = blockBuffer.position() + blockBuffer.arrayOffset();
+      int p = blockBuffer.position();
       // Get a long at a time rather than read two individual ints. In micro-benchmarking, even
       // with the extra bit-fiddling, this is order-of-magnitude faster than getting two ints.
-      long ll = Bytes.toLong(blockBuffer.array(), p);
+      long ll = blockBuffer.hasArray()
+          ? Bytes.toLong(blockBuffer.array(), blockBuffer.arrayOffset() + p)
+          : blockBuffer.getLong(p);
       // Read top half as an int of key length and bottom int as value length
       this.currKeyLen = (int)(ll >> Integer.SIZE);
       this.currValueLen = (int)(Bytes.MASK_FOR_LOWER_INT_IN_LONG ^ ll);
@@ -1017,7 +1257,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
     /**
      * Read mvcc. Does checks to see if we even need to read the mvcc at all.
-     * @param position
+     * @param position position in the block buffer
      */
     protected void readMvccVersion(final int position) {
       // See if we even need to decode mvcc.
@@ -1034,10 +1274,16 @@ public class HFileReaderV2 extends AbstractHFileReader {
      * Actually do the mvcc read. Does no checks.
      * @param position
      */
-    private void _readMvccVersion(final int position) {
+    private void _readMvccVersion(int position) {
       // This is Bytes#bytesToVint inlined so can save a few instructions in this hot method; i.e.
       // previous if one-byte vint, we'd redo the vint call to find int size.
       // Also the method is kept small so can be inlined.
+      if (!blockBuffer.hasArray()) {
+        this.currMemstoreTS = readVLong(position);
+        this.currMemstoreTSLen = WritableUtils.decodeVIntSize(blockBuffer.get(position));
+        return;
+      }
+      position += blockBuffer.arrayOffset();
       byte firstByte = blockBuffer.array()[position];
       int len = WritableUtils.decodeVIntSize(firstByte);
       if (len == 1) {
@@ -1056,7 +1302,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
     protected void readMvccVersion() {
       // TODO CLEANUP!!!
-      readMvccVersion(blockBuffer.arrayOffset() + blockBuffer.position());
+      readMvccVersion(blockBuffer.position());
     }
 
     /**
@@ -1095,9 +1341,8 @@ public class HFileReaderV2 extends AbstractHFileReader {
         blockBuffer.reset();
         if (this.reader.shouldIncludeMemstoreTS()) {
           if (this.reader.decodeMemstoreTS) {
-            int memstoreTSOffset = blockBuffer.arrayOffset() + blockBuffer.position()
-                + KEY_VALUE_LEN_SIZE + klen + vlen;
-            memstoreTS = Bytes.readAsVLong(blockBuffer.array(), memstoreTSOffset);
+            int memstoreTSOffset = blockBuffer.position() + KEY_VALUE_LEN_SIZE + klen + vlen;
+            memstoreTS = readVLong(memstoreTSOffset);
             memstoreTSLen = WritableUtils.getVIntSize(memstoreTS);
           } else {
             memstoreTS = 0;
@@ -1105,8 +1350,8 @@ public class HFileReaderV2 extends AbstractHFileReader {
           }
         }
 
-        int keyOffset = blockBuffer.arrayOffset() + blockBuffer.position() + KEY_VALUE_LEN_SIZE;
-        keyOnlykv.setKey(blockBuffer.array(), keyOffset, klen);
+        loadKey(blockBuffer.position() + KEY_VALUE_LEN_SIZE, klen);
+        keyOnlykv.setKey(keyArray, keyArrayOffset, klen);
         int comp = reader.getComparator().compareOnlyKeyPortion(key, keyOnlykv);
 
         if (comp == 0) {
@@ -1168,24 +1413,21 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
     @Override
     public String getKeyString() {
-      return Bytes.toStringBinary(blockBuffer.array(),
-          blockBuffer.arrayOffset() + blockBuffer.position()
-              + KEY_VALUE_LEN_SIZE, currKeyLen);
+      loadKey(blockBuffer.position() + KEY_VALUE_LEN_SIZE, currKeyLen);
+      return Bytes.toStringBinary(keyArray, keyArrayOffset, currKeyLen);
     }
 
     @Override
     public String getValueString() {
-      return Bytes.toString(blockBuffer.array(), blockBuffer.arrayOffset()
-          + blockBuffer.position() + KEY_VALUE_LEN_SIZE + currKeyLen,
-          currValueLen);
+      return Bytes.toString(copyFromBlock(KEY_VALUE_LEN_SIZE + currKeyLen, currValueLen));
     }
 
     @Override
     public int compareKey(KVComparator comparator, Cell key) {
+      loadKey(blockBuffer.position() + KEY_VALUE_LEN_SIZE, currKeyLen);
       return comparator.compareOnlyKeyPortion(
           key,
-          new KeyValue.KeyOnlyKeyValue(blockBuffer.array(), blockBuffer.arrayOffset()
-              + blockBuffer.position() + KEY_VALUE_LEN_SIZE, currKeyLen));
+          new KeyValue.KeyOnlyKeyValue(keyArray, keyArrayOffset, currKeyLen));
     }
   }
 
@@ -1222,7 +1464,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
      * @throws CorruptHFileException
      */
     private void updateCurrentBlock(HFileBlock newBlock) throws CorruptHFileException {
-      block = newBlock;
+      setCurrentBlock(newBlock);
 
       // sanity checks
       if (block.getBlockType() != BlockType.ENCODED_DATA) {
@@ -1272,12 +1514,13 @@ public class HFileReaderV2 extends AbstractHFileReader {
         return true;
       }
 
-      block = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks, pread,
+      HFileBlock newBlock = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks, pread,
           isCompaction, true, BlockType.DATA, getEffectiveDataBlockEncoding());
-      if (block.getOffset() < 0) {
-        throw new IOException("Invalid block offset: " + block.getOffset());
+      if (newBlock.getOffset() < 0) {
+        reader.returnBlock(newBlock);
+        throw new IOException("Invalid block offset: " + newBlock.getOffset());
       }
-      updateCurrentBlock(block);
+      updateCurrentBlock(newBlock);
       return true;
     }
 
@@ -1285,10 +1528,12 @@ public class HFileReaderV2 extends AbstractHFileReader {
     public boolean next() throws IOException {
       boolean isValid = seeker.next();
       if (!isValid) {
-        block = readNextDataBlock();
-        isValid = block != null;
+        HFileBlock newBlock = readNextDataBlock();
+        isValid = newBlock != null;
         if (isValid) {
-          updateCurrentBlock(block);
+          updateCurrentBlock(newBlock);
+        } else {
+          setCurrentBlock(null);
         }
       }
       return isValid;
@@ -1349,8 +1594,12 @@ public class HFileReaderV2 extends AbstractHFileReader {
         boolean rewind, Cell key, boolean seekBefore) throws IOException {
       if (block == null || block.getOffset() != seekToBlock.getOffset()) {
         updateCurrentBlock(seekToBlock);
-      } else if (rewind) {
-        seeker.rewind();
+      } else {
+        // We already are on this block; let go of the extra reference, if any
+        returnBlockIfNotCurrent(seekToBlock);
+        if (rewind) {
+          seeker.rewind();
+        }
       }
       this.nextIndexedKey = nextIndexedKey;
       return seeker.seekToKeyInBlock(key, seekBefore);
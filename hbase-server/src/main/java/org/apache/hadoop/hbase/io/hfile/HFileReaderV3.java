@@ -197,8 +197,13 @@ public class HFileReaderV3 extends HFileReaderV2 {
       if (!isSeeked())
         return null;
       if (currTagsLen > 0) {
-        KeyValue ret = new KeyValue(blockBuffer.array(), blockBuffer.arrayOffset()
-            + blockBuffer.position(), getCellBufSize());
+        KeyValue ret;
+        if (block.usesSharedMemory()) {
+          ret = new KeyValue(copyFromBlock(0, getCellBufSize()), 0, getCellBufSize());
+        } else {
+          ret = new KeyValue(blockBuffer.array(), blockBuffer.arrayOffset()
+              + blockBuffer.position(), getCellBufSize());
+        }
         if (this.reader.shouldIncludeMemstoreTS()) {
           ret.setSequenceId(currMemstoreTS);
         }
@@ -236,10 +241,12 @@ public class HFileReaderV3 extends HFileReaderV2 {
       // inlined and is not too big to compile. We also manage position in ByteBuffer ourselves
       // because it is faster than going via range-checked ByteBuffer methods or going through a
       // byte buffer array a byte at a time.
-      int p = blockBuffer.position() + blockBuffer.arrayOffset();
+      int p = blockBuffer.position();
       // Get a long at a time rather than read two individual ints. In micro-benchmarking, even
       // with the extra bit-fiddling, this is order-of-magnitude faster than getting two ints.
-      long ll = Bytes.toLong(blockBuffer.array(), p);
+      long ll = blockBuffer.hasArray()
+          ? Bytes.toLong(blockBuffer.array(), blockBuffer.arrayOffset() + p)
+          : blockBuffer.getLong(p);
       // Read top half as an int of key length and bottom int as value length
       this.currKeyLen = (int)(ll >> Integer.SIZE);
       this.currValueLen = (int)(Bytes.MASK_FOR_LOWER_INT_IN_LONG ^ ll);
@@ -248,7 +255,9 @@ public class HFileReaderV3 extends HFileReaderV2 {
       p += (Bytes.SIZEOF_LONG + currKeyLen + currValueLen);
       if (reader.hfileContext.isIncludesTags()) {
         // Tags length is a short.
-        this.currTagsLen = Bytes.toShort(blockBuffer.array(), p);
+        this.currTagsLen = blockBuffer.hasArray()
+            ? Bytes.toShort(blockBuffer.array(), blockBuffer.arrayOffset() + p)
+            : blockBuffer.getShort(p);
         checkTagsLen();
         p += (Bytes.SIZEOF_SHORT + currTagsLen);
       }
@@ -305,8 +314,7 @@ public class HFileReaderV3 extends HFileReaderV2 {
         }
         if (this.reader.shouldIncludeMemstoreTS()) {
           if (this.reader.decodeMemstoreTS) {
-            memstoreTS = Bytes.readAsVLong(blockBuffer.array(), blockBuffer.arrayOffset()
-                + blockBuffer.position());
+            memstoreTS = readVLong(blockBuffer.position());
             memstoreTSLen = WritableUtils.getVIntSize(memstoreTS);
           } else {
             memstoreTS = 0;
@@ -314,9 +322,8 @@ public class HFileReaderV3 extends HFileReaderV2 {
           }
         }
         blockBuffer.reset();
-        int keyOffset =
-          blockBuffer.arrayOffset() + blockBuffer.position() + (Bytes.SIZEOF_INT * 2);
-        keyOnlyKv.setKey(blockBuffer.array(), keyOffset, klen);
+        loadKey(blockBuffer.position() + (Bytes.SIZEOF_INT * 2), klen);
+        keyOnlyKv.setKey(keyArray, keyArrayOffset, klen);
         int comp = reader.getComparator().compareOnlyKeyPortion(key, keyOnlyKv);
 
         if (comp == 0) {
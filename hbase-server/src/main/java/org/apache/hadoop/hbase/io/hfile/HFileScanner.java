@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.io.TimeRange;
 
 /**
  * A scanner allows you to position yourself within a HFile and
@@ -162,6 +163,14 @@ public interface HFileScanner {
    */
   Cell getNextIndexedKey();
 
+  /**
+   * Lets the scanner step over the data blocks that hold no cell in the given time range when it
+   * moves from one block to the next, if the file has a {@link BlockTimeRangeIndex}. Only for
+   * scans that would skip all cells outside the time range anyway.
+   * @param timeRange the time range of the scan, or null to read all blocks
+   */
+  void setSkipTimeRange(TimeRange timeRange);
+
   /**
    * Close the stream socket to handle RS CLOSE_WAIT. HBASE-9393
    */
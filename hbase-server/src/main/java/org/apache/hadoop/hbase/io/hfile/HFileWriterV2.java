@@ -90,6 +90,12 @@ public class HFileWriterV2 extends AbstractHFileWriter {
 
   protected long maxMemstoreTS = 0;
 
+  /** Time ranges of the data blocks written so far, null if not kept */
+  private BlockTimeRangeIndex.Writer blockTimeRanges;
+  private long blockMinTimestamp;
+  private long blockMaxTimestamp;
+  private boolean blockHasDelete;
+
   /** warn on cell with tags */
   private static boolean warnCellWithTags = true;
 
@@ -125,6 +131,10 @@ public class HFileWriterV2 extends AbstractHFileWriter {
         path, comparator, context);
     float encodeBlockSizeRatio = conf.getFloat(UNIFIED_ENCODED_BLOCKSIZE_RATIO, 1f);
     this.encodedBlockSizeLimit = (int)(hFileContext.getBlocksize() * encodeBlockSizeRatio);
+    if (conf.getBoolean(BlockTimeRangeIndex.BLOCK_TIME_RANGE_INDEX_KEY,
+        BlockTimeRangeIndex.DEFAULT_BLOCK_TIME_RANGE_INDEX)) {
+      this.blockTimeRanges = new BlockTimeRangeIndex.Writer();
+    }
     finishInit(conf);
   }
 
@@ -185,8 +195,14 @@ public class HFileWriterV2 extends AbstractHFileWriter {
       CellComparator.getMidpoint(this.comparator, lastCellOfPreviousBlock, firstCellInBlock);
     dataBlockIndexWriter.addEntry(CellUtil.getCellKeySerializedAsKeyValueKey(indexEntry),
       lastDataBlockOffset, onDiskSize);
+    if (blockTimeRanges != null) {
+      blockTimeRanges.add(lastDataBlockOffset, onDiskSize, blockMinTimestamp, blockMaxTimestamp,
+          blockHasDelete);
+    }
     totalUncompressedBytes += fsBlockWriter.getUncompressedSizeWithHeader();
-    if (cacheConf.shouldCacheDataOnWrite()) {
+    if (cacheConf.shouldCacheDataOnWrite() || (cacheOnWriteKeyRanges != null
+        && cacheConf.isBlockCacheEnabled()
+        && cacheOnWriteKeyRanges.overlaps(firstCellInBlock, lastCell))) {
       doCacheOnWrite(lastDataBlockOffset);
     }
   }
@@ -231,6 +247,9 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     // This is where the next block begins.
     fsBlockWriter.startWriting(BlockType.DATA);
     firstCellInBlock = null;
+    blockMinTimestamp = Long.MAX_VALUE;
+    blockMaxTimestamp = Long.MIN_VALUE;
+    blockHasDelete = false;
     if (lastCell != null) {
       lastCellOfPreviousBlock = lastCell;
     }
@@ -310,6 +329,11 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     lastCell = cell;
     entryCount++;
     this.maxMemstoreTS = Math.max(this.maxMemstoreTS, cell.getSequenceId());
+    if (blockTimeRanges != null) {
+      blockMinTimestamp = Math.min(blockMinTimestamp, cell.getTimestamp());
+      blockMaxTimestamp = Math.max(blockMaxTimestamp, cell.getTimestamp());
+      blockHasDelete |= CellUtil.isDelete(cell);
+    }
   }
 
   @Override
@@ -324,6 +348,9 @@ public class HFileWriterV2 extends AbstractHFileWriter {
 
     finishBlock();
     writeInlineBlocks(true);
+    if (blockTimeRanges != null && blockTimeRanges.size() > 0) {
+      appendMetaBlock(BlockTimeRangeIndex.META_BLOCK_NAME, blockTimeRanges);
+    }
 
     FixedFileTrailer trailer = new FixedFileTrailer(getMajorVersion(), getMinorVersion());
 
@@ -41,6 +41,7 @@ import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
@@ -98,7 +99,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  */
 @InterfaceAudience.Private
 @JsonIgnoreProperties({"encodingCountsForTest"})
-public class LruBlockCache implements ResizableBlockCache, HeapSize {
+public class LruBlockCache implements FirstLevelBlockCache {
 
   private static final Log LOG = LogFactory.getLog(LruBlockCache.class);
 
@@ -128,6 +129,13 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
    */
   static final String LRU_IN_MEMORY_FORCE_MODE_CONFIG_NAME = "hbase.lru.rs.inmemoryforcemode";
 
+  /**
+   * Configuration key to only admit data blocks into a full cache if they are used more often
+   * than the blocks being evicted, see {@link TinyLfuAdmissionFilter}. Makes the cache resistant
+   * to scans.
+   */
+  static final String LRU_TINYLFU_ADMISSION_CONFIG_NAME = "hbase.lru.blockcache.tinylfu.admission";
+
   /** Default Configuration Parameters*/
 
   /** Backing Concurrent Map Configuration */
@@ -148,10 +156,12 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
 
   static final boolean DEFAULT_IN_MEMORY_FORCE_MODE = false;
 
+  static final boolean DEFAULT_TINYLFU_ADMISSION = false;
+
   /** Statistics thread */
   static final int statThreadPeriod = 60 * 5;
-  private static final String LRU_MAX_BLOCK_SIZE = "hbase.lru.max.block.size";
-  private static final long DEFAULT_MAX_BLOCK_SIZE = 16L * 1024L * 1024L;
+  static final String LRU_MAX_BLOCK_SIZE = "hbase.lru.max.block.size";
+  static final long DEFAULT_MAX_BLOCK_SIZE = 16L * 1024L * 1024L;
 
   /** Concurrent map (the cache) */
   private final Map<BlockCacheKey,LruCachedBlock> map;
@@ -221,6 +231,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   /** Where to send victims (blocks evicted/missing from the cache) */
   private BlockCache victimHandler = null;
 
+  /** Decides which data blocks a full cache admits; null to admit all */
+  private volatile TinyLfuAdmissionFilter admissionFilter = null;
+
   /**
    * Default constructor.  Specify maximum size and expected average block
    * size (approximation is fine).
@@ -265,6 +278,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
         conf.getBoolean(LRU_IN_MEMORY_FORCE_MODE_CONFIG_NAME, DEFAULT_IN_MEMORY_FORCE_MODE),
         conf.getLong(LRU_MAX_BLOCK_SIZE, DEFAULT_MAX_BLOCK_SIZE)
         );
+    if (conf.getBoolean(LRU_TINYLFU_ADMISSION_CONFIG_NAME, DEFAULT_TINYLFU_ADMISSION)) {
+      this.admissionFilter = new TinyLfuAdmissionFilter((long) Math.ceil((double) maxSize / blockSize));
+    }
   }
 
   public LruBlockCache(long maxSize, long blockSize, Configuration conf) {
@@ -383,6 +399,13 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       return;
     }
     long currentSize = size.get();
+    TinyLfuAdmissionFilter filter = admissionFilter;
+    // Only a block which would cause an eviction has to beat the blocks being evicted
+    if (filter != null && !inMemory && buf.getBlockType().isData()
+        && currentSize + buf.heapSize() > acceptableSize() && !filter.admit(cacheKey)) {
+      stats.rejectAdmission();
+      return;
+    }
     long currentAcceptableSize = acceptableSize();
     long hardLimitSize = (long) (hardCapacityLimitFactor * currentAcceptableSize);
     if (currentSize >= hardLimitSize) {
@@ -476,6 +499,10 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   @Override
   public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
       boolean updateCacheMetrics) {
+    TinyLfuAdmissionFilter filter = admissionFilter;
+    if (filter != null && !repeat) {
+      filter.record(cacheKey);
+    }
     LruCachedBlock cb = map.get(cacheKey);
     if (cb == null) {
       if (!repeat && updateCacheMetrics) {
@@ -489,6 +516,13 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
 
         // Promote this to L1.
         if (result != null && caching) {
+          if (result.getMemoryType() == MemoryType.SHARED) {
+            // The victim handler's memory can be reused once the block is returned, so promote
+            // and hand out our own copy instead.
+            Cacheable shared = result;
+            result = ((HFileBlock) shared).deepClone();
+            victimHandler.returnBlock(cacheKey, shared);
+          }
           cacheBlock(cacheKey, result, false, true);
         }
         return result;
@@ -505,10 +539,19 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
    * @param cacheKey
    * @return true if contains the block
    */
+  @Override
   public boolean containsBlock(BlockCacheKey cacheKey) {
     return map.containsKey(cacheKey);
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Our own blocks are always on heap; only blocks of the victim handler can be SHARED.
+    if (block.getMemoryType() == MemoryType.SHARED && victimHandler != null) {
+      victimHandler.returnBlock(cacheKey, block);
+    }
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
     LruCachedBlock cb = map.get(cacheKey);
@@ -564,6 +607,10 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       dataBlockElements.decrementAndGet();
     }
     stats.evicted(block.getCachedTime(), block.getCacheKey().isPrimary());
+    TinyLfuAdmissionFilter filter = admissionFilter;
+    if (evictedByEvictionProcess && filter != null && block.getBuffer().getBlockType().isData()) {
+      filter.evicted(block.getCacheKey());
+    }
     if (evictedByEvictionProcess && victimHandler != null) {
       if (victimHandler instanceof BucketCache) {
         boolean wait = getCurrentSize() < acceptableSize();
@@ -718,6 +765,10 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
       }
     } finally {
       stats.evict();
+      TinyLfuAdmissionFilter filter = admissionFilter;
+      if (filter != null) {
+        filter.evictionRunFinished();
+      }
       evictionInProgress = false;
       evictionLock.unlock();
     }
@@ -956,7 +1007,9 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
           "0,": (StringUtils.formatPercent(stats.getHitCachingRatio(), 2) + ", ")) +
         "evictions=" + stats.getEvictionCount() + ", " +
         "evicted=" + stats.getEvictedCount() + ", " +
-        "evictedPerRun=" + stats.evictedPerEviction());
+        "evictedPerRun=" + stats.evictedPerEviction() +
+        (admissionFilter == null ? "" : ", rejectedAdmissions=" + stats.getRejectedAdmissionCount()
+          + ", dataHitRatio=" + StringUtils.formatPercent(stats.getDataHitRatio(), 2)));
   }
 
   /**
@@ -971,7 +1024,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
   }
 
   public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
-      (4 * Bytes.SIZEOF_LONG) + (11 * ClassSize.REFERENCE) +
+      (4 * Bytes.SIZEOF_LONG) + (12 * ClassSize.REFERENCE) +
       (6 * Bytes.SIZEOF_FLOAT) + (2 * Bytes.SIZEOF_BOOLEAN)
       + ClassSize.OBJECT);
 
@@ -1167,6 +1220,7 @@ public class LruBlockCache implements ResizableBlockCache, HeapSize {
     return counts;
   }
 
+  @Override
   public void setVictimCache(BlockCache handler) {
     assert victimHandler == null;
     victimHandler = handler;
@@ -0,0 +1,814 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.util.StringUtils;
+import org.codehaus.jackson.annotate.JsonIgnore;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An on heap block cache with the block priorities of {@link LruBlockCache}, which evicts as
+ * part of each insert instead of in a background thread walking the whole cache.<p>
+ *
+ * The cache is split into a power of two number of shards by the hash of the block key, each
+ * with its own lock and an equal part of the acceptable cache size. A shard keeps one CLOCK list
+ * per {@link BlockPriority}. Reads take no lock: a hit only marks the block as referenced, and
+ * promotes a single-access block to multiple-access like {@link LruBlockCache} does. An insert
+ * that takes its shard above its part of the cache sweeps the shard's lists until enough blocks
+ * are gone. The sweep gives referenced blocks a second chance, moving them to the tail of the
+ * list of their current priority, and evicts from the priority that exceeds its share the most,
+ * so the single, multi and memory factors are honoured as in {@link LruBlockCache}. The cost of
+ * eviction is spread over the inserts and bounded by the shard size rather than the cache size.
+ */
+@InterfaceAudience.Private
+public class ShardedLruBlockCache implements FirstLevelBlockCache {
+
+  private static final Log LOG = LogFactory.getLog(ShardedLruBlockCache.class);
+
+  /**
+   * Number of shards the cache is split into. Rounded down to a power of two, and reduced so
+   * that each shard can hold a reasonable number of blocks.
+   */
+  static final String SHARDS_CONFIG_NAME = "hbase.blockcache.sharded.shards";
+
+  static final int DEFAULT_SHARDS = 16;
+
+  /** Smallest number of blocks of the expected size a shard is made to hold */
+  static final int MIN_BLOCKS_PER_SHARD = 64;
+
+  /** Concurrent map (the cache) */
+  private final ConcurrentHashMap<BlockCacheKey, Entry> map;
+
+  private final Shard[] shards;
+
+  /** Current size of cache */
+  private final AtomicLong size;
+
+  /** Current size of data blocks */
+  private final AtomicLong dataBlockSize = new AtomicLong(0);
+
+  /** Current number of cached elements */
+  private final AtomicLong elements = new AtomicLong(0);
+
+  /** Current number of cached data block elements */
+  private final AtomicLong dataBlockElements = new AtomicLong(0);
+
+  /** Cache access count (sequential ID) */
+  private final AtomicLong count = new AtomicLong(0);
+
+  /** Cache statistics */
+  private final CacheStats stats;
+
+  /** Maximum allowable size of cache */
+  private volatile long maxSize;
+
+  /** Overhead of the structure itself */
+  private final long overhead;
+
+  private final long maxBlockSize;
+  private final float acceptableFactor;
+  private final float singleFactor;
+  private final float multiFactor;
+  private final float memoryFactor;
+
+  /** Whether in-memory hfile's data block has higher priority when evicting */
+  private final boolean forceInMemory;
+
+  /** Where to send victims (blocks evicted/missing from the cache) */
+  private BlockCache victimHandler = null;
+
+  /** Statistics thread schedule pool */
+  private final ScheduledExecutorService scheduleThreadPool = Executors.newScheduledThreadPool(1,
+    new ThreadFactoryBuilder().setNameFormat("ShardedLruBlockCacheStatsExecutor")
+      .setDaemon(true).build());
+
+  /**
+   * @param maxSize maximum size of the cache, in bytes
+   * @param blockSize expected average size of blocks, in bytes
+   * @param conf configuration; the factors are read from the same keys as {@link LruBlockCache}
+   */
+  public ShardedLruBlockCache(long maxSize, long blockSize, Configuration conf) {
+    this.maxBlockSize = conf.getLong(LruBlockCache.LRU_MAX_BLOCK_SIZE,
+      LruBlockCache.DEFAULT_MAX_BLOCK_SIZE);
+    this.acceptableFactor = conf.getFloat(LruBlockCache.LRU_ACCEPTABLE_FACTOR_CONFIG_NAME,
+      LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR);
+    this.singleFactor = conf.getFloat(LruBlockCache.LRU_SINGLE_PERCENTAGE_CONFIG_NAME,
+      LruBlockCache.DEFAULT_SINGLE_FACTOR);
+    this.multiFactor = conf.getFloat(LruBlockCache.LRU_MULTI_PERCENTAGE_CONFIG_NAME,
+      LruBlockCache.DEFAULT_MULTI_FACTOR);
+    this.memoryFactor = conf.getFloat(LruBlockCache.LRU_MEMORY_PERCENTAGE_CONFIG_NAME,
+      LruBlockCache.DEFAULT_MEMORY_FACTOR);
+    this.forceInMemory = conf.getBoolean(LruBlockCache.LRU_IN_MEMORY_FORCE_MODE_CONFIG_NAME,
+      LruBlockCache.DEFAULT_IN_MEMORY_FORCE_MODE);
+    if (singleFactor + multiFactor + memoryFactor != 1 ||
+        singleFactor < 0 || multiFactor < 0 || memoryFactor < 0) {
+      throw new IllegalArgumentException("Single, multi, and memory factors " +
+          " should be non-negative and total 1.0");
+    }
+    if (acceptableFactor >= 1.0f || acceptableFactor <= 0) {
+      throw new IllegalArgumentException("acceptableFactor must be between 0 and 1");
+    }
+    int shardCount = conf.getInt(SHARDS_CONFIG_NAME, DEFAULT_SHARDS);
+    long maxShards = Math.max(1, maxSize / blockSize / MIN_BLOCKS_PER_SHARD);
+    shardCount = Integer.highestOneBit((int) Math.max(1, Math.min(shardCount, maxShards)));
+    this.shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard();
+    }
+    this.maxSize = maxSize;
+    int mapInitialSize = (int) Math.ceil(1.2 * maxSize / blockSize);
+    this.map = new ConcurrentHashMap<BlockCacheKey, Entry>(mapInitialSize,
+        LruBlockCache.DEFAULT_LOAD_FACTOR, shardCount);
+    this.overhead = calculateOverhead(maxSize, blockSize, shardCount);
+    this.size = new AtomicLong(overhead);
+    this.stats = new CacheStats(this.getClass().getSimpleName());
+    this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
+        LruBlockCache.statThreadPeriod, LruBlockCache.statThreadPeriod, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+    for (Shard shard : shards) {
+      shard.lock.lock();
+      try {
+        shard.evict();
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+  }
+
+  // BlockCache implementation
+
+  /**
+   * Cache the block with the specified name and buffer, evicting blocks of the same shard if it
+   * grows above its part of the cache.
+   * <p>
+   * It is assumed this will NOT be called on an already cached block. In rare cases (HBASE-8547)
+   * this can happen, for which we compare the buffer contents.
+   * @param cacheKey block's cache key
+   * @param buf block buffer
+   * @param inMemory if block is in-memory
+   * @param cacheDataInL1
+   */
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory,
+      final boolean cacheDataInL1) {
+    if (buf.heapSize() > maxBlockSize) {
+      // If there are a lot of blocks that are too
+      // big this can make the logs way too noisy.
+      // So we log 2%
+      if (stats.failInsert() % 50 == 0) {
+        LOG.warn("Trying to cache too large a block "
+            + cacheKey.getHfileName() + " @ "
+            + cacheKey.getOffset()
+            + " is " + buf.heapSize()
+            + " which is larger than " + maxBlockSize);
+      }
+      return;
+    }
+    Entry cb = map.get(cacheKey);
+    if (cb == null) {
+      cb = new Entry(cacheKey, buf, count.incrementAndGet(), inMemory);
+      Shard shard = shardFor(cacheKey);
+      shard.lock.lock();
+      try {
+        Entry existing = map.putIfAbsent(cacheKey, cb);
+        if (existing == null) {
+          shard.add(cb);
+          shard.evict();
+          return;
+        }
+        cb = existing;
+      } finally {
+        shard.lock.unlock();
+      }
+    }
+    // compare the contents, if they are not equal, we are in big trouble
+    if (BlockCacheUtil.compareCacheBlock(buf, cb.getBuffer()) != 0) {
+      throw new RuntimeException("Cached block contents differ, which should not have happened."
+        + "cacheKey:" + cacheKey);
+    }
+    String msg = "Cached an already cached block: " + cacheKey + " cb:" + cb.getCacheKey();
+    msg += ". This is harmless and can happen in rare cases (see HBASE-8547)";
+    LOG.warn(msg);
+  }
+
+  /**
+   * Cache the block with the specified name and buffer.
+   * <p>
+   * @param cacheKey block's cache key
+   * @param buf block buffer
+   */
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false, false);
+  }
+
+  /**
+   * Get the buffer of the block with the specified name.
+   * @param cacheKey block's cache key
+   * @param caching true if the caller caches blocks on cache misses
+   * @param repeat Whether this is a repeat lookup for the same block
+   *        (used to avoid double counting cache misses when doing double-check locking)
+   * @param updateCacheMetrics Whether to update cache metrics or not
+   * @return buffer of specified cache key, or null if not in cache
+   */
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
+      boolean updateCacheMetrics) {
+    Entry cb = map.get(cacheKey);
+    if (cb == null) {
+      if (!repeat && updateCacheMetrics) {
+        stats.miss(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+      }
+      // If there is another block cache then try and read there.
+      // However if this is a retry ( second time in double checked locking )
+      // And it's already a miss then the l2 will also be a miss.
+      if (victimHandler != null && !repeat) {
+        Cacheable result = victimHandler.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
+
+        // Promote this to L1.
+        if (result != null && caching) {
+          if (result.getMemoryType() == MemoryType.SHARED) {
+            // The victim handler's memory can be reused once the block is returned, so promote
+            // and hand out our own copy instead.
+            Cacheable shared = result;
+            result = ((HFileBlock) shared).deepClone();
+            victimHandler.returnBlock(cacheKey, shared);
+          }
+          cacheBlock(cacheKey, result, false, true);
+        }
+        return result;
+      }
+      return null;
+    }
+    if (updateCacheMetrics) stats.hit(caching, cacheKey.isPrimary(), cacheKey.getBlockType());
+    cb.access(count.incrementAndGet());
+    cb.referenced = true;
+    return cb.getBuffer();
+  }
+
+  @Override
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    return map.containsKey(cacheKey);
+  }
+
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Our own blocks are always on heap; only blocks of the victim handler can be SHARED.
+    if (block.getMemoryType() == MemoryType.SHARED && victimHandler != null) {
+      victimHandler.returnBlock(cacheKey, block);
+    }
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    Entry cb = map.get(cacheKey);
+    if (cb == null) return false;
+    Shard shard = shardFor(cacheKey);
+    shard.lock.lock();
+    try {
+      return shard.remove(cb, false) > 0;
+    } finally {
+      shard.lock.unlock();
+    }
+  }
+
+  /**
+   * Evicts all blocks for a specific HFile. This is a linear-time search through all blocks
+   * in the cache.
+   *
+   * @return the number of blocks evicted
+   */
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    int numEvicted = 0;
+    for (BlockCacheKey key : map.keySet()) {
+      if (key.getHfileName().equals(hfileName)) {
+        if (evictBlock(key))
+          ++numEvicted;
+      }
+    }
+    if (victimHandler != null) {
+      numEvicted += victimHandler.evictBlocksByHfileName(hfileName);
+    }
+    return numEvicted;
+  }
+
+  private Shard shardFor(BlockCacheKey cacheKey) {
+    // Offsets of blocks are multiples of the block size, mix in the high bits of the hash.
+    int h = cacheKey.hashCode();
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    return shards[h & (shards.length - 1)];
+  }
+
+  /**
+   * Part of the cache size a shard may use before inserts into it evict
+   */
+  private long shardAcceptableSize() {
+    return Math.max(0, (long) Math.floor(maxSize * acceptableFactor) - overhead) / shards.length;
+  }
+
+  /**
+   * Entry of the cache; also a node of the CLOCK list of its shard, which is guarded by the
+   * lock of the shard.
+   */
+  static final class Entry extends LruCachedBlock {
+    static final long ENTRY_OVERHEAD = ClassSize.align(
+      (3 * ClassSize.REFERENCE) + Bytes.SIZEOF_BOOLEAN);
+
+    /** Set on each hit, cleared when the sweep passes over the entry */
+    volatile boolean referenced = false;
+    private Entry prev;
+    private Entry next;
+    private ClockList list;
+
+    Entry(BlockCacheKey cacheKey, Cacheable buf, long accessTime, boolean inMemory) {
+      super(cacheKey, buf, accessTime, inMemory);
+    }
+
+    @Override
+    public long heapSize() {
+      return super.heapSize() + ENTRY_OVERHEAD;
+    }
+  }
+
+  /**
+   * Doubly linked list of entries, swept from the head.
+   */
+  private static final class ClockList {
+    private final String name;
+    private Entry head;
+    private Entry tail;
+    private long totalSize = 0;
+    private int count = 0;
+
+    ClockList(String name) {
+      this.name = name;
+    }
+
+    void addLast(Entry e) {
+      e.prev = tail;
+      e.next = null;
+      if (tail == null) {
+        head = e;
+      } else {
+        tail.next = e;
+      }
+      tail = e;
+      e.list = this;
+      totalSize += e.heapSize();
+      count++;
+    }
+
+    void remove(Entry e) {
+      if (e.prev == null) {
+        head = e.next;
+      } else {
+        e.prev.next = e.next;
+      }
+      if (e.next == null) {
+        tail = e.prev;
+      } else {
+        e.next.prev = e.prev;
+      }
+      e.prev = null;
+      e.next = null;
+      e.list = null;
+      totalSize -= e.heapSize();
+      count--;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+        .add("name", name)
+        .add("count", count)
+        .add("totalSize", StringUtils.byteDesc(totalSize))
+        .toString();
+    }
+  }
+
+  /**
+   * A part of the cache with its own lock and CLOCK lists.
+   */
+  private final class Shard {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ClockList single = new ClockList("single");
+    private final ClockList multi = new ClockList("multi");
+    private final ClockList memory = new ClockList("memory");
+
+    private ClockList listFor(BlockPriority priority) {
+      switch (priority) {
+        case MULTI:
+          return multi;
+        case MEMORY:
+          return memory;
+        default:
+          return single;
+      }
+    }
+
+    private long totalSize() {
+      return single.totalSize + multi.totalSize + memory.totalSize;
+    }
+
+    /**
+     * Adds a new entry, the caller holds the lock
+     */
+    void add(Entry cb) {
+      listFor(cb.getPriority()).addLast(cb);
+      long heapSize = cb.heapSize();
+      size.addAndGet(heapSize);
+      elements.incrementAndGet();
+      if (cb.getBuffer().getBlockType().isData()) {
+        dataBlockSize.addAndGet(heapSize);
+        dataBlockElements.incrementAndGet();
+      }
+    }
+
+    /**
+     * Removes the entry if it is still cached, the caller holds the lock.
+     * @param evictedByEviction true if the entry is removed to make room, and so should go to the
+     *          victim handler
+     * @return the heap size of the removed entry, or 0 if it was not cached any more
+     */
+    long remove(Entry cb, boolean evictedByEviction) {
+      if (cb.list == null || !map.remove(cb.getCacheKey(), cb)) {
+        return 0;
+      }
+      cb.list.remove(cb);
+      long heapSize = cb.heapSize();
+      size.addAndGet(-heapSize);
+      elements.decrementAndGet();
+      if (cb.getBuffer().getBlockType().isData()) {
+        dataBlockSize.addAndGet(-heapSize);
+        dataBlockElements.decrementAndGet();
+      }
+      stats.evicted(cb.getCachedTime(), cb.getCacheKey().isPrimary());
+      if (evictedByEviction && victimHandler != null) {
+        boolean inMemory = cb.getPriority() == BlockPriority.MEMORY;
+        if (victimHandler instanceof BucketCache) {
+          // Never wait for the writers, an insert is paying for this eviction
+          ((BucketCache) victimHandler).cacheBlockWithWait(cb.getCacheKey(), cb.getBuffer(),
+              inMemory, true, false);
+        } else {
+          victimHandler.cacheBlock(cb.getCacheKey(), cb.getBuffer());
+        }
+      }
+      return heapSize;
+    }
+
+    /**
+     * Sweeps the lists until the shard is within its part of the cache, the caller holds the
+     * lock.
+     */
+    void evict() {
+      long acceptable = shardAcceptableSize();
+      if (totalSize() <= acceptable) {
+        return;
+      }
+      // Readers may set reference bits while we sweep; only give as many second chances as there
+      // are entries, so an insert never sweeps for long.
+      int chances = single.count + multi.count + memory.count;
+      long bytesFreed = 0;
+      while (totalSize() > acceptable) {
+        ClockList list = victimList(acceptable);
+        if (list == null) {
+          break;
+        }
+        Entry cb = list.head;
+        if (cb.referenced && chances > 0) {
+          chances--;
+          cb.referenced = false;
+          list.remove(cb);
+          // A block hit while single access is promoted here
+          listFor(cb.getPriority()).addLast(cb);
+          continue;
+        }
+        bytesFreed += remove(cb, true);
+      }
+      stats.evict();
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Shard eviction freed " + StringUtils.byteDesc(bytesFreed) + "; " + single
+          + ", " + multi + ", " + memory);
+      }
+    }
+
+    /**
+     * Picks the list to take the next victim from, following the rules of
+     * {@link LruBlockCache#evict()}.
+     */
+    private ClockList victimList(long acceptable) {
+      if (forceInMemory || memoryFactor > 0.999f) {
+        if (single.count == 0 && multi.count == 0) {
+          return memory.count == 0 ? null : memory;
+        }
+        // Keep the ratio between single and multi at 1:2
+        if (multi.count == 0 || (single.count > 0 && 2 * single.totalSize >= multi.totalSize)) {
+          return single;
+        }
+        return multi;
+      }
+      ClockList victims = null;
+      long maxOverflow = Long.MIN_VALUE;
+      for (ClockList list : new ClockList[] { single, multi, memory }) {
+        if (list.count == 0) {
+          continue;
+        }
+        long overflow = list.totalSize - (long) (acceptable * factorFor(list));
+        if (overflow > maxOverflow) {
+          maxOverflow = overflow;
+          victims = list;
+        }
+      }
+      return victims;
+    }
+
+    private float factorFor(ClockList list) {
+      if (list == single) return singleFactor;
+      if (list == multi) return multiFactor;
+      return memoryFactor;
+    }
+  }
+
+  @Override
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return this.size.get();
+  }
+
+  @Override
+  public long getCurrentDataSize() {
+    return this.dataBlockSize.get();
+  }
+
+  @Override
+  public long getFreeSize() {
+    return getMaxSize() - getCurrentSize();
+  }
+
+  @Override
+  public long size() {
+    return getMaxSize();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return this.elements.get();
+  }
+
+  @Override
+  public long getDataBlockCount() {
+    return this.dataBlockElements.get();
+  }
+
+  @VisibleForTesting
+  int getShardCount() {
+    return shards.length;
+  }
+
+  @Override
+  public long heapSize() {
+    return getCurrentSize();
+  }
+
+  static long calculateOverhead(long maxSize, long blockSize, int shardCount) {
+    return ClassSize.align(ClassSize.OBJECT + (12 * ClassSize.REFERENCE) +
+        (2 * Bytes.SIZEOF_LONG) + (4 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN) +
+        ClassSize.CONCURRENT_HASHMAP +
+        ((long) Math.ceil(maxSize * 1.2 / blockSize) * ClassSize.CONCURRENT_HASHMAP_ENTRY) +
+        ((long) shardCount * (ClassSize.CONCURRENT_HASHMAP_SEGMENT + ClassSize.REENTRANT_LOCK));
+  }
+
+  /**
+   * Get counter statistics for this cache.
+   */
+  @Override
+  public CacheStats getStats() {
+    return this.stats;
+  }
+
+  /*
+   * Statistics thread.  Periodically prints the cache statistics to the log.
+   */
+  static class StatisticsThread extends Thread {
+    private final ShardedLruBlockCache cache;
+
+    public StatisticsThread(ShardedLruBlockCache cache) {
+      super("ShardedLruBlockCacheStats");
+      setDaemon(true);
+      this.cache = cache;
+    }
+
+    @Override
+    public void run() {
+      cache.logStats();
+    }
+  }
+
+  public void logStats() {
+    long totalSize = heapSize();
+    long freeSize = maxSize - totalSize;
+    LOG.info("totalSize=" + StringUtils.byteDesc(totalSize) + ", " +
+        "freeSize=" + StringUtils.byteDesc(freeSize) + ", " +
+        "max=" + StringUtils.byteDesc(this.maxSize) + ", " +
+        "shards=" + shards.length + ", " +
+        "blockCount=" + getBlockCount() + ", " +
+        "accesses=" + stats.getRequestCount() + ", " +
+        "hits=" + stats.getHitCount() + ", " +
+        "hitRatio=" + (stats.getHitCount() == 0 ?
+          "0, " : (StringUtils.formatPercent(stats.getHitRatio(), 2) + ", ")) +
+        "cachingAccesses=" + stats.getRequestCachingCount() + ", " +
+        "cachingHits=" + stats.getHitCachingCount() + ", " +
+        "cachingHitsRatio=" + (stats.getHitCachingCount() == 0 ?
+          "0, " : (StringUtils.formatPercent(stats.getHitCachingRatio(), 2) + ", ")) +
+        "evictions=" + stats.getEvictionCount() + ", " +
+        "evicted=" + stats.getEvictedCount() + ", " +
+        "evictedPerRun=" + stats.evictedPerEviction());
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("blockCount", getBlockCount())
+      .add("currentSize", getCurrentSize())
+      .add("freeSize", getFreeSize())
+      .add("maxSize", getMaxSize())
+      .add("heapSize", heapSize())
+      .add("shards", shards.length)
+      .add("acceptableFactor", acceptableFactor)
+      .add("singleFactor", singleFactor)
+      .add("multiFactor", multiFactor)
+      .add("memoryFactor", memoryFactor)
+      .toString();
+  }
+
+  @Override
+  public Iterator<CachedBlock> iterator() {
+    final Iterator<Entry> iterator = map.values().iterator();
+
+    return new Iterator<CachedBlock>() {
+      private final long now = System.nanoTime();
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public CachedBlock next() {
+        final Entry b = iterator.next();
+        return new CachedBlock() {
+          @Override
+          public String toString() {
+            return BlockCacheUtil.toString(this, now);
+          }
+
+          @Override
+          public BlockPriority getBlockPriority() {
+            return b.getPriority();
+          }
+
+          @Override
+          public BlockType getBlockType() {
+            return b.getBuffer().getBlockType();
+          }
+
+          @Override
+          public long getOffset() {
+            return b.getCacheKey().getOffset();
+          }
+
+          @Override
+          public long getSize() {
+            return b.getBuffer().heapSize();
+          }
+
+          @Override
+          public long getCachedTime() {
+            return b.getCachedTime();
+          }
+
+          @Override
+          public String getFilename() {
+            return b.getCacheKey().getHfileName();
+          }
+
+          @Override
+          public int compareTo(CachedBlock other) {
+            int diff = this.getFilename().compareTo(other.getFilename());
+            if (diff != 0) return diff;
+            diff = Long.compare(this.getOffset(), other.getOffset());
+            if (diff != 0) return diff;
+            if (other.getCachedTime() < 0 || this.getCachedTime() < 0) {
+              throw new IllegalStateException("" + this.getCachedTime() + ", " +
+                other.getCachedTime());
+            }
+            return Long.compare(other.getCachedTime(), this.getCachedTime());
+          }
+
+          @Override
+          public int hashCode() {
+            return b.hashCode();
+          }
+
+          @Override
+          public boolean equals(Object obj) {
+            if (obj instanceof CachedBlock) {
+              CachedBlock cb = (CachedBlock)obj;
+              return compareTo(cb) == 0;
+            } else {
+              return false;
+            }
+          }
+        };
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public void shutdown() {
+    if (victimHandler != null)
+      victimHandler.shutdown();
+    this.scheduleThreadPool.shutdown();
+    for (int i = 0; i < 10; i++) {
+      if (!this.scheduleThreadPool.isShutdown()) {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          LOG.warn("Interrupted while sleeping");
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+
+    if (!this.scheduleThreadPool.isShutdown()) {
+      List<Runnable> runnables = this.scheduleThreadPool.shutdownNow();
+      LOG.debug("Still running " + runnables);
+    }
+  }
+
+  @Override
+  public void setVictimCache(BlockCache handler) {
+    assert victimHandler == null;
+    victimHandler = handler;
+  }
+
+  @Override
+  @JsonIgnore
+  public BlockCache[] getBlockCaches() {
+    if (victimHandler != null)
+      return new BlockCache[] {this, this.victimHandler};
+    return null;
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Admission filter for a full block cache, after TinyLFU. Every access of a block is counted in
+ * a count-min sketch of 4-bit counters. Once the cache is full, a new block is only admitted if
+ * it was accessed more often than the blocks the cache has recently been evicting, so a one-off
+ * scan can not push out the working set.
+ * <p>
+ * The counters are halved once the number of recorded accesses reaches ten times the expected
+ * number of blocks, so that frequencies follow changes of the working set. Updates are not
+ * synchronized; the odd lost increment does not matter for an estimate.
+ */
+@InterfaceAudience.Private
+public class TinyLfuAdmissionFilter {
+
+  private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+      0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  private static final int DEPTH = SEEDS.length;
+  private static final int COUNTERS_PER_LONG = 16;
+  private static final int MAX_COUNT = 15;
+  private static final long HALF_MASK = 0x7777777777777777L;
+  /** Even a small cache sees many more distinct blocks than it holds */
+  private static final int MIN_WIDTH = 1024;
+
+  /** Counters of all rows, each row {@link #width} 4-bit counters */
+  private final long[] table;
+  private final int width;
+  private final int sampleSize;
+  private final AtomicInteger additions = new AtomicInteger(0);
+
+  /** Sum and number of the frequencies of the blocks evicted in the current eviction run */
+  private long victimFrequencySum;
+  private int victimCount;
+  /** Typical frequency of the blocks the cache evicts; a candidate must beat it */
+  private volatile int victimFrequency = 0;
+
+  /**
+   * @param expectedBlocks number of blocks the cache is expected to hold
+   */
+  public TinyLfuAdmissionFilter(long expectedBlocks) {
+    int w = 1;
+    while (w < expectedBlocks && w < (1 << 24)) {
+      w <<= 1;
+    }
+    this.width = Math.max(w, MIN_WIDTH);
+    this.table = new long[width * DEPTH / COUNTERS_PER_LONG];
+    this.sampleSize = (int) Math.min(10L * width, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Records an access of the block
+   */
+  public void record(BlockCacheKey key) {
+    int hash = spread(key.hashCode());
+    int min = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      min = Math.min(min, count(i, hash));
+    }
+    if (min == MAX_COUNT) {
+      return;
+    }
+    // Conservative update, only the smallest counters are incremented
+    for (int i = 0; i < DEPTH; i++) {
+      if (count(i, hash) == min) {
+        increment(i, hash);
+      }
+    }
+    if (additions.incrementAndGet() >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * @return estimated number of recent accesses of the block
+   */
+  public int frequency(BlockCacheKey key) {
+    int hash = spread(key.hashCode());
+    int min = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      min = Math.min(min, count(i, hash));
+    }
+    return min;
+  }
+
+  /**
+   * @return true if the block was used more often than the blocks the cache is evicting
+   */
+  public boolean admit(BlockCacheKey key) {
+    return frequency(key) > victimFrequency;
+  }
+
+  /**
+   * Called by the eviction run for each block it evicts
+   */
+  void evicted(BlockCacheKey key) {
+    victimFrequencySum += frequency(key);
+    victimCount++;
+  }
+
+  /**
+   * Called at the end of an eviction run, to take the frequency of its victims as the new bar
+   */
+  void evictionRunFinished() {
+    if (victimCount > 0) {
+      victimFrequency = (int) (victimFrequencySum / victimCount);
+    }
+    victimFrequencySum = 0;
+    victimCount = 0;
+  }
+
+  @VisibleForTesting
+  int getVictimFrequency() {
+    return victimFrequency;
+  }
+
+  private void reset() {
+    synchronized (table) {
+      if (additions.get() < sampleSize) {
+        return;
+      }
+      for (int i = 0; i < table.length; i++) {
+        table[i] = (table[i] >>> 1) & HALF_MASK;
+      }
+      additions.set(additions.get() / 2);
+      // Victims aged the same way; keeps the bar from staying above every new block
+      victimFrequency = victimFrequency / 2;
+    }
+  }
+
+  private int counterIndex(int row, int hash) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return row * width + (((int) h) & (width - 1));
+  }
+
+  private int count(int row, int hash) {
+    int c = counterIndex(row, hash);
+    int shift = (c & (COUNTERS_PER_LONG - 1)) << 2;
+    return (int) ((table[c / COUNTERS_PER_LONG] >>> shift) & 0xfL);
+  }
+
+  private void increment(int row, int hash) {
+    int c = counterIndex(row, hash);
+    int shift = (c & (COUNTERS_PER_LONG - 1)) << 2;
+    int idx = c / COUNTERS_PER_LONG;
+    if (((table[idx] >>> shift) & 0xfL) < MAX_COUNT) {
+      table[idx] += 1L << shift;
+    }
+  }
+
+  /** Mixes the bits of a hash code, as the hash codes of cache keys cluster */
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
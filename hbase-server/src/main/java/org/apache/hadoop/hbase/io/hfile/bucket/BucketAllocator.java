@@ -352,11 +352,13 @@ public final class BucketAllocator {
 
     // each bucket has an offset, sizeindex. probably the buckets are too big
     // in our default state. so what we do is reconfigure them according to what
-    // we've found. we can only reconfigure each bucket once; if more than once,
-    // we know there's a bug, so we just log the info, throw, and start again...
+    // we've found. we can only reconfigure each bucket once. The map may have been
+    // persisted while the cache was in use, so it can hold entries from before and
+    // after a bucket was reused; those which do not fit the bucket are dropped.
     boolean[] reconfigured = new boolean[buckets.length];
     int sizeNotMatchedCount = 0;
     int insufficientCapacityCount = 0;
+    int overlappingCount = 0;
     Iterator<Map.Entry<BlockCacheKey, BucketEntry>> iterator = map.entrySet().iterator();
     while (iterator.hasNext()) {
       Map.Entry<BlockCacheKey, BucketEntry> entry = iterator.next();
@@ -382,9 +384,11 @@ public final class BucketAllocator {
       }
       Bucket b = buckets[bucketNo];
       if (reconfigured[bucketNo]) {
-        if (b.sizeIndex() != bucketSizeIndex)
-          throw new BucketAllocatorException(
-              "Inconsistent allocation in bucket map;");
+        if (b.sizeIndex() != bucketSizeIndex) {
+          overlappingCount++;
+          iterator.remove();
+          continue;
+        }
       } else {
         if (!b.isCompletelyFree())
           throw new BucketAllocatorException("Reconfiguring bucket "
@@ -397,8 +401,15 @@ public final class BucketAllocator {
         bsi.instantiateBucket(b);
         reconfigured[bucketNo] = true;
       }
+      try {
+        buckets[bucketNo].addAllocation(foundOffset);
+      } catch (BucketAllocatorException e) {
+        // Already allocated to another entry, or not at an item boundary of the bucket
+        overlappingCount++;
+        iterator.remove();
+        continue;
+      }
       realCacheSize.addAndGet(foundLen);
-      buckets[bucketNo].addAllocation(foundOffset);
       usedSize += buckets[bucketNo].getItemAllocationSize();
       bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
     }
@@ -411,6 +422,10 @@ public final class BucketAllocator {
       LOG.warn("There are " + insufficientCapacityCount + " blocks which can't be rebuilt - "
           + "did you shrink the cache?");
     }
+    if (overlappingCount > 0) {
+      LOG.warn("There are " + overlappingCount + " blocks which can't be rebuilt because they "
+          + "overlap other blocks");
+    }
   }
 
   @Override
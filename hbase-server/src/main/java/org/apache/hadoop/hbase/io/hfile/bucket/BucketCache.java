@@ -20,13 +20,11 @@
  */
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -50,6 +48,8 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 import com.google.common.base.Preconditions;
 import org.apache.commons.logging.Log;
@@ -65,6 +65,7 @@ import org.apache.hadoop.hbase.io.hfile.BlockPriority;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.CacheableDeserializer;
 import org.apache.hadoop.hbase.io.hfile.CacheableDeserializerIdManager;
 import org.apache.hadoop.hbase.io.hfile.CachedBlock;
@@ -107,6 +108,13 @@ public class BucketCache implements BlockCache, HeapSize {
   static final String ACCEPT_FACTOR_CONFIG_NAME = "hbase.bucketcache.acceptfactor";
   static final String MIN_FACTOR_CONFIG_NAME = "hbase.bucketcache.minfactor";
 
+  /**
+   * How often a persistent cache checkpoints its backing map while running, so that it survives
+   * a crash. Zero or less only persists on shutdown.
+   */
+  static final String PERSIST_INTERVAL_CONFIG_NAME = "hbase.bucketcache.persist.intervalinmillis";
+  static final long DEFAULT_PERSIST_INTERVAL = 60 * 1000;
+
   /** Priority buckets */
   @VisibleForTesting
   static final float DEFAULT_SINGLE_FACTOR = 0.25f;
@@ -179,6 +187,11 @@ public class BucketCache implements BlockCache, HeapSize {
   private final BucketCacheStats cacheStats = new BucketCacheStats();
 
   private final String persistencePath;
+  /** True if the backing map is persisted; blocks then carry a checksum, see BucketEntry */
+  private final boolean persistent;
+  /** Bumped on every change of the backingMap, to skip checkpoints when nothing changed */
+  private final AtomicLong backingMapVersion = new AtomicLong(0);
+  private long persistedVersion = -1;
   private final long cacheCapacity;
   /** Approximate block size */
   private final long blockSize;
@@ -276,6 +289,7 @@ public class BucketCache implements BlockCache, HeapSize {
 
     this.cacheCapacity = capacity;
     this.persistencePath = persistencePath;
+    this.persistent = ioEngine.isPersistent() && persistencePath != null;
     this.blockSize = blockSize;
     this.ioErrorsTolerationDuration = ioErrorsTolerationDuration;
 
@@ -289,14 +303,11 @@ public class BucketCache implements BlockCache, HeapSize {
 
     this.backingMap = new ConcurrentHashMap<BlockCacheKey, BucketEntry>((int) blockNumCapacity);
 
-    if (ioEngine.isPersistent() && persistencePath != null) {
+    if (persistent) {
       try {
         retrieveFromFile(bucketSizes);
       } catch (IOException ioex) {
         LOG.error("Can't restore from file because of", ioex);
-      } catch (ClassNotFoundException cnfe) {
-        LOG.error("Can't restore from file in rebuild because can't deserialise",cnfe);
-        throw new RuntimeException(cnfe);
       }
     }
     final String threadName = Thread.currentThread().getName();
@@ -313,6 +324,15 @@ public class BucketCache implements BlockCache, HeapSize {
     // every five minutes.
     this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
         statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+    long persistInterval = conf.getLong(PERSIST_INTERVAL_CONFIG_NAME, DEFAULT_PERSIST_INTERVAL);
+    if (persistent && persistInterval > 0) {
+      this.scheduleThreadPool.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          checkpoint();
+        }
+      }, persistInterval, persistInterval, TimeUnit.MILLISECONDS);
+    }
     LOG.info("Started bucket cache; ioengine=" + ioEngineName +
         ", capacity=" + StringUtils.byteDesc(capacity) +
       ", blockSize=" + StringUtils.byteDesc(blockSize) + ", writerThreadNum=" +
@@ -373,13 +393,15 @@ public class BucketCache implements BlockCache, HeapSize {
       String[] filePaths =
           ioEngineName.substring(ioEngineName.indexOf(":") + 1).split(FileIOEngine.FILE_DELIMITER);
       return new FileIOEngine(capacity, filePaths);
-    } else if (ioEngineName.startsWith("offheap"))
+    } else if (ioEngineName.startsWith("mmap:"))
+      return new FileMmapEngine(ioEngineName.substring(5), capacity);
+    else if (ioEngineName.startsWith("offheap"))
       return new ByteBufferIOEngine(capacity, true);
     else if (ioEngineName.startsWith("heap"))
       return new ByteBufferIOEngine(capacity, false);
     else
       throw new IllegalArgumentException(
-          "Don't understand io engine name for cache - prefix with file:, heap or offheap");
+          "Don't understand io engine name for cache - prefix with file:, mmap:, heap or offheap");
   }
 
   /**
@@ -425,9 +447,15 @@ public class BucketCache implements BlockCache, HeapSize {
        */
       if (!cacheDataInL1) {
         Cacheable existingBlock = getBlock(cacheKey, false, false, false);
-        if (BlockCacheUtil.compareCacheBlock(cachedItem, existingBlock) != 0) {
-          throw new RuntimeException("Cached block contents differ, which should not have happened."
-                                    + "cacheKey:" + cacheKey);
+        try {
+          if (BlockCacheUtil.compareCacheBlock(cachedItem, existingBlock) != 0) {
+            throw new RuntimeException("Cached block contents differ, which should not have"
+                + " happened. cacheKey:" + cacheKey);
+          }
+        } finally {
+          if (existingBlock != null) {
+            returnBlock(cacheKey, existingBlock);
+          }
         }
       }
       String msg = "Caching an already cached block: " + cacheKey;
@@ -492,24 +520,47 @@ public class BucketCache implements BlockCache, HeapSize {
     if (bucketEntry != null) {
       long start = System.nanoTime();
       ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
+      boolean corrupt = false;
       try {
         lock.readLock().lock();
         // We can not read here even if backingMap does contain the given key because its offset
         // maybe changed. If we lock BlockCacheKey instead of offset, then we can only check
-        // existence here.
-        if (bucketEntry.equals(backingMap.get(key))) {
+        // existence here. A block evicted while in use is only kept for its current readers.
+        if (bucketEntry.equals(backingMap.get(key)) && !bucketEntry.isMarkedForEvict()) {
           int len = bucketEntry.getLength();
           if (LOG.isTraceEnabled()) {
             LOG.trace("Read offset=" + bucketEntry.offset() + ", len=" + len);
           }
-          ByteBuffer bb = ByteBuffer.allocate(len);
-          int lenRead = ioEngine.read(bb, bucketEntry.offset());
-          if (lenRead != len) {
-            throw new RuntimeException("Only " + lenRead + " bytes read, " + len + " expected");
-          }
           CacheableDeserializer<Cacheable> deserializer =
             bucketEntry.deserializerReference(this.deserialiserMap);
-          Cacheable cachedBlock = deserializer.deserialize(bb, true);
+          Cacheable cachedBlock = null;
+          if (ioEngine.usesSharedMemory()) {
+            ByteBuffer shared = ioEngine.readShared(bucketEntry.offset(), len);
+            if (shared != null && !verify(bucketEntry, shared)) {
+              corrupt = true;
+              return null;
+            }
+            if (shared != null) {
+              cachedBlock = deserializer.deserialize(shared, true, MemoryType.SHARED);
+              if (cachedBlock.getMemoryType() == MemoryType.SHARED) {
+                // The bucket must not be freed and reused until the block is returned. We
+                // hold the read lock, so the entry can not be evicted concurrently.
+                bucketEntry.retain();
+              }
+            }
+          }
+          if (cachedBlock == null) {
+            ByteBuffer bb = ByteBuffer.allocate(len);
+            int lenRead = ioEngine.read(bb, bucketEntry.offset());
+            if (lenRead != len) {
+              throw new RuntimeException("Only " + lenRead + " bytes read, " + len + " expected");
+            }
+            if (!verify(bucketEntry, bb)) {
+              corrupt = true;
+              return null;
+            }
+            cachedBlock = deserializer.deserialize(bb, true);
+          }
           long timeTaken = System.nanoTime() - start;
           if (updateCacheMetrics) {
             cacheStats.hit(caching, key.isPrimary(), key.getBlockType());
@@ -526,6 +577,15 @@ public class BucketCache implements BlockCache, HeapSize {
         checkIOErrorIsTolerated();
       } finally {
         lock.readLock().unlock();
+        if (corrupt) {
+          // Needs the write lock, so only after giving up the read lock
+          LOG.warn("Dropping restored block " + key + " whose bucket was reused after the"
+              + " cache was persisted");
+          removeEntry(key, bucketEntry, true, false);
+          if (!repeat && updateCacheMetrics) {
+            cacheStats.miss(caching, key.isPrimary(), key.getBlockType());
+          }
+        }
       }
     }
     if (!repeat && updateCacheMetrics) {
@@ -534,18 +594,98 @@ public class BucketCache implements BlockCache, HeapSize {
     return null;
   }
 
+  /**
+   * Checks a block restored from a persisted map against the checksum it was written with.
+   * @param buf the block as read from the IOEngine, all of its capacity; it is not changed
+   * @return false if the bucket holds something else by now
+   */
+  private static boolean verify(BucketEntry bucketEntry, ByteBuffer buf) {
+    if (!bucketEntry.isUnverified()) {
+      return true;
+    }
+    ByteBuffer block = buf.duplicate();
+    block.clear();
+    CRC32 crc = new CRC32();
+    updateChecksum(crc, block);
+    if ((int) crc.getValue() != bucketEntry.getChecksum()) {
+      return false;
+    }
+    bucketEntry.markVerified();
+    return true;
+  }
+
+  /**
+   * Adds the remaining bytes of the buffer to the checksum, without changing its position
+   */
+  private static void updateChecksum(Checksum checksum, ByteBuffer buf) {
+    if (buf.hasArray()) {
+      checksum.update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      return;
+    }
+    ByteBuffer dup = buf.duplicate();
+    byte[] chunk = new byte[Math.min(dup.remaining(), 4096)];
+    while (dup.hasRemaining()) {
+      int n = Math.min(chunk.length, dup.remaining());
+      dup.get(chunk, 0, n);
+      checksum.update(chunk, 0, n);
+    }
+  }
+
   @VisibleForTesting
   void blockEvicted(BlockCacheKey cacheKey, BucketEntry bucketEntry, boolean decrementBlockNumber) {
     bucketAllocator.freeBlock(bucketEntry.offset());
     realCacheSize.addAndGet(-1 * bucketEntry.getLength());
     blocksByHFile.remove(cacheKey);
+    backingMapVersion.incrementAndGet();
     if (decrementBlockNumber) {
       this.blockNumber.decrementAndGet();
     }
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    if (block.getMemoryType() != MemoryType.SHARED) {
+      return;
+    }
+    // Entries are never removed from the backingMap while referenced, see #removeEntry
+    BucketEntry bucketEntry = backingMap.get(cacheKey);
+    if (bucketEntry == null) {
+      LOG.warn("Returned block " + cacheKey + " is not in the cache any more");
+      return;
+    }
+    if (bucketEntry.release()) {
+      // Was evicted while in use; we were the last user so free it now.
+      removeEntry(cacheKey, bucketEntry, true, false);
+    }
+  }
+
+  @Override
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    if (!cacheEnabled) {
+      return false;
+    }
+    if (ramCache.containsKey(cacheKey)) {
+      return true;
+    }
+    // A block evicted while in use is only kept for its current readers
+    BucketEntry bucketEntry = backingMap.get(cacheKey);
+    return bucketEntry != null && !bucketEntry.isMarkedForEvict();
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
+    return evictBlock(cacheKey, true);
+  }
+
+  /**
+   * Evicts the block, unless it is SHARED with readers which have not returned it yet.
+   * @param cacheKey Block to evict
+   * @param deletedBlock true if the block is going away for good, e.g. its file was compacted
+   *          away; such a block is freed by the last {@link #returnBlock(BlockCacheKey,
+   *          Cacheable)} if it is still in use. Otherwise a block in use is simply kept.
+   * @return true if block existed and was evicted, false if not
+   */
+  private boolean evictBlock(BlockCacheKey cacheKey, boolean deletedBlock) {
     if (!cacheEnabled) {
       return false;
     }
@@ -563,19 +703,34 @@ public class BucketCache implements BlockCache, HeapSize {
         return false;
       }
     }
+    if (!removeEntry(cacheKey, bucketEntry, removedBlock == null, deletedBlock)) {
+      return false;
+    }
+    cacheStats.evicted(bucketEntry.getCachedTime(), cacheKey.isPrimary());
+    return true;
+  }
+
+  /**
+   * Removes the entry from the backingMap and frees its bucket, if no reader holds the block.
+   * @param markIfReferenced if the block is in use, mark it so that it is freed once returned
+   * @return true if the entry was removed
+   */
+  private boolean removeEntry(BlockCacheKey cacheKey, BucketEntry bucketEntry,
+      boolean decrementBlockNumber, boolean markIfReferenced) {
     ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntry.offset());
     try {
       lock.writeLock().lock();
-      if (backingMap.remove(cacheKey, bucketEntry)) {
-        blockEvicted(cacheKey, bucketEntry, removedBlock == null);
-      } else {
+      if (!bucketEntry.markForEvict(markIfReferenced)) {
         return false;
       }
+      if (backingMap.remove(cacheKey, bucketEntry)) {
+        blockEvicted(cacheKey, bucketEntry, decrementBlockNumber);
+        return true;
+      }
+      return false;
     } finally {
       lock.writeLock().unlock();
     }
-    cacheStats.evicted(bucketEntry.getCachedTime(), cacheKey.isPrimary());
-    return true;
   }
 
   /*
@@ -674,7 +829,7 @@ public class BucketCache implements BlockCache, HeapSize {
       for (Map.Entry<BlockCacheKey, BucketEntry> entry : backingMap.entrySet()) {
         if (candidateBuckets.contains(bucketAllocator
             .getBucketIndex(entry.getValue().offset()))) {
-          evictBlock(entry.getKey());
+          evictBlock(entry.getKey(), false);
         }
       }
     }
@@ -897,7 +1052,7 @@ public class BucketCache implements BlockCache, HeapSize {
             continue;
           }
           BucketEntry bucketEntry =
-            re.writeToCache(ioEngine, bucketAllocator, deserialiserMap, realCacheSize);
+            re.writeToCache(ioEngine, bucketAllocator, deserialiserMap, realCacheSize, persistent);
           // Successfully added.  Up index and add bucketEntry. Clear io exceptions.
           bucketEntries[index] = bucketEntry;
           if (ioErrorStartTime > 0) {
@@ -945,6 +1100,7 @@ public class BucketCache implements BlockCache, HeapSize {
         // Only add if non-null entry.
         if (bucketEntries[i] != null) {
           backingMap.put(key, bucketEntries[i]);
+          backingMapVersion.incrementAndGet();
         }
         // Always remove from ramCache even if we failed adding it to the block cache above.
         RAMQueueEntry ramCacheEntry = ramCache.remove(key);
@@ -952,15 +1108,7 @@ public class BucketCache implements BlockCache, HeapSize {
           heapSize.addAndGet(-1 * entries.get(i).getData().heapSize());
         } else if (bucketEntries[i] != null){
           // Block should have already been evicted. Remove it and free space.
-          ReentrantReadWriteLock lock = offsetLock.getLock(bucketEntries[i].offset());
-          try {
-            lock.writeLock().lock();
-            if (backingMap.remove(key, bucketEntries[i])) {
-              blockEvicted(key, bucketEntries[i], false);
-            }
-          } finally {
-            lock.writeLock().unlock();
-          }
+          removeEntry(key, bucketEntries[i], false, true);
         }
       }
 
@@ -992,73 +1140,71 @@ public class BucketCache implements BlockCache, HeapSize {
     return receptical;
   }
 
-  private void persistToFile() throws IOException {
-    assert !cacheEnabled;
-    FileOutputStream fos = null;
-    ObjectOutputStream oos = null;
-    try {
-      if (!ioEngine.isPersistent()) {
-        throw new IOException("Attempt to persist non-persistent cache mappings!");
+  /**
+   * Persists the backing map while the cache is running, unless it did not change since the
+   * last time. Blocks cached after the checkpoint are lost if the server crashes; blocks evicted
+   * after it are recognized by their checksum when restored.
+   */
+  @VisibleForTesting
+  void checkpoint() {
+    if (!cacheEnabled) {
+      return;
+    }
+    long version = backingMapVersion.get();
+    synchronized (this) {
+      if (version == persistedVersion) {
+        return;
+      }
+      try {
+        persistToFile();
+        persistedVersion = version;
+      } catch (IOException ioex) {
+        LOG.warn("Failed checkpointing bucket cache to " + persistencePath, ioex);
       }
-      fos = new FileOutputStream(persistencePath, false);
-      oos = new ObjectOutputStream(fos);
-      oos.writeLong(cacheCapacity);
-      oos.writeUTF(ioEngine.getClass().getName());
-      oos.writeUTF(backingMap.getClass().getName());
-      oos.writeObject(deserialiserMap);
-      oos.writeObject(backingMap);
-    } finally {
-      if (oos != null) oos.close();
-      if (fos != null) fos.close();
     }
   }
 
-  @SuppressWarnings("unchecked")
-  private void retrieveFromFile(int[] bucketSizes) throws IOException, BucketAllocatorException,
-      ClassNotFoundException {
+  private synchronized void persistToFile() throws IOException {
+    if (!ioEngine.isPersistent()) {
+      throw new IOException("Attempt to persist non-persistent cache mappings!");
+    }
+    long start = System.nanoTime();
+    int entries = BucketCachePersistence.write(new File(persistencePath), cacheCapacity,
+      ioEngine.getClass().getName(), blocksByHFile, backingMap, deserialiserMap);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Persisted " + entries + " blocks to " + persistencePath + " in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+  }
+
+  private void retrieveFromFile(int[] bucketSizes) throws IOException, BucketAllocatorException {
     File persistenceFile = new File(persistencePath);
     if (!persistenceFile.exists()) {
       return;
     }
     assert !cacheEnabled;
-    FileInputStream fis = null;
-    ObjectInputStream ois = null;
-    try {
-      if (!ioEngine.isPersistent())
-        throw new IOException(
-            "Attempt to restore non-persistent cache mappings!");
-      fis = new FileInputStream(persistencePath);
-      ois = new ObjectInputStream(fis);
-      long capacitySize = ois.readLong();
-      if (capacitySize != cacheCapacity)
-        throw new IOException("Mismatched cache capacity:"
-            + StringUtils.byteDesc(capacitySize) + ", expected: "
-            + StringUtils.byteDesc(cacheCapacity));
-      String ioclass = ois.readUTF();
-      String mapclass = ois.readUTF();
-      if (!ioEngine.getClass().getName().equals(ioclass))
-        throw new IOException("Class name for IO engine mismatch: " + ioclass
-            + ", expected:" + ioEngine.getClass().getName());
-      if (!backingMap.getClass().getName().equals(mapclass))
-        throw new IOException("Class name for cache map mismatch: " + mapclass
-            + ", expected:" + backingMap.getClass().getName());
-      UniqueIndexMap<Integer> deserMap = (UniqueIndexMap<Integer>) ois
-          .readObject();
-      ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMapFromFile =
-          (ConcurrentHashMap<BlockCacheKey, BucketEntry>) ois.readObject();
-      BucketAllocator allocator = new BucketAllocator(cacheCapacity, bucketSizes,
-        backingMapFromFile, realCacheSize);
-      bucketAllocator = allocator;
-      deserialiserMap = deserMap;
-      backingMap = backingMapFromFile;
-    } finally {
-      if (ois != null) ois.close();
-      if (fis != null) fis.close();
-      if (!persistenceFile.delete()) {
-        throw new IOException("Failed deleting persistence file "
-            + persistenceFile.getAbsolutePath());
+    if (!ioEngine.isPersistent()) {
+      throw new IOException("Attempt to restore non-persistent cache mappings!");
+    }
+    long start = System.nanoTime();
+    // The file is kept; entries which went stale meanwhile fail verification when read.
+    BucketCachePersistence.Restored restored = BucketCachePersistence.read(persistenceFile,
+      cacheCapacity, ioEngine.getClass().getName(), Runtime.getRuntime().availableProcessors());
+    Iterator<BucketEntry> iterator = restored.backingMap.values().iterator();
+    while (iterator.hasNext()) {
+      if (!restored.deserialiserMap.containsIndex(iterator.next().deserialiserIndex)) {
+        iterator.remove();
       }
     }
+    BucketAllocator allocator = new BucketAllocator(cacheCapacity, bucketSizes,
+      restored.backingMap, realCacheSize);
+    bucketAllocator = allocator;
+    deserialiserMap = restored.deserialiserMap;
+    backingMap = restored.backingMap;
+    blocksByHFile.addAll(backingMap.keySet());
+    blockNumber.set(backingMap.size());
+    LOG.info("Restored " + backingMap.size() + " blocks from " + persistencePath + " in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
   }
 
   /**
@@ -1210,6 +1356,20 @@ public class BucketCache implements BlockCache, HeapSize {
     byte deserialiserIndex;
     private volatile long accessCounter;
     private BlockPriority priority;
+    /**
+     * Number of readers holding the block out of the shared memory of the IOEngine. The bucket
+     * can not be freed while there are any. Not persisted, as no reader survives a restart.
+     */
+    private transient int refCount;
+    /** Set if the block was evicted while in use; the last reader to return it frees it. */
+    private transient boolean markedForEvict;
+    /** CRC32 of the block as written to the IOEngine, if the cache is persistent. */
+    private int checksum;
+    /**
+     * Set if this entry was restored from a persisted map. Its bucket may have been reused after
+     * the map was written, so the block is checked against its checksum when first read.
+     */
+    private volatile boolean unverified;
     /**
      * Time this block was cached.  Presumes we are created just before we are added to the cache.
      */
@@ -1273,6 +1433,88 @@ public class BucketCache implements BlockCache, HeapSize {
     public long getCachedTime() {
       return cachedTime;
     }
+
+    void setChecksum(int checksum) {
+      this.checksum = checksum;
+    }
+
+    int getChecksum() {
+      return checksum;
+    }
+
+    boolean isUnverified() {
+      return unverified;
+    }
+
+    void markVerified() {
+      this.unverified = false;
+    }
+
+    /**
+     * Writes the fields that survive a restart, see {@link BucketCachePersistence}
+     */
+    void write(DataOutput out) throws IOException {
+      out.writeLong(offset());
+      out.writeInt(length);
+      out.writeByte(deserialiserIndex);
+      out.writeLong(accessCounter);
+      out.writeByte(priority.ordinal());
+      out.writeInt(checksum);
+    }
+
+    /**
+     * Reads an entry written by {@link #write(DataOutput)}. It is unverified until first read.
+     */
+    static BucketEntry read(DataInput in) throws IOException {
+      long offset = in.readLong();
+      int length = in.readInt();
+      byte deserialiserIndex = in.readByte();
+      long accessCounter = in.readLong();
+      int priority = in.readByte();
+      if (priority < 0 || priority >= BlockPriority.values().length) {
+        throw new IOException("Unknown block priority " + priority);
+      }
+      BucketEntry entry = new BucketEntry(offset, length, accessCounter, false);
+      entry.deserialiserIndex = deserialiserIndex;
+      entry.priority = BlockPriority.values()[priority];
+      entry.checksum = in.readInt();
+      entry.unverified = true;
+      return entry;
+    }
+
+    synchronized void retain() {
+      refCount++;
+    }
+
+    /**
+     * @return true if this was the last reader of a block that was marked for eviction meanwhile
+     */
+    synchronized boolean release() {
+      return --refCount == 0 && markedForEvict;
+    }
+
+    /**
+     * @param markIfReferenced whether a block in use should be marked for eviction on release
+     * @return true if no reader holds the block, so its bucket can be freed right away
+     */
+    synchronized boolean markForEvict(boolean markIfReferenced) {
+      if (refCount == 0) {
+        return true;
+      }
+      if (markIfReferenced) {
+        markedForEvict = true;
+      }
+      return false;
+    }
+
+    synchronized boolean isMarkedForEvict() {
+      return markedForEvict;
+    }
+
+    @VisibleForTesting
+    synchronized int getRefCount() {
+      return refCount;
+    }
   }
 
   /**
@@ -1302,7 +1544,10 @@ public class BucketCache implements BlockCache, HeapSize {
       Map.Entry<BlockCacheKey, BucketEntry> entry;
       long freedBytes = 0;
       while ((entry = queue.pollLast()) != null) {
-        evictBlock(entry.getKey());
+        // Blocks readers are using right now can not be freed; leave them be
+        if (!evictBlock(entry.getKey(), false)) {
+          continue;
+        }
         freedBytes += entry.getValue().getLength();
         if (freedBytes >= toFree) {
           return freedBytes;
@@ -1402,10 +1647,14 @@ public class BucketCache implements BlockCache, HeapSize {
       this.accessCounter = accessCounter;
     }
 
+    /**
+     * @param checksum whether to keep a checksum of the block in the entry, so that the entry can
+     *          be verified once restored from a persisted map
+     */
     public BucketEntry writeToCache(final IOEngine ioEngine,
         final BucketAllocator bucketAllocator,
         final UniqueIndexMap<Integer> deserialiserMap,
-        final AtomicLong realCacheSize) throws CacheFullException, IOException,
+        final AtomicLong realCacheSize, boolean checksum) throws CacheFullException, IOException,
         BucketAllocatorException {
       int len = data.getSerializedLength();
       // This cacheable thing can't be serialized
@@ -1422,11 +1671,23 @@ public class BucketCache implements BlockCache, HeapSize {
           if (LOG.isTraceEnabled()) {
             LOG.trace("Write offset=" + offset + ", len=" + len);
           }
+          if (checksum) {
+            // Before writing, as an IOEngine may consume the buffers
+            CRC32 crc = new CRC32();
+            updateChecksum(crc, sliceBuf);
+            updateChecksum(crc, metadata);
+            bucketEntry.setChecksum((int) crc.getValue());
+          }
           ioEngine.write(sliceBuf, offset);
           ioEngine.write(metadata, offset + len - metadata.limit());
         } else {
           ByteBuffer bb = ByteBuffer.allocate(len);
           data.serialize(bb);
+          if (checksum) {
+            CRC32 crc = new CRC32();
+            updateChecksum(crc, bb);
+            bucketEntry.setChecksum((int) crc.getValue());
+          }
           ioEngine.write(bb, offset);
         }
       } catch (IOException ioe) {
@@ -0,0 +1,334 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads and writes the backing map of a persistent {@link BucketCache}.
+ * <p>
+ * The file starts with a magic and a version, followed by a series of sections. Each section is
+ * its type, an item count, the length of its payload, the payload and a CRC32 of the payload, so
+ * a damaged or truncated file is detected rather than restored. The first section describes the
+ * cache the map belongs to; then come the entries, at most {@link #ENTRIES_PER_SECTION} to a
+ * section so that they can be decoded in parallel; then the deserialiser index map; and finally
+ * an empty end section. Within an entries section the file name of a key is only written when it
+ * differs from the one of the previous key, which is why the keys are written in file order.
+ * <p>
+ * The map is written to a temporary file which then replaces the previous one, so there is
+ * always a complete map to restore from, even if the server dies while writing it.
+ */
+@InterfaceAudience.Private
+final class BucketCachePersistence {
+
+  private static final byte[] MAGIC = Bytes.toBytes("BCPM");
+  private static final int VERSION = 1;
+
+  private static final int SECTION_END = 0;
+  private static final int SECTION_HEADER = 1;
+  private static final int SECTION_ENTRIES = 2;
+  private static final int SECTION_DESERIALISERS = 3;
+
+  static final int ENTRIES_PER_SECTION = 16 * 1024;
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private BucketCachePersistence() {
+  }
+
+  /**
+   * Restored state of a cache
+   */
+  static class Restored {
+    final ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap;
+    final UniqueIndexMap<Integer> deserialiserMap;
+
+    Restored(ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap,
+        UniqueIndexMap<Integer> deserialiserMap) {
+      this.backingMap = backingMap;
+      this.deserialiserMap = deserialiserMap;
+    }
+  }
+
+  /**
+   * Writes the backing map to the given file.
+   * @param keys the keys of all blocks, in file order; keys not in the backingMap are skipped
+   * @return number of entries written
+   */
+  static int write(File file, long capacity, String ioEngineClass,
+      Iterable<BlockCacheKey> keys, Map<BlockCacheKey, BucketEntry> backingMap,
+      UniqueIndexMap<Integer> deserialiserMap) throws IOException {
+    File tmpFile = new File(file.getPath() + ".tmp");
+    int written = 0;
+    FileOutputStream fos = new FileOutputStream(tmpFile, false);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, IO_BUFFER_SIZE));
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+
+      SectionWriter section = new SectionWriter();
+      section.out.writeLong(capacity);
+      section.out.writeUTF(ioEngineClass);
+      section.writeTo(out, SECTION_HEADER, 1);
+
+      String previousFile = null;
+      int count = 0;
+      for (BlockCacheKey key : keys) {
+        BucketEntry entry = backingMap.get(key);
+        if (entry == null) {
+          // Still in the RAM cache, or evicted meanwhile
+          continue;
+        }
+        if (key.getHfileName().equals(previousFile)) {
+          section.out.writeBoolean(false);
+        } else {
+          section.out.writeBoolean(true);
+          section.out.writeUTF(key.getHfileName());
+          previousFile = key.getHfileName();
+        }
+        section.out.writeLong(key.getOffset());
+        section.out.writeByte(key.getBlockType() == null ? -1 : key.getBlockType().ordinal());
+        section.out.writeBoolean(key.isPrimary());
+        entry.write(section.out);
+        written++;
+        if (++count == ENTRIES_PER_SECTION) {
+          section.writeTo(out, SECTION_ENTRIES, count);
+          previousFile = null;
+          count = 0;
+        }
+      }
+      if (count > 0) {
+        section.writeTo(out, SECTION_ENTRIES, count);
+      }
+
+      // Written after the entries, so that it knows every index they refer to
+      count = 0;
+      for (Map.Entry<Integer, Integer> e : deserialiserMap.mReverseMap.entrySet()) {
+        section.out.writeInt(e.getKey());
+        section.out.writeInt(e.getValue());
+        count++;
+      }
+      section.writeTo(out, SECTION_DESERIALISERS, count);
+      section.writeTo(out, SECTION_END, 0);
+      out.flush();
+      fos.getChannel().force(true);
+    } finally {
+      fos.close();
+    }
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return written;
+  }
+
+  /**
+   * Reads a backing map written by {@link #write}. The entry sections are decoded in parallel.
+   * @throws IOException if the file is damaged or belongs to a different cache
+   */
+  static Restored read(File file, long capacity, String ioEngineClass, int threads)
+      throws IOException {
+    final ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap =
+        new ConcurrentHashMap<BlockCacheKey, BucketEntry>();
+    UniqueIndexMap<Integer> deserialiserMap = null;
+    long fileLength = file.length();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+        IO_BUFFER_SIZE));
+    ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setNameFormat("BucketCacheRetriever-%d").setDaemon(true).build());
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(MAGIC, magic)) {
+        throw new IOException("Not a bucket cache persistence file: " + file);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported bucket cache persistence version " + version);
+      }
+
+      Section section = Section.read(in, fileLength);
+      if (section.type != SECTION_HEADER) {
+        throw new IOException("Expected header section, found " + section.type);
+      }
+      DataInputStream header = section.verifiedInput();
+      long capacityFromFile = header.readLong();
+      if (capacityFromFile != capacity) {
+        throw new IOException("Mismatched cache capacity:" + capacityFromFile
+            + ", expected: " + capacity);
+      }
+      String ioEngineClassFromFile = header.readUTF();
+      if (!ioEngineClass.equals(ioEngineClassFromFile)) {
+        throw new IOException("Class name for IO engine mismatch: " + ioEngineClassFromFile
+            + ", expected:" + ioEngineClass);
+      }
+
+      List<Future<Void>> decoders = new ArrayList<Future<Void>>();
+      while ((section = Section.read(in, fileLength)).type != SECTION_END) {
+        if (section.type == SECTION_ENTRIES) {
+          final Section entries = section;
+          decoders.add(pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              decodeEntries(entries, backingMap);
+              return null;
+            }
+          }));
+        } else if (section.type == SECTION_DESERIALISERS) {
+          deserialiserMap = new UniqueIndexMap<Integer>();
+          DataInputStream dis = section.verifiedInput();
+          for (int i = 0; i < section.count; i++) {
+            deserialiserMap.put(dis.readInt(), dis.readInt());
+          }
+        } else {
+          throw new IOException("Unknown section type " + section.type);
+        }
+      }
+      for (Future<Void> decoder : decoders) {
+        try {
+          decoder.get();
+        } catch (InterruptedException e) {
+          throw (IOException) new InterruptedIOException().initCause(e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException(e.getCause());
+        }
+      }
+    } catch (EOFException eofe) {
+      throw new IOException("Truncated bucket cache persistence file: " + file, eofe);
+    } finally {
+      pool.shutdownNow();
+      in.close();
+    }
+    if (deserialiserMap == null) {
+      throw new IOException("No deserialisers in bucket cache persistence file: " + file);
+    }
+    return new Restored(backingMap, deserialiserMap);
+  }
+
+  private static void decodeEntries(Section section,
+      Map<BlockCacheKey, BucketEntry> backingMap) throws IOException {
+    DataInputStream in = section.verifiedInput();
+    BlockType[] blockTypes = BlockType.values();
+    String hfileName = null;
+    for (int i = 0; i < section.count; i++) {
+      if (in.readBoolean()) {
+        hfileName = in.readUTF();
+      } else if (hfileName == null) {
+        throw new IOException("Missing file name of first entry in section");
+      }
+      long offset = in.readLong();
+      int blockType = in.readByte();
+      if (blockType >= blockTypes.length) {
+        throw new IOException("Unknown block type " + blockType);
+      }
+      boolean primary = in.readBoolean();
+      BlockCacheKey key = new BlockCacheKey(hfileName, offset, primary,
+          blockType < 0 ? null : blockTypes[blockType]);
+      backingMap.put(key, BucketEntry.read(in));
+    }
+  }
+
+  /**
+   * Buffers the payload of a section, to learn its length and checksum before writing it
+   */
+  private static class SectionWriter {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(IO_BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(bytes, crc));
+
+    void writeTo(DataOutputStream dest, int type, int count) throws IOException {
+      out.flush();
+      dest.writeInt(type);
+      dest.writeInt(count);
+      dest.writeInt(bytes.size());
+      bytes.writeTo(dest);
+      dest.writeLong(crc.getValue());
+      bytes.reset();
+      crc.reset();
+    }
+  }
+
+  private static class Section {
+    int type;
+    int count;
+    byte[] payload;
+    long checksum;
+
+    /**
+     * @param maxLength bound for the payload length, so a damaged length can not exhaust memory
+     */
+    static Section read(DataInputStream in, long maxLength) throws IOException {
+      Section section = new Section();
+      section.type = in.readInt();
+      section.count = in.readInt();
+      int length = in.readInt();
+      if (section.count < 0 || length < 0 || length > maxLength) {
+        throw new IOException("Corrupt section of type " + section.type + ", count="
+            + section.count + ", length=" + length);
+      }
+      section.payload = new byte[length];
+      in.readFully(section.payload);
+      section.checksum = in.readLong();
+      return section;
+    }
+
+    DataInputStream verifiedInput() throws IOException {
+      CRC32 crc = new CRC32();
+      crc.update(payload, 0, payload.length);
+      if (crc.getValue() != checksum) {
+        throw new IOException("Checksum mismatch in section of type " + type);
+      }
+      return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+  }
+}
@@ -63,6 +63,16 @@ public class ByteBufferIOEngine implements IOEngine {
     return false;
   }
 
+  /**
+   * Memory IO engine can hand out slices of its buffers, so blocks read from it
+   * need not be copied
+   * @return true
+   */
+  @Override
+  public boolean usesSharedMemory() {
+    return true;
+  }
+
   /**
    * Transfers data from the buffer array to the given byte buffer
    * @param dstBuffer the given byte buffer into which bytes are to be written
@@ -78,6 +88,18 @@ public class ByteBufferIOEngine implements IOEngine {
         dstBuffer.arrayOffset());
   }
 
+  /**
+   * Returns a slice of the buffer array for the given range without copying
+   * @param offset The offset in the ByteBufferArray of the first byte to be
+   *          read
+   * @param length The number of bytes to be read
+   * @return the slice, or null if the range spans two buffers of the array
+   */
+  @Override
+  public ByteBuffer readShared(long offset, int length) {
+    return bufferArray.asSubByteBuffer(offset, length);
+  }
+
   /**
    * Transfers data from the given byte buffer to the buffer array
    * @param srcBuffer the given byte buffer from which bytes are to be read
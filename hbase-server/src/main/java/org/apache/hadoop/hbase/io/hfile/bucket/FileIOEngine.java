@@ -96,6 +96,20 @@ public class FileIOEngine implements IOEngine {
     return true;
   }
 
+  /**
+   * File IO engine always reads into the buffer of the caller
+   * @return false
+   */
+  @Override
+  public boolean usesSharedMemory() {
+    return false;
+  }
+
+  @Override
+  public ByteBuffer readShared(long offset, int length) throws IOException {
+    throw new UnsupportedOperationException("FileIOEngine does not share its memory");
+  }
+
   /**
    * Transfers data from file to the given byte buffer
    * @param dstBuffer the given byte buffer into which bytes are to be written
@@ -0,0 +1,187 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.ByteBufferAllocator;
+import org.apache.hadoop.hbase.util.ByteBufferArray;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * IO engine that stores data to a file on the local file system using memory
+ * mapping. The file is mapped in segments of just under 2GB each, the most a
+ * ByteBuffer can address, held in a {@link ByteBufferArray}, so reads are served
+ * from the page cache without a system call and blocks can be handed out without
+ * copying them. Large segments keep the number of mappings of a big cache far
+ * below the vm.max_map_count limit of the operating system.
+ */
+@InterfaceAudience.Private
+public class FileMmapEngine implements IOEngine {
+  private static final Log LOG = LogFactory.getLog(FileMmapEngine.class);
+
+  // Integer.MAX_VALUE rounded down to a multiple of 32KB
+  static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE & ~(32 * 1024 - 1);
+
+  private final String path;
+  private final long size;
+  private final RandomAccessFile raf;
+  private final FileChannel fileChannel;
+  private final List<MappedByteBuffer> mappedBuffers = new ArrayList<MappedByteBuffer>();
+  private final ByteBufferArray bufferArray;
+
+  public FileMmapEngine(String filePath, long capacity) throws IOException {
+    this.path = filePath;
+    this.size = capacity;
+    try {
+      raf = new RandomAccessFile(filePath, "rw");
+      raf.setLength(capacity);
+      fileChannel = raf.getChannel();
+      LOG.info("Allocating " + StringUtils.byteDesc(capacity) + ", on the path:" + filePath);
+    } catch (IOException ioex) {
+      LOG.error("Failed allocating cache on " + filePath, ioex);
+      shutdown();
+      throw ioex;
+    }
+    ByteBufferAllocator allocator = new ByteBufferAllocator() {
+      private long position = 0;
+
+      @Override
+      public ByteBuffer allocate(long bufferSize, boolean directByteBuffer) throws IOException {
+        // Mapping past the end of the file extends it as needed.
+        MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, position,
+            bufferSize);
+        position += bufferSize;
+        mappedBuffers.add(buffer);
+        return buffer;
+      }
+    };
+    try {
+      bufferArray = new ByteBufferArray(capacity, MAX_SEGMENT_SIZE, true, allocator);
+    } catch (IOException ioex) {
+      LOG.error("Failed mapping cache file " + filePath, ioex);
+      shutdown();
+      throw ioex;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ioengine=" + this.getClass().getSimpleName() + ", path=" + this.path
+        + ", size=" + String.format("%,d", this.size);
+  }
+
+  /**
+   * File IO engine is always able to support persistent storage for the cache
+   * @return true
+   */
+  @Override
+  public boolean isPersistent() {
+    return true;
+  }
+
+  /**
+   * Mapped file engine can hand out slices of its mapped buffers, so blocks read
+   * from it need not be copied
+   * @return true
+   */
+  @Override
+  public boolean usesSharedMemory() {
+    return true;
+  }
+
+  /**
+   * Transfers data from the mapped file to the given byte buffer
+   * @param dstBuffer the given byte buffer into which bytes are to be written
+   * @param offset The offset in the file where the first byte to be read
+   * @return number of bytes read
+   * @throws IOException
+   */
+  @Override
+  public int read(ByteBuffer dstBuffer, long offset) throws IOException {
+    assert dstBuffer.hasArray();
+    return bufferArray.getMultiple(offset, dstBuffer.remaining(), dstBuffer.array(),
+        dstBuffer.arrayOffset());
+  }
+
+  /**
+   * Returns a slice of the mapped file for the given range without copying
+   * @param offset The offset in the file where the first byte to be read
+   * @param length The number of bytes to be read
+   * @return the slice, or null if the range spans two mapped segments
+   */
+  @Override
+  public ByteBuffer readShared(long offset, int length) {
+    return bufferArray.asSubByteBuffer(offset, length);
+  }
+
+  /**
+   * Transfers data from the given byte buffer to the mapped file
+   * @param srcBuffer the given byte buffer from which bytes are to be read
+   * @param offset The offset in the file where the first byte to be written
+   * @throws IOException
+   */
+  @Override
+  public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+    assert srcBuffer.hasArray();
+    bufferArray.putMultiple(offset, srcBuffer.remaining(), srcBuffer.array(),
+        srcBuffer.arrayOffset());
+  }
+
+  /**
+   * Write the dirty pages of the mapped segments back to the file
+   */
+  @Override
+  public void sync() {
+    for (MappedByteBuffer buffer : mappedBuffers) {
+      buffer.force();
+    }
+  }
+
+  /**
+   * Write the mapped segments back and close the file
+   */
+  @Override
+  public void shutdown() {
+    sync();
+    try {
+      if (fileChannel != null) {
+        fileChannel.close();
+      }
+    } catch (IOException ex) {
+      LOG.error("Failed closing " + path + " when shutdown the IOEngine", ex);
+    }
+    try {
+      if (raf != null) {
+        raf.close();
+      }
+    } catch (IOException ex) {
+      LOG.error("Failed closing " + path + " when shutdown the IOEngine", ex);
+    }
+  }
+}
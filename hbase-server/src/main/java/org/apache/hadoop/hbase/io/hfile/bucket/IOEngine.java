@@ -34,6 +34,13 @@ public interface IOEngine {
    */
   boolean isPersistent();
 
+  /**
+   * IOEngine uses shared memory means, when reading Cacheable from it, those refer to the same
+   * memory area as used by the engine for caching it.
+   * @return true when the engine can hand out its memory, see {@link #readShared(long, int)}
+   */
+  boolean usesSharedMemory();
+
   /**
    * Transfers data from IOEngine to the given byte buffer
    * @param dstBuffer the given byte buffer into which bytes are to be written
@@ -43,6 +50,16 @@ public interface IOEngine {
    */
   int read(ByteBuffer dstBuffer, long offset) throws IOException;
 
+  /**
+   * Returns a buffer that shares the memory of this engine for the given range rather than a
+   * copy of it. Only called if {@link #usesSharedMemory()} is true.
+   * @param offset The offset in the IO engine where the first byte to be read
+   * @param length The number of bytes to be read
+   * @return a buffer with position 0 and limit length, or null if this range can not be shared
+   * @throws IOException
+   */
+  ByteBuffer readShared(long offset, int length) throws IOException;
+
   /**
    * Transfers data from the given byte buffer to IOEngine
    * @param srcBuffer the given byte buffer from which bytes are to be read
@@ -48,6 +48,22 @@ public final class UniqueIndexMap<T> implements Serializable {
     return nexti;
   }
 
+  /**
+   * Restores a mapping, e.g. one that was persisted. Indexes handed out later do not collide.
+   */
+  void put(int index, T parameter) {
+    mForwardMap.put(parameter, index);
+    mReverseMap.put(index, parameter);
+    int current;
+    while ((current = mIndex.get()) < index && !mIndex.compareAndSet(current, index)) {
+      // retry
+    }
+  }
+
+  boolean containsIndex(int index) {
+    return mReverseMap.containsKey(index);
+  }
+
   T unmap(int leni) {
     Integer len = Integer.valueOf(leni);
     assert mReverseMap.containsKey(len);
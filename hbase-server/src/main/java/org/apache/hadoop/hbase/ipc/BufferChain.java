@@ -67,6 +67,14 @@ class BufferChain {
     return remaining > 0;
   }
 
+  /**
+   * @return the buffers of this chain, for transports that write them out themselves. Consuming
+   *   them does not update this chain's remaining count.
+   */
+  ByteBuffer[] getBuffers() {
+    return this.buffers;
+  }
+
   /**
    * Write out our chain of buffers in chunks
    * @param channel Where to write
@@ -82,13 +82,15 @@ public class CallRunner {
    * Cleanup after ourselves... let go of references.
    */
   private void cleanup() {
+    // The handler is done with the request; give back its buffer even if no response went out.
+    this.call.cleanup();
     this.call = null;
     this.rpcServer = null;
   }
 
   public void run() {
     try {
-      if (!call.connection.channel.isOpen()) {
+      if (!call.connection.isConnectionOpen()) {
         if (RpcServer.LOG.isDebugEnabled()) {
           RpcServer.LOG.debug(Thread.currentThread().getName() + ": skipped " + call);
         }
@@ -182,7 +184,7 @@ public class CallRunner {
    */
   public void drop() {
     try {
-      if (!call.connection.channel.isOpen()) {
+      if (!call.connection.isConnectionOpen()) {
         if (RpcServer.LOG.isDebugEnabled()) {
           RpcServer.LOG.debug(Thread.currentThread().getName() + ": skipped " + call);
         }
@@ -0,0 +1,451 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.ipc;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.FixedLengthFrameDecoder;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.JVM;
+
+/**
+ * An RPC server that runs its connections on Netty event loops instead of the Listener, Reader
+ * and Responder threads of {@link RpcServer}.
+ *
+ * <p>It speaks the same wire protocol and reuses the connection setup, SASL, authorization and
+ * request handling of {@link RpcServer.Connection}; only the transport differs. Requests are
+ * framed into pooled (by default direct) {@link ByteBuf}s, parsed in place, and the frame goes
+ * back to the pool once the {@link RpcServer.Call} made from it is done. Responses are written
+ * as wrapped buffers without copying them into a single array.
+ *
+ * <p>To use it, set {@link RpcServerFactory#CUSTOM_RPC_SERVER_IMPL_CONF_KEY} to this class.
+ */
+@InterfaceAudience.LimitedPrivate({HBaseInterfaceAudience.CONFIG})
+@InterfaceStability.Evolving
+public class NettyRpcServer extends RpcServer {
+
+  private static final Log LOG = LogFactory.getLog(NettyRpcServer.class);
+
+  /**
+   * Number of event loop threads serving connections. Zero lets Netty pick, twice the number of
+   * cores.
+   */
+  public static final String WORKER_COUNT_KEY = "hbase.ipc.server.netty.worker.count";
+
+  /**
+   * Whether to use the native epoll transport. Only honored on Linux amd64.
+   */
+  public static final String NATIVE_TRANSPORT_KEY = "hbase.ipc.server.netty.native.transport";
+
+  private final EventLoopGroup bossGroup;
+  private final EventLoopGroup workerGroup;
+  private final Channel serverChannel;
+  private final ChannelGroup allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+  public NettyRpcServer(final Server server, final String name,
+      final List<BlockingServiceAndInterface> services, final InetSocketAddress bindAddress,
+      Configuration conf, RpcScheduler scheduler) throws IOException {
+    super(server, name, services, bindAddress, conf, scheduler, false);
+    int workerCount = conf.getInt(WORKER_COUNT_KEY, 0);
+    Class<? extends ServerChannel> channelClass;
+    if (conf.getBoolean(NATIVE_TRANSPORT_KEY, false) && JVM.isLinux() && JVM.isAmd64()) {
+      bossGroup = new EpollEventLoopGroup(1,
+          new DefaultThreadFactory("RpcServer.netty.boss", true, Thread.MAX_PRIORITY));
+      workerGroup = new EpollEventLoopGroup(workerCount,
+          new DefaultThreadFactory("RpcServer.netty.worker", true, Thread.MAX_PRIORITY));
+      channelClass = EpollServerSocketChannel.class;
+    } else {
+      bossGroup = new NioEventLoopGroup(1,
+          new DefaultThreadFactory("RpcServer.netty.boss", true, Thread.MAX_PRIORITY));
+      workerGroup = new NioEventLoopGroup(workerCount,
+          new DefaultThreadFactory("RpcServer.netty.worker", true, Thread.MAX_PRIORITY));
+      channelClass = NioServerSocketChannel.class;
+    }
+    ServerBootstrap bootstrap = new ServerBootstrap().group(bossGroup, workerGroup)
+        .channel(channelClass)
+        .option(ChannelOption.SO_BACKLOG, conf.getInt("hbase.ipc.server.listen.queue.size", 128))
+        // Bind now so we know our port, but do not accept connections before start().
+        .option(ChannelOption.AUTO_READ, false)
+        .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay)
+        .childOption(ChannelOption.SO_KEEPALIVE, tcpKeepAlive)
+        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel ch) throws Exception {
+            initConnection(ch);
+          }
+        });
+    ChannelFuture bindFuture = bootstrap.bind(bindAddress).awaitUninterruptibly();
+    if (!bindFuture.isSuccess()) {
+      bossGroup.shutdownGracefully();
+      workerGroup.shutdownGracefully();
+      Throwable cause = bindFuture.cause();
+      if (cause instanceof BindException) {
+        BindException bindException = new BindException("Problem binding to " + bindAddress +
+            " : " + cause.getMessage());
+        bindException.initCause(cause);
+        throw bindException;
+      }
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+    serverChannel = bindFuture.channel();
+    this.port = getListenerAddress().getPort();
+    LOG.info(name + ": bound to port=" + port + ", using " + channelClass.getSimpleName());
+  }
+
+  private void initConnection(Channel ch) {
+    if (socketSendBufferSize != 0) {
+      ch.config().setOption(ChannelOption.SO_SNDBUF, socketSendBufferSize);
+    }
+    final NettyConnection conn = new NettyConnection(ch);
+    ChannelPipeline p = ch.pipeline();
+    p.addLast("idleStateHandler",
+      new IdleStateHandler(0, 0, maxIdleTime, TimeUnit.MILLISECONDS));
+    p.addLast("preambleDecoder", new FixedLengthFrameDecoder(HConstants.RPC_HEADER.length + 2));
+    p.addLast("preambleHandler", new PreambleHandler(conn));
+    p.addLast("frameDecoder", new FrameDecoder(conn));
+    p.addLast("requestHandler", new RequestHandler(conn));
+    allChannels.add(ch);
+    synchronized (connectionList) {
+      connectionList.add(conn);
+      numConnections++;
+    }
+    ch.closeFuture().addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        closeConnection(conn);
+      }
+    });
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Connection from " + conn + "; # active connections: " + numConnections);
+    }
+  }
+
+  @Override
+  protected void startTransport() {
+    serverChannel.config().setAutoRead(true);
+  }
+
+  @Override
+  protected void stopTransport() {
+    serverChannel.close().awaitUninterruptibly();
+    allChannels.close().awaitUninterruptibly();
+    bossGroup.shutdownGracefully();
+    workerGroup.shutdownGracefully();
+  }
+
+  @Override
+  public synchronized InetSocketAddress getListenerAddress() {
+    return serverChannel == null ? null : (InetSocketAddress) serverChannel.localAddress();
+  }
+
+  /**
+   * A client connection carried by a Netty {@link Channel}.
+   */
+  class NettyConnection extends Connection {
+
+    private final Channel channel;
+
+    NettyConnection(Channel channel) {
+      super(((InetSocketAddress) channel.remoteAddress()).getAddress(),
+          ((InetSocketAddress) channel.remoteAddress()).getPort(), System.currentTimeMillis());
+      this.channel = channel;
+    }
+
+    /**
+     * Process one frame. Once the connection header is in, requests are parsed straight out of
+     * the pooled frame and the Call made from it releases the frame when done. The rare setup
+     * and SASL-wrapped frames are copied to the heap, as the SASL code wants arrays.
+     */
+    void process(final ByteBuf buf) throws IOException, InterruptedException {
+      setLastContact(System.currentTimeMillis());
+      // Mirror the NIO Connection, which counts every frame it reads.
+      incRpcCount();
+      if (connectionHeaderRead && !useWrap) {
+        this.callCleanup = new CallCleanup() {
+          @Override
+          public void run() {
+            buf.release();
+          }
+        };
+        process(buf.nioBuffer());
+      } else {
+        byte[] data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+        buf.release();
+        process(ByteBuffer.wrap(data));
+      }
+    }
+
+    @Override
+    protected boolean isConnectionOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    protected void doRespond(Call call) throws IOException {
+      writeResponse(call);
+    }
+
+    ChannelFuture writeResponse(final Call call) {
+      if (call.response == null) {
+        // Building the response failed and was logged; nothing to send.
+        call.done();
+        return channel.newSucceededFuture();
+      }
+      // Wrapping does not copy and does not free the buffers; the cell block goes back to the
+      // reservoir in Call#done once the write has completed.
+      ByteBuf response = Unpooled.wrappedBuffer(call.response.getBuffers());
+      final int size = response.readableBytes();
+      return channel.writeAndFlush(response).addListener(new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) {
+          if (future.isSuccess()) {
+            metrics.sentBytes(size);
+          }
+          call.done();
+        }
+      });
+    }
+
+    /**
+     * Close the channel once everything written so far has gone out.
+     */
+    void closeAfterFlush() {
+      channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    @Override
+    protected synchronized void close() {
+      super.close();
+      channel.close();
+    }
+  }
+
+  /**
+   * Checks the six byte connection preamble, then takes itself and the preamble decoder out of
+   * the pipeline so that the frames that follow reach the {@link FrameDecoder}.
+   */
+  private class PreambleHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+    private final NettyConnection conn;
+
+    PreambleHandler(NettyConnection conn) {
+      this.conn = conn;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+      ByteBuffer preamble = ByteBuffer.allocate(msg.readableBytes());
+      msg.readBytes(preamble);
+      preamble.flip();
+      metrics.receivedBytes(preamble.limit());
+      if (!conn.processPreamble(preamble)) {
+        conn.closeAfterFlush();
+        return;
+      }
+      ChannelPipeline p = ctx.pipeline();
+      p.remove(this);
+      p.remove("preambleDecoder");
+    }
+  }
+
+  /**
+   * Splits the stream into frames on their four byte length prefix. Each frame is handed on as
+   * a retained slice of the pooled read buffer, so there is no copy.
+   */
+  private class FrameDecoder extends ByteToMessageDecoder {
+
+    private final NettyConnection conn;
+
+    // Set once we have answered an oversized request and are closing the connection.
+    private boolean requestTooBig = false;
+
+    FrameDecoder(NettyConnection conn) {
+      this.conn = conn;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+        throws Exception {
+      if (requestTooBig) {
+        in.skipBytes(in.readableBytes());
+        return;
+      }
+      if (in.readableBytes() < Bytes.SIZEOF_INT) {
+        return;
+      }
+      int dataLength = in.getInt(in.readerIndex());
+      if (dataLength == RpcClient.PING_CALL_ID && !conn.useWrap) { //covers the !useSasl too
+        in.skipBytes(Bytes.SIZEOF_INT);
+        metrics.receivedBytes(Bytes.SIZEOF_INT);
+        return;
+      }
+      if (dataLength < 0) { // A data length of zero is legal.
+        throw new DoNotRetryIOException("Unexpected data length "
+            + dataLength + "!! from " + conn.getHostAddress());
+      }
+      if (dataLength > maxRequestSize) {
+        handleTooBigRequest(ctx, in, dataLength);
+        return;
+      }
+      if (in.readableBytes() < Bytes.SIZEOF_INT + dataLength) {
+        return;
+      }
+      in.skipBytes(Bytes.SIZEOF_INT);
+      metrics.receivedBytes(Bytes.SIZEOF_INT + dataLength);
+      out.add(in.readRetainedSlice(dataLength));
+    }
+
+    /**
+     * Answer a request larger than {@link RpcServer#MAX_REQUEST_SIZE} and close the connection.
+     * We only need the request header to tell the client which call failed, so we wait for
+     * that rather than buffering the whole request.
+     */
+    private void handleTooBigRequest(ChannelHandlerContext ctx, ByteBuf in, int dataLength)
+        throws IOException {
+      String msg = "RPC data length of " + dataLength + " received from "
+          + conn.getHostAddress() + " is greater than max allowed "
+          + maxRequestSize + ". Set \"" + MAX_REQUEST_SIZE
+          + "\" on server to override this limit (not recommended)";
+      if (!conn.connectionHeaderRead) {
+        LOG.warn(msg);
+        requestTooBig = true;
+        ctx.channel().close();
+        return;
+      }
+      int available = in.readableBytes() - Bytes.SIZEOF_INT;
+      CodedInputStream cis = CodedInputStream.newInstance(new ByteBufInputStream(
+          in.slice(in.readerIndex() + Bytes.SIZEOF_INT, available)));
+      int headerSize;
+      try {
+        headerSize = cis.readRawVarint32();
+      } catch (InvalidProtocolBufferException e) {
+        if (available >= 5) {
+          throw e; // A varint32 is at most five bytes, so this is not a short read.
+        }
+        return;
+      }
+      if (cis.getTotalBytesRead() + headerSize > available) {
+        return;
+      }
+      Message.Builder builder = RequestHeader.newBuilder();
+      ProtobufUtil.mergeFrom(builder, cis, headerSize);
+      RequestHeader header = (RequestHeader) builder.build();
+
+      LOG.warn(msg);
+      requestTooBig = true;
+      in.skipBytes(in.readableBytes());
+      conn.incRpcCount();
+      // We are going to close the connection, make sure we send the response before that.
+      conn.writeResponse(conn.createRequestTooBigCall(header, msg))
+          .addListener(ChannelFutureListener.CLOSE);
+    }
+  }
+
+  /**
+   * Hands frames to the connection and closes it on error or once it has been idle too long.
+   */
+  private class RequestHandler extends ChannelInboundHandlerAdapter {
+
+    private final NettyConnection conn;
+
+    RequestHandler(NettyConnection conn) {
+      this.conn = conn;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+      conn.process((ByteBuf) msg);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+      if (evt instanceof IdleStateEvent) {
+        // Same policy as the NIO Listener: only nuke idle connections when we have many.
+        if (numConnections > thresholdIdleConnections
+            && conn.timedOut(System.currentTimeMillis())) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Disconnecting idle client " + conn.getHostAddress());
+          }
+          ctx.channel().close();
+        }
+      } else {
+        super.userEventTriggered(ctx, evt);
+      }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("DISCONNECTING client " + conn + " on error. Number of active connections: "
+            + numConnections, cause);
+      }
+      conn.closeAfterFlush();
+    }
+  }
+}
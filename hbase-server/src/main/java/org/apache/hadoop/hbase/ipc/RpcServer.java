@@ -279,7 +279,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
 
   private static final ObjectMapper MAPPER = new ObjectMapper();
 
-  private final int maxRequestSize;
+  final int maxRequestSize;
   private final int warnResponseTime;
   private final int warnResponseSize;
 
@@ -302,6 +302,14 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
    */
   private RSRpcServices rsRpcServices;
 
+  /**
+   * Releases whatever backs the request of a {@link Call}, e.g. returns a pooled buffer, once
+   * the Call no longer needs it.
+   */
+  interface CallCleanup {
+    void run();
+  }
+
   /**
    * Datastructure that holds all necessary to a method invocation and then afterward, carries
    * the result.
@@ -342,6 +350,8 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
     // cumulative size of serialized exceptions
     private long exceptionSize = 0;
     private boolean retryImmediatelySupported;
+    // Releases the buffer the request was decoded from, if it came from a pool.
+    private CallCleanup reqCleanup;
 
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="NP_NULL_ON_SOME_PATH",
         justification="Can't figure why this complaint is happening... see below")
@@ -381,9 +391,22 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         reservoir.putBuffer(this.cellBlock);
         this.cellBlock = null;
       }
+      cleanup();
       this.connection.decRpcCount();  // Say that we're done with this call.
     }
 
+    /**
+     * Let go of the request buffer, if any. The handler has run by now and the cells it was
+     * handed have been copied out by the codec, so nothing refers to the buffer any more. Safe
+     * to call more than once.
+     */
+    synchronized void cleanup() {
+      if (this.reqCleanup != null) {
+        this.reqCleanup.run();
+        this.reqCleanup = null;
+      }
+    }
+
     @Override
     public String toString() {
       return toShortString() + " param: " +
@@ -549,7 +572,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
 
     @Override
     public long disconnectSince() {
-      if (!connection.channel.isOpen()) {
+      if (!connection.isConnectionOpen()) {
         return System.currentTimeMillis() - timestamp;
       } else {
         return -1L;
@@ -597,7 +620,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
     public synchronized void sendResponseIfReady() throws IOException {
       // set param null to reduce memory pressure
       this.param = null;
-      this.responder.doRespond(this);
+      this.connection.doRespond(this);
     }
 
     public UserGroupInformation getRemoteUser() {
@@ -1264,7 +1287,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
     // If initial preamble with version and magic has been read or not.
     private boolean connectionPreambleRead = false;
     // If the connection header has been read or not.
-    private boolean connectionHeaderRead = false;
+    boolean connectionHeaderRead = false;
     protected SocketChannel channel;
     private ByteBuffer data;
     private ByteBuffer dataLengthBuffer;
@@ -1299,7 +1322,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
     private ByteBuffer unwrappedDataLengthBuffer = ByteBuffer.allocate(4);
     boolean useSasl;
     SaslServer saslServer;
-    private boolean useWrap = false;
+    boolean useWrap = false;
     // Fake 'call' for failed authorization response
     private static final int AUTHORIZATION_FAILED_CALLID = -1;
     private final Call authFailedCall = new Call(AUTHORIZATION_FAILED_CALLID, null, null, null,
@@ -1320,19 +1343,15 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
     protected User user = null;
     protected UserGroupInformation ugi = null;
 
+    // Set by the transport before handing over a request read into a pooled buffer. Ownership
+    // passes to the Call made for the request; if no Call takes it, it is run once the request
+    // has been processed.
+    CallCleanup callCleanup = null;
+
     public Connection(SocketChannel channel, long lastContact) {
+      this(channel.socket().getInetAddress(), channel.socket().getPort(), lastContact);
       this.channel = channel;
-      this.lastContact = lastContact;
-      this.data = null;
-      this.dataLengthBuffer = ByteBuffer.allocate(4);
       this.socket = channel.socket();
-      this.addr = socket.getInetAddress();
-      if (addr == null) {
-        this.hostAddress = "*Unknown*";
-      } else {
-        this.hostAddress = addr.getHostAddress();
-      }
-      this.remotePort = socket.getPort();
       if (socketSendBufferSize != 0) {
         try {
           socket.setSendBufferSize(socketSendBufferSize);
@@ -1343,11 +1362,43 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
       }
     }
 
+    /**
+     * For transports that do not hand us a {@link SocketChannel}. Such subclasses must override
+     * {@link #isConnectionOpen()}, {@link #doRespond(Call)} and {@link #close()}, and feed
+     * whole requests to {@link #process(ByteBuffer)}.
+     */
+    protected Connection(InetAddress addr, int remotePort, long lastContact) {
+      this.lastContact = lastContact;
+      this.data = null;
+      this.dataLengthBuffer = ByteBuffer.allocate(4);
+      this.addr = addr;
+      if (addr == null) {
+        this.hostAddress = "*Unknown*";
+      } else {
+        this.hostAddress = addr.getHostAddress();
+      }
+      this.remotePort = remotePort;
+    }
+
       @Override
     public String toString() {
       return getHostAddress() + ":" + remotePort;
     }
 
+    /**
+     * @return true if the underlying channel to the client is still open
+     */
+    protected boolean isConnectionOpen() {
+      return channel.isOpen();
+    }
+
+    /**
+     * Hand the response of <code>call</code> to the transport to be written back to the client.
+     */
+    protected void doRespond(Call call) throws IOException {
+      responder.doRespond(call);
+    }
+
     public String getHostAddress() {
       return hostAddress;
     }
@@ -1566,8 +1617,22 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
       if (count < 0 || preambleBuffer.remaining() > 0) {
         return count;
       }
-      // Check for 'HBas' magic.
       preambleBuffer.flip();
+      if (!processPreamble(preambleBuffer)) {
+        return -1;
+      }
+      preambleBuffer = null; // do not need it anymore
+      return count;
+    }
+
+    /**
+     * Check the connection preamble: the 'HBas' magic, the version and the auth method.
+     * @param preambleBuffer the six preamble bytes, flipped and backed by an array
+     * @return false if the preamble was bad; the client has been sent an error and the caller
+     *   should close the connection
+     */
+    protected boolean processPreamble(ByteBuffer preambleBuffer) throws IOException {
+      // Check for 'HBas' magic.
       for (int i = 0; i < HConstants.RPC_HEADER.length; i++) {
         if (HConstants.RPC_HEADER[i] != preambleBuffer.get(i)) {
           return doBadPreambleHandling("Expected HEADER=" +
@@ -1594,7 +1659,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         } else {
           AccessDeniedException ae = new AccessDeniedException("Authentication is required");
           setupResponse(authFailedResponse, authFailedCall, ae, ae.getMessage());
-          responder.doRespond(authFailedCall);
+          doRespond(authFailedCall);
           throw ae;
         }
       }
@@ -1611,9 +1676,8 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         useSasl = true;
       }
 
-      preambleBuffer = null; // do not need it anymore
       connectionPreambleRead = true;
-      return count;
+      return true;
     }
 
     private int read4Bytes() throws IOException {
@@ -1706,17 +1770,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
             RequestHeader header = (RequestHeader) builder.build();
 
             // Notify the client about the offending request
-            Call reqTooBig = new Call(header.getCallId(), this.service, null, null, null,
-                null, this, responder, 0, null, this.addr,0);
-            metrics.exception(REQUEST_TOO_BIG_EXCEPTION);
-            // Make sure the client recognizes the underlying exception
-            // Otherwise, throw a DoNotRetryIOException.
-            if (VersionInfoUtil.hasMinimumVersion(connectionHeader.getVersionInfo(),
-                RequestTooBigException.MAJOR_VERSION, RequestTooBigException.MINOR_VERSION)) {
-              setupResponse(null, reqTooBig, REQUEST_TOO_BIG_EXCEPTION, msg);
-            } else {
-              setupResponse(null, reqTooBig, new DoNotRetryIOException(), msg);
-            }
+            Call reqTooBig = createRequestTooBigCall(header, msg);
             // We are going to close the connection, make sure we process the response
             // before that. In rare case when this fails, we still close the connection.
             responseWriteLock.lock();
@@ -1727,7 +1781,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
           return -1;
         }
 
-        data = ByteBuffer.allocate(dataLength);
+        data = allocateRequestBuffer(dataLength);
 
         // Increment the rpc count. This counter will be decreased when we write
         //  the response.  If we want the connection to be detected as idle properly, we
@@ -1744,11 +1798,48 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
       return count;
     }
 
+    /**
+     * Get a buffer for the next request. Once the connection is set up, requests are read into a
+     * buffer from the {@link #reservoir} and parsed straight out of it; the Call made from the
+     * request puts the buffer back when it is done. Connection setup and SASL-wrapped frames are
+     * read into the heap as the code that handles them wants arrays, as are requests too big to
+     * be kept in the reservoir.
+     */
+    private ByteBuffer allocateRequestBuffer(int dataLength) {
+      if (reservoir == null || !connectionHeaderRead || useWrap
+          || dataLength > reservoir.getMaxByteBufferSizeToCache()) {
+        return ByteBuffer.allocate(dataLength);
+      }
+      final ByteBuffer buf = reservoir.getBuffer(dataLength);
+      buf.limit(dataLength);
+      // If the connection goes away before the whole request is in, the buffer is just dropped.
+      this.callCleanup = new CallCleanup() {
+        @Override
+        public void run() {
+          reservoir.putBuffer(buf);
+        }
+      };
+      return buf;
+    }
+
     /**
      * Process the data buffer and clean the connection state for the next call.
      */
     private void process() throws IOException, InterruptedException {
       data.flip();
+      try {
+        process(data);
+      } finally {
+        dataLengthBuffer.clear(); // Clean for the next call
+        data = null; // For the GC
+      }
+    }
+
+    /**
+     * Process one whole frame read off the wire, minus its length prefix.
+     * @param buf the frame, positioned at zero and limited to its length
+     */
+    protected void process(ByteBuffer buf) throws IOException, InterruptedException {
       try {
         if (skipInitialSaslHandshake) {
           skipInitialSaslHandshake = false;
@@ -1756,15 +1847,38 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         }
 
         if (useSasl) {
-          saslReadAndProcess(data);
+          saslReadAndProcess(buf);
         } else {
-          processOneRpc(data);
+          processOneRpc(buf);
         }
-
       } finally {
-        dataLengthBuffer.clear(); // Clean for the next call
-        data = null; // For the GC
+        // No Call took ownership of the request buffer, release it now.
+        if (callCleanup != null) {
+          callCleanup.run();
+          callCleanup = null;
+        }
+      }
+    }
+
+    /**
+     * Make a Call carrying the response to a request that exceeded {@link #MAX_REQUEST_SIZE}.
+     * The caller is expected to send it and then close the connection.
+     * @param header header of the offending request
+     * @param msg the message to send back to the client
+     */
+    protected Call createRequestTooBigCall(RequestHeader header, String msg) throws IOException {
+      Call reqTooBig = new Call(header.getCallId(), this.service, null, null, null,
+          null, this, responder, 0, null, this.addr,0);
+      metrics.exception(REQUEST_TOO_BIG_EXCEPTION);
+      // Make sure the client recognizes the underlying exception
+      // Otherwise, throw a DoNotRetryIOException.
+      if (VersionInfoUtil.hasMinimumVersion(connectionHeader.getVersionInfo(),
+          RequestTooBigException.MAJOR_VERSION, RequestTooBigException.MINOR_VERSION)) {
+        setupResponse(null, reqTooBig, REQUEST_TOO_BIG_EXCEPTION, msg);
+      } else {
+        setupResponse(null, reqTooBig, new DoNotRetryIOException(), msg);
       }
+      return reqTooBig;
     }
 
     private String getFatalConnectionString(final int version, final byte authByte) {
@@ -1773,17 +1887,18 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
       ", authSupported=" + (authMethod != null) + " from " + toString();
     }
 
-    private int doBadPreambleHandling(final String msg) throws IOException {
+    private boolean doBadPreambleHandling(final String msg) throws IOException {
       return doBadPreambleHandling(msg, new FatalConnectionException(msg));
     }
 
-    private int doBadPreambleHandling(final String msg, final Exception e) throws IOException {
+    private boolean doBadPreambleHandling(final String msg, final Exception e)
+        throws IOException {
       LOG.warn(msg);
       Call fakeCall = new Call(-1, null, null, null, null, null, this, responder, -1, null, null,0);
       setupResponse(null, fakeCall, e, msg);
-      responder.doRespond(fakeCall);
-      // Returning -1 closes out the connection.
-      return -1;
+      doRespond(fakeCall);
+      // Returning false closes out the connection.
+      return false;
     }
 
     // Reads the connection header following version
@@ -1935,16 +2050,13 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
      */
     protected void processRequest(ByteBuffer buf) throws IOException, InterruptedException {
       long totalRequestSize = buf.limit();
-      int offset = 0;
-      // Here we read in the header.  We avoid having pb
-      // do its default 4k allocation for CodedInputStream.  We force it to use backing array.
-      CodedInputStream cis = CodedInputStream.newInstance(buf.array(), offset, buf.limit());
-      int headerSize = cis.readRawVarint32();
-      offset = cis.getTotalBytesRead();
+      // Here we read in the header. Each part of the request is read from where the previous one
+      // ended, see newCodedInputStream.
+      ByteBuffer cursor = buf.duplicate();
+      int headerSize = readRawVarint32(cursor);
       Message.Builder builder = RequestHeader.newBuilder();
-      ProtobufUtil.mergeFrom(builder, cis, headerSize);
+      ProtobufUtil.mergeFrom(builder, newCodedInputStream(cursor, headerSize), headerSize);
       RequestHeader header = (RequestHeader) builder.build();
-      offset += headerSize;
       int id = header.getCallId();
       if (LOG.isTraceEnabled()) {
         LOG.trace("RequestHeader " + TextFormat.shortDebugString(header) +
@@ -1961,7 +2073,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         setupResponse(responseBuffer, callTooBig, CALL_QUEUE_TOO_BIG_EXCEPTION,
             "Call queue is full on " + server.getServerName() +
                 ", is hbase.ipc.server.max.callqueue.size too small?");
-        responder.doRespond(callTooBig);
+        doRespond(callTooBig);
         return;
       }
       MethodDescriptor md = null;
@@ -1972,14 +2084,12 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
           md = this.service.getDescriptorForType().findMethodByName(header.getMethodName());
           if (md == null) throw new UnsupportedOperationException(header.getMethodName());
           builder = this.service.getRequestPrototype(md).newBuilderForType();
-          cis.resetSizeCounter();
-          int paramSize = cis.readRawVarint32();
-          offset += cis.getTotalBytesRead();
+          int paramSize = readRawVarint32(cursor);
+          CodedInputStream cis = newCodedInputStream(cursor, paramSize);
           if (builder != null) {
             ProtobufUtil.mergeFrom(builder, cis, paramSize);
             param = builder.build();
           }
-          offset += paramSize;
         } else {
           // currently header must have request param, so we directly throw exception here
           String msg = "Invalid request header: " + TextFormat.shortDebugString(header)
@@ -1988,7 +2098,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
           throw new DoNotRetryIOException(msg);
         }
         if (header.hasCellBlockMeta()) {
-          buf.position(offset);
+          buf.position(cursor.position());
           cellScanner = cellBlockBuilder.createCellScanner(this.codec, this.compressionCodec, buf);
         }
       } catch (Throwable t) {
@@ -2014,7 +2124,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream();
         setupResponse(responseBuffer, readParamsFailedCall, t,
           msg + "; " + t.getMessage());
-        responder.doRespond(readParamsFailedCall);
+        doRespond(readParamsFailedCall);
         return;
       }
 
@@ -2027,6 +2137,9 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
       }
       Call call = new Call(id, this.service, md, header, param, cellScanner, this, responder,
               totalRequestSize, traceInfo, this.addr, timeout);
+      // The call now owns the request buffer; its cells are decoded from it.
+      call.reqCleanup = this.callCleanup;
+      this.callCleanup = null;
 
       if (!scheduler.dispatch(new CallRunner(RpcServer.this, call))) {
         callQueueSize.add(-1 * call.getSize());
@@ -2036,8 +2149,38 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         setupResponse(responseBuffer, call, CALL_QUEUE_TOO_BIG_EXCEPTION,
             "Call queue is full on " + server.getServerName() +
                 ", too many items queued ?");
-        responder.doRespond(call);
+        doRespond(call);
+      }
+    }
+
+    /**
+     * Reads the varint at the cursor and moves the cursor past it.
+     */
+    private int readRawVarint32(ByteBuffer cursor) throws IOException {
+      InputStream in = new ByteBufferInputStream(cursor);
+      return CodedInputStream.readRawVarint32(in.read(), in);
+    }
+
+    /**
+     * Returns a CodedInputStream over the given number of bytes at the cursor, and moves the
+     * cursor past them. We avoid having pb do its default 4k allocation for CodedInputStream when
+     * the request has a backing array. Off-heap requests are read through a stream, which pb
+     * reads ahead of what it parses: the stream ends with the part to keep pb out of the parts
+     * that follow, and out of the cell block.
+     */
+    private CodedInputStream newCodedInputStream(ByteBuffer cursor, int length)
+        throws IOException {
+      if (length < 0 || length > cursor.remaining()) {
+        throw new IOException("Request part of " + length + " bytes but only "
+            + cursor.remaining() + " left");
       }
+      ByteBuffer part = cursor.slice();
+      part.limit(length);
+      cursor.position(cursor.position() + length);
+      if (part.hasArray()) {
+        return CodedInputStream.newInstance(part.array(), part.arrayOffset(), length);
+      }
+      return CodedInputStream.newInstance(new ByteBufferInputStream(part));
     }
 
     private boolean authorizeConnection() throws IOException {
@@ -2059,7 +2202,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         metrics.authorizationFailure();
         setupResponse(authFailedResponse, authFailedCall,
           new AccessDeniedException(ae), ae.getMessage());
-        responder.doRespond(authFailedCall);
+        doRespond(authFailedCall);
         return false;
       }
       return true;
@@ -2068,7 +2211,7 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
     protected synchronized void close() {
       disposeSasl();
       data = null;
-      if (!channel.isOpen())
+      if (channel == null || !channel.isOpen())
         return;
       try {socket.shutdownOutput();} catch(Exception ignored) {
         if (LOG.isTraceEnabled()) {
@@ -2154,7 +2297,20 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
       final InetSocketAddress bindAddress, Configuration conf,
       RpcScheduler scheduler)
       throws IOException {
-    
+    this(server, name, services, bindAddress, conf, scheduler, true);
+  }
+
+  /**
+   * Constructor for subclasses that bring their own transport. When <code>nioTransport</code> is
+   * false no Listener or Responder is made; the subclass binds <code>bindAddress</code> itself,
+   * sets {@link #port}, and overrides {@link #startTransport()}, {@link #stopTransport()} and
+   * {@link #getListenerAddress()}.
+   */
+  protected RpcServer(final Server server, final String name,
+      final List<BlockingServiceAndInterface> services,
+      final InetSocketAddress bindAddress, Configuration conf,
+      RpcScheduler scheduler, boolean nioTransport)
+      throws IOException {
     if (conf.getBoolean("hbase.ipc.server.reservoir.enabled", true)) {
       this.reservoir = new BoundedByteBufferPool(
           conf.getInt("hbase.ipc.server.reservoir.max.buffer.size", 1024 * 1024),
@@ -2187,9 +2343,11 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
         DEFAULT_MIN_CLIENT_REQUEST_TIMEOUT);
     this.maxRequestSize = conf.getInt(MAX_REQUEST_SIZE, DEFAULT_MAX_REQUEST_SIZE);
 
-    // Start the listener here and let it bind to the port
-    listener = new Listener(name);
-    this.port = listener.getAddress().getPort();
+    if (nioTransport) {
+      // Start the listener here and let it bind to the port
+      listener = new Listener(name);
+      this.port = listener.getAddress().getPort();
+    }
 
     this.metrics = new MetricsHBaseServer(name, new MetricsHBaseServerWrapperImpl(this));
     this.tcpNoDelay = conf.getBoolean("hbase.ipc.server.tcpnodelay", true);
@@ -2198,8 +2356,10 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
     this.cellBlockBuilder = new CellBlockBuilder(conf);
 
 
-    // Create the responder here
-    responder = new Responder();
+    if (nioTransport) {
+      // Create the responder here
+      responder = new Responder();
+    }
     this.authorize = conf.getBoolean(HADOOP_SECURITY_AUTHORIZATION, false);
     this.userProvider = UserProvider.instantiate(conf);
     this.isSecurityEnabled = userProvider.isHBaseSecurityEnabled();
@@ -2291,12 +2451,19 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
     }
     this.authManager = new ServiceAuthorizationManager();
     HBasePolicyProvider.init(conf, authManager);
-    responder.start();
-    listener.start();
+    startTransport();
     scheduler.start();
     started = true;
   }
 
+  /**
+   * Start accepting connections and writing responses.
+   */
+  protected void startTransport() {
+    responder.start();
+    listener.start();
+  }
+
   @Override
   public synchronized void refreshAuthManager(PolicyProvider pp) {
     // Ignore warnings that this should be accessed in a static way instead of via an instance;
@@ -2462,11 +2629,18 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
       authTokenSecretMgr.stop();
       authTokenSecretMgr = null;
     }
+    stopTransport();
+    scheduler.stop();
+    notifyAll();
+  }
+
+  /**
+   * Stop accepting connections and close the ones we have.
+   */
+  protected void stopTransport() {
     listener.interrupt();
     listener.doStop();
     responder.interrupt();
-    scheduler.stop();
-    notifyAll();
   }
 
   /** Wait for the server to be stopped.
@@ -2732,8 +2906,8 @@ public class RpcServer implements RpcServerInterface, ConfigurationObserver {
    */
   public static InetAddress getRemoteIp() {
     Call call = CurCall.get();
-    if (call != null && call.connection != null && call.connection.socket != null) {
-      return call.connection.socket.getInetAddress();
+    if (call != null && call.connection != null) {
+      return call.connection.getHostInetAddress();
     }
     return null;
   }
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.ipc.RpcServer.BlockingServiceAndInterface;
+
+/**
+ * Factory to create a {@link RpcServerInterface}
+ */
+@InterfaceAudience.Private
+public final class RpcServerFactory {
+
+  private static final Log LOG = LogFactory.getLog(RpcServerFactory.class);
+
+  public static final String CUSTOM_RPC_SERVER_IMPL_CONF_KEY = "hbase.rpc.server.impl";
+
+  /**
+   * Private Constructor
+   */
+  private RpcServerFactory() {
+  }
+
+  /**
+   * Creates a new RpcServer of the class defined in the configuration, or a {@link RpcServer}
+   * if none is set. The class must have the same constructor as {@link RpcServer}.
+   * @throws IOException if the server could not be made, e.g. if it could not bind or the
+   *           configured class has no such constructor
+   */
+  public static RpcServerInterface createRpcServer(final Server server, final String name,
+      final List<BlockingServiceAndInterface> services, final InetSocketAddress bindAddress,
+      Configuration conf, RpcScheduler scheduler) throws IOException {
+    Class<? extends RpcServerInterface> rpcServerClass = conf.getClass(
+      CUSTOM_RPC_SERVER_IMPL_CONF_KEY, RpcServer.class, RpcServerInterface.class);
+    LOG.info("Use " + rpcServerClass.getName() + " rpc server");
+    try {
+      Constructor<? extends RpcServerInterface> ctor = rpcServerClass.getDeclaredConstructor(
+        Server.class, String.class, List.class, InetSocketAddress.class, Configuration.class,
+        RpcScheduler.class);
+      return ctor.newInstance(server, name, services, bindAddress, conf, scheduler);
+    } catch (InvocationTargetException e) {
+      // Let the caller see, e.g., a BindException as is.
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Unable to instantiate rpc server " + rpcServerClass.getName(), e);
+    }
+  }
+}
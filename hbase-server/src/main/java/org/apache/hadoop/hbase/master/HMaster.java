@@ -50,6 +50,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.ClusterStatus;
+import org.apache.hadoop.hbase.CompoundConfiguration;
 import org.apache.hadoop.hbase.CoordinatedStateException;
 import org.apache.hadoop.hbase.CoordinatedStateManager;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
@@ -151,6 +152,7 @@ import org.apache.hadoop.hbase.replication.regionserver.Replication;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.security.UserProvider;
 import org.apache.hadoop.hbase.util.Addressing;
+import org.apache.hadoop.hbase.util.BloomFilterFactory;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.CompressionTest;
 import org.apache.hadoop.hbase.util.ConfigUtil;
@@ -1885,6 +1887,21 @@ public class HMaster extends HRegionServer implements MasterServices, Server {
       // check replication scope
       checkReplicationScope(hcd);
 
+      // check the prefix length or delimiter of row prefix bloom filters, with the
+      // configuration the store will see
+      try {
+        BloomFilterFactory.getBloomFilterParam(hcd.getBloomFilterType(),
+          new CompoundConfiguration()
+            .add(conf)
+            .addStringMap(htd.getConfiguration())
+            .addStringMap(hcd.getConfiguration())
+            .addWritableMap(hcd.getValues()));
+      } catch (IllegalArgumentException e) {
+        String message = "Bloom filter for column family " + hcd.getNameAsString()
+            + " is misconfigured: " + e.getMessage();
+        warnOrThrowExceptionForFailure(logWarn, CONF_KEY, message, null);
+      }
+
       // check data replication factor, it can be 0(default value) when user has not explicitly
       // set the value, in this case we use default replication factor set in the file system.
       if (hcd.getDFSReplication() < 0) {
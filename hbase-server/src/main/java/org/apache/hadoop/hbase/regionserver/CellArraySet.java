@@ -0,0 +1,274 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * An immutable {@link java.util.Set} of {@link Cell}s backed by a sorted array. Lookups are
+ * binary searches and sub-sets are views on a range of the same array, so the set costs one
+ * reference per cell rather than the node objects of a skip list.
+ * <p>
+ * The passed array must be sorted by the passed comparator, hold no duplicates and must not be
+ * changed afterwards. Like {@link CellSkipListSet}, a few navigation methods that nothing uses
+ * are not implemented.
+ */
+@InterfaceAudience.Private
+public class CellArraySet extends AbstractSet<Cell> implements CellSet {
+  private final KeyValue.KVComparator comparator;
+  private final Cell[] cells;
+  // The range of the array this set covers, minIdx inclusive and maxIdx exclusive.
+  private final int minIdx;
+  private final int maxIdx;
+
+  CellArraySet(final KeyValue.KVComparator c, final Cell[] cells) {
+    this(c, cells, 0, cells.length);
+  }
+
+  private CellArraySet(final KeyValue.KVComparator c, final Cell[] cells, int minIdx,
+      int maxIdx) {
+    this.comparator = c;
+    this.cells = cells;
+    this.minIdx = minIdx;
+    this.maxIdx = Math.max(minIdx, maxIdx);
+  }
+
+  /**
+   * Binary search for the passed cell in this set's range of the array.
+   * @return index of the cell if present, else <code>-(insertion point) - 1</code>
+   */
+  private int find(Cell needle) {
+    int begin = minIdx;
+    int end = maxIdx - 1;
+    while (begin <= end) {
+      int mid = (begin + end) >>> 1;
+      int cmp = comparator.compare(cells[mid], needle);
+      if (cmp < 0) {
+        begin = mid + 1;
+      } else if (cmp > 0) {
+        end = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(begin + 1);
+  }
+
+  /**
+   * @param key the key to position on
+   * @param pastEqual whether a cell equal to the key should fall before the returned index
+   * @return index of the first cell greater than, or if <code>pastEqual</code> is false greater
+   *   than or equal to, the passed key
+   */
+  private int boundary(Cell key, boolean pastEqual) {
+    int i = find(key);
+    if (i < 0) {
+      return -(i + 1);
+    }
+    return pastEqual ? i + 1 : i;
+  }
+
+  private Cell cellAt(int index) {
+    return index >= minIdx && index < maxIdx ? cells[index] : null;
+  }
+
+  @Override
+  public Cell get(Cell kv) {
+    int i = find(kv);
+    return i < 0 ? null : cells[i];
+  }
+
+  /**
+   * Copies this set without the passed cell, which costs a pass over the set.
+   * @param cell a cell of this set, as returned by {@link #get(Cell)}
+   * @return a new set with all cells of this set but the passed one
+   */
+  CellArraySet without(Cell cell) {
+    Cell[] remaining = new Cell[size() - 1];
+    int i = 0;
+    for (int j = minIdx; j < maxIdx; j++) {
+      if (cells[j] != cell) {
+        remaining[i++] = cells[j];
+      }
+    }
+    return new CellArraySet(comparator, remaining);
+  }
+
+  @Override
+  public Cell ceiling(Cell e) {
+    return cellAt(boundary(e, false));
+  }
+
+  @Override
+  public Cell higher(Cell e) {
+    return cellAt(boundary(e, true));
+  }
+
+  @Override
+  public Cell floor(Cell e) {
+    return cellAt(boundary(e, true) - 1);
+  }
+
+  @Override
+  public Cell lower(Cell e) {
+    return cellAt(boundary(e, false) - 1);
+  }
+
+  @Override
+  public Iterator<Cell> iterator() {
+    return new Iterator<Cell>() {
+      private int index = minIdx;
+
+      @Override
+      public boolean hasNext() {
+        return index < maxIdx;
+      }
+
+      @Override
+      public Cell next() {
+        if (index >= maxIdx) {
+          throw new NoSuchElementException();
+        }
+        return cells[index++];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Immutable set");
+      }
+    };
+  }
+
+  @Override
+  public Iterator<Cell> descendingIterator() {
+    return new Iterator<Cell>() {
+      private int index = maxIdx - 1;
+
+      @Override
+      public boolean hasNext() {
+        return index >= minIdx;
+      }
+
+      @Override
+      public Cell next() {
+        if (index < minIdx) {
+          throw new NoSuchElementException();
+        }
+        return cells[index--];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Immutable set");
+      }
+    };
+  }
+
+  @Override
+  public NavigableSet<Cell> descendingSet() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  @Override
+  public SortedSet<Cell> headSet(final Cell toElement) {
+    return headSet(toElement, false);
+  }
+
+  @Override
+  public NavigableSet<Cell> headSet(final Cell toElement, boolean inclusive) {
+    return new CellArraySet(comparator, cells, minIdx, boundary(toElement, inclusive));
+  }
+
+  @Override
+  public SortedSet<Cell> tailSet(Cell fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  @Override
+  public NavigableSet<Cell> tailSet(Cell fromElement, boolean inclusive) {
+    return new CellArraySet(comparator, cells, boundary(fromElement, !inclusive), maxIdx);
+  }
+
+  @Override
+  public SortedSet<Cell> subSet(Cell fromElement, Cell toElement) {
+    return subSet(fromElement, true, toElement, false);
+  }
+
+  @Override
+  public NavigableSet<Cell> subSet(Cell fromElement, boolean fromInclusive, Cell toElement,
+      boolean toInclusive) {
+    return new CellArraySet(comparator, cells, boundary(fromElement, !fromInclusive),
+        boundary(toElement, toInclusive));
+  }
+
+  @Override
+  public Comparator<? super Cell> comparator() {
+    return comparator;
+  }
+
+  @Override
+  public Cell first() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return cells[minIdx];
+  }
+
+  @Override
+  public Cell last() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return cells[maxIdx - 1];
+  }
+
+  @Override
+  public Cell pollFirst() {
+    throw new UnsupportedOperationException("Immutable set");
+  }
+
+  @Override
+  public Cell pollLast() {
+    throw new UnsupportedOperationException("Immutable set");
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof Cell && find((Cell) o) >= 0;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return maxIdx == minIdx;
+  }
+
+  @Override
+  public int size() {
+    return maxIdx - minIdx;
+  }
+}
@@ -45,7 +45,7 @@ import org.apache.hadoop.hbase.classification.InterfaceAudience;
  * get and set and won't throw ConcurrentModificationException when iterating.
  */
 @InterfaceAudience.Private
-public class CellSkipListSet implements NavigableSet<Cell> {
+public class CellSkipListSet implements CellSet {
   private final ConcurrentNavigableMap<Cell, Cell> delegatee;
 
   CellSkipListSet(final KeyValue.KVComparator c) {
@@ -167,6 +167,7 @@ public class CellSkipListSet implements NavigableSet<Cell> {
     throw new UnsupportedOperationException("Not implemented");
   }
 
+  @Override
   public Cell get(Cell kv) {
     return this.delegatee.get(kv);
   }
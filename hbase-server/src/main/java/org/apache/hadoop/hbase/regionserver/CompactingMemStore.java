@@ -0,0 +1,735 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.MemoryCompactionPolicy;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.exceptions.UnexpectedStateException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A MemStore that flushes in memory before it flushes to disk. Writes go to an active segment,
+ * a skip list like the one of the {@link DefaultMemStore}. When the active segment grows past a
+ * fraction of the region flush size it is pushed into a pipeline of immutable segments, and a
+ * background task flattens it into a sorted array, which costs a reference per cell rather than
+ * a skip list node. Depending on the {@link MemoryCompactionPolicy} of the family, the task then
+ * merges the pipeline into one segment once it has too many (BASIC), or compacts the pipeline
+ * into one segment, dropping the versions and deleted cells no reader can see any more (EAGER).
+ * <p>
+ * A flush to disk snapshots the active segment and the whole pipeline. Data and readers are
+ * otherwise handled as in the {@link DefaultMemStore}.
+ * <p>
+ * Unlike the DefaultMemStore this MemStore changes its size in the background. It reports the
+ * change to its region, holding the region updates lock shared so that the change cannot come
+ * between a flush taking the flushable size of the store and snapshotting it.
+ */
+@InterfaceAudience.Private
+public class CompactingMemStore implements MemStore {
+  private static final Log LOG = LogFactory.getLog(CompactingMemStore.class);
+
+  /** The in-memory compaction policy of families that do not set one */
+  public static final String COMPACTING_MEMSTORE_TYPE_KEY =
+      "hbase.hregion.compacting.memstore.type";
+  public static final String COMPACTING_MEMSTORE_TYPE_DEFAULT =
+      MemoryCompactionPolicy.NONE.name();
+  /** The fraction of the region flush size at which the active segment is flushed in memory */
+  public static final String IN_MEMORY_FLUSH_THRESHOLD_FACTOR_KEY =
+      "hbase.memstore.inmemoryflush.threshold.factor";
+  private static final double IN_MEMORY_FLUSH_THRESHOLD_FACTOR_DEFAULT = 0.25;
+  /** The number of pipeline segments above which the BASIC policy merges them */
+  public static final String COMPACTING_MEMSTORE_PIPELINE_LIMIT_KEY =
+      "hbase.hregion.compacting.pipeline.segments.limit";
+  private static final int COMPACTING_MEMSTORE_PIPELINE_LIMIT_DEFAULT = 4;
+  /** The number of threads flushing and compacting memstores in memory, per region server */
+  public static final String IN_MEMORY_COMPACTION_POOL_SIZE_KEY =
+      "hbase.regionserver.inmemory.compaction.pool.size";
+  private static final int IN_MEMORY_COMPACTION_POOL_SIZE_DEFAULT = 10;
+
+  private static ThreadPoolExecutor inMemoryCompactionPool;
+
+  private final Configuration conf;
+  private final KeyValue.KVComparator comparator;
+  private final HStore store;
+  private final MemoryCompactionPolicy policy;
+  private final long inMemoryFlushThreshold;
+  private final int pipelineSegmentsLimit;
+  private final int compactionKVMax;
+
+  // Writes hold the read lock; moving segments between active, pipeline and snapshot takes the
+  // write lock, so that readers always see each cell in one of them.
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicBoolean inMemoryFlushInProgress = new AtomicBoolean(false);
+
+  private volatile MutableSegment active;
+  // Newest first. The lists are never changed, only replaced under the write lock.
+  private volatile List<Segment> pipeline = Collections.emptyList();
+  private volatile List<Segment> snapshot = Collections.emptyList();
+  // Bumped on every change of the pipeline, so that a background task finding it changed drops
+  // its result. Guarded by the write lock.
+  private long pipelineVersion = 0;
+
+  private volatile long snapshotId = -1;
+  // Used to track when to flush
+  private volatile long timeOfOldestEdit = Long.MAX_VALUE;
+
+  public CompactingMemStore(final Configuration conf, final KeyValue.KVComparator c,
+      final HStore store, final MemoryCompactionPolicy policy) {
+    this.conf = conf;
+    this.comparator = c;
+    this.store = store;
+    this.policy = policy;
+    double factor = conf.getDouble(IN_MEMORY_FLUSH_THRESHOLD_FACTOR_KEY,
+        IN_MEMORY_FLUSH_THRESHOLD_FACTOR_DEFAULT);
+    this.inMemoryFlushThreshold = (long) (store.getHRegion().memstoreFlushSize * factor);
+    this.pipelineSegmentsLimit = conf.getInt(COMPACTING_MEMSTORE_PIPELINE_LIMIT_KEY,
+        COMPACTING_MEMSTORE_PIPELINE_LIMIT_DEFAULT);
+    this.compactionKVMax =
+        conf.getInt(HConstants.COMPACTION_KV_MAX, HConstants.COMPACTION_KV_MAX_DEFAULT);
+    this.active = newActiveSegment();
+  }
+
+  private static synchronized ThreadPoolExecutor getInMemoryCompactionPool(
+      final Configuration conf) {
+    if (inMemoryCompactionPool == null) {
+      inMemoryCompactionPool = Threads.getBoundedCachedThreadPool(
+          conf.getInt(IN_MEMORY_COMPACTION_POOL_SIZE_KEY, IN_MEMORY_COMPACTION_POOL_SIZE_DEFAULT),
+          60, TimeUnit.SECONDS, Threads.newDaemonThreadFactory("MemStoreInMemoryCompaction"));
+    }
+    return inMemoryCompactionPool;
+  }
+
+  private MutableSegment newActiveSegment() {
+    return new MutableSegment(comparator, DefaultMemStore.createMemStoreLAB(conf));
+  }
+
+  MemoryCompactionPolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Creates a snapshot of the active segment and the pipeline.
+   * Snapshot must be cleared by call to {@link #clearSnapshot(long)}
+   */
+  @Override
+  public MemStoreSnapshot snapshot() {
+    List<Segment> segments;
+    lock.writeLock().lock();
+    try {
+      // If snapshot currently has entries, then flusher failed or didn't call
+      // cleanup.  Log a warning.
+      if (!snapshot.isEmpty()) {
+        LOG.warn("Snapshot called again without clearing previous. " +
+            "Doing nothing. Another ongoing flush or did we fail last attempt?");
+      } else {
+        this.snapshotId = EnvironmentEdgeManager.currentTime();
+        List<Segment> newSnapshot = new ArrayList<Segment>(pipeline.size() + 1);
+        if (!active.isEmpty()) {
+          newSnapshot.add(active);
+          active = newActiveSegment();
+        }
+        if (!pipeline.isEmpty()) {
+          newSnapshot.addAll(pipeline);
+          pipeline = Collections.emptyList();
+          pipelineVersion++;
+        }
+        snapshot = Collections.unmodifiableList(newSnapshot);
+        timeOfOldestEdit = Long.MAX_VALUE;
+      }
+      segments = snapshot;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    int cellsCount = 0;
+    long size = 0;
+    boolean tagsPresent = false;
+    TimeRangeTracker timeRangeTracker = new TimeRangeTracker();
+    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>(segments.size());
+    long order = segments.size();
+    for (Segment segment : segments) {
+      cellsCount += segment.getCellSet().size();
+      size += segment.getSize();
+      tagsPresent |= segment.isTagsPresent();
+      if (!segment.isEmpty()) {
+        timeRangeTracker.includeTimestamp(segment.getTimeRangeTracker().getMin());
+        timeRangeTracker.includeTimestamp(segment.getTimeRangeTracker().getMax());
+      }
+      SegmentScanner scanner = new SegmentScanner(segment, Long.MAX_VALUE, order--);
+      // The heap only takes in scanners that have a current cell.
+      scanner.seek(KeyValue.LOWESTKEY);
+      scanners.add(scanner);
+    }
+    KeyValueScanner scanner;
+    try {
+      scanner = new KeyValueHeap(scanners, comparator);
+    } catch (IOException e) {
+      // Segment scanners do no IO
+      throw new IllegalStateException(e);
+    }
+    return new MemStoreSnapshot(this.snapshotId, cellsCount, size, timeRangeTracker, scanner,
+        tagsPresent);
+  }
+
+  /**
+   * The passed snapshot was successfully persisted; it can be let go.
+   * @param id Id of the snapshot to clean out.
+   * @throws UnexpectedStateException
+   * @see #snapshot()
+   */
+  @Override
+  public void clearSnapshot(long id) throws UnexpectedStateException {
+    List<Segment> cleared;
+    lock.writeLock().lock();
+    try {
+      if (this.snapshotId == -1) return;  // already cleared
+      if (this.snapshotId != id) {
+        throw new UnexpectedStateException("Current snapshot id is " + this.snapshotId
+            + ",passed " + id);
+      }
+      cleared = snapshot;
+      snapshot = Collections.emptyList();
+      this.snapshotId = -1;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    for (Segment segment : cleared) {
+      segment.close();
+    }
+  }
+
+  @Override
+  public long getFlushableSize() {
+    long snapshotSize = getSnapshotSize();
+    return snapshotSize > 0 ? snapshotSize : keySize();
+  }
+
+  @Override
+  public long getSnapshotSize() {
+    return sizeOf(snapshot);
+  }
+
+  private static long sizeOf(List<? extends Segment> segments) {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.getSize();
+    }
+    return size;
+  }
+
+  /**
+   * Write an update
+   * @param cell
+   * @return approximate size of the passed cell.
+   */
+  @Override
+  public long add(Cell cell) {
+    long size;
+    lock.readLock().lock();
+    try {
+      size = internalAdd(cell);
+    } finally {
+      lock.readLock().unlock();
+    }
+    checkActiveSize();
+    return size;
+  }
+
+  @Override
+  public long add(Iterable<Cell> cells) {
+    long size = 0;
+    lock.readLock().lock();
+    try {
+      for (Cell cell : cells) {
+        size += internalAdd(cell);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    checkActiveSize();
+    return size;
+  }
+
+  /**
+   * Write a delete
+   * @param deleteCell
+   * @return approximate size of the passed key and value.
+   */
+  @Override
+  public long delete(Cell deleteCell) {
+    return add(deleteCell);
+  }
+
+  /**
+   * Callers should hold the read lock.
+   */
+  private long internalAdd(Cell cell) {
+    MutableSegment segment = active;
+    Cell toAdd = segment.maybeCloneWithAllocator(cell);
+    long size = segment.add(toAdd, toAdd != cell);
+    setOldestEditTimeToNow();
+    return size;
+  }
+
+  @Override
+  public long timeOfOldestEdit() {
+    return timeOfOldestEdit;
+  }
+
+  private void setOldestEditTimeToNow() {
+    if (timeOfOldestEdit == Long.MAX_VALUE) {
+      timeOfOldestEdit = EnvironmentEdgeManager.currentTime();
+    }
+  }
+
+  /**
+   * Remove n key from the memstore. Only cells that have the same key and the same memstoreTS
+   * are removed. Only called for error recovery, so it takes the write lock and copies the
+   * immutable segment holding the cell.
+   * @param cell
+   */
+  @Override
+  public void rollback(Cell cell) {
+    lock.writeLock().lock();
+    try {
+      snapshot = rollback(snapshot, cell);
+      List<Segment> newPipeline = rollback(pipeline, cell);
+      if (newPipeline != pipeline) {
+        pipeline = newPipeline;
+        pipelineVersion++;
+      }
+      if (active.rollback(cell) > 0) {
+        setOldestEditTimeToNow();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the passed segments without the passed cell, or the passed list itself if none of
+   *   the segments holds it
+   */
+  private static List<Segment> rollback(List<Segment> segments, Cell cell) {
+    for (int i = 0; i < segments.size(); i++) {
+      Segment segment = segments.get(i);
+      Segment replacement = null;
+      if (segment instanceof MutableSegment) {
+        if (((MutableSegment) segment).rollback(cell) > 0) {
+          replacement = segment;
+        }
+      } else {
+        replacement = ((ImmutableSegment) segment).without(cell);
+      }
+      if (replacement != null) {
+        List<Segment> newSegments = new ArrayList<Segment>(segments);
+        newSegments.set(i, replacement);
+        return Collections.unmodifiableList(newSegments);
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * @param state column/delete tracking state
+   */
+  @Override
+  public void getRowKeyAtOrBefore(final GetClosestRowBeforeTracker state) {
+    List<Segment> segments;
+    lock.readLock().lock();
+    try {
+      segments = getSegments();
+    } finally {
+      lock.readLock().unlock();
+    }
+    for (int i = 0; i < segments.size(); i++) {
+      // Expired cells can only be dropped from the active segment, the others are immutable.
+      DefaultMemStore.getRowKeyAtOrBefore(segments.get(i).getCellSet(), state, i == 0);
+    }
+  }
+
+  /**
+   * Callers should hold the lock.
+   * @return the active segment, the pipeline and the snapshot, newest first
+   */
+  private List<Segment> getSegments() {
+    List<Segment> segments = new ArrayList<Segment>(1 + pipeline.size() + snapshot.size());
+    segments.add(active);
+    segments.addAll(pipeline);
+    segments.addAll(snapshot);
+    return segments;
+  }
+
+  /**
+   * Given the specs of a column, update it, first by inserting a new record,
+   * then removing the old one. See {@link DefaultMemStore#updateColumnValue}.
+   */
+  @Override
+  public long updateColumnValue(byte[] row, byte[] family, byte[] qualifier, long newValue,
+      long now) {
+    Cell firstCell = KeyValueUtil.createFirstOnRow(row, family, qualifier);
+    long size;
+    lock.readLock().lock();
+    try {
+      List<Segment> segments = getSegments();
+      // Is there a Cell in an older segment with the same TS? If so, upgrade the timestamp a
+      // bit.
+      for (Segment segment : segments.subList(1, segments.size())) {
+        SortedSet<Cell> ss = segment.getCellSet().tailSet(firstCell);
+        if (!ss.isEmpty()) {
+          Cell c = ss.first();
+          if (CellUtil.matchingRow(c, firstCell) && CellUtil.matchingQualifier(c, firstCell)
+              && c.getTimestamp() == now) {
+            now += 1;
+          }
+        }
+      }
+      // The new ts must be at least 'now', and at least the most recent ts in the active
+      // segment.
+      for (Cell cell : active.getCellSet().tailSet(firstCell)) {
+        if (!CellUtil.matchingColumn(cell, family, qualifier)
+            || !CellUtil.matchingRow(cell, firstCell)) {
+          break;
+        }
+        if (cell.getTypeByte() == KeyValue.Type.Put.getCode() && cell.getTimestamp() > now) {
+          now = cell.getTimestamp();
+        }
+      }
+      // create or update (upsert) a new Cell with
+      // 'now' and a 0 memstoreTS == immediately visible
+      size = internalUpsert(new KeyValue(row, family, qualifier, now, Bytes.toBytes(newValue)),
+          1L, null);
+    } finally {
+      lock.readLock().unlock();
+    }
+    checkActiveSize();
+    return size;
+  }
+
+  /**
+   * Update or insert the specified cells. Versions are only removed from the active segment;
+   * those in the pipeline are left to the in-memory compaction.
+   * See {@link DefaultMemStore#upsert(Iterable, long, List)}.
+   */
+  @Override
+  public long upsert(Iterable<Cell> cells, long readpoint, List<Cell> removedCells) {
+    long size = 0;
+    lock.readLock().lock();
+    try {
+      for (Cell cell : cells) {
+        size += internalUpsert(cell, readpoint, removedCells);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    checkActiveSize();
+    return size;
+  }
+
+  /**
+   * Callers should hold the read lock.
+   * @return change in size of MemStore
+   */
+  private long internalUpsert(Cell cell, long readpoint, List<Cell> removedCells) {
+    MutableSegment segment = active;
+    // No MSLAB here, see DefaultMemStore#upsert(Cell, long, List)
+    long addedSize = segment.add(cell, false);
+    setOldestEditTimeToNow();
+
+    // Get the Cells for the row/family/qualifier regardless of timestamp.
+    // For this case we want to clean up any other puts
+    Cell firstCell = KeyValueUtil.createFirstOnRow(
+        cell.getRowArray(), cell.getRowOffset(), cell.getRowLength(),
+        cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength(),
+        cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+    SortedSet<Cell> ss = segment.getCellSet().tailSet(firstCell);
+    // versions visible to oldest scanner
+    int versionsVisible = 0;
+    for (Iterator<Cell> it = ss.iterator(); it.hasNext();) {
+      Cell cur = it.next();
+      if (cell == cur) {
+        // ignore the one just put in
+        continue;
+      }
+      // check that this is the row and column we are interested in, otherwise bail
+      if (!CellUtil.matchingRow(cell, cur) || !CellUtil.matchingQualifier(cell, cur)) {
+        break;
+      }
+      // only remove Puts that concurrent scanners cannot possibly see
+      if (cur.getTypeByte() == KeyValue.Type.Put.getCode() && cur.getSequenceId() <= readpoint) {
+        if (versionsVisible >= 1) {
+          // we have seen a version visible to the oldest scanner, so no scanner sees this one
+          long delta = DefaultMemStore.heapSizeChange(cur, true);
+          addedSize -= delta;
+          segment.incSize(-delta);
+          if (removedCells != null) {
+            removedCells.add(cur);
+          }
+          it.remove();
+        } else {
+          versionsVisible++;
+        }
+      }
+    }
+    return addedSize;
+  }
+
+  /**
+   * @return scanners on the active segment, the pipeline and the snapshot, newest first.
+   */
+  @Override
+  public List<KeyValueScanner> getScanners(long readPt) {
+    lock.readLock().lock();
+    try {
+      List<Segment> segments = getSegments();
+      List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>(segments.size());
+      // Memstore scanners always have the latest data among all scanners, see
+      // KeyValueScanner#getScannerOrder()
+      long order = Long.MAX_VALUE;
+      for (Segment segment : segments) {
+        scanners.add(new SegmentScanner(segment, readPt, order--));
+      }
+      return scanners;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Starts an in-memory flush in the background if the active segment has grown big enough
+   * and no in-memory flush is going on.
+   */
+  private void checkActiveSize() {
+    if (active.getSize() > inMemoryFlushThreshold
+        && inMemoryFlushInProgress.compareAndSet(false, true)) {
+      getInMemoryCompactionPool(conf).execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            flushInMemory();
+          } catch (Throwable t) {
+            LOG.warn("In-memory flush of " + store + " failed", t);
+          } finally {
+            inMemoryFlushInProgress.set(false);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Pushes the active segment into the pipeline, then flattens the pipeline and merges or
+   * compacts it as the policy says. Runs in the background, but tests call it directly.
+   */
+  @VisibleForTesting
+  void flushInMemory() throws IOException {
+    List<Segment> segments;
+    long version;
+    lock.writeLock().lock();
+    try {
+      if (active.isEmpty()) {
+        return;
+      }
+      List<Segment> newPipeline = new ArrayList<Segment>(pipeline.size() + 1);
+      newPipeline.add(active);
+      newPipeline.addAll(pipeline);
+      active = newActiveSegment();
+      pipeline = Collections.unmodifiableList(newPipeline);
+      version = ++pipelineVersion;
+      segments = pipeline;
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    List<ImmutableSegment> flat = new ArrayList<ImmutableSegment>(segments.size());
+    for (Segment segment : segments) {
+      flat.add(segment instanceof MutableSegment
+          ? ((MutableSegment) segment).toImmutableSegment() : (ImmutableSegment) segment);
+    }
+    if (policy == MemoryCompactionPolicy.EAGER) {
+      ImmutableSegment compacted = compact(flat);
+      if (swapPipeline(version, segments, compacted)) {
+        for (Segment segment : segments) {
+          segment.close();
+        }
+      } else {
+        compacted.close();
+      }
+    } else if (flat.size() > pipelineSegmentsLimit) {
+      swapPipeline(version, segments, ImmutableSegment.merge(comparator, flat));
+    } else {
+      swapPipeline(version, segments, flat);
+    }
+  }
+
+  private boolean swapPipeline(long version, List<Segment> oldSegments,
+      ImmutableSegment newSegment) {
+    return swapPipeline(version, oldSegments, Collections.singletonList(newSegment));
+  }
+
+  /**
+   * Replaces the pipeline with the passed segments unless it changed since it was read, and
+   * reports the size change to the region.
+   * @return whether the pipeline was replaced
+   */
+  private boolean swapPipeline(long version, List<Segment> oldSegments,
+      List<? extends Segment> newSegments) {
+    // Keeps the size change from coming between the flushable size and the snapshot of a flush.
+    ReentrantReadWriteLock.ReadLock updatesLock =
+        store.getHRegion().getUpdatesLock().readLock();
+    updatesLock.lock();
+    try {
+      lock.writeLock().lock();
+      try {
+        if (version != pipelineVersion) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Pipeline of " + store + " changed during in-memory flush; dropping result");
+          }
+          return false;
+        }
+        pipeline = Collections.<Segment> unmodifiableList(newSegments);
+        pipelineVersion++;
+        store.getHRegion().addAndGetGlobalMemstoreSize(sizeOf(newSegments) - sizeOf(oldSegments));
+        return true;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } finally {
+      updatesLock.unlock();
+    }
+  }
+
+  /**
+   * Compacts the passed segments into one, dropping what a flush to disk would drop, and copies
+   * the cells kept into a new MemStoreLAB so that the old ones can be freed.
+   */
+  private ImmutableSegment compact(List<ImmutableSegment> segments) throws IOException {
+    List<SegmentScanner> scanners = new ArrayList<SegmentScanner>(segments.size());
+    long order = segments.size();
+    for (Segment segment : segments) {
+      // Cells of writes still in flight have to be kept too.
+      scanners.add(new SegmentScanner(segment, Long.MAX_VALUE, order--));
+    }
+    MemStoreLAB allocator = DefaultMemStore.createMemStoreLAB(conf);
+    List<Cell> cells = new ArrayList<Cell>();
+    TimeRangeTracker timeRangeTracker = new TimeRangeTracker();
+    long size = 0;
+    boolean tagsPresent = false;
+    try {
+      Scan scan = new Scan();
+      scan.setMaxVersions(store.getScanInfo().getMaxVersions());
+      InternalScanner scanner = new StoreScanner(store, store.getScanInfo(), scan, scanners,
+          ScanType.COMPACT_RETAIN_DELETES, store.getHRegion().getSmallestReadPoint(),
+          HConstants.OLDEST_TIMESTAMP);
+      try {
+        ScannerContext scannerContext =
+            ScannerContext.newBuilder().setBatchLimit(compactionKVMax).build();
+        List<Cell> kvs = new ArrayList<Cell>();
+        boolean hasMore;
+        do {
+          hasMore = scanner.next(kvs, scannerContext);
+          for (Cell c : kvs) {
+            Cell cell = MutableSegment.maybeCloneWithAllocator(c, allocator);
+            cells.add(cell);
+            timeRangeTracker.includeTimestamp(cell);
+            size += ImmutableSegment.heapSizeOf(cell);
+            tagsPresent |= cell.getTagsLength() > 0;
+          }
+          kvs.clear();
+        } while (hasMore);
+      } finally {
+        scanner.close();
+      }
+    } catch (IOException e) {
+      if (allocator != null) {
+        allocator.close();
+      }
+      throw e;
+    } finally {
+      // The store scanner does not close the scanners it did not select.
+      for (SegmentScanner scanner : scanners) {
+        scanner.close();
+      }
+    }
+    List<MemStoreLAB> allocators = allocator == null
+        ? Collections.<MemStoreLAB> emptyList() : Collections.singletonList(allocator);
+    return new ImmutableSegment(comparator, cells.toArray(new Cell[cells.size()]),
+        timeRangeTracker, size, allocators, tagsPresent);
+  }
+
+  private long keySize() {
+    return active.getSize() + sizeOf(pipeline);
+  }
+
+  /**
+   * Get the entire heap usage for this MemStore not including keys in the
+   * snapshot.
+   */
+  @Override
+  public long heapSize() {
+    return DEEP_OVERHEAD + keySize();
+  }
+
+  @Override
+  public long size() {
+    return heapSize();
+  }
+
+  @VisibleForTesting
+  int getPipelineSize() {
+    return pipeline.size();
+  }
+
+  @VisibleForTesting
+  boolean isInMemoryFlushInProgress() {
+    return inMemoryFlushInProgress.get();
+  }
+
+  public final static long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT
+      + (9 * ClassSize.REFERENCE) + (4 * Bytes.SIZEOF_LONG) + (2 * Bytes.SIZEOF_INT));
+
+  public final static long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD
+      + ClassSize.REENTRANT_LOCK + ClassSize.ATOMIC_BOOLEAN + ClassSize.ATOMIC_LONG
+      + ClassSize.TIMERANGE_TRACKER + ClassSize.CELL_SKIPLIST_SET
+      + ClassSize.CONCURRENT_SKIPLISTMAP);
+}
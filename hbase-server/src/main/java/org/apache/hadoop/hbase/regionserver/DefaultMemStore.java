@@ -42,7 +42,6 @@ import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.exceptions.UnexpectedStateException;
 import org.apache.hadoop.hbase.io.TimeRange;
-import org.apache.hadoop.hbase.util.ByteRange;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.CollectionBackedScanner;
@@ -59,6 +58,10 @@ import com.google.common.annotations.VisibleForTesting;
  * and backing snapshot until flusher reports in that the flush succeeded. At
  * this point we let the snapshot go.
  *  <p>
+ * As the snapshot takes no more writes, its cells are moved from the skip list
+ * into a sorted array, a {@link CellArraySet}, that the flush and readers
+ * binary search.
+ *  <p>
  * The MemStore functions should not be called in parallel. Callers should hold
  *  write and read locks. This is done in {@link HStore}.
  *  </p>
@@ -119,12 +122,12 @@ public class DefaultMemStore implements MemStore {
   public MemStoreSnapshot snapshot() {
     // If snapshot currently has entries, then flusher failed or didn't call
     // cleanup.  Log a warning.
-    if (!snapshotSection.getCellSkipListSet().isEmpty()) {
+    if (!snapshotSection.getCellSet().isEmpty()) {
       LOG.warn("Snapshot called again without clearing previous. " +
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
     } else {
       this.snapshotId = EnvironmentEdgeManager.currentTime();
-      if (!activeSection.getCellSkipListSet().isEmpty()) {
+      if (!activeSection.getCellSet().isEmpty()) {
         snapshotSection = activeSection;
         activeSection = Section.newActiveSection(comparator, conf);
         snapshotSection.getHeapSize().addAndGet(-DEEP_OVERHEAD);
@@ -132,14 +135,28 @@ public class DefaultMemStore implements MemStore {
       }
     }
     MemStoreSnapshot memStoreSnapshot = new MemStoreSnapshot(this.snapshotId,
-        snapshotSection.getCellSkipListSet().size(), snapshotSection.getHeapSize().get(),
+        snapshotSection.getCellSet().size(), snapshotSection.getHeapSize().get(),
         snapshotSection.getTimeRangeTracker(),
-        new CollectionBackedScanner(snapshotSection.getCellSkipListSet(), this.comparator),
+        new CollectionBackedScanner(snapshotSection.getCellSet(), this.comparator),
         this.tagsPresent);
     this.tagsPresent = false;
     return memStoreSnapshot;
   }
 
+  /**
+   * Moves the cells of the snapshot out of its skip list into a flat array, which the readers
+   * of the snapshot can binary search. {@link #snapshot()} runs under the region's updates lock
+   * and only swaps the active section out; the copy is done here, once the flush is under way.
+   * By then all transactions that wrote to the snapshot are done, so no rollback needs to
+   * remove a cell from the array.
+   */
+  void compactSnapshot() {
+    Section snapshot = snapshotSection;
+    if (snapshot.getCellSet() instanceof CellSkipListSet) {
+      snapshotSection = snapshot.toSnapshotSection(comparator);
+    }
+  }
+
   /**
    * The passed snapshot was successfully persisted; it can be let go.
    * @param id Id of the snapshot to clean out.
@@ -200,7 +217,7 @@ public class DefaultMemStore implements MemStore {
   }
 
   private boolean addToCellSet(Cell e) {
-    boolean b = this.activeSection.getCellSkipListSet().add(e);
+    boolean b = this.activeSection.getCellSet().add(e);
     // In no tags case this NoTagsKeyValue.getTagsLength() is a cheap call.
     // When we use ACL CP or Visibility CP which deals with Tags during
     // mutation, the TagRewriteCell.getTagsLength() is a cheaper call. We do not
@@ -213,7 +230,7 @@ public class DefaultMemStore implements MemStore {
   }
 
   private boolean removeFromCellSet(Cell e) {
-    boolean b = this.activeSection.getCellSkipListSet().remove(e);
+    boolean b = this.activeSection.getCellSet().remove(e);
     setOldestEditTimeToNow();
     return b;
   }
@@ -256,22 +273,7 @@ public class DefaultMemStore implements MemStore {
   }
 
   private Cell maybeCloneWithAllocator(Cell cell) {
-    if (activeSection.getMemStoreLAB() == null) {
-      return cell;
-    }
-
-    int len = getCellLength(cell);
-    ByteRange alloc = activeSection.getMemStoreLAB().allocateBytes(len);
-    if (alloc == null) {
-      // The allocation was too large, allocator decided
-      // not to do anything with it.
-      return cell;
-    }
-    assert alloc.getBytes() != null;
-    KeyValueUtil.appendToByteArray(cell, alloc.getBytes(), alloc.getOffset());
-    KeyValue newKv = new KeyValue(alloc.getBytes(), alloc.getOffset(), len);
-    newKv.setSequenceId(cell.getSequenceId());
-    return newKv;
+    return MutableSegment.maybeCloneWithAllocator(cell, activeSection.getMemStoreLAB());
   }
 
   /**
@@ -289,15 +291,20 @@ public class DefaultMemStore implements MemStore {
     // not the snapshot. The flush of this snapshot to disk has not
     // yet started because Store.flush() waits for all rwcc transactions to
     // commit before starting the flush to disk.
-    Cell found = snapshotSection.getCellSkipListSet().get(cell);
-    if (found != null && found.getSequenceId() == cell.getSequenceId()) {
-      snapshotSection.getCellSkipListSet().remove(cell);
-      long sz = heapSizeChange(cell, true);
-      snapshotSection.getHeapSize().addAndGet(-sz);
+    // The snapshot only becomes an immutable array once the flush is under way,
+    // see compactSnapshot(), so until then the key is removed in place.
+    Section snapshot = snapshotSection;
+    if (snapshot.getCellSet() instanceof CellSkipListSet) {
+      Cell found = snapshot.getCellSet().get(cell);
+      if (found != null && found.getSequenceId() == cell.getSequenceId()) {
+        snapshot.getCellSet().remove(cell);
+        long sz = heapSizeChange(cell, true);
+        snapshot.getHeapSize().addAndGet(-sz);
+      }
     }
 
     // If the key is in the memstore, delete it. Update this.size.
-    found = activeSection.getCellSkipListSet().get(cell);
+    Cell found = activeSection.getCellSet().get(cell);
     if (found != null && found.getSequenceId() == cell.getSequenceId()) {
       removeFromCellSet(found);
       long sz = heapSizeChange(found, true);
@@ -323,8 +330,8 @@ public class DefaultMemStore implements MemStore {
    * @return Next row or null if none found.
    */
   Cell getNextRow(final Cell cell) {
-    return getLowest(getNextRow(cell, activeSection.getCellSkipListSet()),
-          getNextRow(cell, snapshotSection.getCellSkipListSet()));
+    return getLowest(getNextRow(cell, activeSection.getCellSet()),
+          getNextRow(cell, snapshotSection.getCellSet()));
   }
 
   /*
@@ -369,22 +376,23 @@ public class DefaultMemStore implements MemStore {
    */
   @Override
   public void getRowKeyAtOrBefore(final GetClosestRowBeforeTracker state) {
-    getRowKeyAtOrBefore(activeSection.getCellSkipListSet(), state);
-    getRowKeyAtOrBefore(snapshotSection.getCellSkipListSet(), state);
+    getRowKeyAtOrBefore(activeSection.getCellSet(), state, true);
+    getRowKeyAtOrBefore(snapshotSection.getCellSet(), state, false);
   }
 
   /*
    * @param set
    * @param state Accumulates deletes and candidates.
+   * @param removeExpired whether to remove the expired cells met from the set
    */
-  private void getRowKeyAtOrBefore(final NavigableSet<Cell> set,
-      final GetClosestRowBeforeTracker state) {
+  static void getRowKeyAtOrBefore(final NavigableSet<Cell> set,
+      final GetClosestRowBeforeTracker state, final boolean removeExpired) {
     if (set.isEmpty()) {
       return;
     }
-    if (!walkForwardInSingleRow(set, state.getTargetKey(), state)) {
+    if (!walkForwardInSingleRow(set, state.getTargetKey(), state, removeExpired)) {
       // Found nothing in row.  Try backing up.
-      getRowKeyBefore(set, state);
+      getRowKeyBefore(set, state, removeExpired);
     }
   }
 
@@ -396,10 +404,12 @@ public class DefaultMemStore implements MemStore {
    * @param set
    * @param firstOnRow First possible key on this row.
    * @param state
+   * @param removeExpired whether to remove the expired cells met from the set
    * @return True if we found a candidate walking this row.
    */
-  private boolean walkForwardInSingleRow(final SortedSet<Cell> set,
-      final Cell firstOnRow, final GetClosestRowBeforeTracker state) {
+  private static boolean walkForwardInSingleRow(final SortedSet<Cell> set,
+      final Cell firstOnRow, final GetClosestRowBeforeTracker state,
+      final boolean removeExpired) {
     boolean foundCandidate = false;
     SortedSet<Cell> tail = set.tailSet(firstOnRow);
     if (tail.isEmpty()) return foundCandidate;
@@ -408,7 +418,9 @@ public class DefaultMemStore implements MemStore {
       // Did we go beyond the target row? If so break.
       if (state.isTooFar(kv, firstOnRow)) break;
       if (state.isExpired(kv)) {
-        i.remove();
+        if (removeExpired) {
+          i.remove();
+        }
         continue;
       }
       // If we added something, this row is a contender. break.
@@ -425,12 +437,13 @@ public class DefaultMemStore implements MemStore {
    * set or until we get a candidate.
    * @param set
    * @param state
+   * @param removeExpired whether to remove the expired cells met from the set
    */
-  private void getRowKeyBefore(NavigableSet<Cell> set,
-      final GetClosestRowBeforeTracker state) {
+  private static void getRowKeyBefore(NavigableSet<Cell> set,
+      final GetClosestRowBeforeTracker state, final boolean removeExpired) {
     Cell firstOnRow = state.getTargetKey();
-    for (Member p = memberOfPreviousRow(set, state, firstOnRow);
-        p != null; p = memberOfPreviousRow(p.set, state, firstOnRow)) {
+    for (Member p = memberOfPreviousRow(set, state, firstOnRow, removeExpired);
+        p != null; p = memberOfPreviousRow(p.set, state, firstOnRow, removeExpired)) {
       // Make sure we don't fall out of our table.
       if (!state.isTargetTable(p.cell)) break;
       // Stop looking if we've exited the better candidate range.
@@ -439,7 +452,7 @@ public class DefaultMemStore implements MemStore {
       firstOnRow = new KeyValue(p.cell.getRowArray(), p.cell.getRowOffset(), p.cell.getRowLength(),
           HConstants.LATEST_TIMESTAMP);
       // If we find something, break;
-      if (walkForwardInSingleRow(p.set, firstOnRow, state)) break;
+      if (walkForwardInSingleRow(p.set, firstOnRow, state, removeExpired)) break;
     }
   }
 
@@ -468,7 +481,7 @@ public class DefaultMemStore implements MemStore {
                                 long now) {
     Cell firstCell = KeyValueUtil.createFirstOnRow(row, family, qualifier);
     // Is there a Cell in 'snapshot' with the same TS? If so, upgrade the timestamp a bit.
-    SortedSet<Cell> snSs = snapshotSection.getCellSkipListSet().tailSet(firstCell);
+    SortedSet<Cell> snSs = snapshotSection.getCellSet().tailSet(firstCell);
     if (!snSs.isEmpty()) {
       Cell snc = snSs.first();
       // is there a matching Cell in the snapshot?
@@ -486,7 +499,7 @@ public class DefaultMemStore implements MemStore {
     // so we cant add the new Cell w/o knowing what's there already, but we also
     // want to take this chance to delete some cells. So two loops (sad)
 
-    SortedSet<Cell> ss = activeSection.getCellSkipListSet().tailSet(firstCell);
+    SortedSet<Cell> ss = activeSection.getCellSet().tailSet(firstCell);
     for (Cell cell : ss) {
       // if this isnt the row we are interested in, then bail:
       if (!CellUtil.matchingColumn(cell, family, qualifier)
@@ -565,7 +578,7 @@ public class DefaultMemStore implements MemStore {
         cell.getRowArray(), cell.getRowOffset(), cell.getRowLength(),
         cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength(),
         cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
-    SortedSet<Cell> ss = activeSection.getCellSkipListSet().tailSet(firstCell);
+    SortedSet<Cell> ss = activeSection.getCellSet().tailSet(firstCell);
     Iterator<Cell> it = ss.iterator();
     // versions visible to oldest scanner
     int versionsVisible = 0;
@@ -625,16 +638,20 @@ public class DefaultMemStore implements MemStore {
    * @param state Utility and context.
    * @param firstOnRow First item on the row after the one we want to find a
    * member in.
+   * @param removeExpired whether to remove the expired cells met from the set
    * @return Null or member of row previous to <code>firstOnRow</code>
    */
-  private Member memberOfPreviousRow(NavigableSet<Cell> set,
-      final GetClosestRowBeforeTracker state, final Cell firstOnRow) {
+  private static Member memberOfPreviousRow(NavigableSet<Cell> set,
+      final GetClosestRowBeforeTracker state, final Cell firstOnRow,
+      final boolean removeExpired) {
     NavigableSet<Cell> head = set.headSet(firstOnRow, false);
     if (head.isEmpty()) return null;
     for (Iterator<Cell> i = head.descendingIterator(); i.hasNext();) {
       Cell found = i.next();
       if (state.isExpired(found)) {
-        i.remove();
+        if (removeExpired) {
+          i.remove();
+        }
         continue;
       }
       return new Member(head, found);
@@ -801,8 +818,8 @@ public class DefaultMemStore implements MemStore {
       }
       // kvset and snapshot will never be null.
       // if tailSet can't find anything, SortedSet is empty (not null).
-      cellSetIt = activeAtCreation.getCellSkipListSet().tailSet(key).iterator();
-      snapshotIt = snapshotAtCreation.getCellSkipListSet().tailSet(key).iterator();
+      cellSetIt = activeAtCreation.getCellSet().tailSet(key).iterator();
+      snapshotIt = snapshotAtCreation.getCellSet().tailSet(key).iterator();
       cellSetItRow = null;
       snapshotItRow = null;
 
@@ -844,8 +861,8 @@ public class DefaultMemStore implements MemStore {
        get it. So we remember the last keys we iterated to and restore
        the reseeked set to at least that point.
        */
-      cellSetIt = activeAtCreation.getCellSkipListSet().tailSet(getHighest(key, cellSetItRow)).iterator();
-      snapshotIt = snapshotAtCreation.getCellSkipListSet().tailSet(getHighest(key, snapshotItRow)).iterator();
+      cellSetIt = activeAtCreation.getCellSet().tailSet(getHighest(key, cellSetItRow)).iterator();
+      snapshotIt = snapshotAtCreation.getCellSet().tailSet(getHighest(key, snapshotItRow)).iterator();
 
       return seekInSubLists(key);
     }
@@ -974,9 +991,9 @@ public class DefaultMemStore implements MemStore {
       do {
         Cell firstKeyOnRow = KeyValueUtil.createFirstOnRow(key.getRowArray(), key.getRowOffset(),
             key.getRowLength());
-        SortedSet<Cell> cellHead = activeAtCreation.getCellSkipListSet().headSet(firstKeyOnRow);
+        SortedSet<Cell> cellHead = activeAtCreation.getCellSet().headSet(firstKeyOnRow);
         Cell cellSetBeforeRow = cellHead.isEmpty() ? null : cellHead.last();
-        SortedSet<Cell> snapshotHead = snapshotAtCreation.getCellSkipListSet()
+        SortedSet<Cell> snapshotHead = snapshotAtCreation.getCellSet()
             .headSet(firstKeyOnRow);
         Cell snapshotBeforeRow = snapshotHead.isEmpty() ? null : snapshotHead
             .last();
@@ -1004,10 +1021,10 @@ public class DefaultMemStore implements MemStore {
 
     @Override
     public synchronized boolean seekToLastRow() {
-      Cell first = activeAtCreation.getCellSkipListSet().isEmpty() ? null
-        : activeAtCreation.getCellSkipListSet().last();
-      Cell second = snapshotAtCreation.getCellSkipListSet().isEmpty() ? null
-          : snapshotAtCreation.getCellSkipListSet().last();
+      Cell first = activeAtCreation.getCellSet().isEmpty() ? null
+        : activeAtCreation.getCellSet().last();
+      Cell second = snapshotAtCreation.getCellSet().isEmpty() ? null
+          : snapshotAtCreation.getCellSet().last();
       Cell higherCell = getHighest(first, second);
       if (higherCell == null) {
         return false;
@@ -1102,6 +1119,18 @@ public class DefaultMemStore implements MemStore {
     LOG.info("Exiting.");
   }
 
+  /**
+   * @return a new MemStoreLAB of the configured class, or null if MemStoreLABs are disabled
+   */
+  static MemStoreLAB createMemStoreLAB(final Configuration conf) {
+    if (!conf.getBoolean(USEMSLAB_KEY, USEMSLAB_DEFAULT)) {
+      return null;
+    }
+    String className = conf.get(MSLAB_CLASS_NAME, HeapMemStoreLAB.class.getName());
+    return ReflectionUtils.instantiateWithCustomCtor(className,
+        new Class[]{Configuration.class}, new Object[]{conf});
+  }
+
   /**
    * Contains the fields which are useful to MemStoreScanner.
    */
@@ -1113,9 +1142,10 @@ public class DefaultMemStore implements MemStore {
      * better semantics.  The Map will overwrite if passed a key it already had
      * whereas the Set will not add new Cell if key is same though value might be
      * different.  Value is not important -- just make sure always same reference passed.
+     * A snapshot is moved into an immutable CellArraySet once it is flushed.
      */
-    private final CellSkipListSet cellSet;
-    private final TimeRangeTracker tracker = new TimeRangeTracker();
+    private final CellSet cellSet;
+    private final TimeRangeTracker tracker;
     /**
      * Used to track own heapSize.
      */
@@ -1123,28 +1153,40 @@ public class DefaultMemStore implements MemStore {
     private final MemStoreLAB allocator;
 
     static Section newSnapshotSection(final KeyValue.KVComparator c) {
-      return new Section(c, null, 0);
+      return new Section(new CellArraySet(c, new Cell[0]), new TimeRangeTracker(),
+          new AtomicLong(0), null);
     }
 
     static Section newActiveSection(final KeyValue.KVComparator c,
             final Configuration conf) {
-      return new Section(c, conf, DEEP_OVERHEAD);
+      return new Section(new CellSkipListSet(c), new TimeRangeTracker(),
+          new AtomicLong(DEEP_OVERHEAD), createMemStoreLAB(conf));
     }
 
-    private Section(final KeyValue.KVComparator c,
-            final Configuration conf, long initHeapSize) {
-      this.cellSet = new CellSkipListSet(c);
-      this.heapSize = new AtomicLong(initHeapSize);
-      if (conf != null && conf.getBoolean(USEMSLAB_KEY, USEMSLAB_DEFAULT)) {
-        String className = conf.get(MSLAB_CLASS_NAME, HeapMemStoreLAB.class.getName());
-        this.allocator = ReflectionUtils.instantiateWithCustomCtor(className,
-                new Class[]{Configuration.class}, new Object[]{conf});
-      } else {
-        this.allocator = null;
+    private Section(final CellSet cellSet, final TimeRangeTracker tracker,
+        final AtomicLong heapSize, final MemStoreLAB allocator) {
+      this.cellSet = cellSet;
+      this.tracker = tracker;
+      this.heapSize = heapSize;
+      this.allocator = allocator;
+    }
+
+    /**
+     * Moves the cells of this section into an array. This section must take no
+     * more writes. The heap size is left as it was accounted.
+     * @return a snapshot section with the cells, time range, heap size and
+     * MemStoreLAB of this section
+     */
+    Section toSnapshotSection(final KeyValue.KVComparator c) {
+      List<Cell> cells = new ArrayList<Cell>();
+      for (Cell cell : cellSet) {
+        cells.add(cell);
       }
+      return new Section(new CellArraySet(c, cells.toArray(new Cell[cells.size()])),
+          tracker, heapSize, allocator);
     }
 
-    CellSkipListSet getCellSkipListSet() {
+    CellSet getCellSet() {
       return cellSet;
     }
 
@@ -27,5 +27,7 @@ import org.apache.hadoop.hbase.classification.InterfaceAudience;
  */
 @InterfaceAudience.Private
 enum FlushType {
-  NORMAL, ABOVE_LOWER_MARK, ABOVE_HIGHER_MARK;
+  NORMAL, ABOVE_LOWER_MARK, ABOVE_HIGHER_MARK,
+  // Above a mark of the off heap memstore only, see MemStoreFlusher
+  ABOVE_OFFHEAP_LOWER_MARK, ABOVE_OFFHEAP_HIGHER_MARK;
 }
@@ -19,6 +19,7 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
@@ -54,12 +55,14 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
+import java.util.Queue;
 import java.util.RandomAccess;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
@@ -76,7 +79,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.lang.RandomStringUtils;
@@ -280,6 +282,9 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   // - the row itself
   private final ConcurrentHashMap<HashedBytes, RowLockContext> lockedRows =
       new ConcurrentHashMap<HashedBytes, RowLockContext>();
+  // Contexts of unlocked rows kept for reuse, at most maxRowLockPoolSize of them
+  private final Queue<RowLockContext> rowLockPool = new ConcurrentLinkedQueue<RowLockContext>();
+  private final AtomicInteger rowLockPoolSize = new AtomicInteger(0);
 
   protected final Map<byte[], Store> stores = new ConcurrentSkipListMap<byte[], Store>(
       Bytes.BYTES_RAWCOMPARATOR);
@@ -306,6 +311,10 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   // Number of requests blocked by memstore size.
   private final Counter blockedRequestsCount = new Counter();
 
+  // Row lock contention: number of row locks waited for, and total time waited in ms
+  final Counter rowLockWaitCount = new Counter();
+  final Counter rowLockWaitTime = new Counter();
+
   // Compaction counters
   final AtomicLong compactionsFinished = new AtomicLong(0L);
   final AtomicLong compactionsFailed = new AtomicLong(0L);
@@ -322,6 +331,14 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   private final int rowLockWaitDuration;
   static final int DEFAULT_ROWLOCK_WAIT_DURATION = 30000;
 
+  /**
+   * Number of row lock contexts, each with its lock, kept for reuse once their rows are unlocked
+   * rather than allocated anew for every locked row. 0 turns the reuse off.
+   */
+  public static final String ROWLOCK_POOL_SIZE_KEY = "hbase.rowlock.pool.size";
+  static final int DEFAULT_ROWLOCK_POOL_SIZE = 0;
+  private final int maxRowLockPoolSize;
+
   // The internal wait duration to acquire a lock before read/update
   // from the region. It is not per row. The purpose of this wait time
   // is to avoid waiting a long time while the region is busy, so that
@@ -750,6 +767,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     }
     this.rowLockWaitDuration = conf.getInt("hbase.rowlock.wait.duration",
                     DEFAULT_ROWLOCK_WAIT_DURATION);
+    this.maxRowLockPoolSize = conf.getInt(ROWLOCK_POOL_SIZE_KEY, DEFAULT_ROWLOCK_POOL_SIZE);
 
     this.maxWaitForSeqId = conf.getInt(MAX_WAIT_FOR_SEQ_ID_KEY, DEFAULT_MAX_WAIT_FOR_SEQ_ID);
     this.isLoadingCfsOnDemandDefault = conf.getBoolean(LOAD_CFS_ON_DEMAND_CONFIG_KEY, true);
@@ -1209,6 +1227,14 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     return size;
   }
 
+  /**
+   * @return the lock that writes hold shared while they apply edits to the memstores, and that
+   *   flushes hold exclusively while they snapshot them
+   */
+  ReentrantReadWriteLock getUpdatesLock() {
+    return this.updatesLock;
+  }
+
   @Override
   public HRegionInfo getRegionInfo() {
     return this.fs.getRegionInfo();
@@ -2934,6 +2960,11 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     int nextIndexToProcess = 0;
     OperationStatus[] retCodeDetails;
     WALEdit[] walEditsFromCoprocessors;
+    /** If not null, the WAL sync of the last mini-batch may be left to it */
+    WALGroupCommit groupCommit;
+    WALGroupCommit.Callback groupCommitCallback;
+    /** Set once the last mini-batch was left to the group commit */
+    boolean completionDeferred = false;
 
     public BatchOperationInProgress(T[] operations) {
       this.operations = operations;
@@ -3048,6 +3079,29 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     return batchMutate(mutations, HConstants.NO_NONCE, HConstants.NO_NONCE);
   }
 
+  /**
+   * Perform a batch of mutations like {@link #batchMutate(Mutation[])}, except that the WAL sync
+   * of its last mini-batch, when one is needed, is left to the given group commit, together with
+   * all that follows it. The edits of that mini-batch stay invisible, and the region operation
+   * open, until {@link WALGroupCommit#commit()} is called by this same thread.
+   * @param groupCommit the group commit to leave the sync to
+   * @param callback called with the statuses of the mutations once the batch is complete: by
+   *          {@link WALGroupCommit#commit()}, or by this call if nothing was left to the group
+   *          commit
+   * @throws IOException if the batch failed before anything was left to the group commit, the
+   *           callback is not called then
+   */
+  public void batchMutate(Mutation[] mutations, WALGroupCommit groupCommit,
+      WALGroupCommit.Callback callback) throws IOException {
+    MutationBatch batchOp = new MutationBatch(mutations, HConstants.NO_NONCE, HConstants.NO_NONCE);
+    batchOp.groupCommit = groupCommit;
+    batchOp.groupCommitCallback = callback;
+    batchMutate(batchOp);
+    if (!batchOp.completionDeferred) {
+      callback.completed(batchOp.retCodeDetails, null);
+    }
+  }
+
   @Override
   public OperationStatus[] batchReplay(MutationReplay[] mutations, long replaySeqId)
       throws IOException {
@@ -3084,7 +3138,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   OperationStatus[] batchMutate(BatchOperationInProgress<?> batchOp) throws IOException {
     boolean initialized = false;
     Operation op = batchOp.isInReplay() ? Operation.REPLAY_BATCH_MUTATE : Operation.BATCH_MUTATE;
-    startRegionOperation(op);
+    startRegionOperation(op, batchOp.groupCommit);
     try {
       while (!batchOp.isDone()) {
         if (!batchOp.isInReplay()) {
@@ -3106,7 +3160,10 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         }
       }
     } finally {
-      closeRegionOperation(op);
+      // A mini-batch left to a group commit closes the region operation once complete
+      if (!batchOp.completionDeferred) {
+        closeRegionOperation(op);
+      }
     }
     return batchOp.retCodeDetails;
   }
@@ -3177,6 +3234,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     int firstIndex = batchOp.nextIndexToProcess;
     int lastIndexExclusive = firstIndex;
     boolean success = false;
+    boolean deferred = false;
     int noOfPuts = 0, noOfDeletes = 0;
     WALKey walKey = null;
     long mvccNum = 0;
@@ -3257,7 +3315,18 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         boolean shouldBlock = numReadyToWrite == 0;
         RowLock rowLock = null;
         try {
-          rowLock = getRowLockInternal(mutation.getRow(), true, shouldBlock);
+          if (shouldBlock && batchOp.groupCommit != null && !batchOp.groupCommit.isEmpty()) {
+            // Never wait while holding batches left to the group commit, see
+            // lock(Lock, int, WALGroupCommit): the row may be locked by an increment waiting
+            // on them
+            rowLock = getRowLockInternal(mutation.getRow(), true, false);
+            if (rowLock == null) {
+              batchOp.groupCommit.commit();
+            }
+          }
+          if (rowLock == null) {
+            rowLock = getRowLockInternal(mutation.getRow(), true, shouldBlock);
+          }
         } catch (TimeoutIOException e) {
           // We will retry when other exceptions, but we should stop if we timeout .
           throw e;
@@ -3338,7 +3407,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
           }
         }
       }
-      lock(this.updatesLock.readLock(), numReadyToWrite);
+      lock(this.updatesLock.readLock(), numReadyToWrite, batchOp.groupCommit);
       locked = true;
 
       // calling the pre CP hook for batch mutation
@@ -3525,11 +3594,103 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       // -------------------------
       // STEP 7. Sync wal.
       // -------------------------
+      if (batchOp.groupCommit != null) {
+        if (txid != 0 && lastIndexExclusive == batchOp.operations.length
+            && needsSync(durability)) {
+          // Leave the sync, and all that follows it, to the group commit. The edits stay in the
+          // memstore, not visible, until it syncs the WAL.
+          batchOp.groupCommit.add(this.wal, txid, new DeferredMiniBatch(batchOp, familyMaps,
+              walEdit, writeEntry, addedSize, firstIndex, lastIndexExclusive));
+          batchOp.completionDeferred = true;
+          writeEntry = null;
+          doRollBackMemstore = false;
+          deferred = true;
+          return addedSize;
+        }
+        // This mini-batch waits on the mvcc of the region below. Writers of this region may be
+        // waiting for the batches already left to the group commit, which must not wait on them
+        // in turn: complete those first.
+        batchOp.groupCommit.commit();
+      }
       if (txid != 0) {
         syncOrDefer(txid, durability);
       }
 
       doRollBackMemstore = false;
+      MultiVersionConcurrencyControl.WriteEntry toComplete = writeEntry;
+      writeEntry = null;
+      completeMiniBatch(batchOp, firstIndex, lastIndexExclusive, addedSize, toComplete, mvccNum,
+          walEdit);
+
+      success = true;
+      return addedSize;
+    } finally {
+      // if the wal sync was unsuccessful, remove keys from memstore
+      if (doRollBackMemstore) {
+        for (int j = 0; j < familyMaps.length; j++) {
+          for(List<Cell> cells:familyMaps[j].values()) {
+            rollbackMemstore(cells);
+          }
+        }
+        if (writeEntry != null) mvcc.complete(writeEntry);
+      } else {
+        if (writeEntry != null) {
+          mvcc.completeAndWait(writeEntry);
+        }
+      }
+
+      if (locked) {
+        this.updatesLock.readLock().unlock();
+      }
+      releaseRowLocks(acquiredRowLocks);
+
+      // See if the column families were consistent through the whole thing.
+      // if they were then keep them. If they were not then pass a null.
+      // null will be treated as unknown.
+      // Total time taken might be involving Puts and Deletes.
+      // Split the time for puts and deletes based on the total number of Puts and Deletes.
+
+      if (noOfPuts > 0) {
+        // There were some Puts in the batch.
+        if (this.metricsRegion != null) {
+          this.metricsRegion.updatePut();
+        }
+      }
+      if (noOfDeletes > 0) {
+        // There were some Deletes in the batch.
+        if (this.metricsRegion != null) {
+          this.metricsRegion.updateDelete();
+        }
+      }
+      if (!success && !deferred) {
+        for (int i = firstIndex; i < lastIndexExclusive; i++) {
+          if (batchOp.retCodeDetails[i].getOperationStatusCode() == OperationStatusCode.NOT_RUN) {
+            batchOp.retCodeDetails[i] = OperationStatus.FAILURE;
+          }
+        }
+      }
+      if (coprocessorHost != null && !batchOp.isInReplay() && !deferred) {
+        // call the coprocessor hook to do any finalization steps
+        // after the put is done
+        MiniBatchOperationInProgress<Mutation> miniBatchOp =
+          new MiniBatchOperationInProgress<Mutation>(batchOp.getMutationsForCoprocs(),
+          batchOp.retCodeDetails, batchOp.walEditsFromCoprocessors, firstIndex, lastIndexExclusive);
+        coprocessorHost.postBatchMutateIndispensably(miniBatchOp, success);
+      }
+
+      batchOp.nextIndexToProcess = lastIndexExclusive;
+    }
+  }
+
+  /**
+   * Does what is left of a mini-batch once its WAL edits are synced, from STEP 8 on. Completes the
+   * given mvcc write entry in any case.
+   */
+  private void completeMiniBatch(BatchOperationInProgress<?> batchOp, int firstIndex,
+      int lastIndexExclusive, long addedSize, MultiVersionConcurrencyControl.WriteEntry writeEntry,
+      long mvccNum, WALEdit walEdit) throws IOException {
+    boolean isInReplay = batchOp.isInReplay();
+    try {
       // update memstore size
       this.addAndGetGlobalMemstoreSize(addedSize);
 
@@ -3577,64 +3738,96 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
           }
         }
       }
-
-      success = true;
-      return addedSize;
     } finally {
-      // if the wal sync was unsuccessful, remove keys from memstore
-      if (doRollBackMemstore) {
-        for (int j = 0; j < familyMaps.length; j++) {
-          for(List<Cell> cells:familyMaps[j].values()) {
-            rollbackMemstore(cells);
-          }
-        }
-        if (writeEntry != null) mvcc.complete(writeEntry);
-      } else {
-        if (writeEntry != null) {
-          mvcc.completeAndWait(writeEntry);
-        }
-      }
-
-      if (locked) {
-        this.updatesLock.readLock().unlock();
+      if (writeEntry != null) {
+        mvcc.completeAndWait(writeEntry);
       }
-      releaseRowLocks(acquiredRowLocks);
+    }
+  }
 
-      // See if the column families were consistent through the whole thing.
-      // if they were then keep them. If they were not then pass a null.
-      // null will be treated as unknown.
-      // Total time taken might be involving Puts and Deletes.
-      // Split the time for puts and deletes based on the total number of Puts and Deletes.
+  /**
+   * The last mini-batch of a batch of mutations whose WAL sync was left to a
+   * {@link WALGroupCommit}. Its edits are in the WAL and in the memstore, not visible yet, its row
+   * locks are released and the region operation of the batch is still open.
+   */
+  private class DeferredMiniBatch implements WALGroupCommit.Completion {
+    private final BatchOperationInProgress<?> batchOp;
+    private final Map<byte[], List<Cell>>[] familyMaps;
+    private final WALEdit walEdit;
+    private final MultiVersionConcurrencyControl.WriteEntry writeEntry;
+    private final long addedSize;
+    private final int firstIndex;
+    private final int lastIndexExclusive;
+
+    DeferredMiniBatch(BatchOperationInProgress<?> batchOp, Map<byte[], List<Cell>>[] familyMaps,
+        WALEdit walEdit, MultiVersionConcurrencyControl.WriteEntry writeEntry, long addedSize,
+        int firstIndex, int lastIndexExclusive) {
+      this.batchOp = batchOp;
+      this.familyMaps = familyMaps;
+      this.walEdit = walEdit;
+      this.writeEntry = writeEntry;
+      this.addedSize = addedSize;
+      this.firstIndex = firstIndex;
+      this.lastIndexExclusive = lastIndexExclusive;
+    }
 
-      if (noOfPuts > 0) {
-        // There were some Puts in the batch.
-        if (this.metricsRegion != null) {
-          this.metricsRegion.updatePut();
+    @Override
+    public void complete(IOException syncFailure) {
+      IOException failure = null;
+      try {
+        completeDeferred(syncFailure);
+        if (isFlushSize(getMemstoreSize())) {
+          requestFlush();
         }
-      }
-      if (noOfDeletes > 0) {
-        // There were some Deletes in the batch.
-        if (this.metricsRegion != null) {
-          this.metricsRegion.updateDelete();
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        try {
+          closeRegionOperation(Operation.BATCH_MUTATE);
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          }
         }
       }
-      if (!success) {
-        for (int i = firstIndex; i < lastIndexExclusive; i++) {
-          if (batchOp.retCodeDetails[i].getOperationStatusCode() == OperationStatusCode.NOT_RUN) {
-            batchOp.retCodeDetails[i] = OperationStatus.FAILURE;
+      batchOp.groupCommitCallback.completed(batchOp.retCodeDetails, failure);
+    }
+
+    private void completeDeferred(IOException syncFailure) throws IOException {
+      boolean success = false;
+      try {
+        if (syncFailure != null) {
+          // the wal sync was unsuccessful, remove keys from memstore
+          for (int i = firstIndex; i < lastIndexExclusive; i++) {
+            if (familyMaps[i] != null) {
+              for (List<Cell> cells : familyMaps[i].values()) {
+                rollbackMemstore(cells);
+              }
+            }
           }
+          if (writeEntry != null) mvcc.complete(writeEntry);
+          throw syncFailure;
+        }
+        completeMiniBatch(batchOp, firstIndex, lastIndexExclusive, addedSize, writeEntry, 0,
+            walEdit);
+        success = true;
+      } finally {
+        if (!success) {
+          for (int i = firstIndex; i < lastIndexExclusive; i++) {
+            if (batchOp.retCodeDetails[i].getOperationStatusCode()
+                == OperationStatusCode.NOT_RUN) {
+              batchOp.retCodeDetails[i] = OperationStatus.FAILURE;
+            }
+          }
+        }
+        if (coprocessorHost != null) {
+          MiniBatchOperationInProgress<Mutation> miniBatchOp =
+            new MiniBatchOperationInProgress<Mutation>(batchOp.getMutationsForCoprocs(),
+            batchOp.retCodeDetails, batchOp.walEditsFromCoprocessors, firstIndex,
+            lastIndexExclusive);
+          coprocessorHost.postBatchMutateIndispensably(miniBatchOp, success);
         }
       }
-      if (coprocessorHost != null && !batchOp.isInReplay()) {
-        // call the coprocessor hook to do any finalization steps
-        // after the put is done
-        MiniBatchOperationInProgress<Mutation> miniBatchOp =
-          new MiniBatchOperationInProgress<Mutation>(batchOp.getMutationsForCoprocs(),
-          batchOp.retCodeDetails, batchOp.walEditsFromCoprocessors, firstIndex, lastIndexExclusive);
-        coprocessorHost.postBatchMutateIndispensably(miniBatchOp, success);
-      }
-
-      batchOp.nextIndexToProcess = lastIndexExclusive;
     }
   }
 
@@ -5494,23 +5687,30 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       // TODO: do we need to add a time component here?
       while (result == null) {
 
-        // Try adding a RowLockContext to the lockedRows.
-        // If we can add it then there's no other transactions currently running.
-        rowLockContext = new RowLockContext(rowKey);
-        RowLockContext existingContext = lockedRows.putIfAbsent(rowKey, rowLockContext);
-
-        // if there was a running transaction then there's already a context.
-        if (existingContext != null) {
-          rowLockContext = existingContext;
+        // if there is a running transaction then there's already a context.
+        rowLockContext = lockedRows.get(rowKey);
+        if (rowLockContext == null) {
+          // Try adding a RowLockContext to the lockedRows.
+          // If we can add it then there's no other transactions currently running.
+          RowLockContext newContext = newRowLockContext(rowKey);
+          rowLockContext = lockedRows.putIfAbsent(rowKey, newContext);
+          if (rowLockContext == null) {
+            // Only now the context of the row, a pooled context may still be known by threads
+            // that got it from lockedRows before it was last removed
+            newContext.setUsable();
+            rowLockContext = newContext;
+          } else {
+            recycleRowLockContext(newContext);
+          }
         }
 
         // Now try an get the lock.
         //
         // This can fail as
         if (readLock) {
-          result = rowLockContext.newReadLock();
+          result = rowLockContext.newReadLock(rowKey);
         } else {
-          result = rowLockContext.newWriteLock();
+          result = rowLockContext.newWriteLock(rowKey);
         }
       }
 
@@ -5528,8 +5728,14 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       boolean lockAvailable = false;
       if (timeout > 0) {
         if (waitForLock) {
-          // if waiting for lock, wait for timeout milliseconds
-          lockAvailable = result.getLock().tryLock(timeout, TimeUnit.MILLISECONDS);
+          // Unlike tryLock(), a timed tryLock does not barge ahead of the threads already waiting
+          lockAvailable = result.getLock().tryLock(0, TimeUnit.MILLISECONDS);
+          if (!lockAvailable) {
+            // if waiting for lock, wait for timeout milliseconds
+            long waitStart = EnvironmentEdgeManager.currentTime();
+            lockAvailable = result.getLock().tryLock(timeout, TimeUnit.MILLISECONDS);
+            updateRowLockWait(rowKey, EnvironmentEdgeManager.currentTime() - waitStart);
+          }
         } else {
           // If we are not waiting, tryLock() returns immediately whether we have the lock or not.
           lockAvailable = result.getLock().tryLock();
@@ -5594,11 +5800,61 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     return lockedRows;
   }
 
+  private void updateRowLockWait(HashedBytes rowKey, long waited) {
+    rowLockWaitCount.increment();
+    rowLockWaitTime.add(waited);
+    if (rsServices != null && rsServices.getMetrics() != null) {
+      rsServices.getMetrics().updateRowLockWait(waited);
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Waited " + waited + "ms for lock on row " + rowKey + " in region "
+          + getRegionInfo().getEncodedName());
+    }
+  }
+
+  /**
+   * @return the number of rows of this region locked with threads waiting for their lock
+   */
+  public long getNumContendedRows() {
+    long contended = 0;
+    for (RowLockContext context : lockedRows.values()) {
+      if (context.readWriteLock.hasQueuedThreads()) {
+        contended++;
+      }
+    }
+    return contended;
+  }
+
+  private RowLockContext newRowLockContext(HashedBytes rowKey) {
+    RowLockContext context = maxRowLockPoolSize > 0 ? rowLockPool.poll() : null;
+    if (context == null) {
+      return new RowLockContext(rowKey);
+    }
+    rowLockPoolSize.decrementAndGet();
+    context.reset(rowKey);
+    return context;
+  }
+
+  /**
+   * Keeps a context no longer in lockedRows for reuse, if the pool has room for it.
+   */
+  private void recycleRowLockContext(RowLockContext context) {
+    if (maxRowLockPoolSize > 0) {
+      if (rowLockPoolSize.incrementAndGet() <= maxRowLockPoolSize) {
+        rowLockPool.offer(context);
+      } else {
+        rowLockPoolSize.decrementAndGet();
+      }
+    }
+  }
+
   @VisibleForTesting
   class RowLockContext {
-    private final HashedBytes row;
-    final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
-    final AtomicBoolean usable = new AtomicBoolean(true);
+    // Changes when the context is reused, guarded by lock
+    private HashedBytes row;
+    final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
+    // Whether this is the context of the row in lockedRows
+    final AtomicBoolean usable = new AtomicBoolean(false);
     final AtomicInteger count = new AtomicInteger(0);
     final Object lock = new Object();
     private String threadName;
@@ -5607,19 +5863,23 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       this.row = row;
     }
 
-    RowLockImpl newWriteLock() {
+    RowLockImpl newWriteLock(HashedBytes row) {
       Lock l = readWriteLock.writeLock();
-      return getRowLock(l);
+      return getRowLock(row, l);
     }
-    RowLockImpl newReadLock() {
+    RowLockImpl newReadLock(HashedBytes row) {
       Lock l = readWriteLock.readLock();
-      return getRowLock(l);
+      return getRowLock(row, l);
     }
 
-    private RowLockImpl getRowLock(Lock l) {
-      count.incrementAndGet();
+    /**
+     * @return a lock on the given row, or null if this context is no longer the one of the row
+     */
+    private RowLockImpl getRowLock(HashedBytes row, Lock l) {
       synchronized (lock) {
-        if (usable.get()) {
+        // A context removed from lockedRows may be reused for another row
+        if (usable.get() && this.row.equals(row)) {
+          count.incrementAndGet();
           return new RowLockImpl(this, l);
         } else {
           return null;
@@ -5630,13 +5890,36 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     void cleanUp() {
       long c = count.decrementAndGet();
       if (c <= 0) {
+        boolean removed = false;
         synchronized (lock) {
           if (count.get() <= 0 && usable.get()){ // Don't attempt to remove row if already removed
             usable.set(false);
-            RowLockContext removed = lockedRows.remove(row);
-            assert removed == this: "we should never remove a different context";
+            removed = lockedRows.remove(row, this);
+            assert removed: "we should never remove a different context";
           }
         }
+        if (removed) {
+          recycleRowLockContext(this);
+        }
+      }
+    }
+
+    /**
+     * Makes this unused context one for the given row, not usable until it is put in lockedRows.
+     */
+    void reset(HashedBytes row) {
+      synchronized (lock) {
+        this.row = row;
+        this.threadName = null;
+      }
+    }
+
+    /**
+     * Marks this context as the one of its row in lockedRows.
+     */
+    void setUsable() {
+      synchronized (lock) {
+        usable.set(true);
       }
     }
 
@@ -7243,6 +7526,13 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
 
   @Override
   public Result get(final Get get) throws IOException {
+    prepareGet(get);
+    List<Cell> results = get(get, true);
+    boolean stale = this.getRegionInfo().getReplicaId() != 0;
+    return Result.create(results, get.isCheckExistenceOnly() ? !results.isEmpty() : null, stale);
+  }
+
+  private void prepareGet(final Get get) throws IOException {
     checkRow(get.getRow(), "Get");
     // Verify families are all valid
     if (get.hasFamilies()) {
@@ -7254,9 +7544,265 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         get.addFamily(family);
       }
     }
-    List<Cell> results = get(get, true);
+  }
+
+  /**
+   * Do a batch of gets. The gets without a filter that read the same columns the same way are
+   * served by a single scanner visiting their rows in sorted order, so every store file is read
+   * forward once: gets on rows of the same block read it once, and the blocks of nearby rows
+   * are read in sequence instead of each get seeking every store file from its block index. The
+   * other gets are done one at a time as by {@link #get(Get)}.
+   * @param gets the gets, all on rows of this region
+   * @return the results, in the order of the gets
+   * @throws IOException if any of the gets fails
+   */
+  public Result[] get(List<Get> gets) throws IOException {
+    IOException[] errors = new IOException[gets.size()];
+    Result[] results = get(gets, errors);
+    for (IOException e : errors) {
+      if (e != null) {
+        throw e;
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Do a batch of gets as {@link #get(List)} does, but report the failure of each get on its
+   * own. A get failing does not stop the others, except that a failure to read with a shared
+   * scanner fails the gets of that scanner not served yet.
+   * @param gets the gets, all on rows of this region
+   * @param errors as many as there are gets; the failure of a get is set at its position, and
+   *          the get then has no result
+   * @return the results, in the order of the gets
+   */
+  public Result[] get(List<Get> gets, IOException[] errors) {
+    return get(gets, errors, Long.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Do a batch of gets as {@link #get(List, IOException[])} does, but stop once the results
+   * are larger than either of the given sizes, estimated as for an RPC response: the heap size of
+   * their cells, and the size of the arrays their values are in. The gets not served by then,
+   * which may be any of them as gets sharing a scanner are served in row order, are left with
+   * neither result nor failure.
+   * @param gets the gets, all on rows of this region
+   * @param errors as many as there are gets; the failure of a get is set at its position, and
+   *          the get then has no result
+   * @param maxCellSize the heap size of the cells of the results past which no more gets are done
+   * @param maxBlockSize the size of the arrays holding the values of the results past which no
+   *          more gets are done
+   * @return the results, in the order of the gets
+   */
+  public Result[] get(List<Get> gets, IOException[] errors, long maxCellSize,
+      long maxBlockSize) {
+    Result[] results = new Result[gets.size()];
+    ResultSize resultSize = new ResultSize(maxCellSize, maxBlockSize);
     boolean stale = this.getRegionInfo().getReplicaId() != 0;
-    return Result.create(results, get.isCheckExistenceOnly() ? !results.isEmpty() : null, stale);
+    // Indexes of the gets that can share a scanner with the first get of their group
+    List<List<Integer>> groups = new ArrayList<List<Integer>>();
+    for (int i = 0; i < gets.size(); i++) {
+      if (resultSize.isExceeded()) {
+        return results;
+      }
+      Get get = gets.get(i);
+      try {
+        prepareGet(get);
+        List<Cell> cells = new ArrayList<Cell>();
+        // pre-get CP hook
+        if (coprocessorHost != null && coprocessorHost.preGet(get, cells)) {
+          results[i] = Result.create(cells, get.isCheckExistenceOnly() ? !cells.isEmpty() : null,
+              stale);
+          resultSize.add(results[i]);
+          continue;
+        }
+        List<Integer> group = null;
+        if (canShareScanner(get)) {
+          for (List<Integer> g : groups) {
+            if (canShareScanner(gets.get(g.get(0)), get)) {
+              group = g;
+              break;
+            }
+          }
+          if (group == null) {
+            group = new ArrayList<Integer>();
+            groups.add(group);
+          }
+        } else {
+          long before = EnvironmentEdgeManager.currentTime();
+          doGet(get, cells, HConstants.NO_NONCE, HConstants.NO_NONCE);
+          results[i] = postGet(get, cells, before, stale);
+          resultSize.add(results[i]);
+          continue;
+        }
+        group.add(i);
+      } catch (IOException e) {
+        errors[i] = e;
+      }
+    }
+    for (List<Integer> group : groups) {
+      if (resultSize.isExceeded()) {
+        break;
+      }
+      if (group.size() == 1) {
+        int i = group.get(0);
+        try {
+          long before = EnvironmentEdgeManager.currentTime();
+          List<Cell> cells = new ArrayList<Cell>();
+          doGet(gets.get(i), cells, HConstants.NO_NONCE, HConstants.NO_NONCE);
+          results[i] = postGet(gets.get(i), cells, before, stale);
+          resultSize.add(results[i]);
+        } catch (IOException e) {
+          errors[i] = e;
+        }
+      } else {
+        getSharingScanner(gets, group, results, errors, stale, resultSize);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * The size of the results of a batch of gets, counted as RSRpcServices counts the size of a
+   * response: the arrays holding the values are counted once for the consecutive cells in them.
+   */
+  private static class ResultSize {
+    private final long maxCellSize;
+    private final long maxBlockSize;
+    private long cellSize = 0;
+    private long blockSize = 0;
+    private Object lastBlock = null;
+
+    ResultSize(long maxCellSize, long maxBlockSize) {
+      this.maxCellSize = maxCellSize;
+      this.maxBlockSize = maxBlockSize;
+    }
+
+    void add(Result result) {
+      if (result == null || result.isEmpty()) {
+        return;
+      }
+      for (Cell cell : result.rawCells()) {
+        cellSize += CellUtil.estimatedHeapSizeOf(cell);
+        byte[] valueArray = cell.getValueArray();
+        if (valueArray != lastBlock) {
+          blockSize += valueArray.length;
+          lastBlock = valueArray;
+        }
+      }
+    }
+
+    boolean isExceeded() {
+      return cellSize > maxCellSize || blockSize > maxBlockSize;
+    }
+  }
+
+  /**
+   * Serves the given gets, which can share a scanner, with a single scanner visiting their rows
+   * in sorted order. If the scanner fails, so do the gets it has not served yet. Stops once the
+   * results exceed the given size.
+   */
+  private void getSharingScanner(final List<Get> gets, List<Integer> group, Result[] results,
+      IOException[] errors, boolean stale, ResultSize resultSize) {
+    Collections.sort(group, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer left, Integer right) {
+        return Bytes.compareTo(gets.get(left).getRow(), gets.get(right).getRow());
+      }
+    });
+    Get first = gets.get(group.get(0));
+    Scan scan = new Scan(first)
+        .withStopRow(gets.get(group.get(group.size() - 1)).getRow(), true);
+    if (scan.getLoadColumnFamiliesOnDemandValue() == null) {
+      scan.setLoadColumnFamiliesOnDemand(isLoadingCfsOnDemandDefault());
+    }
+    MultiGetRegionScannerImpl scanner;
+    try {
+      startRegionOperation(Operation.SCAN);
+      try {
+        scanner = new MultiGetRegionScannerImpl(scan, this);
+      } finally {
+        closeRegionOperation(Operation.SCAN);
+      }
+    } catch (IOException e) {
+      for (int i : group) {
+        errors[i] = e;
+      }
+      return;
+    }
+    try {
+      List<Cell> previous = null;
+      byte[] previousRow = null;
+      for (int g = 0; g < group.size() && !resultSize.isExceeded(); g++) {
+        int i = group.get(g);
+        Get get = gets.get(i);
+        long before = EnvironmentEdgeManager.currentTime();
+        List<Cell> cells;
+        if (previousRow != null && Bytes.equals(previousRow, get.getRow())) {
+          // The scanner is past the row already
+          cells = new ArrayList<Cell>(previous);
+        } else {
+          cells = new ArrayList<Cell>();
+          try {
+            scanner.nextInRow(get.getRow(), cells);
+          } catch (IOException e) {
+            for (int rest = g; rest < group.size(); rest++) {
+              errors[group.get(rest)] = e;
+            }
+            return;
+          }
+          previous = new ArrayList<Cell>(cells);
+          previousRow = get.getRow();
+        }
+        try {
+          results[i] = postGet(get, cells, before, stale);
+          resultSize.add(results[i]);
+        } catch (IOException e) {
+          errors[i] = e;
+        }
+      }
+    } finally {
+      scanner.close();
+    }
+  }
+
+  /**
+   * @return whether the get can be served by a scanner shared with other gets, which has to
+   *         leave every row as soon as it is done with it
+   */
+  private static boolean canShareScanner(Get get) {
+    return get.getFilter() == null && !get.isClosestRowBefore()
+        && get.getColumnFamilyTimeRange().isEmpty() && get.getAttributesMap().isEmpty();
+  }
+
+  /**
+   * @return whether the two gets read the same columns the same way, so that they can be
+   *         served by the same scanner
+   */
+  private static boolean canShareScanner(Get left, Get right) {
+    if (left.getMaxVersions() != right.getMaxVersions()
+        || left.getCacheBlocks() != right.getCacheBlocks()
+        || left.getMaxResultsPerColumnFamily() != right.getMaxResultsPerColumnFamily()
+        || left.getRowOffsetPerColumnFamily() != right.getRowOffsetPerColumnFamily()
+        || left.getIsolationLevel() != right.getIsolationLevel()
+        || left.getTimeRange().getMin() != right.getTimeRange().getMin()
+        || left.getTimeRange().getMax() != right.getTimeRange().getMax()
+        || !Objects.equal(left.getLoadColumnFamiliesOnDemandValue(),
+            right.getLoadColumnFamiliesOnDemandValue())) {
+      return false;
+    }
+    Map<byte[], NavigableSet<byte[]>> leftFamilies = left.getFamilyMap();
+    Map<byte[], NavigableSet<byte[]>> rightFamilies = right.getFamilyMap();
+    if (leftFamilies.size() != rightFamilies.size()) {
+      return false;
+    }
+    for (Map.Entry<byte[], NavigableSet<byte[]>> e : leftFamilies.entrySet()) {
+      if (!rightFamilies.containsKey(e.getKey())
+          || !Objects.equal(e.getValue(), rightFamilies.get(e.getKey()))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
@@ -7290,6 +7836,30 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
       }
     }
     long before = EnvironmentEdgeManager.currentTime();
+    doGet(get, results, nonceGroup, nonce);
+
+    // post-get CP hook
+    if (withCoprocessor && (coprocessorHost != null)) {
+      coprocessorHost.postGet(get, results);
+    }
+
+    metricsUpdateForGet(results, before);
+
+    return results;
+  }
+
+  private Result postGet(Get get, List<Cell> results, long before, boolean stale)
+      throws IOException {
+    // post-get CP hook
+    if (coprocessorHost != null) {
+      coprocessorHost.postGet(get, results);
+    }
+    metricsUpdateForGet(results, before);
+    return Result.create(results, get.isCheckExistenceOnly() ? !results.isEmpty() : null, stale);
+  }
+
+  private void doGet(Get get, List<Cell> results, long nonceGroup, long nonce)
+      throws IOException {
     Scan scan;
     if (get.isClosestRowBefore()) {
       scan = buildScanForGetWithClosestRowBefore(get);
@@ -7309,15 +7879,6 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
         scanner.close();
       }
     }
-
-    // post-get CP hook
-    if (withCoprocessor && (coprocessorHost != null)) {
-      coprocessorHost.postGet(get, results);
-    }
-
-    metricsUpdateForGet(results, before);
-
-    return results;
   }
 
   void metricsUpdateForGet(List<Cell> results, long before) {
@@ -8248,7 +8809,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   public static final long FIXED_OVERHEAD = ClassSize.align(
       ClassSize.OBJECT +
       ClassSize.ARRAY +
-      48 * ClassSize.REFERENCE + 3 * Bytes.SIZEOF_INT +
+      51 * ClassSize.REFERENCE + 4 * Bytes.SIZEOF_INT +
       (15 * Bytes.SIZEOF_LONG) +
       5 * Bytes.SIZEOF_BOOLEAN);
 
@@ -8520,6 +9081,15 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
   @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="SF_SWITCH_FALLTHROUGH",
     justification="Intentional")
   public void startRegionOperation(Operation op) throws IOException {
+    startRegionOperation(op, null);
+  }
+
+  /**
+   * Like {@link #startRegionOperation(Operation)}, but never waits for the region lock while
+   * batches are left to the given group commit, see {@link #lock(Lock, int, WALGroupCommit)}.
+   */
+  private void startRegionOperation(Operation op, WALGroupCommit groupCommit)
+      throws IOException {
     switch (op) {
     case GET:  // read operations
     case SCAN:
@@ -8552,7 +9122,7 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     if (this.closing.get()) {
       throw new NotServingRegionException(getRegionInfo().getRegionNameAsString() + " is closing");
     }
-    lock(lock.readLock());
+    lock(lock.readLock(), 1, groupCommit);
     if (this.closed.get()) {
       lock.readLock().unlock();
       throw new NotServingRegionException(getRegionInfo().getRegionNameAsString() + " is closed");
@@ -8658,6 +9228,23 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
     lock(lock, 1);
   }
 
+  /**
+   * Like {@link #lock(Lock, int)}, but never waits while batches are left to the given group
+   * commit: they hold mvcc write numbers of their regions open, which the holder of the lock,
+   * such as a flush holding the updates lock or a close waiting for the region operations to
+   * end, may be waiting on in turn. If the lock is not free, the batches are committed first.
+   */
+  private void lock(final Lock lock, final int multiplier, WALGroupCommit groupCommit)
+      throws RegionTooBusyException, InterruptedIOException {
+    if (groupCommit != null && !groupCommit.isEmpty()) {
+      if (lock.tryLock()) {
+        return;
+      }
+      groupCommit.commit();
+    }
+    lock(lock, multiplier);
+  }
+
   /**
    * Try to acquire a lock.  Throw RegionTooBusyException
    * if failed to get the lock in time. Throw InterruptedIOException
@@ -8691,30 +9278,34 @@ public class HRegion implements HeapSize, PropagatingConfigurationObserver, Regi
    * @throws IOException If anything goes wrong with DFS
    */
   private void syncOrDefer(long txid, Durability durability) throws IOException {
-    if (this.getRegionInfo().isMetaRegion()) {
+    if (needsSync(durability)) {
       this.wal.sync(txid);
-    } else {
-      switch(durability) {
-      case USE_DEFAULT:
-        // do what table defaults to
-        if (shouldSyncWAL()) {
-          this.wal.sync(txid);
-        }
-        break;
-      case SKIP_WAL:
-        // nothing do to
-        break;
-      case ASYNC_WAL:
-        // nothing do to
-        break;
-      case SYNC_WAL:
-      case FSYNC_WAL:
-        // sync the WAL edit (SYNC and FSYNC treated the same for now)
-        this.wal.sync(txid);
-        break;
-      default:
-        throw new RuntimeException("Unknown durability " + durability);
-      }
+    }
+  }
+
+  /**
+   * @return true if edits with the given durability are to be synced before they are visible
+   */
+  private boolean needsSync(Durability durability) {
+    if (this.getRegionInfo().isMetaRegion()) {
+      return true;
+    }
+    switch(durability) {
+    case USE_DEFAULT:
+      // do what table defaults to
+      return shouldSyncWAL();
+    case SKIP_WAL:
+      // nothing do to
+      return false;
+    case ASYNC_WAL:
+      // nothing do to
+      return false;
+    case SYNC_WAL:
+    case FSYNC_WAL:
+      // sync the WAL edit (SYNC and FSYNC treated the same for now)
+      return true;
+    default:
+      throw new RuntimeException("Unknown durability " + durability);
     }
   }
 
@@ -3522,8 +3522,13 @@ public class HRegionServer extends HasThread implements
       // return 0 during RS initialization
       return 0.0;
     }
-    return getRegionServerAccounting().getGlobalMemstoreSize() * 1.0
+    double pressure = getRegionServerAccounting().getGlobalMemstoreHeapSize() * 1.0
         / cacheFlusher.globalMemStoreLimitLowMark;
+    if (cacheFlusher.globalMemStoreOffheapLimitLowMark > 0) {
+      pressure = Math.max(pressure, getRegionServerAccounting().getGlobalMemstoreOffheapSize()
+          * 1.0 / cacheFlusher.globalMemStoreOffheapLimitLowMark);
+    }
+    return pressure;
   }
 
   @Override
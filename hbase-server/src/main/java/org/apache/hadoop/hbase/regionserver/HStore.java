@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -58,6 +59,7 @@ import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MemoryCompactionPolicy;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.Tag;
 import org.apache.hadoop.hbase.TagType;
@@ -251,9 +253,21 @@ public class HStore implements Store {
     // Why not just pass a HColumnDescriptor in here altogether?  Even if have
     // to clone it?
     scanInfo = new ScanInfo(conf, family, ttl, timeToPurgeDeletes, this.comparator);
-    String className = conf.get(MEMSTORE_CLASS_NAME, DefaultMemStore.class.getName());
-    this.memstore = ReflectionUtils.instantiateWithCustomCtor(className, new Class[] {
-        Configuration.class, KeyValue.KVComparator.class }, new Object[] { conf, this.comparator });
+    MemoryCompactionPolicy inMemoryCompaction = family.getInMemoryCompaction();
+    if (inMemoryCompaction == null) {
+      // The region server default only applies to user tables
+      inMemoryCompaction = region.getRegionInfo().getTable().isSystemTable()
+          ? MemoryCompactionPolicy.NONE
+          : MemoryCompactionPolicy.valueOf(conf.get(CompactingMemStore.COMPACTING_MEMSTORE_TYPE_KEY,
+              CompactingMemStore.COMPACTING_MEMSTORE_TYPE_DEFAULT).toUpperCase(Locale.ROOT));
+    }
+    if (inMemoryCompaction == MemoryCompactionPolicy.NONE) {
+      String className = conf.get(MEMSTORE_CLASS_NAME, DefaultMemStore.class.getName());
+      this.memstore = ReflectionUtils.instantiateWithCustomCtor(className, new Class[] {
+          Configuration.class, KeyValue.KVComparator.class }, new Object[] { conf, this.comparator });
+    } else {
+      this.memstore = new CompactingMemStore(conf, this.comparator, this, inMemoryCompaction);
+    }
     this.offPeakHours = OffPeakHours.getInstance(conf);
 
     // Setting up cache configuration for this family
@@ -741,6 +755,7 @@ public class HStore implements Store {
   @Override
   public void assertBulkLoadHFileOk(Path srcPath) throws IOException {
     HFile.Reader reader  = null;
+    HFileScanner scanner = null;
     try {
       LOG.info("Validating hfile at " + srcPath + " for inclusion in "
           + "store " + this + " region " + this.getRegionInfo().getRegionNameAsString());
@@ -776,7 +791,7 @@ public class HStore implements Store {
         long verificationStartTime = EnvironmentEdgeManager.currentTime();
         LOG.info("Full verification started for bulk load hfile: " + srcPath.toString());
         Cell prevCell = null;
-        HFileScanner scanner = reader.getScanner(false, false, false);
+        scanner = reader.getScanner(false, false, false);
         scanner.seekTo();
         do {
           Cell cell = scanner.getKeyValue();
@@ -805,6 +820,8 @@ public class HStore implements Store {
          + " ms");
       }
     } finally {
+      // Lets go of the blocks the scanner holds on to
+      if (scanner != null) scanner.close();
       if (reader != null) reader.close();
     }
   }
@@ -2031,25 +2048,30 @@ public class HStore implements Store {
     }
     // Get a scanner that caches blocks and that uses pread.
     HFileScanner scanner = r.getScanner(true, true, false);
-    // Seek scanner.  If can't seek it, return.
-    if (!seekToScanner(scanner, firstOnRow, firstKV)) return false;
-    // If we found candidate on firstOnRow, just return. THIS WILL NEVER HAPPEN!
-    // Unlikely that there'll be an instance of actual first row in table.
-    if (walkForwardInSingleRow(scanner, firstOnRow, state)) return true;
-    // If here, need to start backing up.
-    while (scanner.seekBefore(firstOnRow.getBuffer(), firstOnRow.getKeyOffset(),
-       firstOnRow.getKeyLength())) {
-      Cell kv = scanner.getKeyValue();
-      if (!state.isTargetTable(kv)) break;
-      if (!state.isBetterCandidate(kv)) break;
-      // Make new first on row.
-      firstOnRow = new KeyValue(kv.getRow(), HConstants.LATEST_TIMESTAMP);
-      // Seek scanner.  If can't seek it, break.
+    try {
+      // Seek scanner.  If can't seek it, return.
       if (!seekToScanner(scanner, firstOnRow, firstKV)) return false;
-      // If we find something, break;
+      // If we found candidate on firstOnRow, just return. THIS WILL NEVER HAPPEN!
+      // Unlikely that there'll be an instance of actual first row in table.
       if (walkForwardInSingleRow(scanner, firstOnRow, state)) return true;
+      // If here, need to start backing up.
+      while (scanner.seekBefore(firstOnRow.getBuffer(), firstOnRow.getKeyOffset(),
+         firstOnRow.getKeyLength())) {
+        Cell kv = scanner.getKeyValue();
+        if (!state.isTargetTable(kv)) break;
+        if (!state.isBetterCandidate(kv)) break;
+        // Make new first on row.
+        firstOnRow = new KeyValue(kv.getRow(), HConstants.LATEST_TIMESTAMP);
+        // Seek scanner.  If can't seek it, break.
+        if (!seekToScanner(scanner, firstOnRow, firstKV)) return false;
+        // If we find something, break;
+        if (walkForwardInSingleRow(scanner, firstOnRow, state)) return true;
+      }
+      return false;
+    } finally {
+      // Lets go of the blocks the scanner holds on to
+      scanner.close();
     }
-    return false;
   }
 
   /*
@@ -2455,6 +2477,10 @@ public class HStore implements Store {
       RegionServerServices rsService = region.getRegionServerServices();
       ThroughputController throughputController =
           rsService == null ? null : rsService.getFlushThroughputController();
+      if (memstore instanceof DefaultMemStore) {
+        // Outside of the region's updates lock, which prepare() ran under
+        ((DefaultMemStore) memstore).compactSnapshot();
+      }
       tempFiles = HStore.this.flushCache(cacheFlushSeqNum, snapshot, status, throughputController);
     }
 
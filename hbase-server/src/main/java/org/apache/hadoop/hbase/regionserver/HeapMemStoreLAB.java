@@ -18,16 +18,21 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.util.ByteRange;
 import org.apache.hadoop.hbase.util.SimpleMutableByteRange;
 
@@ -50,6 +55,12 @@ import com.google.common.base.Preconditions;
  * interleaved throughout the heap, and the old generation gets progressively
  * more fragmented until a stop-the-world compacting collection occurs.
  * <p>
+ * If an off heap memstore size is configured, see
+ * {@link org.apache.hadoop.hbase.io.util.HeapMemorySizeUtil#OFFHEAP_MEMSTORE_SIZE_KEY},
+ * {@link #copyCellInto(Cell)} still copies the keys of cells into heap chunks but their values
+ * and tags into direct chunks of the off heap {@link MemStoreChunkPool}, so most of the memstore
+ * data stays out of the old generation.
+ * <p>
  * TODO: we should probably benchmark whether word-aligning the allocations
  * would provide a performance improvement - probably would speed up the
  * Bytes.toLong/Bytes.toInt calls in KeyValue, but some of those are cached
@@ -72,6 +83,13 @@ public class HeapMemStoreLAB implements MemStoreLAB {
   final int chunkSize;
   final int maxAlloc;
   private final MemStoreChunkPool chunkPool;
+  // The off heap chunk, queue of chunks and pool cell values and tags are copied into, if the
+  // memstore is off heap. The queue is unbounded so that every off heap chunk goes back to the pool.
+  private AtomicReference<Chunk> curOffheapChunk = new AtomicReference<Chunk>();
+  private BlockingQueue<Chunk> offheapChunkQueue = null;
+  private final MemStoreChunkPool offheapChunkPool;
+  // Bytes of cell data copied off heap by this instance, released from the pool when closing
+  private final AtomicLong offheapDataSize = new AtomicLong();
 
   // This flag is for closing this instance, its set when clearing snapshot of
   // memstore
@@ -97,6 +115,10 @@ public class HeapMemStoreLAB implements MemStoreLAB {
       // too many non-reclaimable chunks
       chunkQueue = new LinkedBlockingQueue<Chunk>(chunkPool.getMaxCount());
     }
+    this.offheapChunkPool = MemStoreChunkPool.getOffheapPool(conf);
+    if (this.offheapChunkPool != null) {
+      offheapChunkQueue = new LinkedBlockingQueue<Chunk>();
+    }
 
     // if we don't exclude allocations >CHUNK_SIZE, we'd infiniteloop on one!
     Preconditions.checkArgument(
@@ -121,20 +143,79 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     }
 
     while (true) {
-      Chunk c = getOrMakeChunk();
+      Chunk c = getOrMakeChunk(curChunk, chunkPool, chunkQueue);
 
       // Try to allocate from this chunk
       int allocOffset = c.alloc(size);
       if (allocOffset != -1) {
         // We succeeded - this is the common case - small alloc
         // from a big buffer
-        return new SimpleMutableByteRange(c.data, allocOffset, size);
+        return new SimpleMutableByteRange(c.getData().array(), allocOffset, size);
       }
 
       // not enough space!
       // try to retire this chunk
-      tryRetireChunk(c);
+      tryRetireChunk(curChunk, c);
+    }
+  }
+
+  @Override
+  public Cell copyCellInto(Cell cell) {
+    if (offheapChunkPool != null) {
+      return copyCellIntoOffheap(cell);
+    }
+    int len = KeyValueUtil.length(cell);
+    ByteRange alloc = allocateBytes(len);
+    if (alloc == null) {
+      return null;
+    }
+    assert alloc.getBytes() != null;
+    KeyValueUtil.appendToByteArray(cell, alloc.getBytes(), alloc.getOffset());
+    KeyValue newKv = new KeyValue(alloc.getBytes(), alloc.getOffset(), len);
+    newKv.setSequenceId(cell.getSequenceId());
+    return newKv;
+  }
+
+  /**
+   * Copies the key of the cell into a heap chunk and its value and tags into an off heap one.
+   * @return the copy, or null if the cell is too big or all the off heap chunks are in use
+   */
+  private Cell copyCellIntoOffheap(Cell cell) {
+    int valueLength = cell.getValueLength();
+    int tagsLength = cell.getTagsLength();
+    int dataLength = valueLength + tagsLength;
+    if (dataLength > maxAlloc) {
+      return null;
+    }
+    Chunk c;
+    int allocOffset;
+    while (true) {
+      c = getOrMakeChunk(curOffheapChunk, offheapChunkPool, offheapChunkQueue);
+      if (c == null) {
+        // All off heap chunks are in use, the cell stays on heap
+        return null;
+      }
+      allocOffset = c.alloc(dataLength);
+      if (allocOffset != -1) {
+        break;
+      }
+      tryRetireChunk(curOffheapChunk, c);
+    }
+    int keyLength = KeyValueUtil.keyLength(cell);
+    ByteRange key = allocateBytes(keyLength);
+    if (key == null) {
+      return null;
     }
+    KeyValueUtil.appendKeyTo(cell, key.getBytes(), key.getOffset());
+    // Write through a duplicate, other threads are copying into the same chunk
+    ByteBuffer data = c.getData().duplicate();
+    data.position(allocOffset);
+    data.put(cell.getValueArray(), cell.getValueOffset(), valueLength);
+    data.put(cell.getTagsArray(), cell.getTagsOffset(), tagsLength);
+    offheapDataSize.addAndGet(dataLength);
+    offheapChunkPool.addDataSize(dataLength);
+    return new OffheapValueCell(key.getBytes(), key.getOffset(), keyLength, c.getData(),
+        allocOffset, valueLength, tagsLength, cell.getSequenceId());
   }
 
   /**
@@ -144,11 +225,15 @@ public class HeapMemStoreLAB implements MemStoreLAB {
   @Override
   public void close() {
     this.closed = true;
+    if (offheapChunkPool != null) {
+      // The memstore let go of its cells, even if scanners still hold the chunks
+      offheapChunkPool.addDataSize(-offheapDataSize.getAndSet(0));
+    }
     // We could put back the chunks to pool for reusing only when there is no
     // opening scanner which will read their data
-    if (chunkPool != null && openScannerCount.get() == 0
+    if ((chunkPool != null || offheapChunkPool != null) && openScannerCount.get() == 0
         && reclaimed.compareAndSet(false, true)) {
-      chunkPool.putbackChunks(this.chunkQueue);
+      putbackChunks();
     }
   }
 
@@ -166,21 +251,30 @@ public class HeapMemStoreLAB implements MemStoreLAB {
   @Override
   public void decScannerCount() {
     int count = this.openScannerCount.decrementAndGet();
-    if (chunkPool != null && count == 0 && this.closed
+    if ((chunkPool != null || offheapChunkPool != null) && count == 0 && this.closed
         && reclaimed.compareAndSet(false, true)) {
+      putbackChunks();
+    }
+  }
+
+  private void putbackChunks() {
+    if (chunkPool != null) {
       chunkPool.putbackChunks(this.chunkQueue);
     }
+    if (offheapChunkPool != null) {
+      offheapChunkPool.putbackChunks(this.offheapChunkQueue);
+    }
   }
 
   /**
    * Try to retire the current chunk if it is still
-   * <code>c</code>. Postcondition is that curChunk.get()
+   * <code>c</code>. Postcondition is that cur.get()
    * != c
+   * @param cur the reference to the current chunk
    * @param c the chunk to retire
-   * @return true if we won the race to retire the chunk
    */
-  private void tryRetireChunk(Chunk c) {
-    curChunk.compareAndSet(c, null);
+  private void tryRetireChunk(AtomicReference<Chunk> cur, Chunk c) {
+    cur.compareAndSet(c, null);
     // If the CAS succeeds, that means that we won the race
     // to retire the chunk. We could use this opportunity to
     // update metrics on external fragmentation.
@@ -191,12 +285,17 @@ public class HeapMemStoreLAB implements MemStoreLAB {
 
   /**
    * Get the current chunk, or, if there is no current chunk,
-   * allocate a new one from the JVM.
+   * allocate a new one from the pool or the JVM.
+   * @param cur the reference to the current chunk
+   * @param pool the pool to take chunks from, or null
+   * @param queue the queue keeping the chunks of this instance for the pool, or null
+   * @return the current chunk, or null if the pool is off heap and has no chunk left
    */
-  private Chunk getOrMakeChunk() {
+  private Chunk getOrMakeChunk(AtomicReference<Chunk> cur, MemStoreChunkPool pool,
+      BlockingQueue<Chunk> queue) {
     while (true) {
       // Try to get the chunk
-      Chunk c = curChunk.get();
+      Chunk c = cur.get();
       if (c != null) {
         return c;
       }
@@ -204,20 +303,23 @@ public class HeapMemStoreLAB implements MemStoreLAB {
       // No current chunk, so we want to allocate one. We race
       // against other allocators to CAS in an uninitialized chunk
       // (which is cheap to allocate)
-      c = (chunkPool != null) ? chunkPool.getChunk() : new Chunk(chunkSize);
-      if (curChunk.compareAndSet(null, c)) {
+      c = (pool != null) ? pool.getChunk() : new Chunk(chunkSize);
+      if (c == null) {
+        return null;
+      }
+      if (cur.compareAndSet(null, c)) {
         // we won race - now we need to actually do the expensive
         // allocation step
         c.init();
-        if (chunkQueue != null && !this.closed && !this.chunkQueue.offer(c)) {
+        if (queue != null && !this.closed && !queue.offer(c)) {
           if (LOG.isTraceEnabled()) {
             LOG.trace("Chunk queue is full, won't reuse this new chunk. Current queue size: "
-                + chunkQueue.size());
+                + queue.size());
           }
         }
         return c;
-      } else if (chunkPool != null) {
-        chunkPool.putbackChunk(c);
+      } else if (pool != null) {
+        pool.putbackChunk(c);
       }
       // someone else won race - that's fine, we'll try to grab theirs
       // in the next iteration of the loop.
@@ -234,12 +336,17 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     return this.chunkQueue;
   }
 
+  @VisibleForTesting
+  Chunk getCurrentOffheapChunk() {
+    return this.curOffheapChunk.get();
+  }
+
   /**
    * A chunk of memory out of which allocations are sliced.
    */
   static class Chunk {
-    /** Actual underlying data */
-    private byte[] data;
+    /** Actual underlying data, a direct buffer if the chunk is off heap */
+    private ByteBuffer data;
 
     private static final int UNINITIALIZED = -1;
     private static final int OOM = -2;
@@ -255,13 +362,26 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     /** Size of chunk in bytes */
     private final int size;
 
+    /** Whether the data is allocated off heap */
+    private final boolean offheap;
+
     /**
      * Create an uninitialized chunk. Note that memory is not allocated yet, so
      * this is cheap.
      * @param size in bytes
      */
     Chunk(int size) {
+      this(size, false);
+    }
+
+    /**
+     * Create an uninitialized chunk, see {@link #Chunk(int)}.
+     * @param size in bytes
+     * @param offheap whether to allocate the memory off heap
+     */
+    Chunk(int size, boolean offheap) {
       this.size = size;
+      this.offheap = offheap;
     }
 
     /**
@@ -273,7 +393,7 @@ public class HeapMemStoreLAB implements MemStoreLAB {
       assert nextFreeOffset.get() == UNINITIALIZED;
       try {
         if (data == null) {
-          data = new byte[size];
+          data = offheap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
         }
       } catch (OutOfMemoryError e) {
         boolean failInit = nextFreeOffset.compareAndSet(UNINITIALIZED, OOM);
@@ -319,7 +439,7 @@ public class HeapMemStoreLAB implements MemStoreLAB {
           return -1;
         }
 
-        if (oldOffset + size > data.length) {
+        if (oldOffset + size > this.size) {
           return -1; // alloc doesn't fit
         }
 
@@ -337,7 +457,14 @@ public class HeapMemStoreLAB implements MemStoreLAB {
     public String toString() {
       return "Chunk@" + System.identityHashCode(this) +
         " allocs=" + allocCount.get() + "waste=" +
-        (data.length - nextFreeOffset.get());
+        (this.size - nextFreeOffset.get());
+    }
+
+    /**
+     * @return the underlying data, to be sliced at the offsets returned by {@link #alloc(int)}
+     */
+    ByteBuffer getData() {
+      return this.data;
     }
 
     @VisibleForTesting
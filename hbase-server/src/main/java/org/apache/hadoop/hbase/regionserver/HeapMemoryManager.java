@@ -304,8 +304,9 @@ public class HeapMemoryManager {
       tunerContext.setBlockedFlushCount(blockedFlushCount.getAndSet(0));
       tunerContext.setUnblockedFlushCount(unblockedFlushCount.getAndSet(0));
       tunerContext.setCurBlockCacheUsed((float)blockCache.getCurrentSize() / maxHeapSize);
+      // Only the on heap part of an off heap memstore competes with the block cache
       tunerContext.setCurMemStoreUsed(
-                 (float)regionServerAccounting.getGlobalMemstoreSize() / maxHeapSize);
+                 (float)regionServerAccounting.getGlobalMemstoreHeapSize() / maxHeapSize);
       tunerContext.setCurBlockCacheSize(blockCachePercent);
       tunerContext.setCurMemStoreSize(globalMemStorePercent);
       TunerResult result = null;
@@ -373,7 +374,8 @@ public class HeapMemoryManager {
         unblockedFlushCount.incrementAndGet();
         break;
       default:
-        // In case of normal flush don't do any action.
+        // In case of normal flush, or of one forced by the off heap memstore
+        // which more heap would not avoid, don't do any action.
         break;
       }
     }
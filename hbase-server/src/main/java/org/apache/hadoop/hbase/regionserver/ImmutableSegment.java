@@ -0,0 +1,147 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * A segment of a {@link CompactingMemStore} that no longer takes writes. Its cells sit in a
+ * {@link CellArraySet}, so each costs a reference instead of a skip list node.
+ */
+@InterfaceAudience.Private
+class ImmutableSegment extends Segment {
+  private final CellArraySet cellSet;
+  private final long size;
+  private final List<MemStoreLAB> allocators;
+
+  ImmutableSegment(final KeyValue.KVComparator comparator, final Cell[] sortedCells,
+      final TimeRangeTracker timeRangeTracker, long size, final List<MemStoreLAB> allocators,
+      boolean tagsPresent) {
+    this(comparator, new CellArraySet(comparator, sortedCells), timeRangeTracker, size,
+        allocators, tagsPresent);
+  }
+
+  private ImmutableSegment(final KeyValue.KVComparator comparator, final CellArraySet cellSet,
+      final TimeRangeTracker timeRangeTracker, long size, final List<MemStoreLAB> allocators,
+      boolean tagsPresent) {
+    super(comparator, timeRangeTracker);
+    this.cellSet = cellSet;
+    this.size = size;
+    this.allocators = allocators;
+    this.tagsPresent = tagsPresent;
+  }
+
+  /**
+   * @return the heap size accounted for a cell in a flat segment
+   */
+  static long heapSizeOf(final Cell cell) {
+    return ClassSize.REFERENCE + CellUtil.estimatedHeapSizeOf(cell);
+  }
+
+  @Override
+  CellArraySet getCellSet() {
+    return cellSet;
+  }
+
+  @Override
+  Cell get(Cell cell) {
+    return cellSet.get(cell);
+  }
+
+  @Override
+  long getSize() {
+    return size;
+  }
+
+  @Override
+  List<MemStoreLAB> getMemStoreLABs() {
+    return allocators;
+  }
+
+  int getCellsCount() {
+    return cellSet.size();
+  }
+
+  /**
+   * @return a copy of this segment without the passed cell, or null if this segment does not
+   *   hold the cell with the same sequence id. The copy shares this segment's MemStoreLABs.
+   */
+  ImmutableSegment without(final Cell cell) {
+    Cell found = cellSet.get(cell);
+    if (found == null || found.getSequenceId() != cell.getSequenceId()) {
+      return null;
+    }
+    return new ImmutableSegment(comparator, cellSet.without(found), timeRangeTracker,
+        size - heapSizeOf(found), allocators, tagsPresent);
+  }
+
+  /**
+   * Merges the passed segments into one, without dropping anything but duplicate cells.
+   * @param segments the segments to merge, newest first; of duplicates, the newest is kept
+   */
+  static ImmutableSegment merge(final KeyValue.KVComparator comparator,
+      final List<ImmutableSegment> segments) {
+    int count = 0;
+    for (ImmutableSegment segment : segments) {
+      count += segment.getCellsCount();
+    }
+    Cell[] cells = new Cell[count];
+    TimeRangeTracker timeRangeTracker = new TimeRangeTracker();
+    List<MemStoreLAB> allocators = new ArrayList<MemStoreLAB>();
+    long size = 0;
+    boolean tagsPresent = false;
+    int i = 0;
+    for (ImmutableSegment segment : segments) {
+      for (Cell cell : segment.getCellSet()) {
+        cells[i++] = cell;
+      }
+      if (!segment.isEmpty()) {
+        timeRangeTracker.includeTimestamp(segment.getTimeRangeTracker().getMin());
+        timeRangeTracker.includeTimestamp(segment.getTimeRangeTracker().getMax());
+      }
+      allocators.addAll(segment.getMemStoreLABs());
+      size += segment.getSize();
+      tagsPresent |= segment.isTagsPresent();
+    }
+    // The segments are sorted runs, which the stable merge sort just merges, and being stable
+    // it keeps the cells of newer segments ahead of their duplicates.
+    Arrays.sort(cells, comparator);
+    int unique = 0;
+    for (int j = 0; j < cells.length; j++) {
+      if (unique > 0 && comparator.compare(cells[unique - 1], cells[j]) == 0) {
+        size -= heapSizeOf(cells[j]);
+        continue;
+      }
+      cells[unique++] = cells[j];
+    }
+    if (unique < cells.length) {
+      cells = Arrays.copyOf(cells, unique);
+    }
+    return new ImmutableSegment(comparator, cells, timeRangeTracker, size, allocators,
+        tagsPresent);
+  }
+}
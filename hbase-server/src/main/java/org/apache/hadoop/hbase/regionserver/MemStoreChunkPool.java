@@ -24,6 +24,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
@@ -50,6 +51,15 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * {@link MemStoreChunkPool#getChunk()} is called when MemStoreLAB allocating
  * bytes, and {@link MemStoreChunkPool#putbackChunks(BlockingQueue)} is called
  * when MemStore clearing snapshot for flush
+ * 
+ * If the memstore is off heap, a second, off heap instance holds direct chunks
+ * for the values and tags of cells. It is sized by
+ * {@link HeapMemorySizeUtil#OFFHEAP_MEMSTORE_SIZE_KEY} and obtained through
+ * {@link MemStoreChunkPool#getOffheapPool(Configuration)}. It also keeps the
+ * number of bytes of cell data MemStoreLABs hold in its chunks, see
+ * {@link MemStoreChunkPool#getDataSize()}. It never allocates more than its max
+ * count of chunks; once they are all in use, cells stay on heap until a flush
+ * gives chunks back.
  */
 @SuppressWarnings("javadoc")
 @InterfaceAudience.Private
@@ -62,6 +72,8 @@ public class MemStoreChunkPool {
 
   // Static reference to the MemStoreChunkPool
   private static MemStoreChunkPool GLOBAL_INSTANCE;
+  // Static reference to the off heap MemStoreChunkPool
+  private static volatile MemStoreChunkPool GLOBAL_OFFHEAP_INSTANCE;
   /** Boolean whether we have disabled the memstore chunk pool entirely. */
   static boolean chunkPoolDisabled = false;
 
@@ -70,6 +82,11 @@ public class MemStoreChunkPool {
   // A queue of reclaimed chunks
   private final BlockingQueue<Chunk> reclaimedChunks;
   private final int chunkSize;
+  private final boolean offheap;
+  // Bytes of cell data copied into chunks of this pool by open MemStoreLABs
+  private final AtomicLong dataSize = new AtomicLong();
+  // Chunks allocated by an off heap pool and not dropped, whether pooled or in use
+  private final AtomicInteger offheapChunkCount = new AtomicInteger();
 
   /** Statistics thread schedule pool */
   private final ScheduledExecutorService scheduleThreadPool;
@@ -80,14 +97,23 @@ public class MemStoreChunkPool {
 
   MemStoreChunkPool(Configuration conf, int chunkSize, int maxCount,
       int initialCount) {
+    this(conf, chunkSize, maxCount, initialCount, false);
+  }
+
+  MemStoreChunkPool(Configuration conf, int chunkSize, int maxCount,
+      int initialCount, boolean offheap) {
     this.maxCount = maxCount;
     this.chunkSize = chunkSize;
+    this.offheap = offheap;
     this.reclaimedChunks = new LinkedBlockingQueue<Chunk>();
     for (int i = 0; i < initialCount; i++) {
-      Chunk chunk = new Chunk(chunkSize);
+      Chunk chunk = new Chunk(chunkSize, offheap);
       chunk.init();
       reclaimedChunks.add(chunk);
     }
+    if (offheap) {
+      offheapChunkCount.set(initialCount);
+    }
     final String n = Thread.currentThread().getName();
     scheduleThreadPool = Executors.newScheduledThreadPool(1,
         new ThreadFactoryBuilder().setNameFormat(n+"-MemStoreChunkPool Statistics")
@@ -98,13 +124,17 @@ public class MemStoreChunkPool {
 
   /**
    * Poll a chunk from the pool, reset it if not null, else create a new chunk
-   * to return
-   * @return a chunk
+   * to return. An off heap pool does not create more than its max count of chunks.
+   * @return a chunk, or null if all the chunks of an off heap pool are in use
    */
   Chunk getChunk() {
     Chunk chunk = reclaimedChunks.poll();
     if (chunk == null) {
-      chunk = new Chunk(chunkSize);
+      if (offheap && offheapChunkCount.incrementAndGet() > maxCount) {
+        offheapChunkCount.decrementAndGet();
+        return null;
+      }
+      chunk = new Chunk(chunkSize, offheap);
       createdChunkCount.incrementAndGet();
     } else {
       chunk.reset();
@@ -121,6 +151,7 @@ public class MemStoreChunkPool {
   void putbackChunks(BlockingQueue<Chunk> chunks) {
     int maxNumToPutback = this.maxCount - reclaimedChunks.size();
     if (maxNumToPutback <= 0) {
+      dropChunks(chunks.size());
       return;
     }
     chunks.drainTo(reclaimedChunks, maxNumToPutback);
@@ -129,6 +160,7 @@ public class MemStoreChunkPool {
       if (LOG.isTraceEnabled()) {
         LOG.trace("Left " + chunks.size() + " unreclaimable chunks, removing them from queue");
       }
+      dropChunks(chunks.size());
       chunks.clear();
     }
   }
@@ -140,15 +172,40 @@ public class MemStoreChunkPool {
    */
   void putbackChunk(Chunk chunk) {
     if (reclaimedChunks.size() >= this.maxCount) {
+      dropChunks(1);
       return;
     }
     reclaimedChunks.add(chunk);
   }
 
+  /**
+   * Called for chunks left to the garbage collector rather than put back, so that
+   * an off heap pool may create as many new ones.
+   */
+  private void dropChunks(int count) {
+    if (offheap) {
+      offheapChunkCount.addAndGet(-count);
+    }
+  }
+
   int getPoolSize() {
     return this.reclaimedChunks.size();
   }
 
+  /**
+   * @param delta the number of bytes of cell data copied into, or let go from, chunks of this pool
+   */
+  void addDataSize(long delta) {
+    this.dataSize.addAndGet(delta);
+  }
+
+  /**
+   * @return the number of bytes of cell data MemStoreLABs hold in chunks of this pool
+   */
+  long getDataSize() {
+    return this.dataSize.get();
+  }
+
   /*
    * Only used in testing
    */
@@ -176,7 +233,8 @@ public class MemStoreChunkPool {
     long created = createdChunkCount.get();
     long reused = reusedChunkCount.get();
     long total = created + reused;
-    LOG.debug("Stats: current pool size=" + reclaimedChunks.size()
+    LOG.debug("Stats: " + (offheap ? "off heap, " : "")
+        + "current pool size=" + reclaimedChunks.size()
         + ",created chunk count=" + created
         + ",reused chunk count=" + reused
         + ",reuseRatio=" + (total == 0 ? "0" : StringUtils.formatPercent(
@@ -229,6 +287,46 @@ public class MemStoreChunkPool {
     }
   }
 
+  /**
+   * @param conf
+   * @return the global off heap MemStoreChunkPool instance, or null if the memstore is on heap
+   */
+  static MemStoreChunkPool getOffheapPool(Configuration conf) {
+    MemStoreChunkPool pool = GLOBAL_OFFHEAP_INSTANCE;
+    if (pool != null) return pool;
+
+    synchronized (MemStoreChunkPool.class) {
+      if (GLOBAL_OFFHEAP_INSTANCE != null) return GLOBAL_OFFHEAP_INSTANCE;
+      long offheapSize = HeapMemorySizeUtil.getOffheapMemstoreSize(conf);
+      if (offheapSize <= 0) {
+        return null;
+      }
+      int chunkSize = conf.getInt(HeapMemStoreLAB.CHUNK_SIZE_KEY,
+          HeapMemStoreLAB.CHUNK_SIZE_DEFAULT);
+      int maxCount = (int) (offheapSize / chunkSize);
+      float initialCountPercentage = conf.getFloat(CHUNK_POOL_INITIALSIZE_KEY,
+          POOL_INITIAL_SIZE_DEFAULT);
+      if (initialCountPercentage > 1.0 || initialCountPercentage < 0) {
+        throw new IllegalArgumentException(CHUNK_POOL_INITIALSIZE_KEY
+            + " must be between 0.0 and 1.0");
+      }
+      int initialCount = (int) (initialCountPercentage * maxCount);
+      LOG.info("Allocating off heap MemStoreChunkPool with chunk size "
+          + StringUtils.byteDesc(chunkSize) + ", max count " + maxCount + ", initial count "
+          + initialCount);
+      GLOBAL_OFFHEAP_INSTANCE = new MemStoreChunkPool(conf, chunkSize, maxCount, initialCount,
+          true);
+      return GLOBAL_OFFHEAP_INSTANCE;
+    }
+  }
+
+  /**
+   * @return the global off heap MemStoreChunkPool instance if it was created, else null
+   */
+  static MemStoreChunkPool getOffheapPool() {
+    return GLOBAL_OFFHEAP_INSTANCE;
+  }
+
   int getMaxCount() {
     return this.maxCount;
   }
@@ -238,4 +336,11 @@ public class MemStoreChunkPool {
     chunkPoolDisabled = false;
   }
 
+  @VisibleForTesting
+  static void clearOffheapPool() {
+    synchronized (MemStoreChunkPool.class) {
+      GLOBAL_OFFHEAP_INSTANCE = null;
+    }
+  }
+
 }
@@ -93,6 +93,10 @@ class MemStoreFlusher implements FlushRequester {
   protected long globalMemStoreLimit;
   protected float globalMemStoreLimitLowMarkPercent;
   protected long globalMemStoreLimitLowMark;
+  // Limits of the off heap part of the memstores, 0 if the memstore is on heap. The limits
+  // above then only apply to the on heap part.
+  protected long globalMemStoreOffheapLimit;
+  protected long globalMemStoreOffheapLimitLowMark;
 
   private long blockingWaitTime;
   private final Counter updatesBlockedMsHighWater = new Counter();
@@ -122,6 +126,9 @@ class MemStoreFlusher implements FlushRequester {
         HeapMemorySizeUtil.getGlobalMemStoreLowerMark(conf, globalMemStorePercent);
     this.globalMemStoreLimitLowMark =
         (long) (this.globalMemStoreLimit * this.globalMemStoreLimitLowMarkPercent);
+    this.globalMemStoreOffheapLimit = HeapMemorySizeUtil.getOffheapMemstoreSize(conf);
+    this.globalMemStoreOffheapLimitLowMark =
+        (long) (this.globalMemStoreOffheapLimit * this.globalMemStoreLimitLowMarkPercent);
 
     this.blockingWaitTime = conf.getInt("hbase.hstore.blockingWaitTime",
       90000);
@@ -131,7 +138,9 @@ class MemStoreFlusher implements FlushRequester {
         + TraditionalBinaryPrefix.long2String(this.globalMemStoreLimit, "", 1)
         + ", globalMemStoreLimitLowMark="
         + TraditionalBinaryPrefix.long2String(this.globalMemStoreLimitLowMark, "", 1)
-        + ", maxHeap=" + TraditionalBinaryPrefix.long2String(max, "", 1));
+        + ", maxHeap=" + TraditionalBinaryPrefix.long2String(max, "", 1)
+        + (this.globalMemStoreOffheapLimit > 0 ? ", globalMemStoreOffheapLimit="
+            + TraditionalBinaryPrefix.long2String(this.globalMemStoreOffheapLimit, "", 1) : ""));
   }
 
   public Counter getUpdatesBlockedMsHighWater() {
@@ -348,16 +357,34 @@ class MemStoreFlusher implements FlushRequester {
    * Return true if global memory usage is above the high watermark
    */
   private boolean isAboveHighWaterMark() {
-    return server.getRegionServerAccounting().
-      getGlobalMemstoreSize() >= globalMemStoreLimit;
+    return isAboveHeapHighWaterMark() || isAboveOffheapHighWaterMark();
   }
 
   /**
    * Return true if we're above the high watermark
    */
   private boolean isAboveLowWaterMark() {
+    return isAboveHeapLowWaterMark() || isAboveOffheapLowWaterMark();
+  }
+
+  private boolean isAboveHeapHighWaterMark() {
     return server.getRegionServerAccounting().
-      getGlobalMemstoreSize() >= globalMemStoreLimitLowMark;
+      getGlobalMemstoreHeapSize() >= globalMemStoreLimit;
+  }
+
+  private boolean isAboveHeapLowWaterMark() {
+    return server.getRegionServerAccounting().
+      getGlobalMemstoreHeapSize() >= globalMemStoreLimitLowMark;
+  }
+
+  private boolean isAboveOffheapHighWaterMark() {
+    return globalMemStoreOffheapLimit > 0 && server.getRegionServerAccounting().
+      getGlobalMemstoreOffheapSize() >= globalMemStoreOffheapLimit;
+  }
+
+  private boolean isAboveOffheapLowWaterMark() {
+    return globalMemStoreOffheapLimit > 0 && server.getRegionServerAccounting().
+      getGlobalMemstoreOffheapSize() >= globalMemStoreOffheapLimitLowMark;
   }
 
   @Override
@@ -540,7 +567,13 @@ class MemStoreFlusher implements FlushRequester {
   private void notifyFlushRequest(Region region, boolean emergencyFlush) {
     FlushType type = FlushType.NORMAL;
     if (emergencyFlush) {
-      type = isAboveHighWaterMark() ? FlushType.ABOVE_HIGHER_MARK : FlushType.ABOVE_LOWER_MARK;
+      if (!isAboveHeapLowWaterMark() && isAboveOffheapLowWaterMark()) {
+        type = isAboveOffheapHighWaterMark() ? FlushType.ABOVE_OFFHEAP_HIGHER_MARK
+            : FlushType.ABOVE_OFFHEAP_LOWER_MARK;
+      } else {
+        type = isAboveHeapHighWaterMark() ? FlushType.ABOVE_HIGHER_MARK
+            : FlushType.ABOVE_LOWER_MARK;
+      }
     }
     for (FlushRequestListener listener : flushRequestListeners) {
       listener.flushRequested(type, region);
@@ -589,12 +622,22 @@ class MemStoreFlusher implements FlushRequester {
           while (isAboveHighWaterMark() && !server.isStopped()) {
             if (!blocked) {
               startTime = EnvironmentEdgeManager.currentTime();
-              LOG.info("Blocking updates on "
-                  + server.toString()
-                  + ": the global memstore size "
-                  + TraditionalBinaryPrefix.long2String(server.getRegionServerAccounting()
-                      .getGlobalMemstoreSize(), "", 1) + " is >= than blocking "
-                  + TraditionalBinaryPrefix.long2String(globalMemStoreLimit, "", 1) + " size");
+              if (isAboveHeapHighWaterMark()) {
+                LOG.info("Blocking updates on "
+                    + server.toString()
+                    + ": the global memstore size "
+                    + TraditionalBinaryPrefix.long2String(server.getRegionServerAccounting()
+                        .getGlobalMemstoreHeapSize(), "", 1) + " is >= than blocking "
+                    + TraditionalBinaryPrefix.long2String(globalMemStoreLimit, "", 1) + " size");
+              } else {
+                LOG.info("Blocking updates on "
+                    + server.toString()
+                    + ": the global off heap memstore size "
+                    + TraditionalBinaryPrefix.long2String(server.getRegionServerAccounting()
+                        .getGlobalMemstoreOffheapSize(), "", 1) + " is >= than blocking "
+                    + TraditionalBinaryPrefix.long2String(globalMemStoreOffheapLimit, "", 1)
+                    + " size");
+              }
             }
             blocked = true;
             wakeupFlushThread();
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.util.ByteRange;
 
@@ -46,6 +47,14 @@ public interface MemStoreLAB {
    */
   ByteRange allocateBytes(int size);
 
+  /**
+   * Copies the passed cell into this allocator. If the allocator is off heap, only the key of the
+   * cell is copied on heap.
+   * @param cell
+   * @return the copy of the cell, or null if the cell is too large for this allocator
+   */
+  Cell copyCellInto(Cell cell);
+
   /**
    * Close instance since it won't be used any more, try to put the chunks back to pool
    */
@@ -49,6 +49,7 @@ public class MetricsRegionServer {
 
   private MetricRegistry metricRegistry;
   private Timer bulkLoadTimer;
+  private Timer rowLockWaitTimer;
 
   public MetricsRegionServer(MetricsRegionServerWrapper regionServerWrapper, Configuration conf) {
     this(regionServerWrapper,
@@ -62,6 +63,7 @@ public class MetricsRegionServer {
 
     // create and use metrics from the new hbase-metrics based registry.
     bulkLoadTimer = metricRegistry.timer("Bulkload");
+    rowLockWaitTimer = metricRegistry.timer("RowLockWait");
   }
 
   MetricsRegionServer(MetricsRegionServerWrapper regionServerWrapper,
@@ -211,4 +213,13 @@ public class MetricsRegionServer {
   public void updateBulkLoad(long millis) {
     this.bulkLoadTimer.updateMillis(millis);
   }
+
+  /**
+   * @param millis how long a row lock was waited for
+   */
+  public void updateRowLockWait(long millis) {
+    if (this.rowLockWaitTimer != null) {
+      this.rowLockWaitTimer.updateMillis(millis);
+    }
+  }
 }
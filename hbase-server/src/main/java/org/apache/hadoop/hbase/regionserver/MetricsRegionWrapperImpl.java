@@ -48,6 +48,7 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
   private long numStoreFiles;
   private long memstoreSize;
   private long storeFileSize;
+  private long storeFileIndexSize;
   private long maxStoreFileAge;
   private long minStoreFileAge;
   private long avgStoreFileAge;
@@ -117,6 +118,11 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
     return storeFileSize;
   }
 
+  @Override
+  public long getStoreFileIndexSize() {
+    return storeFileIndexSize;
+  }
+
   @Override
   public long getReadRequestCount() {
     return this.region.getReadRequestsCount();
@@ -127,6 +133,21 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
     return this.region.getWriteRequestsCount();
   }
 
+  @Override
+  public long getRowLockWaitCount() {
+    return this.region.rowLockWaitCount.get();
+  }
+
+  @Override
+  public long getRowLockWaitTime() {
+    return this.region.rowLockWaitTime.get();
+  }
+
+  @Override
+  public long getNumContendedRows() {
+    return this.region.getNumContendedRows();
+  }
+
   @Override
   public long getNumFilesCompacted() {
     return this.region.compactionNumFilesCompacted.get();
@@ -211,6 +232,7 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
       long tempNumStoreFiles = 0;
       long tempMemstoreSize = 0;
       long tempStoreFileSize = 0;
+      long tempStoreFileIndexSize = 0;
       long tempMaxStoreFileAge = 0;
       long tempMinStoreFileAge = Long.MAX_VALUE;
       long tempNumReferenceFiles = 0;
@@ -224,6 +246,7 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
           tempNumStoreFiles += store.getStorefilesCount();
           tempMemstoreSize += store.getMemStoreSize();
           tempStoreFileSize += store.getStorefilesSize();
+          tempStoreFileIndexSize += store.getStorefilesIndexSize();
 
           long storeMaxStoreFileAge = store.getMaxStoreFileAge();
           tempMaxStoreFileAge = (storeMaxStoreFileAge > tempMaxStoreFileAge) ?
@@ -243,6 +266,7 @@ public class MetricsRegionWrapperImpl implements MetricsRegionWrapper, Closeable
       numStoreFiles = tempNumStoreFiles;
       memstoreSize = tempMemstoreSize;
       storeFileSize = tempStoreFileSize;
+      storeFileIndexSize = tempStoreFileIndexSize;
       maxStoreFileAge = tempMaxStoreFileAge;
       if (tempMinStoreFileAge != Long.MAX_VALUE) {
         minStoreFileAge = tempMinStoreFileAge;
@@ -0,0 +1,72 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.HRegion.RegionScannerImpl;
+
+/**
+ * MultiGetRegionScannerImpl extends from RegionScannerImpl, and is used to serve a batch of gets
+ * on rows in increasing order with the same store scanners, see {@link HRegion#get(List)}. It
+ * never reads past the row of the current get, even when that row turns out to be empty.
+ */
+@InterfaceAudience.Private
+class MultiGetRegionScannerImpl extends RegionScannerImpl {
+
+  /** Row of the current get */
+  private byte[] row;
+
+  /**
+   * @param scan a scan covering the rows of all the gets
+   * @param region
+   * @throws IOException
+   */
+  MultiGetRegionScannerImpl(Scan scan, HRegion region) throws IOException {
+    region.super(scan, null, region);
+    this.row = scan.getStartRow();
+  }
+
+  /**
+   * Reads the cells of a row.
+   * @param row the row, greater than the row of the previous call
+   * @param results list to add the cells of the row to
+   */
+  void nextInRow(byte[] row, List<Cell> results) throws IOException {
+    this.row = row;
+    Cell top = storeHeap.peek();
+    if (top == null) {
+      return;
+    }
+    if (region.getComparator().compareRows(top, row, 0, row.length) < 0) {
+      reseek(row);
+    }
+    next(results);
+  }
+
+  @Override
+  protected boolean shouldStop(Cell currentRowCell) {
+    return currentRowCell == null
+        || region.getComparator().compareRows(currentRowCell, row, 0, row.length) > 0;
+  }
+}
@@ -21,8 +21,10 @@ package org.apache.hadoop.hbase.regionserver;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,27 +37,41 @@ import org.apache.hadoop.hbase.util.ClassSize;
  * Manages the read/write consistency. This provides an interface for readers to determine what
  * entries to ignore, and a mechanism for writers to obtain new write numbers, then "commit"
  * the new writes for readers to read (thus forming atomic transactions).
+ * <p>
+ * Writes take their number from an atomic write point, and completed writes are recorded in a
+ * ring of slots indexed by write number. Whoever completes a write advances the read point with a
+ * compare-and-set over the run of completed writes following it, so neither starting nor
+ * completing a write takes a lock. A slot is only reused once the write {@link #RING_SIZE}
+ * numbers before is visible; the rare writes completed while their slot is still in use are
+ * recorded in an overflow set instead.
  */
 @InterfaceAudience.Private
 public class MultiVersionConcurrencyControl {
   private static final Log LOG = LogFactory.getLog(MultiVersionConcurrencyControl.class);
   static final long NO_WRITE_NUMBER = 0;
 
+  /** Number of slots of the ring of completed writes, a power of two */
+  static final int RING_SIZE = 256;
+
   final AtomicLong readPoint = new AtomicLong(0);
   final AtomicLong writePoint = new AtomicLong(0);
   private final Object readWaiters = new Object();
+  /** Number of threads waiting on readWaiters, only notified when there are some */
+  private final AtomicInteger readWaiterCount = new AtomicInteger(0);
+  /**
+   * Held while starting writes with an action, so that the actions run in the order of the
+   * write numbers
+   */
+  private final Object beginLock = new Object();
   /**
    * Represents no value, or not set.
    */
   public static final long NONE = -1;
 
-  // This is the pending queue of writes.
-  //
-  // TODO(eclark): Should this be an array of fixed size to
-  // reduce the number of allocations on the write path?
-  // This could be equal to the number of handlers + a small number.
-  // TODO: St.Ack 20150903 Sounds good to me.
-  private final LinkedList<WriteEntry> writeQueue = new LinkedList<WriteEntry>();
+  // Slot (writeNumber & (RING_SIZE - 1)) holds writeNumber once that write is completed.
+  private final AtomicLongArray completed = new AtomicLongArray(RING_SIZE);
+  // Completed writes whose slot was still in use
+  private final ConcurrentSkipListSet<Long> completedOverflow = new ConcurrentSkipListSet<Long>();
 
   public MultiVersionConcurrencyControl() {
     super();
@@ -89,7 +105,7 @@ public class MultiVersionConcurrencyControl {
    * <code>readPoint</code>
    */
   boolean tryAdvanceTo(long newStartPoint, long expected) {
-    synchronized (writeQueue) {
+    synchronized (beginLock) {
       long currentRead = this.readPoint.get();
       long currentWrite = this.writePoint.get();
       if (currentRead != currentWrite) {
@@ -104,29 +120,38 @@ public class MultiVersionConcurrencyControl {
         return false;
       }
 
-      readPoint.set(newStartPoint);
-      writePoint.set(newStartPoint);
+      // Fails if a write without an action started meanwhile
+      if (!writePoint.compareAndSet(currentWrite, newStartPoint)) {
+        return false;
+      }
+      // A write may begin, and even complete, as soon as the write point moved: never lower the
+      // read point it may have been advanced to, and carry it past such writes completed before.
+      while (true) {
+        long read = readPoint.get();
+        if (read >= newStartPoint || readPoint.compareAndSet(read, newStartPoint)) {
+          break;
+        }
+      }
+      advanceReadPoint();
     }
     return true;
   }
 
   /**
-   * Call {@link #begin(Runnable)} with an empty {@link Runnable}.
+   * Start a write transaction. Create a new {@link WriteEntry} with a new write number. Return
+   * this WriteEntry instance. To complete the write transaction and wait for it to be visible,
+   * call {@link #completeAndWait(WriteEntry)}. If the write failed, call
+   * {@link #complete(WriteEntry)} so we can clean up AFTER removing ALL trace of the failed write
+   * transaction.
+   * @see #complete(WriteEntry)
+   * @see #completeAndWait(WriteEntry)
    */
   public WriteEntry begin() {
-    return begin(new Runnable() {
-      @Override public void run() {
-
-      }
-    });
+    return new WriteEntry(writePoint.incrementAndGet());
   }
 
   /**
-   * Start a write transaction. Create a new {@link WriteEntry} with a new write number and add it
-   * to our queue of ongoing writes. Return this WriteEntry instance. To complete the write
-   * transaction and wait for it to be visible, call {@link #completeAndWait(WriteEntry)}. If the
-   * write failed, call {@link #complete(WriteEntry)} so we can clean up AFTER removing ALL trace of
-   * the failed write transaction.
+   * Start a write transaction as {@link #begin()} does, and run the {@code action}.
    * <p>
    * The {@code action} will be executed under the lock which means it can keep the same order with
    * mvcc.
@@ -134,10 +159,8 @@ public class MultiVersionConcurrencyControl {
    * @see #completeAndWait(WriteEntry)
    */
   public WriteEntry begin(Runnable action) {
-    synchronized (writeQueue) {
-      long nextWriteNumber = writePoint.incrementAndGet();
-      WriteEntry e = new WriteEntry(nextWriteNumber);
-      writeQueue.add(e);
+    synchronized (beginLock) {
+      WriteEntry e = begin();
       action.run();
       return e;
     }
@@ -180,64 +203,88 @@ public class MultiVersionConcurrencyControl {
    * @return true if e is visible to MVCC readers (that is, readpoint >= e.writeNumber)
    */
   public boolean complete(WriteEntry writeEntry) {
-    synchronized (writeQueue) {
-      writeEntry.markCompleted();
-
-      long nextReadValue = NONE;
-      boolean ranOnce = false;
-      while (!writeQueue.isEmpty()) {
-        ranOnce = true;
-        WriteEntry queueFirst = writeQueue.getFirst();
-
-        if (nextReadValue > 0) {
-          if (nextReadValue + 1 != queueFirst.getWriteNumber()) {
-            throw new RuntimeException("Invariant in complete violated, nextReadValue="
-                + nextReadValue + ", writeNumber=" + queueFirst.getWriteNumber());
-          }
-        }
+    writeEntry.markCompleted();
+    long writeNumber = writeEntry.getWriteNumber();
+    if (writeNumber - readPoint.get() <= RING_SIZE) {
+      completed.set(slot(writeNumber), writeNumber);
+    } else {
+      completedOverflow.add(writeNumber);
+    }
+    // Every completion tries to advance after recording itself, so the last of a run of
+    // completed writes always moves the read point past all of them.
+    advanceReadPoint();
+    return readPoint.get() >= writeNumber;
+  }
 
-        if (queueFirst.isCompleted()) {
-          nextReadValue = queueFirst.getWriteNumber();
-          writeQueue.removeFirst();
-        } else {
-          break;
-        }
+  /**
+   * Advances the read point over the run of completed writes following it, and wakes up the
+   * threads waiting for it if it moved.
+   */
+  private void advanceReadPoint() {
+    boolean advanced = false;
+    while (true) {
+      long currentRead = readPoint.get();
+      long nextRead = currentRead;
+      while (isCompleted(nextRead + 1)) {
+        nextRead++;
       }
-
-      if (!ranOnce) {
-        throw new RuntimeException("There is no first!");
+      if (nextRead == currentRead) {
+        break;
       }
-
-      if (nextReadValue > 0) {
+      if (readPoint.compareAndSet(currentRead, nextRead)) {
+        advanced = true;
+      }
+    }
+    if (advanced) {
+      while (!completedOverflow.isEmpty() && completedOverflow.first() <= readPoint.get()) {
+        completedOverflow.pollFirst();
+      }
+      if (readWaiterCount.get() > 0) {
         synchronized (readWaiters) {
-          readPoint.set(nextReadValue);
           readWaiters.notifyAll();
         }
       }
-      return readPoint.get() >= writeEntry.getWriteNumber();
     }
   }
 
+  private boolean isCompleted(long writeNumber) {
+    return completed.get(slot(writeNumber)) == writeNumber
+        || (!completedOverflow.isEmpty() && completedOverflow.contains(writeNumber));
+  }
+
+  private static int slot(long writeNumber) {
+    return (int) (writeNumber & (RING_SIZE - 1));
+  }
+
   /**
    * Wait for the global readPoint to advance up to the passed in write entry number.
    */
   void waitForRead(WriteEntry e) {
+    waitForRead(e.getWriteNumber());
+  }
+
+  private void waitForRead(long writeNumber) {
     boolean interrupted = false;
     int count = 0;
-    synchronized (readWaiters) {
-      while (readPoint.get() < e.getWriteNumber()) {
-        if (count % 100 == 0 && count > 0) {
-          LOG.warn("STUCK: " + this);
-        }
-        count++;
-        try {
-          readWaiters.wait(10);
-        } catch (InterruptedException ie) {
-          // We were interrupted... finish the loop -- i.e. cleanup --and then
-          // on our way out, reset the interrupt flag.
-          interrupted = true;
+    readWaiterCount.incrementAndGet();
+    try {
+      synchronized (readWaiters) {
+        while (readPoint.get() < writeNumber) {
+          if (count % 100 == 0 && count > 0) {
+            LOG.warn("STUCK: " + this);
+          }
+          count++;
+          try {
+            readWaiters.wait(10);
+          } catch (InterruptedException ie) {
+            // We were interrupted... finish the loop -- i.e. cleanup --and then
+            // on our way out, reset the interrupt flag.
+            interrupted = true;
+          }
         }
       }
+    } finally {
+      readWaiterCount.decrementAndGet();
     }
     if (interrupted) {
       Thread.currentThread().interrupt();
@@ -268,7 +315,7 @@ public class MultiVersionConcurrencyControl {
   @InterfaceAudience.Private
   public static class WriteEntry {
     private final long writeNumber;
-    private boolean completed = false;
+    private volatile boolean completed = false;
 
     WriteEntry(long writeNumber) {
       this.writeNumber = writeNumber;
@@ -294,6 +341,12 @@ public class MultiVersionConcurrencyControl {
 
   public static final long FIXED_SIZE = ClassSize.align(
       ClassSize.OBJECT +
-      2 * Bytes.SIZEOF_LONG +
-      2 * ClassSize.REFERENCE);
+      7 * ClassSize.REFERENCE) +
+      2 * ClassSize.ATOMIC_LONG + // readPoint, writePoint
+      ClassSize.ATOMIC_INTEGER + // readWaiterCount
+      2 * ClassSize.align(ClassSize.OBJECT) + // readWaiters, beginLock
+      ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) + // completed
+      ClassSize.align(ClassSize.ARRAY + RING_SIZE * Bytes.SIZEOF_LONG) +
+      ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) + // completedOverflow
+      ClassSize.CONCURRENT_SKIPLISTMAP;
 }
@@ -0,0 +1,150 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * The active segment of a {@link CompactingMemStore}: a {@link CellSkipListSet} taking writes,
+ * sized the same way as the {@link DefaultMemStore} sizes its cell set.
+ */
+@InterfaceAudience.Private
+class MutableSegment extends Segment {
+  private final CellSkipListSet cellSet;
+  private final AtomicLong size = new AtomicLong();
+  private final MemStoreLAB allocator;
+
+  /**
+   * @param allocator the MemStoreLAB to copy added cells into; may be null
+   */
+  MutableSegment(final KeyValue.KVComparator comparator, final MemStoreLAB allocator) {
+    super(comparator, new TimeRangeTracker());
+    this.cellSet = new CellSkipListSet(comparator);
+    this.allocator = allocator;
+  }
+
+  @Override
+  CellSkipListSet getCellSet() {
+    return cellSet;
+  }
+
+  @Override
+  Cell get(Cell cell) {
+    return cellSet.get(cell);
+  }
+
+  @Override
+  long getSize() {
+    return size.get();
+  }
+
+  @Override
+  List<MemStoreLAB> getMemStoreLABs() {
+    return allocator == null ? Collections.<MemStoreLAB> emptyList()
+        : Collections.singletonList(allocator);
+  }
+
+  void incSize(long delta) {
+    size.addAndGet(delta);
+  }
+
+  /**
+   * @return the passed cell copied into this segment's MemStoreLAB, or the cell itself if there
+   *   is no MemStoreLAB or the cell is too big for it
+   */
+  Cell maybeCloneWithAllocator(Cell cell) {
+    return maybeCloneWithAllocator(cell, allocator);
+  }
+
+  /**
+   * @return the passed cell copied into the passed MemStoreLAB, or the cell itself if the
+   *   MemStoreLAB is null or the cell is too big for it
+   */
+  static Cell maybeCloneWithAllocator(Cell cell, MemStoreLAB allocator) {
+    if (allocator == null) {
+      return cell;
+    }
+
+    Cell copy = allocator.copyCellInto(cell);
+    // A null copy means the cell was too large, allocator decided
+    // not to do anything with it.
+    return copy == null ? cell : copy;
+  }
+
+  /**
+   * Adds the cell without cloning it.
+   * @param mslabUsed whether the cell was copied into this segment's MemStoreLAB
+   * @return the heap size change in bytes
+   */
+  long add(final Cell cell, boolean mslabUsed) {
+    boolean notPresent = cellSet.add(cell);
+    if (cell.getTagsLength() > 0) {
+      tagsPresent = true;
+    }
+    long s = DefaultMemStore.heapSizeChange(cell, notPresent);
+    // If there's already a same cell in the CellSet and we are using MSLAB, we must count in the
+    // MSLAB allocation size as well, or else there will be memory leak (occupied heap size larger
+    // than the counted number)
+    if (!notPresent && mslabUsed) {
+      s += KeyValueUtil.length(cell);
+    }
+    timeRangeTracker.includeTimestamp(cell);
+    size.addAndGet(s);
+    return s;
+  }
+
+  /**
+   * Removes the passed cell if this segment holds it with the same sequence id.
+   * @return the heap size freed, 0 if the cell was not found
+   */
+  long rollback(Cell cell) {
+    Cell found = cellSet.get(cell);
+    if (found != null && found.getSequenceId() == cell.getSequenceId()) {
+      cellSet.remove(found);
+      long sz = DefaultMemStore.heapSizeChange(found, true);
+      size.addAndGet(-sz);
+      return sz;
+    }
+    return 0;
+  }
+
+  /**
+   * Flattens this segment into an array based one. The segment must no longer take writes.
+   * Whatever the size of this segment accounts beyond its cells, e.g. MemStoreLAB space taken
+   * by duplicates, carries over to the flat segment.
+   */
+  ImmutableSegment toImmutableSegment() {
+    List<Cell> cells = new ArrayList<Cell>();
+    long flatSize = size.get();
+    for (Cell cell : cellSet) {
+      cells.add(cell);
+      flatSize -= DefaultMemStore.heapSizeChange(cell, true) - ImmutableSegment.heapSizeOf(cell);
+    }
+    return new ImmutableSegment(comparator, cells.toArray(new Cell[cells.size()]),
+        timeRangeTracker, flatSize, getMemStoreLABs(), tagsPresent);
+  }
+}
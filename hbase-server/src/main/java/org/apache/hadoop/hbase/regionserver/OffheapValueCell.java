@@ -0,0 +1,296 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SettableSequenceId;
+import org.apache.hadoop.hbase.SettableTimestamp;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * A memstore {@link Cell} with its key on heap and its value and tags in an off heap
+ * {@link HeapMemStoreLAB} chunk.
+ * <p>
+ * The key is laid out as in a {@link KeyValue}, so comparisons read it in place. Each call to
+ * {@link #getValueArray()} or {@link #getTagsArray()} copies the value or tags out of the chunk,
+ * with offset 0; the copies are not kept, as this cell stays in the memstore until the flush and
+ * they would be held on heap, unaccounted for, on top of the chunk.
+ * <p>
+ * The chunk is put back to the pool, and reused, once the memstore is flushed and no scanner
+ * reads it any more. Cells handed out of a scanner may be read after that, so scanners hand out
+ * a {@link #toKeyValue()} copy instead.
+ * <p>
+ * {@link #heapSize()} counts the value and tags too, so that the memstore size and the flush
+ * thresholds stay the same as with on heap cells, copied or not; the part held off heap is
+ * accounted separately, see {@link MemStoreChunkPool#getDataSize()}.
+ */
+@InterfaceAudience.Private
+final class OffheapValueCell implements Cell, HeapSize, SettableSequenceId, SettableTimestamp {
+
+  static final long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT + 2 * ClassSize.REFERENCE
+      + 5 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG);
+
+  private final byte[] key;
+  private final int keyOffset;
+  private final int keyLength;
+  private final ByteBuffer data;
+  private final int dataOffset;
+  private final int valueLength;
+  private final int tagsLength;
+  private long seqId;
+
+  /**
+   * @param key the array holding the key, in the {@link KeyValue} key format
+   * @param data the buffer holding the value followed by the tags
+   */
+  OffheapValueCell(byte[] key, int keyOffset, int keyLength, ByteBuffer data, int dataOffset,
+      int valueLength, int tagsLength, long seqId) {
+    this.key = key;
+    this.keyOffset = keyOffset;
+    this.keyLength = keyLength;
+    this.data = data;
+    this.dataOffset = dataOffset;
+    this.valueLength = valueLength;
+    this.tagsLength = tagsLength;
+    this.seqId = seqId;
+  }
+
+  @Override
+  public byte[] getRowArray() {
+    return key;
+  }
+
+  @Override
+  public int getRowOffset() {
+    return keyOffset + Bytes.SIZEOF_SHORT;
+  }
+
+  @Override
+  public short getRowLength() {
+    return Bytes.toShort(key, keyOffset);
+  }
+
+  @Override
+  public byte[] getFamilyArray() {
+    return key;
+  }
+
+  @Override
+  public int getFamilyOffset() {
+    return getFamilyLengthOffset() + Bytes.SIZEOF_BYTE;
+  }
+
+  @Override
+  public byte getFamilyLength() {
+    return key[getFamilyLengthOffset()];
+  }
+
+  private int getFamilyLengthOffset() {
+    return getRowOffset() + getRowLength();
+  }
+
+  @Override
+  public byte[] getQualifierArray() {
+    return key;
+  }
+
+  @Override
+  public int getQualifierOffset() {
+    return getFamilyOffset() + getFamilyLength();
+  }
+
+  @Override
+  public int getQualifierLength() {
+    return keyOffset + keyLength - KeyValue.TIMESTAMP_TYPE_SIZE - getQualifierOffset();
+  }
+
+  @Override
+  public long getTimestamp() {
+    return Bytes.toLong(key, getTimestampOffset());
+  }
+
+  private int getTimestampOffset() {
+    return keyOffset + keyLength - KeyValue.TIMESTAMP_TYPE_SIZE;
+  }
+
+  @Override
+  public byte getTypeByte() {
+    return key[keyOffset + keyLength - 1];
+  }
+
+  @Override
+  @Deprecated
+  public long getMvccVersion() {
+    return getSequenceId();
+  }
+
+  @Override
+  public long getSequenceId() {
+    return seqId;
+  }
+
+  @Override
+  public void setSequenceId(long seqId) {
+    this.seqId = seqId;
+  }
+
+  @Override
+  public void setTimestamp(long ts) {
+    Bytes.putLong(key, getTimestampOffset(), ts);
+  }
+
+  @Override
+  public void setTimestamp(byte[] ts, int tsOffset) {
+    Bytes.putBytes(key, getTimestampOffset(), ts, tsOffset, Bytes.SIZEOF_LONG);
+  }
+
+  @Override
+  public byte[] getValueArray() {
+    return copyData(0, valueLength);
+  }
+
+  @Override
+  public int getValueOffset() {
+    return 0;
+  }
+
+  @Override
+  public int getValueLength() {
+    return valueLength;
+  }
+
+  @Override
+  public byte[] getTagsArray() {
+    if (tagsLength == 0) {
+      return HConstants.EMPTY_BYTE_ARRAY;
+    }
+    return copyData(valueLength, tagsLength);
+  }
+
+  @Override
+  public int getTagsOffset() {
+    return 0;
+  }
+
+  @Override
+  public int getTagsLength() {
+    return tagsLength;
+  }
+
+  /**
+   * Copies this cell on heap, so that the copy can still be read once the chunk is reused. Must
+   * be called while a scanner holds the chunk.
+   * @return a {@link KeyValue} with the key, value, tags and sequence id of this cell
+   */
+  KeyValue toKeyValue() {
+    int length = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE + keyLength + valueLength;
+    if (tagsLength > 0) {
+      length += KeyValue.TAGS_LENGTH_SIZE + tagsLength;
+    }
+    byte[] bytes = new byte[length];
+    int pos = Bytes.putInt(bytes, 0, keyLength);
+    pos = Bytes.putInt(bytes, pos, valueLength);
+    pos = Bytes.putBytes(bytes, pos, key, keyOffset, keyLength);
+    pos = copyData(bytes, pos, 0, valueLength);
+    if (tagsLength > 0) {
+      pos = Bytes.putAsShort(bytes, pos, tagsLength);
+      copyData(bytes, pos, valueLength, tagsLength);
+    }
+    KeyValue kv = new KeyValue(bytes, 0, length);
+    kv.setSequenceId(seqId);
+    return kv;
+  }
+
+  private byte[] copyData(int offset, int length) {
+    byte[] copy = new byte[length];
+    copyData(copy, 0, offset, length);
+    return copy;
+  }
+
+  private int copyData(byte[] dest, int destOffset, int offset, int length) {
+    // Read through a duplicate as the copy may move the position of the shared chunk buffer.
+    ByteBufferUtils.copyFromBufferToArray(dest, data.duplicate(), dataOffset + offset, destOffset,
+      length);
+    return destOffset + length;
+  }
+
+  @Override
+  @Deprecated
+  public byte[] getValue() {
+    return getValueArray();
+  }
+
+  @Override
+  @Deprecated
+  public byte[] getFamily() {
+    return CellUtil.cloneFamily(this);
+  }
+
+  @Override
+  @Deprecated
+  public byte[] getQualifier() {
+    return CellUtil.cloneQualifier(this);
+  }
+
+  @Override
+  @Deprecated
+  public byte[] getRow() {
+    return CellUtil.cloneRow(this);
+  }
+
+  @Override
+  public long heapSize() {
+    return FIXED_OVERHEAD + keyLength + valueLength + tagsLength;
+  }
+
+  /**
+   * @return the number of bytes of this cell held off heap
+   */
+  int getOffheapSize() {
+    return valueLength + tagsLength;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Cell)) {
+      return false;
+    }
+    return CellComparator.equals(this, (Cell) other);
+  }
+
+  @Override
+  public int hashCode() {
+    return CellComparator.hashCodeIgnoreMvcc(this);
+  }
+
+  @Override
+  public String toString() {
+    return CellUtil.getCellKeyAsString(this) + "/vlen=" + valueLength + "/seqid=" + seqId;
+  }
+}
@@ -37,6 +37,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -100,6 +101,7 @@ import org.apache.hadoop.hbase.ipc.QosPriority;
 import org.apache.hadoop.hbase.ipc.RpcCallContext;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.ipc.RpcServer.BlockingServiceAndInterface;
+import org.apache.hadoop.hbase.ipc.RpcServerFactory;
 import org.apache.hadoop.hbase.ipc.RpcServerInterface;
 import org.apache.hadoop.hbase.ipc.ServerNotRunningYetException;
 import org.apache.hadoop.hbase.ipc.ServerRpcController;
@@ -237,6 +239,20 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
    */
   static final int BATCH_ROWS_THRESHOLD_DEFAULT = 5000;
 
+  /**
+   * Whether the consecutive gets of a multi request on a region are done as a batch, see
+   * {@link HRegion#get(List)}.
+   */
+  static final String BATCH_MULTI_GETS_KEY = "hbase.regionserver.multi.batchgets";
+  static final boolean DEFAULT_BATCH_MULTI_GETS = false;
+
+  /**
+   * Whether the puts and deletes of a multi request on several regions sync each WAL once, see
+   * {@link WALGroupCommit}.
+   */
+  static final String GROUP_COMMIT_MULTI_KEY = "hbase.regionserver.multi.groupcommit";
+  static final boolean DEFAULT_GROUP_COMMIT_MULTI = false;
+
   // Count only once for requests with multiple actions like multi/caching-scan/replayBatch
   final Counter requestCount = new Counter();
 
@@ -288,6 +304,16 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
    */
   private final int rowSizeWarnThreshold;
 
+  /**
+   * Whether the consecutive gets of a multi request are done as a batch
+   */
+  private final boolean batchMultiGets;
+
+  /**
+   * Whether the puts and deletes of a multi request on several regions are group committed
+   */
+  private final boolean groupCommitMulti;
+
   /**
    * Holder class which holds the RegionScanner, nextCallSeq and RpcCallbacks together.
    */
@@ -667,11 +693,14 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
    * @param builder
    * @param cellsToReturn  Could be null. May be allocated in this method.  This is what this
    * method returns as a 'result'.
+   * @param groupCommit if not null, the WAL sync of the trailing Puts and Deletes is left to it,
+   * and their results are added to the builder when it commits
    * @return Return the <code>cellScanner</code> passed
    */
   private List<CellScannable> doNonAtomicRegionMutation(final Region region,
       final OperationQuota quota, final RegionAction actions, final CellScanner cellScanner,
-      final RegionActionResult.Builder builder, List<CellScannable> cellsToReturn, long nonceGroup) {
+      final RegionActionResult.Builder builder, List<CellScannable> cellsToReturn, long nonceGroup,
+      WALGroupCommit groupCommit) {
     // Gather up CONTIGUOUS Puts and Deletes in this mutations List.  Idea is that rather than do
     // one at a time, we instead pass them in batch.  Be aware that the corresponding
     // ResultOrException instance that matches each Put or Delete is then added down in the
@@ -683,7 +712,13 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     Object lastBlock = null;
     ClientProtos.ResultOrException.Builder resultOrExceptionBuilder = ResultOrException.newBuilder();
     boolean hasResultOrException = false;
+    // Results, or failures, of the gets done as a batch, by action index
+    Map<Integer, Object> batchedGets = null;
+    // Position of the first action after the gets already considered for a batch
+    int batchedGetsEnd = 0;
+    int position = -1;
     for (ClientProtos.Action action : actions.getActionList()) {
+      position++;
       hasResultOrException = false;
       resultOrExceptionBuilder.clear();
       try {
@@ -727,15 +762,35 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
           continue;
         }
         if (action.hasGet()) {
-          long before = EnvironmentEdgeManager.currentTime();
-          try {
-            Get get = ProtobufUtil.toGet(action.getGet());
-            r = region.get(get);
-          } finally {
-            if (regionServer.metricsRegionServer != null) {
-              regionServer.metricsRegionServer.updateGet(
-                  region.getTableDesc().getTableName(),
-                  EnvironmentEdgeManager.currentTime() - before);
+          if (batchMultiGets && position >= batchedGetsEnd && region instanceof HRegion) {
+            batchedGetsEnd = endOfGets(actions, position);
+            // Leave the gets past the size limit to the check above, as if done one at a time
+            long maxCellSize = Long.MAX_VALUE;
+            long maxBlockSize = Long.MAX_VALUE;
+            if (context != null && context.isRetryImmediatelySupported()) {
+              maxCellSize = maxQuotaResultSize - context.getResponseCellSize();
+              maxBlockSize = maxQuotaResultSize - context.getResponseBlockSize()
+                  - context.getResponseExceptionSize();
+            }
+            batchedGets = doBatchGet((HRegion) region, actions, position, batchedGetsEnd,
+                maxCellSize, maxBlockSize);
+          }
+          Object batched = batchedGets == null ? null : batchedGets.remove(action.getIndex());
+          if (batched instanceof IOException) {
+            throw (IOException) batched;
+          } else if (batched != null) {
+            r = (Result) batched;
+          } else {
+            long before = EnvironmentEdgeManager.currentTime();
+            try {
+              Get get = ProtobufUtil.toGet(action.getGet());
+              r = region.get(get);
+            } finally {
+              if (regionServer.metricsRegionServer != null) {
+                regionServer.metricsRegionServer.updateGet(
+                    region.getTableDesc().getTableName(),
+                    EnvironmentEdgeManager.currentTime() - before);
+              }
             }
           }
         } else if (action.hasServiceCall()) {
@@ -760,7 +815,7 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
           if (type != MutationType.PUT && type != MutationType.DELETE && mutations != null &&
               !mutations.isEmpty()) {
             // Flush out any Puts or Deletes already collected.
-            doBatchOp(builder, region, quota, mutations, cellScanner);
+            doBatchOp(builder, region, quota, mutations, cellScanner, null);
             mutations.clear();
           }
           switch (type) {
@@ -819,11 +874,69 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     }
     // Finish up any outstanding mutations
     if (mutations != null && !mutations.isEmpty()) {
-      doBatchOp(builder, region, quota, mutations, cellScanner);
+      doBatchOp(builder, region, quota, mutations, cellScanner, groupCommit);
     }
     return cellsToReturn;
   }
 
+  /**
+   * @return the position of the first action from the given one on that is not a get
+   */
+  private static int endOfGets(RegionAction actions, int start) {
+    int end = start;
+    while (end < actions.getActionCount() && actions.getAction(end).hasGet()) {
+      end++;
+    }
+    return end;
+  }
+
+  /**
+   * Does the gets at the given positions of the actions as a batch, until their results exceed
+   * the given sizes, see {@link HRegion#get(List, IOException[], long, long)}. Each get done is
+   * charged an even share of the time of the batch in the metrics.
+   * @return the result, or the IOException the get failed with, by action index, or null if
+   *         there are too few gets to batch; the gets not done have no entry
+   */
+  private Map<Integer, Object> doBatchGet(HRegion region, RegionAction actions, int start,
+      int end, long maxCellSize, long maxBlockSize) {
+    if (end - start < 2) {
+      return null;
+    }
+    Map<Integer, Object> resultsByIndex = new HashMap<Integer, Object>(end - start);
+    List<Get> gets = new ArrayList<Get>(end - start);
+    List<Integer> indexes = new ArrayList<Integer>(end - start);
+    for (int i = start; i < end; i++) {
+      ClientProtos.Action action = actions.getAction(i);
+      try {
+        gets.add(ProtobufUtil.toGet(action.getGet()));
+        indexes.add(action.getIndex());
+      } catch (IOException e) {
+        resultsByIndex.put(action.getIndex(), e);
+      }
+    }
+    if (gets.isEmpty()) {
+      return resultsByIndex;
+    }
+    long before = EnvironmentEdgeManager.currentTime();
+    IOException[] errors = new IOException[gets.size()];
+    Result[] results = region.get(gets, errors, maxCellSize, maxBlockSize);
+    long elapsed = EnvironmentEdgeManager.currentTime() - before;
+    int done = 0;
+    for (int i = 0; i < gets.size(); i++) {
+      if (errors[i] != null || results[i] != null) {
+        resultsByIndex.put(indexes.get(i), errors[i] != null ? errors[i] : results[i]);
+        done++;
+      }
+    }
+    if (done > 0 && regionServer.metricsRegionServer != null) {
+      for (int i = 0; i < done; i++) {
+        regionServer.metricsRegionServer.updateGet(region.getTableDesc().getTableName(),
+            elapsed / done);
+      }
+    }
+    return resultsByIndex;
+  }
+
   private void checkCellSizeLimit(final Region region, final Mutation m) throws IOException {
     if (!(region instanceof HRegion)) {
       return;
@@ -850,12 +963,15 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
    * @param builder
    * @param region
    * @param mutations
+   * @param groupCommit if not null, the WAL sync of the mutations may be left to it, their results
+   * are then added to the builder when it commits
    */
   private void doBatchOp(final RegionActionResult.Builder builder, final Region region,
       final OperationQuota quota,
-      final List<ClientProtos.Action> mutations, final CellScanner cells) {
-    Mutation[] mArray = new Mutation[mutations.size()];
-    long before = EnvironmentEdgeManager.currentTime();
+      final List<ClientProtos.Action> mutations, final CellScanner cells,
+      final WALGroupCommit groupCommit) {
+    final Mutation[] mArray = new Mutation[mutations.size()];
+    final long before = EnvironmentEdgeManager.currentTime();
     boolean batchContainsPuts = false, batchContainsDelete = false;
     try {
       /** HBASE-17924
@@ -865,7 +981,7 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
        * is the mutation belong to. We can't sort ClientProtos.Action array, since they
        * are bonded to cellscanners.
        */
-      Map<Mutation, ClientProtos.Action> mutationActionMap = new HashMap<Mutation, ClientProtos.Action>();
+      final Map<Mutation, ClientProtos.Action> mutationActionMap = new HashMap<Mutation, ClientProtos.Action>();
       int i = 0;
       for (ClientProtos.Action action: mutations) {
         MutationProto m = action.getMutation();
@@ -883,7 +999,10 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
         quota.addMutation(mutation);
       }
 
-      if (!region.getRegionInfo().isMetaTable()) {
+      // Batches left to a group commit keep their regions from flushing until it commits, so
+      // only wait for memstore memory with none pending
+      if (!region.getRegionInfo().isMetaTable()
+          && (groupCommit == null || groupCommit.isEmpty())) {
         regionServer.cacheFlusher.reclaimMemStoreMemory();
       }
 
@@ -891,40 +1010,70 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
       // sort to improve lock efficiency
       Arrays.sort(mArray);
 
+      if (groupCommit != null) {
+        final boolean containsPuts = batchContainsPuts, containsDelete = batchContainsDelete;
+        ((HRegion) region).batchMutate(mArray, groupCommit, new WALGroupCommit.Callback() {
+          @Override
+          public void completed(OperationStatus[] codes, IOException failure) {
+            if (failure != null) {
+              addResults(builder, mutations, failure);
+            } else {
+              addResults(builder, mArray, mutationActionMap, codes);
+            }
+            updateBatchMetrics(region, before, containsPuts, containsDelete);
+          }
+        });
+        return;
+      }
       OperationStatus[] codes = region.batchMutate(mArray, HConstants.NO_NONCE,
         HConstants.NO_NONCE);
-      for (i = 0; i < codes.length; i++) {
-        Mutation currentMutation = mArray[i];
-        ClientProtos.Action currentAction = mutationActionMap.get(currentMutation);
-        int index = currentAction.getIndex();
-        Exception e = null;
-        switch (codes[i].getOperationStatusCode()) {
-          case BAD_FAMILY:
-            e = new NoSuchColumnFamilyException(codes[i].getExceptionMsg());
-            builder.addResultOrException(getResultOrException(e, index));
-            break;
+      addResults(builder, mArray, mutationActionMap, codes);
+    } catch (IOException ie) {
+      addResults(builder, mutations, ie);
+    }
+    updateBatchMetrics(region, before, batchContainsPuts, batchContainsDelete);
+  }
+
+  private void addResults(final RegionActionResult.Builder builder, final Mutation[] mArray,
+      final Map<Mutation, ClientProtos.Action> mutationActionMap, final OperationStatus[] codes) {
+    for (int i = 0; i < codes.length; i++) {
+      Mutation currentMutation = mArray[i];
+      ClientProtos.Action currentAction = mutationActionMap.get(currentMutation);
+      int index = currentAction.getIndex();
+      Exception e = null;
+      switch (codes[i].getOperationStatusCode()) {
+        case BAD_FAMILY:
+          e = new NoSuchColumnFamilyException(codes[i].getExceptionMsg());
+          builder.addResultOrException(getResultOrException(e, index));
+          break;
 
-          case SANITY_CHECK_FAILURE:
-            e = new FailedSanityCheckException(codes[i].getExceptionMsg());
-            builder.addResultOrException(getResultOrException(e, index));
-            break;
+        case SANITY_CHECK_FAILURE:
+          e = new FailedSanityCheckException(codes[i].getExceptionMsg());
+          builder.addResultOrException(getResultOrException(e, index));
+          break;
 
-          default:
-            e = new DoNotRetryIOException(codes[i].getExceptionMsg());
-            builder.addResultOrException(getResultOrException(e, index));
-            break;
+        default:
+          e = new DoNotRetryIOException(codes[i].getExceptionMsg());
+          builder.addResultOrException(getResultOrException(e, index));
+          break;
 
-          case SUCCESS:
-            builder.addResultOrException(getResultOrException(
-              ClientProtos.Result.getDefaultInstance(), index));
-            break;
-        }
-      }
-    } catch (IOException ie) {
-      for (int i = 0; i < mutations.size(); i++) {
-        builder.addResultOrException(getResultOrException(ie, mutations.get(i).getIndex()));
+        case SUCCESS:
+          builder.addResultOrException(getResultOrException(
+            ClientProtos.Result.getDefaultInstance(), index));
+          break;
       }
     }
+  }
+
+  private void addResults(final RegionActionResult.Builder builder,
+      final List<ClientProtos.Action> mutations, final IOException ie) {
+    for (int i = 0; i < mutations.size(); i++) {
+      builder.addResultOrException(getResultOrException(ie, mutations.get(i).getIndex()));
+    }
+  }
+
+  private void updateBatchMetrics(final Region region, final long before,
+      final boolean batchContainsPuts, final boolean batchContainsDelete) {
     if (regionServer.metricsRegionServer != null) {
       long after = EnvironmentEdgeManager.currentTime();
       if (batchContainsPuts) {
@@ -1092,7 +1241,7 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     // Set how many times to retry talking to another server over HConnection.
     ConnectionUtils.setServerSideHConnectionRetriesConfig(rs.conf, name, LOG);
     try {
-      rpcServer = new RpcServer(rs, name, getServices(),
+      rpcServer = RpcServerFactory.createRpcServer(rs, name, getServices(),
           bindAddress, // use final bindAddress for this server.
           rs.conf,
           rpcSchedulerFactory.create(rs.conf, this, rs));
@@ -1116,6 +1265,8 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     minimumScanTimeLimitDelta = rs.conf.getLong(
       REGION_SERVER_RPC_MINIMUM_SCAN_TIME_LIMIT_DELTA,
       DEFAULT_REGION_SERVER_RPC_MINIMUM_SCAN_TIME_LIMIT_DELTA);
+    batchMultiGets = rs.conf.getBoolean(BATCH_MULTI_GETS_KEY, DEFAULT_BATCH_MULTI_GETS);
+    groupCommitMulti = rs.conf.getBoolean(GROUP_COMMIT_MULTI_KEY, DEFAULT_GROUP_COMMIT_MULTI);
 
     InetSocketAddress address = rpcServer.getListenerAddress();
     if (address == null) {
@@ -2325,62 +2476,101 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     this.requestCount.increment();
     Map<RegionSpecifier, ClientProtos.RegionLoadStats> regionStats = new HashMap<>(request
       .getRegionActionCount());
-    for (RegionAction regionAction : request.getRegionActionList()) {
-      OperationQuota quota;
-      Region region;
-      regionActionResultBuilder.clear();
-      RegionSpecifier regionSpecifier = regionAction.getRegion();
-      try {
-        region = getRegion(regionSpecifier);
-        quota = getQuotaManager().checkQuota(region, regionAction.getActionList());
-      } catch (IOException e) {
-        rpcServer.getMetrics().exception(e);
-        regionActionResultBuilder.setException(ResponseConverter.buildException(e));
-        responseBuilder.addRegionActionResult(regionActionResultBuilder.build());
-        // All Mutations in this RegionAction not executed as we can not see the Region online here
-        // in this RS. Will be retried from Client. Skipping all the Cells in CellScanner
-        // corresponding to these Mutations.
-        if (cellScanner != null) {
-          skipCellsForMutations(regionAction.getActionList(), cellScanner);
+    // Puts and Deletes on several regions sync each WAL once, see WALGroupCommit. A handler
+    // holding batches left to the group commit must not wait on the mvcc of another region, for
+    // the writers there may be waiting on its own batches: only requests whose region actions
+    // can all be left to the group commit are grouped.
+    WALGroupCommit groupCommit = groupCommitMulti && isGroupCommittable(request) ?
+        new WALGroupCommit() : null;
+    // Regions with a batch left to the group commit
+    Set<Region> groupCommitRegions = groupCommit == null ? null : new HashSet<Region>();
+    try {
+      for (RegionAction regionAction : request.getRegionActionList()) {
+        OperationQuota quota;
+        Region region;
+        if (groupCommit != null) {
+          // Results are added to the response in place, those of the batches left to the group
+          // commit as it commits
+          regionActionResultBuilder = responseBuilder.addRegionActionResultBuilder();
+        } else {
+          regionActionResultBuilder.clear();
         }
-        continue;  // For this region it's a failure.
-      }
-
-      if (regionAction.hasAtomic() && regionAction.getAtomic()) {
-        // How does this call happen?  It may need some work to play well w/ the surroundings.
-        // Need to return an item per Action along w/ Action index.  TODO.
+        RegionSpecifier regionSpecifier = regionAction.getRegion();
         try {
-          if (request.hasCondition()) {
-            Condition condition = request.getCondition();
-            byte[] row = condition.getRow().toByteArray();
-            byte[] family = condition.getFamily().toByteArray();
-            byte[] qualifier = condition.getQualifier().toByteArray();
-            CompareOp compareOp = CompareOp.valueOf(condition.getCompareType().name());
-            ByteArrayComparable comparator =
-                ProtobufUtil.toComparator(condition.getComparator());
-            processed = checkAndRowMutate(region, regionAction.getActionList(),
-                  cellScanner, row, family, qualifier, compareOp,
-                  comparator, regionActionResultBuilder);
-          } else {
-            mutateRows(region, regionAction.getActionList(), cellScanner,
-                regionActionResultBuilder);
-            processed = Boolean.TRUE;
-          }
+          region = getRegion(regionSpecifier);
+          quota = getQuotaManager().checkQuota(region, regionAction.getActionList());
         } catch (IOException e) {
           rpcServer.getMetrics().exception(e);
-          // As it's atomic, we may expect it's a global failure.
           regionActionResultBuilder.setException(ResponseConverter.buildException(e));
+          if (groupCommit == null) {
+            responseBuilder.addRegionActionResult(regionActionResultBuilder.build());
+          }
+          // All Mutations in this RegionAction not executed as we can not see the Region online
+          // here in this RS. Will be retried from Client. Skipping all the Cells in CellScanner
+          // corresponding to these Mutations.
+          if (cellScanner != null) {
+            skipCellsForMutations(regionAction.getActionList(), cellScanner);
+          }
+          continue;  // For this region it's a failure.
+        }
+
+        WALGroupCommit regionGroupCommit = null;
+        if (groupCommit != null) {
+          // A region cannot take more mutations until its pending batch is complete, and the
+          // batches of regions not grouped wait on their mvcc
+          if (groupCommitRegions.contains(region) || !isGroupCommittable(region)) {
+            groupCommit.commit();
+            groupCommitRegions.clear();
+          }
+          if (isGroupCommittable(region)) {
+            regionGroupCommit = groupCommit;
+            groupCommitRegions.add(region);
+          }
+        }
+
+        if (regionAction.hasAtomic() && regionAction.getAtomic()) {
+          // How does this call happen?  It may need some work to play well w/ the surroundings.
+          // Need to return an item per Action along w/ Action index.  TODO.
+          try {
+            if (request.hasCondition()) {
+              Condition condition = request.getCondition();
+              byte[] row = condition.getRow().toByteArray();
+              byte[] family = condition.getFamily().toByteArray();
+              byte[] qualifier = condition.getQualifier().toByteArray();
+              CompareOp compareOp = CompareOp.valueOf(condition.getCompareType().name());
+              ByteArrayComparable comparator =
+                  ProtobufUtil.toComparator(condition.getComparator());
+              processed = checkAndRowMutate(region, regionAction.getActionList(),
+                    cellScanner, row, family, qualifier, compareOp,
+                    comparator, regionActionResultBuilder);
+            } else {
+              mutateRows(region, regionAction.getActionList(), cellScanner,
+                  regionActionResultBuilder);
+              processed = Boolean.TRUE;
+            }
+          } catch (IOException e) {
+            rpcServer.getMetrics().exception(e);
+            // As it's atomic, we may expect it's a global failure.
+            regionActionResultBuilder.setException(ResponseConverter.buildException(e));
+          }
+        } else {
+          // doNonAtomicRegionMutation manages the exception internally
+          cellsToReturn = doNonAtomicRegionMutation(region, quota, regionAction, cellScanner,
+              regionActionResultBuilder, cellsToReturn, nonceGroup, regionGroupCommit);
+        }
+        if (groupCommit == null) {
+          responseBuilder.addRegionActionResult(regionActionResultBuilder.build());
+        }
+        quota.close();
+        ClientProtos.RegionLoadStats regionLoadStats = ((HRegion)region).getLoadStatistics();
+        if(regionLoadStats != null) {
+          regionStats.put(regionSpecifier, regionLoadStats);
         }
-      } else {
-        // doNonAtomicRegionMutation manages the exception internally
-        cellsToReturn = doNonAtomicRegionMutation(region, quota, regionAction, cellScanner,
-            regionActionResultBuilder, cellsToReturn, nonceGroup);
       }
-      responseBuilder.addRegionActionResult(regionActionResultBuilder.build());
-      quota.close();
-      ClientProtos.RegionLoadStats regionLoadStats = ((HRegion)region).getLoadStatistics();
-      if(regionLoadStats != null) {
-        regionStats.put(regionSpecifier, regionLoadStats);
+    } finally {
+      // Always complete the batches left to the group commit, they hold their regions open
+      if (groupCommit != null) {
+        groupCommit.commit();
       }
     }
     // Load the controller with the Cells to return.
@@ -2401,6 +2591,38 @@ public class RSRpcServices implements HBaseRPCErrorHandler,
     return responseBuilder.build();
   }
 
+  /**
+   * @return true if the request is on several regions, and all its region actions are Puts and
+   *         Deletes, not atomic, whose WAL sync can be left to a {@link WALGroupCommit}
+   */
+  private static boolean isGroupCommittable(MultiRequest request) {
+    if (request.getRegionActionCount() < 2 || request.hasCondition()) {
+      return false;
+    }
+    for (RegionAction regionAction : request.getRegionActionList()) {
+      if (regionAction.hasAtomic() && regionAction.getAtomic()) {
+        return false;
+      }
+      for (Action action : regionAction.getActionList()) {
+        if (!action.hasMutation()) {
+          return false;
+        }
+        MutationType type = action.getMutation().getMutateType();
+        if (type != MutationType.PUT && type != MutationType.DELETE) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the batches of the region can be left to a {@link WALGroupCommit}
+   */
+  private static boolean isGroupCommittable(Region region) {
+    return region instanceof HRegion && !region.getRegionInfo().isMetaTable();
+  }
+
   private void skipCellsForMutations(List<Action> actions, CellScanner cellScanner) {
     for (Action action : actions) {
       skipCellsForMutation(action, cellScanner);
@@ -27,7 +27,8 @@ import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * RegionServerAccounting keeps record of some basic real time information about
- * the Region Server. Currently, it only keeps record the global memstore size. 
+ * the Region Server. Currently, it only keeps record the global memstore size,
+ * and which part of it is held off heap if the memstore is off heap.
  */
 @InterfaceAudience.Private
 public class RegionServerAccounting {
@@ -45,6 +46,25 @@ public class RegionServerAccounting {
   public long getGlobalMemstoreSize() {
     return atomicGlobalMemstoreSize.get();
   }
+
+  /**
+   * @return the part of the global Memstore size held off heap, the values and tags the
+   *         MemStoreLABs copied into off heap chunks; 0 if the memstore is on heap. Like the
+   *         chunk pool, this is shared by all RegionServers of the JVM.
+   */
+  public long getGlobalMemstoreOffheapSize() {
+    MemStoreChunkPool pool = MemStoreChunkPool.getOffheapPool();
+    return pool == null ? 0 : pool.getDataSize();
+  }
+
+  /**
+   * @return the part of the global Memstore size held on heap
+   */
+  public long getGlobalMemstoreHeapSize() {
+    // The off heap size is let go when the memstore snapshot is cleared, which can be a moment
+    // before or after the flushed size is taken off the global size.
+    return Math.max(0, getGlobalMemstoreSize() - getGlobalMemstoreOffheapSize());
+  }
   
   /**
    * @param memStoreSize the Memstore size will be added to 
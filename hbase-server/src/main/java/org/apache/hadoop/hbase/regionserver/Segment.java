@@ -0,0 +1,113 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.List;
+import java.util.NavigableSet;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.TimeRange;
+
+/**
+ * A sorted set of cells held by a {@link CompactingMemStore}, together with what goes with it:
+ * the time range of the cells, their accounted heap size and the MemStoreLABs holding their
+ * data. The active segment takes writes; once it is pushed into the pipeline it is turned into
+ * an immutable, flat segment.
+ */
+@InterfaceAudience.Private
+abstract class Segment {
+  protected final KeyValue.KVComparator comparator;
+  protected final TimeRangeTracker timeRangeTracker;
+  protected volatile boolean tagsPresent;
+
+  protected Segment(final KeyValue.KVComparator comparator,
+      final TimeRangeTracker timeRangeTracker) {
+    this.comparator = comparator;
+    this.timeRangeTracker = timeRangeTracker;
+  }
+
+  /**
+   * @return the cells of this segment
+   */
+  abstract NavigableSet<Cell> getCellSet();
+
+  /**
+   * @return the cell equal to the passed one, or null if this segment has none
+   */
+  abstract Cell get(Cell cell);
+
+  /**
+   * @return the heap size accounted for the cells of this segment
+   */
+  abstract long getSize();
+
+  /**
+   * @return the MemStoreLABs the data of this segment's cells is allocated in
+   */
+  abstract List<MemStoreLAB> getMemStoreLABs();
+
+  KeyValue.KVComparator getComparator() {
+    return comparator;
+  }
+
+  TimeRangeTracker getTimeRangeTracker() {
+    return timeRangeTracker;
+  }
+
+  boolean isTagsPresent() {
+    return tagsPresent;
+  }
+
+  boolean isEmpty() {
+    return getCellSet().isEmpty();
+  }
+
+  /**
+   * @return False if the segment definitely holds no cell in the passed time range that is newer
+   *   than <code>oldestUnexpiredTS</code>
+   */
+  boolean shouldSeek(TimeRange timeRange, long oldestUnexpiredTS) {
+    return timeRangeTracker.includesTimeRange(timeRange)
+        && timeRangeTracker.getMax() >= oldestUnexpiredTS;
+  }
+
+  void incScannerCount() {
+    for (MemStoreLAB allocator : getMemStoreLABs()) {
+      allocator.incScannerCount();
+    }
+  }
+
+  void decScannerCount() {
+    for (MemStoreLAB allocator : getMemStoreLABs()) {
+      allocator.decScannerCount();
+    }
+  }
+
+  /**
+   * Called once the segment is no longer part of the memstore. Its MemStoreLAB chunks are
+   * reclaimed when the last scanner on them is closed.
+   */
+  void close() {
+    for (MemStoreLAB allocator : getMemStoreLABs()) {
+      allocator.close();
+    }
+  }
+}
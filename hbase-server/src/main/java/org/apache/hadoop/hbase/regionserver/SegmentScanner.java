@@ -0,0 +1,213 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Iterator;
+import java.util.SortedSet;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.TimeRange;
+
+/**
+ * Scans one {@link Segment} of a {@link CompactingMemStore}. Works like the scanner of the
+ * {@link DefaultMemStore}, on a single set of cells: it skips cells newer than its read point
+ * and, as the set may still take writes, does not hold on to a position across reseeks.
+ */
+@InterfaceAudience.Private
+class SegmentScanner extends NonLazyKeyValueScanner {
+  private final Segment segment;
+  private final long readPoint;
+  private final long scannerOrder;
+  private final KeyValue.KVComparator comparator;
+
+  private Iterator<Cell> iter;
+  // the pre-calculated Cell to be returned by peek() or next()
+  private Cell current;
+  // last iterated Cell, to restore the iterator state after a reseek
+  private Cell last;
+
+  // A flag represents whether could stop skipping Cells for MVCC
+  // if have encountered the next row. Only used for reversed scan
+  private boolean stopSkippingCellsIfNextRow = false;
+  private boolean closed = false;
+
+  /**
+   * @param scannerOrder the order of this scanner among the memstore scanners; scanners on
+   *   newer segments have bigger orders
+   */
+  SegmentScanner(Segment segment, long readPoint, long scannerOrder) {
+    this.segment = segment;
+    this.readPoint = readPoint;
+    this.scannerOrder = scannerOrder;
+    this.comparator = segment.getComparator();
+    segment.incScannerCount();
+  }
+
+  /**
+   * @return the next cell of the iterator visible at the read point, or null if none
+   */
+  private Cell getNext() {
+    Cell startCell = current;
+    Cell v = null;
+    try {
+      while (iter.hasNext()) {
+        v = iter.next();
+        if (v.getSequenceId() <= readPoint) {
+          return v;
+        }
+        if (stopSkippingCellsIfNextRow && startCell != null
+            && comparator.compareRows(v, startCell) > 0) {
+          return null;
+        }
+      }
+      return null;
+    } finally {
+      if (v != null) {
+        last = v;
+      }
+    }
+  }
+
+  @Override
+  public synchronized Cell peek() {
+    return current;
+  }
+
+  @Override
+  public synchronized Cell next() {
+    if (current == null) {
+      return null;
+    }
+    Cell ret = current;
+    current = getNext();
+    return ret;
+  }
+
+  @Override
+  public synchronized boolean seek(Cell key) {
+    if (key == null) {
+      close();
+      return false;
+    }
+    iter = segment.getCellSet().tailSet(key).iterator();
+    last = null;
+    current = getNext();
+    return current != null;
+  }
+
+  @Override
+  public synchronized boolean reseek(Cell key) {
+    if (closed) {
+      return false;
+    }
+    // Restart from the last iterated cell rather than keeping the iterator, see the notes in
+    // DefaultMemStore.MemStoreScanner#reseek.
+    Cell from = last == null || comparator.compare(key, last) > 0 ? key : last;
+    iter = segment.getCellSet().tailSet(from).iterator();
+    current = getNext();
+    return current != null;
+  }
+
+  @Override
+  public synchronized boolean backwardSeek(Cell key) {
+    seek(key);
+    if (peek() == null || comparator.compareRows(peek(), key) > 0) {
+      return seekToPreviousRow(key);
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean seekToPreviousRow(Cell originalKey) {
+    Cell key = originalKey;
+    while (true) {
+      Cell firstKeyOnRow = KeyValueUtil.createFirstOnRow(key.getRowArray(), key.getRowOffset(),
+          key.getRowLength());
+      SortedSet<Cell> head = segment.getCellSet().headSet(firstKeyOnRow);
+      Cell lastCellBeforeRow = head.isEmpty() ? null : head.last();
+      if (lastCellBeforeRow == null) {
+        current = null;
+        return false;
+      }
+      Cell firstKeyOnPreviousRow = KeyValueUtil.createFirstOnRow(
+          lastCellBeforeRow.getRowArray(), lastCellBeforeRow.getRowOffset(),
+          lastCellBeforeRow.getRowLength());
+      this.stopSkippingCellsIfNextRow = true;
+      seek(firstKeyOnPreviousRow);
+      this.stopSkippingCellsIfNextRow = false;
+      if (peek() != null && comparator.compareRows(peek(), firstKeyOnPreviousRow) <= 0) {
+        return true;
+      }
+      key = firstKeyOnPreviousRow;
+    }
+  }
+
+  @Override
+  public synchronized boolean seekToLastRow() {
+    if (segment.isEmpty()) {
+      return false;
+    }
+    Cell lastCell = segment.getCellSet().last();
+    Cell firstCellOnLastRow = KeyValueUtil.createFirstOnRow(lastCell.getRowArray(),
+        lastCell.getRowOffset(), lastCell.getRowLength());
+    if (seek(firstCellOnLastRow)) {
+      return true;
+    } else {
+      return seekToPreviousRow(lastCell);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    iter = null;
+    current = null;
+    last = null;
+    segment.decScannerCount();
+  }
+
+  /**
+   * @see KeyValueScanner#getScannerOrder()
+   */
+  @Override
+  public long getScannerOrder() {
+    return scannerOrder;
+  }
+
+  @Override
+  public boolean shouldUseScanner(Scan scan, Store store, long oldestUnexpiredTS) {
+    TimeRange timeRange = scan.getColumnFamilyTimeRange().get(store.getFamily().getName());
+    if (timeRange == null) {
+      timeRange = scan.getTimeRange();
+    }
+    return segment.shouldSeek(timeRange, oldestUnexpiredTS);
+  }
+
+  @Override
+  public String toString() {
+    return "SegmentScanner[order=" + scannerOrder + ", readPoint=" + readPoint + "]";
+  }
+}
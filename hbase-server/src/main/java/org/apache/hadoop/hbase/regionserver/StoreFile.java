@@ -50,6 +50,7 @@ import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
 import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CachedKeyRanges;
 import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.io.hfile.HFileContext;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
@@ -108,6 +109,9 @@ public class StoreFile {
   /** Last Bloom filter key in FileInfo */
   private static final byte[] LAST_BLOOM_KEY = Bytes.toBytes("LAST_BLOOM_KEY");
 
+  /** Bloom filter param in FileInfo, the prefix length or delimiter of row prefix blooms */
+  public static final byte[] BLOOM_FILTER_PARAM_KEY = Bytes.toBytes("BLOOM_FILTER_PARAM");
+
   /** Key for Timerange information in metadata*/
   public static final byte[] TIMERANGE_KEY = Bytes.toBytes("TIMERANGE");
 
@@ -805,6 +809,7 @@ public class StoreFile {
     private final BloomFilterWriter generalBloomFilterWriter;
     private final BloomFilterWriter deleteFamilyBloomFilterWriter;
     private final BloomType bloomType;
+    private final byte[] bloomParam;
     private byte[] lastBloomKey;
     private int lastBloomKeyOffset, lastBloomKeyLen;
     private KVComparator kvComparator;
@@ -886,6 +891,16 @@ public class StoreFile {
 
       this.kvComparator = comparator;
 
+      byte[] param = null;
+      try {
+        param = BloomFilterFactory.getBloomFilterParam(bloomType, conf);
+      } catch (IllegalArgumentException e) {
+        // Refusing to write would fail the flush; fall back to a bloom keyed on the whole row
+        LOG.warn("Using a ROW Bloom filter for " + path + ": " + e.getMessage());
+        bloomType = BloomType.ROW;
+      }
+      this.bloomParam = param;
+
       generalBloomFilterWriter = BloomFilterFactory.createGeneralBloomAtWrite(
           conf, cacheConf, bloomType,
           (int) Math.min(maxKeys, Integer.MAX_VALUE), writer);
@@ -965,12 +980,17 @@ public class StoreFile {
           case ROWCOL:
             newKey = ! kvComparator.matchingRowColumn(cell, lastCell);
             break;
+          case ROWPREFIX_FIXED_LENGTH:
+          case ROWPREFIX_DELIMITED:
+            newKey = ! Bytes.equals(cell.getRowArray(), cell.getRowOffset(),
+                getRowPrefixLength(cell), lastBloomKey, lastBloomKeyOffset, lastBloomKeyLen);
+            break;
           case NONE:
             newKey = false;
             break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or ROWPREFIX expected)");
           }
         }
         if (newKey) {
@@ -978,9 +998,10 @@ public class StoreFile {
            * http://2.bp.blogspot.com/_Cib_A77V54U/StZMrzaKufI/AAAAAAAAADo/ZhK7bGoJdMQ/s400/KeyValue.png
            * Key = RowLen + Row + FamilyLen + Column [Family + Qualifier] + TimeStamp
            *
-           * 2 Types of Filtering:
+           * 3 Types of Filtering:
            *  1. Row = Row
            *  2. RowCol = Row + Qualifier
+           *  3. RowPrefix = the first bytes of Row, or Row up to the delimiter
            */
           byte[] bloomKey;
           int bloomKeyOffset, bloomKeyLen;
@@ -1001,9 +1022,15 @@ public class StoreFile {
             bloomKeyOffset = 0;
             bloomKeyLen = bloomKey.length;
             break;
+          case ROWPREFIX_FIXED_LENGTH:
+          case ROWPREFIX_DELIMITED:
+            bloomKey = cell.getRowArray();
+            bloomKeyOffset = cell.getRowOffset();
+            bloomKeyLen = getRowPrefixLength(cell);
+            break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or ROWPREFIX expected)");
           }
           generalBloomFilterWriter.add(bloomKey, bloomKeyOffset, bloomKeyLen);
           if (lastBloomKey != null
@@ -1024,6 +1051,11 @@ public class StoreFile {
       }
     }
 
+    private int getRowPrefixLength(final Cell cell) {
+      return BloomFilterFactory.getRowPrefixLength(bloomType, bloomParam, cell.getRowArray(),
+          cell.getRowOffset(), cell.getRowLength());
+    }
+
     private void appendDeleteFamilyBloomFilter(final Cell cell)
         throws IOException {
       if (!CellUtil.isDeleteFamily(cell) && !CellUtil.isDeleteFamilyVersion(cell)) {
@@ -1086,6 +1118,9 @@ public class StoreFile {
         writer.addGeneralBloomFilter(generalBloomFilterWriter);
         writer.appendFileInfo(BLOOM_FILTER_TYPE_KEY,
             Bytes.toBytes(bloomType.toString()));
+        if (bloomParam != null) {
+          writer.appendFileInfo(BLOOM_FILTER_PARAM_KEY, bloomParam);
+        }
         if (lastBloomKey != null) {
           writer.appendFileInfo(LAST_BLOOM_KEY, Arrays.copyOfRange(
               lastBloomKey, lastBloomKeyOffset, lastBloomKeyOffset
@@ -1131,6 +1166,14 @@ public class StoreFile {
       writer.appendFileInfo(key, value);
     }
 
+    /**
+     * Caches on write the data blocks holding keys in the given ranges.
+     * @see HFile.Writer#setCacheOnWriteKeyRanges(CachedKeyRanges)
+     */
+    public void setCacheOnWriteKeyRanges(CachedKeyRanges keyRanges) {
+      writer.setCacheOnWriteKeyRanges(keyRanges);
+    }
+
     /** For use in testing, e.g. {@link org.apache.hadoop.hbase.regionserver.CreateRandomStoreFile}
      */
     HFile.Writer getHFileWriter() {
@@ -1147,6 +1190,7 @@ public class StoreFile {
     protected BloomFilter generalBloomFilter = null;
     protected BloomFilter deleteFamilyBloomFilter = null;
     protected BloomType bloomFilterType;
+    private byte[] bloomFilterParam;
     private final HFile.Reader reader;
     protected TimeRange timeRange;
     protected long sequenceID = -1;
@@ -1287,7 +1331,8 @@ public class StoreFile {
 
     /**
      * Checks whether the given scan passes the Bloom filter (if present). Only
-     * checks Bloom filters for single-row or single-row-column scans. Bloom
+     * checks Bloom filters for single-row or single-row-column scans, and for
+     * scans whose rows all share one row prefix Bloom key. Bloom
      * filter checking for multi-gets is implemented as part of the store
      * scanner system (see {@link StoreFileScanner#seekExactly}) and uses
      * the lower-level API {@link #passesGeneralBloomFilter(byte[], int, int, byte[],
@@ -1306,6 +1351,9 @@ public class StoreFile {
       // Multi-column non-get scans will use Bloom filters through the
       // lower-level API function that this function calls.
       if (!scan.isGetScan()) {
+        if (BloomFilterFactory.isRowPrefixBloom(this.bloomFilterType)) {
+          return passesGeneralRowPrefixBloomFilter(scan);
+        }
         return true;
       }
 
@@ -1325,11 +1373,36 @@ public class StoreFile {
           // seekExact operation.
           return true;
 
+        case ROWPREFIX_FIXED_LENGTH:
+        case ROWPREFIX_DELIMITED:
+          return passesGeneralBloomFilter(row, 0, row.length, null, 0, 0);
+
         default:
           return true;
       }
     }
 
+    /**
+     * Checks a row prefix Bloom filter for a scan. The filter applies if the start row has a
+     * complete prefix and the stop row starts with the same prefix, so every row of the scan
+     * shares it.
+     */
+    private boolean passesGeneralRowPrefixBloomFilter(Scan scan) {
+      byte[] startRow = scan.getStartRow();
+      byte[] stopRow = scan.getStopRow();
+      if (bloomFilterParam == null || !BloomFilterFactory.isCompleteRowPrefix(bloomFilterType,
+          bloomFilterParam, startRow, 0, startRow.length)) {
+        return true;
+      }
+      int prefixLength = BloomFilterFactory.getRowPrefixLength(bloomFilterType,
+          bloomFilterParam, startRow, 0, startRow.length);
+      if (stopRow.length < prefixLength
+          || !Bytes.equals(startRow, 0, prefixLength, stopRow, 0, prefixLength)) {
+        return true;
+      }
+      return passesGeneralBloomFilter(startRow, 0, startRow.length, null, 0, 0);
+    }
+
     public boolean passesDeleteFamilyBloomFilter(byte[] row, int rowOffset,
         int rowLen) {
       // Cache Bloom filter as a local variable in case it is set to null by
@@ -1400,6 +1473,19 @@ public class StoreFile {
 
           break;
 
+        case ROWPREFIX_FIXED_LENGTH:
+        case ROWPREFIX_DELIMITED:
+          if (col != null) {
+            throw new RuntimeException("Row prefix Bloom filter called with " +
+                "column specified");
+          }
+          if (bloomFilterParam == null) {
+            return true;
+          }
+          key = Bytes.copy(row, rowOffset, BloomFilterFactory.getRowPrefixLength(
+              bloomFilterType, bloomFilterParam, row, rowOffset, rowLen));
+          break;
+
         default:
           return true;
       }
@@ -1503,6 +1589,7 @@ public class StoreFile {
         bloomFilterType = BloomType.valueOf(Bytes.toString(b));
       }
 
+      bloomFilterParam = fi.get(BLOOM_FILTER_PARAM_KEY);
       lastBloomKey = fi.get(LAST_BLOOM_KEY);
       byte[] cnt = fi.get(DELETE_FAMILY_COUNT);
       if (cnt != null) {
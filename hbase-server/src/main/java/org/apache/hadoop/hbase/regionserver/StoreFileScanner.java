@@ -137,6 +137,9 @@ public class StoreFileScanner implements KeyValueScanner {
       r.setReplicaStoreFile(isPrimaryReplica);
       StoreFileScanner scanner = r.getStoreFileScanner(cacheBlocks, usePread, isCompaction, readPt,
         i, matcher != null ? !matcher.hasNullColumnInQuery() : false);
+      if (matcher != null && !isCompaction) {
+        scanner.setSkipTimeRange(matcher.getSkipTimeRange());
+      }
       scanners.add(scanner);
     }
     return scanners;
@@ -547,4 +550,13 @@ public class StoreFileScanner implements KeyValueScanner {
   public Cell getNextIndexedKey() {
     return hfs.getNextIndexedKey();
   }
+
+  /**
+   * Lets the scanner step over the data blocks of the file holding no cell in the given time
+   * range, when the file has a block time range index.
+   * @param timeRange the time range of the cells the scan needs, or null to read every block
+   */
+  void setSkipTimeRange(TimeRange timeRange) {
+    hfs.setSkipTimeRange(timeRange);
+  }
 }
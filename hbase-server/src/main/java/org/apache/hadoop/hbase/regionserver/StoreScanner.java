@@ -578,6 +578,10 @@ public class StoreScanner extends NonReversedNonLazyKeyValueScanner
           // add to results only if we have skipped #storeOffset kvs
           // also update metric accordingly
           if (this.countPerRow > storeOffset) {
+            if (cell instanceof OffheapValueCell) {
+              // Results outlive this scanner, and with it the off heap memstore chunks
+              cell = ((OffheapValueCell) cell).toKeyValue();
+            }
             outResult.add(cell);
 
             // Update local tracking information
@@ -0,0 +1,142 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.wal.WAL;
+
+/**
+ * Group commit of batches of mutations on several regions, so that a multi request syncs each
+ * WAL once rather than once per region.
+ * <p>
+ * A batch handed to the group commit, see
+ * {@link HRegion#batchMutate(org.apache.hadoop.hbase.client.Mutation[], WALGroupCommit, Callback)},
+ * has its edits appended to the WAL and applied to the memstore, with its row locks released,
+ * but not visible yet. {@link #commit()} syncs every WAL appended to, then completes the batches
+ * in the order they were handed over: each is made visible, or rolled back if its WAL failed to
+ * sync, exactly as it would have been without the group commit. The atomicity of the mutations
+ * of a region is unchanged.
+ * <p>
+ * A group commit is used by a single thread. A region with a batch pending cannot take another
+ * batch of mutations, from this thread or any other, until {@link #commit()} is called, so the
+ * thread should commit before it does anything else on that region. Batches on other regions
+ * commit before waiting for a lock, be it the region lock, the updates lock or a row lock, as
+ * the holder of the lock may be waiting for the pending batches to be visible.
+ */
+@InterfaceAudience.Private
+public class WALGroupCommit {
+  private static final Log LOG = LogFactory.getLog(WALGroupCommit.class);
+
+  /**
+   * Called once a batch of mutations handed to a group commit is complete.
+   */
+  public interface Callback {
+    /**
+     * @param statuses the statuses of the mutations of the batch
+     * @param failure why the whole batch failed, in which case the statuses are not to be used,
+     *          or null
+     */
+    void completed(OperationStatus[] statuses, IOException failure);
+  }
+
+  /**
+   * What is left of a batch of mutations once its WAL edits are synced.
+   */
+  interface Completion {
+    /**
+     * @param syncFailure why the WAL of the batch failed to sync, or null if it is synced
+     */
+    void complete(IOException syncFailure);
+  }
+
+  /** Highest transaction id to sync by WAL, WALs having no equality of their own */
+  private Map<WAL, Long> txids = new IdentityHashMap<WAL, Long>();
+  private List<WAL> wals = new ArrayList<WAL>();
+  private List<Completion> completions = new ArrayList<Completion>();
+
+  /**
+   * Hands over a batch whose edits were appended to the given WAL.
+   */
+  void add(WAL wal, long txid, Completion completion) {
+    Long previous = txids.get(wal);
+    if (previous == null || previous < txid) {
+      txids.put(wal, txid);
+    }
+    wals.add(wal);
+    completions.add(completion);
+  }
+
+  /**
+   * @return true if no batch is waiting for the commit
+   */
+  public boolean isEmpty() {
+    return completions.isEmpty();
+  }
+
+  /**
+   * Syncs every WAL the pending batches were appended to, once, then completes the batches.
+   * Their callbacks are called from here.
+   */
+  public void commit() {
+    if (isEmpty()) {
+      return;
+    }
+    Map<WAL, Long> toSync = txids;
+    List<WAL> pendingWals = wals;
+    List<Completion> pending = completions;
+    txids = new IdentityHashMap<WAL, Long>();
+    wals = new ArrayList<WAL>();
+    completions = new ArrayList<Completion>();
+
+    Map<WAL, IOException> failures = new IdentityHashMap<WAL, IOException>();
+    for (Map.Entry<WAL, Long> entry : toSync.entrySet()) {
+      try {
+        entry.getKey().sync(entry.getValue());
+      } catch (IOException e) {
+        LOG.warn("Failed to sync " + entry.getKey() + " for a group commit", e);
+        failures.put(entry.getKey(), e);
+      }
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Synced " + toSync.size() + " WALs for " + pending.size() + " batches");
+    }
+    // Complete every batch, whatever happens to the others, for each holds its region open
+    RuntimeException error = null;
+    for (int i = 0; i < pending.size(); i++) {
+      try {
+        pending.get(i).complete(failures.get(pendingWals.get(i)));
+      } catch (RuntimeException e) {
+        if (error == null) {
+          error = e;
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+}
@@ -37,6 +37,9 @@ import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CachedKeyRanges;
+import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.hbase.io.hfile.HFileWriterV2;
 import org.apache.hadoop.hbase.regionserver.HStore;
@@ -86,6 +89,8 @@ public abstract class Compactor<T extends CellSink> {
   private boolean dropCacheMajor;
   private boolean dropCacheMinor;
 
+  private final boolean cacheHotBlocks;
+
   //TODO: depending on Store is not good but, realistically, all compactors currently do.
   Compactor(final Configuration conf, final Store store) {
     this.conf = conf;
@@ -98,6 +103,8 @@ public abstract class Compactor<T extends CellSink> {
       HConstants.MIN_KEEP_SEQID_PERIOD), HConstants.MIN_KEEP_SEQID_PERIOD);
     this.dropCacheMajor = conf.getBoolean(MAJOR_COMPACTION_DROP_CACHE, true);
     this.dropCacheMinor = conf.getBoolean(MINOR_COMPACTION_DROP_CACHE, true);
+    this.cacheHotBlocks = conf.getBoolean(CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_KEY,
+        CacheConfig.DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION);
   }
 
   public interface CellSink {
@@ -127,6 +134,8 @@ public abstract class Compactor<T extends CellSink> {
     public int maxTagsLength = 0;
     /** Min SeqId to keep during a major compaction **/
     public long minSeqIdToKeep = 0;
+    /** Key ranges of the files' data blocks that are in the block cache, if tracked */
+    public CachedKeyRanges cachedKeyRanges = null;
   }
 
   /**
@@ -206,6 +215,37 @@ public abstract class Compactor<T extends CellSink> {
     return fd;
   }
 
+  /**
+   * Finds the key ranges of the data blocks of the files to compact that are in the block cache,
+   * so the blocks of the new file holding those keys can be cached when they are written.
+   * @param filesToCompact Files.
+   * @return The key ranges, or null if there is no block cache or none of the blocks are cached.
+   */
+  protected CachedKeyRanges getCachedKeyRanges(Collection<StoreFile> filesToCompact) {
+    CacheConfig cacheConf = store.getCacheConfig();
+    if (cacheConf == null || !cacheConf.isBlockCacheEnabled()) {
+      return null;
+    }
+    List<HFile.Reader> readers = new ArrayList<HFile.Reader>(filesToCompact.size());
+    for (StoreFile file : filesToCompact) {
+      if (file.getReader() != null) {
+        readers.add(file.getReader().getHFileReader());
+      }
+    }
+    try {
+      CachedKeyRanges ranges = CachedKeyRanges.fromBlockCache(cacheConf.getBlockCache(), readers,
+          store.getComparator());
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Found " + ranges.size() + " cached key ranges in files to compact of " + store);
+      }
+      return ranges.isEmpty() ? null : ranges;
+    } catch (IOException e) {
+      // Only the warmup of the new file is lost
+      LOG.warn("Failed to find cached key ranges of files to compact of " + store, e);
+      return null;
+    }
+  }
+
   /**
    * Creates file scanners for compaction.
    * @param filesToCompact Files.
@@ -260,16 +300,23 @@ public abstract class Compactor<T extends CellSink> {
   protected Writer createTmpWriter(FileDetails fd, boolean shouldDropBehind) throws IOException {
     // When all MVCC readpoints are 0, don't write them.
     // See HBASE-8166, HBASE-12600, and HBASE-13389.
-    return store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression,
+    Writer writer = store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression,
     /* isCompaction = */true,
     /* includeMVCCReadpoint = */fd.maxMVCCReadpoint > 0,
     /* includesTags = */fd.maxTagsLength > 0, shouldDropBehind);
+    if (fd.cachedKeyRanges != null) {
+      writer.setCacheOnWriteKeyRanges(fd.cachedKeyRanges);
+    }
+    return writer;
   }
 
   protected List<Path> compact(final CompactionRequest request,
       InternalScannerFactory scannerFactory, CellSinkFactory<T> sinkFactory,
       ThroughputController throughputController, User user) throws IOException {
     FileDetails fd = getFileDetails(request.getFiles(), request.isAllFiles());
+    if (cacheHotBlocks) {
+      fd.cachedKeyRanges = getCachedKeyRanges(request.getFiles());
+    }
     this.progress = new CompactionProgress(fd.maxKeyCount);
 
     // Find the smallest read point across all the Scanners.
@@ -97,6 +97,13 @@ public abstract class UserScanQueryMatcher extends ScanQueryMatcher {
     }
   }
 
+  @Override
+  public TimeRange getSkipTimeRange() {
+    // Cells out of the time range never reach the filter, but a filter may still act on the rows
+    // the skipped blocks hold, so only scans without a filter skip blocks
+    return filter == null && !tr.isAllTime() ? tr : null;
+  }
+
   protected final MatchCode matchColumn(Cell cell, long timestamp, byte typeByte)
       throws IOException {
     int tsCmp = tr.compare(timestamp);
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * Tunes how {@link FSHLog} batches its syncs from moving estimates of the latency of its
+ * filesystem syncs and of the rate at which handlers ask for syncs.
+ * <p>
+ * A sync covers every append made before it started, so all the handlers that ask for a sync
+ * while a sync runner is busy are released by its next sync. The fewer syncs run at once, the
+ * more handlers each releases, but the longer handlers wait for a sync to start: about the sync
+ * latency divided by the syncs running. The policy lets as few syncs run at once as keeps that
+ * wait under the max delay, and no more than the handlers asking for a sync in the time of one.
+ * When more than one handler is expected to ask a sync runner for a sync within the max delay,
+ * an idle sync runner also waits for them, up to the max delay, before it syncs.
+ */
+@InterfaceAudience.Private
+class AdaptiveSyncPolicy {
+  private static final Log LOG = LogFactory.getLog(AdaptiveSyncPolicy.class);
+
+  static final String ADAPTIVE_SYNC_KEY = "hbase.regionserver.hlog.sync.adaptive";
+  static final boolean DEFAULT_ADAPTIVE_SYNC = false;
+  static final String MAX_SYNC_DELAY_KEY = "hbase.regionserver.hlog.sync.adaptive.max.delay.us";
+  static final long DEFAULT_MAX_SYNC_DELAY_US = 1000;
+
+  /** Weight of the latest observation in the moving estimates */
+  private static final double ALPHA = 0.2;
+  /** The rate of sync requests is measured over at least this many nanoseconds */
+  static final long RATE_INTERVAL_NS = 10 * 1000000L;
+
+  private final int maxInFlightSyncs;
+  private final int maxBatchSize;
+  private final long maxDelayNs;
+
+  // Moving estimates, guarded by this
+  private double syncLatencyNs = 0;
+  private long rateIntervalStart;
+  private long requestsInInterval = 0;
+  /** Sync requests per nanosecond */
+  private volatile double requestRate = 0;
+
+  private volatile int inFlightSyncs;
+  private volatile int batchSize = 1;
+
+  /**
+   * @param maxInFlightSyncs the number of sync runners
+   * @param maxBatchSize the most sync requests worth waiting for
+   * @param maxDelayNs how much longer a handler may wait for its sync
+   */
+  AdaptiveSyncPolicy(int maxInFlightSyncs, int maxBatchSize, long maxDelayNs) {
+    this.maxInFlightSyncs = maxInFlightSyncs;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.maxDelayNs = Math.max(1, maxDelayNs);
+    // Start as without the policy until there is something to go by
+    this.inFlightSyncs = maxInFlightSyncs;
+    this.rateIntervalStart = System.nanoTime();
+  }
+
+  /**
+   * @return the number of syncs to let run at once
+   */
+  int getInFlightSyncs() {
+    return inFlightSyncs;
+  }
+
+  /**
+   * @return the number of sync requests a sync runner waits for before it syncs
+   */
+  int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @param requests the sync requests a sync runner holds
+   * @return how long the sync runner should wait for more requests before it syncs, in
+   *         nanoseconds, or 0 to sync right away
+   */
+  long getDelayNanos(int requests) {
+    int missing = batchSize - requests;
+    double rate = requestRate;
+    if (missing <= 0 || rate <= 0) {
+      return 0;
+    }
+    // The requests are shared among the syncs running
+    return Math.min((long) (missing * inFlightSyncs / rate), maxDelayNs);
+  }
+
+  /**
+   * Takes a completed sync into account.
+   * @param syncNanos how long the filesystem sync took
+   * @param requests the sync requests it released
+   */
+  void syncCompleted(long syncNanos, int requests) {
+    syncCompleted(syncNanos, requests, System.nanoTime());
+  }
+
+  synchronized void syncCompleted(long syncNanos, int requests, long now) {
+    syncLatencyNs = syncLatencyNs == 0 ? syncNanos
+        : syncLatencyNs + ALPHA * (syncNanos - syncLatencyNs);
+    requestsInInterval += requests;
+    long elapsed = now - rateIntervalStart;
+    if (elapsed < RATE_INTERVAL_NS) {
+      return;
+    }
+    double rate = (double) requestsInInterval / elapsed;
+    requestRate = requestRate == 0 ? rate : requestRate + ALPHA * (rate - requestRate);
+    requestsInInterval = 0;
+    rateIntervalStart = now;
+    adjust();
+  }
+
+  private void adjust() {
+    // Handlers wait about the sync latency divided by the syncs running for a sync to start
+    long inFlight = (long) Math.ceil(syncLatencyNs / maxDelayNs);
+    // More syncs than requests in the time of a sync only run empty
+    inFlight = Math.min(inFlight, Math.round(requestRate * syncLatencyNs));
+    inFlight = Math.max(1, Math.min(inFlight, maxInFlightSyncs));
+    // The requests each sync runner gets within the max delay
+    long batch = Math.round(requestRate * maxDelayNs / inFlight);
+    batch = Math.max(1, Math.min(batch, maxBatchSize));
+    if (inFlight != inFlightSyncs || batch != batchSize) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Sync latency=" + (long) syncLatencyNs + "ns, sync requests/s="
+            + (long) (requestRate * 1000000000L) + ", in-flight syncs=" + inFlight
+            + ", batch size=" + batch);
+      }
+      inFlightSyncs = (int) inFlight;
+      batchSize = (int) batch;
+    }
+  }
+}
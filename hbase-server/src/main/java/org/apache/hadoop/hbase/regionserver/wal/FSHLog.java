@@ -46,6 +46,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.lmax.disruptor.*;
@@ -208,6 +209,16 @@ public class FSHLog implements WAL {
    */
   private final AtomicLong highestSyncedSequence = new AtomicLong(0);
 
+  /**
+   * Number of filesystem syncs running.  Maintained by the syncing threads.
+   */
+  private final AtomicInteger inFlightSyncs = new AtomicInteger(0);
+
+  /**
+   * Tunes the batching of syncs when "hbase.regionserver.hlog.sync.adaptive" is set, else null.
+   */
+  private final AdaptiveSyncPolicy adaptiveSyncPolicy;
+
   /**
    * file system instance
    */
@@ -562,9 +573,16 @@ public class FSHLog implements WAL {
     // Advance the ring buffer sequence so that it starts from 1 instead of 0,
     // because SyncFuture.NOT_DONE = 0.
     this.disruptor.getRingBuffer().next();
-    this.ringBufferEventHandler =
-      new RingBufferEventHandler(conf.getInt("hbase.regionserver.hlog.syncer.count", 5),
-        maxHandlersCount);
+    int syncerCount = conf.getInt("hbase.regionserver.hlog.syncer.count", 5);
+    if (conf.getBoolean(AdaptiveSyncPolicy.ADAPTIVE_SYNC_KEY,
+        AdaptiveSyncPolicy.DEFAULT_ADAPTIVE_SYNC)) {
+      this.adaptiveSyncPolicy = new AdaptiveSyncPolicy(syncerCount, maxHandlersCount,
+          TimeUnit.MICROSECONDS.toNanos(conf.getLong(AdaptiveSyncPolicy.MAX_SYNC_DELAY_KEY,
+            AdaptiveSyncPolicy.DEFAULT_MAX_SYNC_DELAY_US)));
+    } else {
+      this.adaptiveSyncPolicy = null;
+    }
+    this.ringBufferEventHandler = new RingBufferEventHandler(syncerCount, maxHandlersCount);
     this.disruptor.handleExceptionsWith(new RingBufferExceptionHandler());
     this.disruptor.handleEventsWith(new RingBufferEventHandler [] {this.ringBufferEventHandler});
     // Presize our map of SyncFutures by handler objects.
@@ -1273,11 +1291,21 @@ public class FSHLog implements WAL {
             }
             break;
           }
+          if (adaptiveSyncPolicy != null) {
+            long delay = adaptiveSyncPolicy.getDelayNanos(this.syncFutures.size() + 1);
+            if (delay > 0) {
+              // Give more handlers a chance to come in on this sync, then sync all that was
+              // appended by then.
+              LockSupport.parkNanos(delay);
+              currentSequence = this.sequence;
+            }
+          }
           // I got something.  Lets run.  Save off current sequence number in case it changes
           // while we run.
           TraceScope scope = Trace.continueSpan(takeSyncFuture.getSpan());
           long start = System.nanoTime();
           Throwable lastException = null;
+          preSync(inFlightSyncs.incrementAndGet());
           try {
             Trace.addTimelineAnnotation("syncing writer");
             writer.sync();
@@ -1290,6 +1318,7 @@ public class FSHLog implements WAL {
             LOG.warn("UNEXPECTED", e);
             lastException = e;
           } finally {
+            inFlightSyncs.decrementAndGet();
             // reattach the span to the future before releasing.
             takeSyncFuture.setSpan(scope.detach());
             // First release what we 'took' from the queue.
@@ -1299,7 +1328,11 @@ public class FSHLog implements WAL {
             if (lastException != null) requestLogRoll();
             else checkLogRoll();
           }
-          postSync(System.nanoTime() - start, syncCount);
+          long took = System.nanoTime() - start;
+          postSync(took, syncCount);
+          if (adaptiveSyncPolicy != null) {
+            adaptiveSyncPolicy.syncCompleted(took, syncCount);
+          }
         } catch (InterruptedException e) {
           // Presume legit interrupt.
           Thread.currentThread().interrupt();
@@ -1446,6 +1479,14 @@ public class FSHLog implements WAL {
     return syncFuture.reset(sequence, span);
   }
 
+  private void preSync(final int inFlightSyncs) {
+    if (!listeners.isEmpty()) {
+      for (WALActionsListener listener : listeners) {
+        listener.preSync(inFlightSyncs);
+      }
+    }
+  }
+
   private void postSync(final long timeInNanos, final int handlerSyncs) {
     if (timeInNanos > this.slowSyncNs) {
       String msg =
@@ -1859,7 +1900,11 @@ public class FSHLog implements WAL {
           //     ensuring that it can't grow without bound and overflow.
           //   * note that the value after the increment must be positive, because the most it could have
           //     been prior was Integer.MAX_INT - 1 and we only increment by 1.
-          this.syncRunnerIndex = (this.syncRunnerIndex + 1) % this.syncRunners.length;
+          // With an adaptive sync policy, only the first of the syncRunners it lets sync at once
+          // are given syncs.
+          int syncRunnerCount = adaptiveSyncPolicy == null ? this.syncRunners.length
+              : adaptiveSyncPolicy.getInFlightSyncs();
+          this.syncRunnerIndex = (this.syncRunnerIndex + 1) % syncRunnerCount;
           try {
             // Below expects that the offer 'transfers' responsibility for the outstanding syncs to
             // the syncRunner. We should never get an exception in here.
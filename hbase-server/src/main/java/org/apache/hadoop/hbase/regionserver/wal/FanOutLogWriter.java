@@ -0,0 +1,158 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Protobuf WAL writer that encodes every entry once and sends the bytes to the WAL file and to
+ * the replicas made by the configured {@link FanOutReplica.Factory} in parallel. Sends are
+ * asynchronous: a sync hands the bytes appended since the previous one to every replica and
+ * completes when all of them called back, so several syncs can be in flight at once.
+ * <p>
+ * The WAL file is written through its own {@link FSDataOutputStream}, and stays the copy that
+ * WAL splitting, replication and the readers use. Without any replica besides the file, the
+ * file stream is written directly, as by {@link ProtobufLogWriter}.
+ */
+@InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.CONFIG)
+public class FanOutLogWriter extends ProtobufLogWriter {
+  private static final Log LOG = LogFactory.getLog(FanOutLogWriter.class);
+
+  /** Class of the {@link FanOutReplica.Factory} making the replicas besides the WAL file */
+  public static final String REPLICA_FACTORY_KEY = "hbase.regionserver.wal.fanout.replica.factory";
+
+  /** How long a sync waits for the replicas to acknowledge its bytes */
+  public static final String SYNC_TIMEOUT_KEY = "hbase.regionserver.wal.fanout.sync.timeout";
+  private static final long DEFAULT_SYNC_TIMEOUT_MS = 60 * 1000; // in ms, 1min
+
+  @Override
+  protected FSDataOutputStream createOutputStream(FileSystem fs, Path path, Configuration conf,
+      boolean overwritable) throws IOException {
+    List<FanOutReplica> replicas = new ArrayList<FanOutReplica>();
+    Class<? extends FanOutReplica.Factory> factoryClass =
+        conf.getClass(REPLICA_FACTORY_KEY, null, FanOutReplica.Factory.class);
+    if (factoryClass != null) {
+      replicas.addAll(ReflectionUtils.newInstance(factoryClass, conf)
+          .createReplicas(fs, path, conf, overwritable));
+    }
+    FSDataOutputStream file;
+    try {
+      file = super.createOutputStream(fs, path, conf, overwritable);
+    } catch (IOException e) {
+      closeQuietly(replicas);
+      throw e;
+    } catch (RuntimeException e) {
+      closeQuietly(replicas);
+      throw e;
+    }
+    if (replicas.isEmpty()) {
+      // Nothing to fan out to
+      return file;
+    }
+    replicas.add(0, new FileReplica(file, path.getName()));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Writing " + path + " to " + replicas.size() + " replicas");
+    }
+    return new FSDataOutputStream(new FanOutOutputStream(replicas,
+        conf.getLong(SYNC_TIMEOUT_KEY, DEFAULT_SYNC_TIMEOUT_MS)), null);
+  }
+
+  private static void closeQuietly(List<FanOutReplica> replicas) {
+    for (FanOutReplica replica : replicas) {
+      try {
+        replica.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close replica " + replica, e);
+      }
+    }
+  }
+
+  /**
+   * A replica writing to a file system stream from a thread of its own.
+   */
+  static class FileReplica implements FanOutReplica {
+    private final FSDataOutputStream out;
+    private final ExecutorService executor;
+    private final String name;
+
+    FileReplica(FSDataOutputStream out, String name) {
+      this.out = out;
+      this.name = name;
+      this.executor = Executors.newSingleThreadExecutor(
+          Threads.newDaemonThreadFactory("FanOutLogWriter-" + name));
+    }
+
+    @Override
+    public void write(final byte[] buf, final int offset, final int length, final boolean hsync,
+        final Callback callback) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            out.write(buf, offset, length);
+            if (hsync) {
+              out.hsync();
+            } else {
+              out.hflush();
+            }
+            callback.completed();
+          } catch (IOException e) {
+            callback.failed(e);
+          }
+        }
+      });
+    }
+
+    @Override
+    public void close() throws IOException {
+      executor.shutdown();
+      try {
+        while (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+          LOG.warn("Waiting for the writes to " + name + " to finish");
+        }
+      } catch (InterruptedException e) {
+        throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+      } finally {
+        out.close();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
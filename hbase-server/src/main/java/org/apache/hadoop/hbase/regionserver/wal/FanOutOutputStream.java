@@ -0,0 +1,233 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.Syncable;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * An output stream that buffers the bytes written to it and sends them to all its replicas in
+ * parallel. A {@link #flush()} sends the buffered bytes without waiting, a {@link #hflush()}
+ * sends them and waits for every replica to acknowledge every byte sent so far. Several threads
+ * can wait in {@link #hflush()} at the same time, each for its own bytes, while more bytes are
+ * being written and sent.
+ * <p>
+ * Once a replica fails the stream is broken: every later sync fails, and the WAL has to be
+ * rolled.
+ */
+@InterfaceAudience.Private
+class FanOutOutputStream extends OutputStream implements Syncable {
+
+  private final FanOutReplica[] replicas;
+  /** Number of bytes acknowledged by each replica */
+  private final long[] acked;
+  /** Number of bytes each replica acknowledged as synced to disk */
+  private final long[] synced;
+  private final long syncTimeoutMs;
+
+  private byte[] buf = new byte[4096];
+  private int count = 0;
+  /** Number of bytes sent to the replicas */
+  private long sent = 0;
+  private IOException failure;
+  private boolean closed = false;
+
+  /**
+   * @param replicas the replicas to send the bytes to
+   * @param syncTimeoutMs how long a sync waits for the replicas to acknowledge its bytes
+   */
+  FanOutOutputStream(List<FanOutReplica> replicas, long syncTimeoutMs) {
+    this.replicas = replicas.toArray(new FanOutReplica[replicas.size()]);
+    this.acked = new long[replicas.size()];
+    this.synced = new long[replicas.size()];
+    this.syncTimeoutMs = syncTimeoutMs;
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    ensureCapacity(1);
+    buf[count++] = (byte) b;
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    ensureCapacity(len);
+    System.arraycopy(b, off, buf, count, len);
+    count += len;
+  }
+
+  private void ensureCapacity(int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (count + len > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+    }
+  }
+
+  /**
+   * Sends the buffered bytes to the replicas, without waiting for them.
+   */
+  @Override
+  public void flush() throws IOException {
+    send(false);
+  }
+
+  @Override
+  public void hflush() throws IOException {
+    waitForAcks(send(false), false);
+  }
+
+  /**
+   * Same as {@link #hflush()}, but the replicas are asked to sync the bytes to disk, and the
+   * file replica does a hsync of its stream.
+   */
+  @Override
+  public void hsync() throws IOException {
+    waitForAcks(send(true), true);
+  }
+
+  /**
+   * Same as {@link #hflush()}, for the versions of Hadoop that still have it in
+   * {@link Syncable}.
+   */
+  public void sync() throws IOException {
+    hflush();
+  }
+
+  /**
+   * @param hsync whether the replicas are to sync the bytes sent so far to disk, even when there
+   *          are no new bytes to send
+   * @return the number of bytes sent so far
+   */
+  private synchronized long send(boolean hsync) throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (count > 0 || hsync) {
+      byte[] bytes = Arrays.copyOf(buf, count);
+      int length = count;
+      count = 0;
+      sent += length;
+      for (int i = 0; i < replicas.length; i++) {
+        replicas[i].write(bytes, 0, length, hsync, new Ack(i, sent, hsync));
+      }
+    }
+    return sent;
+  }
+
+  private synchronized void waitForAcks(long bytes, boolean hsync) throws IOException {
+    long deadline = EnvironmentEdgeManager.currentTime() + syncTimeoutMs;
+    while (min(hsync ? synced : acked) < bytes) {
+      if (failure != null) {
+        throw failure;
+      }
+      long remaining = deadline - EnvironmentEdgeManager.currentTime();
+      if (remaining <= 0) {
+        throw new IOException("Timed out after " + syncTimeoutMs
+            + "ms waiting for the replicas to acknowledge " + bytes + " bytes, acknowledged: "
+            + Arrays.toString(hsync ? synced : acked));
+      }
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+      }
+    }
+  }
+
+  private static long min(long[] acks) {
+    long min = Long.MAX_VALUE;
+    for (long a : acks) {
+      min = Math.min(min, a);
+    }
+    return min;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+    }
+    IOException error = null;
+    try {
+      hflush();
+    } catch (IOException e) {
+      error = e;
+    }
+    synchronized (this) {
+      closed = true;
+    }
+    // Not holding the lock, the replicas may be calling back while they finish their writes
+    for (FanOutReplica replica : replicas) {
+      try {
+        replica.close();
+      } catch (IOException e) {
+        if (error == null) {
+          error = e;
+        }
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  private class Ack implements FanOutReplica.Callback {
+    private final int replica;
+    private final long bytes;
+    private final boolean hsync;
+
+    Ack(int replica, long bytes, boolean hsync) {
+      this.replica = replica;
+      this.bytes = bytes;
+      this.hsync = hsync;
+    }
+
+    @Override
+    public void completed() {
+      synchronized (FanOutOutputStream.this) {
+        acked[replica] = Math.max(acked[replica], bytes);
+        if (hsync) {
+          synced[replica] = Math.max(synced[replica], bytes);
+        }
+        FanOutOutputStream.this.notifyAll();
+      }
+    }
+
+    @Override
+    public void failed(IOException e) {
+      synchronized (FanOutOutputStream.this) {
+        if (failure == null) {
+          failure = e;
+        }
+        FanOutOutputStream.this.notifyAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * One of the endpoints a {@link FanOutLogWriter} sends the bytes of a WAL to. The writer sends
+ * every endpoint the same bytes in parallel and a sync completes once all of them acknowledged
+ * the bytes, instead of the bytes going down a chain of datanodes one after the other.
+ */
+@InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.CONFIG)
+public interface FanOutReplica extends Closeable {
+
+  /**
+   * Sends bytes following the ones of the previous calls, without waiting for them to be
+   * written. The callback is called once the bytes, and all the ones sent before, are as
+   * durable as a hflush makes them, or as a hsync makes them if asked to. The length may be
+   * zero when only a hsync is asked for. Callbacks must be called in the order of the calls, and
+   * must not be called from within the call. The bytes are not modified afterwards.
+   */
+  void write(byte[] buf, int offset, int length, boolean hsync, Callback callback);
+
+  /**
+   * Closes the replica once the bytes sent are written.
+   */
+  @Override
+  void close() throws IOException;
+
+  /**
+   * Completion of a {@link FanOutReplica#write(byte[], int, int, boolean, Callback)}.
+   */
+  interface Callback {
+    void completed();
+
+    void failed(IOException e);
+  }
+
+  /**
+   * Creates the replicas of a WAL, besides the WAL file itself which the writer always writes.
+   * Configured with {@link FanOutLogWriter#REPLICA_FACTORY_KEY}.
+   */
+  interface Factory {
+    /**
+     * @return the replicas of the WAL at the given path, may be empty
+     */
+    List<FanOutReplica> createReplicas(FileSystem fs, Path path, Configuration conf,
+        boolean overwritable) throws IOException;
+  }
+}
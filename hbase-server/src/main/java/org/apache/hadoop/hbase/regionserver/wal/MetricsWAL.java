@@ -52,6 +52,12 @@ public class MetricsWAL extends WALActionsListener.Base {
   @Override
   public void postSync(final long timeInNanos, final int handlerSyncs) {
     source.incrementSyncTime(timeInNanos/1000000L);
+    source.updateSyncBatchSize(handlerSyncs);
+  }
+
+  @Override
+  public void preSync(final int inFlightSyncs) {
+    source.updateInFlightSyncs(inFlightSyncs);
   }
 
   @Override
@@ -82,12 +82,7 @@ public class ProtobufLogWriter extends WriterBase {
     assert this.output == null;
     boolean doCompress = initializeCompressionContext(conf, path);
     this.trailerWarnSize = conf.getInt(WAL_TRAILER_WARN_SIZE, DEFAULT_WAL_TRAILER_WARN_SIZE);
-    int bufferSize = FSUtils.getDefaultBufferSize(fs);
-    short replication = (short)conf.getInt(
-        "hbase.regionserver.hlog.replication", FSUtils.getDefaultReplication(fs, path));
-    long blockSize = conf.getLong("hbase.regionserver.hlog.blocksize",
-        FSUtils.getDefaultBlockSize(fs, path));
-    output = fs.createNonRecursive(path, overwritable, bufferSize, replication, blockSize, null);
+    output = createOutputStream(fs, path, conf, overwritable);
     output.write(ProtobufLogReader.PB_WAL_MAGIC);
     boolean doTagCompress = doCompress
         && conf.getBoolean(CompressionContext.ENABLE_WAL_TAGS_COMPRESSION, true);
@@ -104,6 +99,20 @@ public class ProtobufLogWriter extends WriterBase {
     }
   }
 
+  /**
+   * Creates the stream the WAL is written to.
+   */
+  @SuppressWarnings("deprecation")
+  protected FSDataOutputStream createOutputStream(FileSystem fs, Path path, Configuration conf,
+      boolean overwritable) throws IOException {
+    int bufferSize = FSUtils.getDefaultBufferSize(fs);
+    short replication = (short)conf.getInt(
+        "hbase.regionserver.hlog.replication", FSUtils.getDefaultReplication(fs, path));
+    long blockSize = conf.getLong("hbase.regionserver.hlog.blocksize",
+        FSUtils.getDefaultBlockSize(fs, path));
+    return fs.createNonRecursive(path, overwritable, bufferSize, replication, blockSize, null);
+  }
+
   protected void initAfterHeader(boolean doCompress) throws IOException {
     WALCellCodec codec = getCodec(conf, this.compressionContext);
     this.cellEncoder = codec.getEncoder(this.output);
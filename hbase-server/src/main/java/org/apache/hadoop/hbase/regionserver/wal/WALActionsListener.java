@@ -116,6 +116,12 @@ public interface WALActionsListener {
    */
   void postSync(final long timeInNanos, final int handlerSyncs);
 
+  /**
+   * For notification before writer sync.  Used by metrics system at least.
+   * @param inFlightSyncs How many filesystem syncs of the WAL are running, this one included.
+   */
+  void preSync(final int inFlightSyncs);
+
   static class Base implements WALActionsListener {
     @Override
     public void preLogRoll(Path oldPath, Path newPath) throws IOException {}
@@ -150,5 +156,8 @@ public interface WALActionsListener {
 
     @Override
     public void postSync(final long timeInNanos, final int handlerSyncs) {}
+
+    @Override
+    public void preSync(final int inFlightSyncs) {}
   }
 }
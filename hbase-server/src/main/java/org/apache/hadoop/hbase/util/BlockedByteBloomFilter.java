@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * A blocked (split block) Bloom filter. The bit array is divided into blocks of
+ * {@link #BLOCK_BYTES} bytes, the size of a cache line. The first hash of a key
+ * selects a block and all the bits of the key are set in that block, so a
+ * lookup touches one cache line worth of memory instead of one random cache
+ * line per hash function as in {@link ByteBloomFilter}.
+ * <p>
+ * The bit positions within the block are taken from the top bits of the second
+ * hash as it is repeatedly multiplied by the golden ratio. A lookup checks all
+ * of them without branching, which lets the JIT unroll the loop.
+ * <p>
+ * Confining the bits of a key to a block makes the false positive rate somewhat
+ * worse than that of a standard Bloom filter of the same size, so the filter is
+ * sized for a lower error rate than requested. Blocked filters are only used
+ * as chunks of a compound Bloom filter, see {@link CompoundBloomFilterWriter}.
+ */
+@InterfaceAudience.Private
+public class BlockedByteBloomFilter extends ByteBloomFilter {
+
+  /** Size of a block, all bits of a key are in the same block */
+  public static final int BLOCK_BYTES = 64;
+
+  /** Number of bits of the hash that address a bit within a block */
+  private static final int BLOCK_BITS_LOG2 = 9;
+
+  /** Multiplier used to derive the bit positions of a key from its hash */
+  private static final int GOLDEN_RATIO = 0x9e3779b9;
+
+  /**
+   * Error rate the filter is sized for, relative to the requested error rate.
+   * Compensates for keys being unevenly distributed over the blocks; at the
+   * usual error rates a chunk holds about 15% fewer keys than a standard one.
+   */
+  private static final double ERROR_RATE_MARGIN = 0.5;
+
+  private BlockedByteBloomFilter(int hashType) {
+    super(hashType);
+  }
+
+  /**
+   * Increases the given bit size of a blocked Bloom filter to a whole number of
+   * blocks that can be folded by the given factor.
+   *
+   * @param bitSize
+   * @param foldFactor
+   * @return Foldable byte size
+   */
+  public static int computeFoldableByteSize(long bitSize, int foldFactor) {
+    long unit = (long) BLOCK_BYTES << foldFactor;
+    long byteSizeLong = ((bitSize + 7) / 8 + unit - 1) / unit * unit;
+    if (byteSizeLong > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("byteSize=" + byteSizeLong + " too "
+          + "large for bitSize=" + bitSize + ", foldFactor=" + foldFactor);
+    }
+    return (int) byteSizeLong;
+  }
+
+  /**
+   * Creates a blocked Bloom filter of the given size.
+   *
+   * @param byteSizeHint the desired number of bytes for the Bloom filter bit
+   *          array. Will be increased to a whole number of blocks that can be
+   *          folded.
+   * @param errorRate target false positive rate of the Bloom filter
+   * @param hashType Bloom filter hash function type
+   * @param foldFactor
+   * @return the new Bloom filter of the desired size
+   */
+  public static BlockedByteBloomFilter createBySize(int byteSizeHint,
+      double errorRate, int hashType, int foldFactor) {
+    BlockedByteBloomFilter bbf = new BlockedByteBloomFilter(hashType);
+
+    bbf.byteSize = computeFoldableByteSize(byteSizeHint * 8L, foldFactor);
+    long bitSize = bbf.byteSize * 8;
+    double blockedErrorRate = errorRate * ERROR_RATE_MARGIN;
+    bbf.maxKeys = (int) idealMaxKeys(bitSize, blockedErrorRate);
+    bbf.hashCount = optimalFunctionCount(bbf.maxKeys, bitSize);
+    bbf.maxKeys = (int) computeMaxKeys(bitSize, blockedErrorRate, bbf.hashCount);
+
+    return bbf;
+  }
+
+  @Override
+  public BlockedByteBloomFilter createAnother() {
+    BlockedByteBloomFilter bbf = new BlockedByteBloomFilter(hashType);
+    bbf.byteSize = byteSize;
+    bbf.hashCount = hashCount;
+    bbf.maxKeys = maxKeys;
+    return bbf;
+  }
+
+  @Override
+  public void add(byte[] buf, int offset, int len) {
+    int hash1 = this.hash.hash(buf, offset, len, 0);
+    int hash2 = this.hash.hash(buf, offset, len, hash1);
+
+    int blockOffset = blockIndex(hash1, (int) (byteSize / BLOCK_BYTES)) * BLOCK_BYTES;
+    int h = hash2;
+    for (int i = 0; i < hashCount; i++) {
+      h *= GOLDEN_RATIO;
+      int pos = h >>> (Integer.SIZE - BLOCK_BITS_LOG2);
+      int wordOffset = blockOffset + ((pos >>> 6) << 3);
+      bloom.putLong(wordOffset, bloom.getLong(wordOffset) | (1L << pos));
+    }
+
+    ++this.keyCount;
+  }
+
+  @Override
+  public boolean contains(byte[] buf, int offset, int length,
+      ByteBuffer theBloom) {
+    if (theBloom == null) {
+      theBloom = bloom;
+    }
+
+    if (theBloom.limit() != byteSize) {
+      throw new IllegalArgumentException("Bloom does not match expected size:"
+          + " theBloom.limit()=" + theBloom.limit() + ", byteSize=" + byteSize);
+    }
+
+    return contains(buf, offset, length, theBloom, 0, (int) byteSize, hash, hashCount);
+  }
+
+  public static boolean contains(byte[] buf, int offset, int length,
+      ByteBuffer bloomBuf, int bloomOffset, int bloomSize, Hash hash,
+      int hashCount) {
+    int hash1;
+    int hash2;
+    if (randomGeneratorForTest == null) {
+      hash1 = hash.hash(buf, offset, length, 0);
+      hash2 = hash.hash(buf, offset, length, hash1);
+    } else {
+      // Test mode with "fake lookups" to estimate "ideal false positive rate".
+      hash1 = randomGeneratorForTest.nextInt();
+      hash2 = randomGeneratorForTest.nextInt();
+    }
+
+    int blockOffset = bloomOffset + blockIndex(hash1, bloomSize / BLOCK_BYTES) * BLOCK_BYTES;
+    // All the bits are in the same block, check them all rather than branch
+    // on each one
+    long missing = 0;
+    int h = hash2;
+    for (int i = 0; i < hashCount; i++) {
+      h *= GOLDEN_RATIO;
+      int pos = h >>> (Integer.SIZE - BLOCK_BITS_LOG2);
+      missing |= ~bloomBuf.getLong(blockOffset + ((pos >>> 6) << 3)) & (1L << pos);
+    }
+    return missing == 0;
+  }
+
+  /**
+   * The block of a key only depends on its hash modulo the number of blocks, so
+   * that folding a filter in half maps every block onto the block its keys are
+   * looked up in afterwards.
+   */
+  private static int blockIndex(int hash, int numBlocks) {
+    return (hash & Integer.MAX_VALUE) % numBlocks;
+  }
+
+  @Override
+  protected int getFoldUnit() {
+    return BLOCK_BYTES;
+  }
+
+  /**
+   * Blocked Bloom filters are only stored as chunks of a compound Bloom filter,
+   * which writes its own metadata.
+   */
+  @Override
+  public Writable getMetaWriter() {
+    throw new UnsupportedOperationException("A blocked Bloom filter can only be "
+        + "written as a compound Bloom filter chunk");
+  }
+}
@@ -80,6 +80,25 @@ public final class BloomFilterFactory {
   public static final String IO_STOREFILE_BLOOM_BLOCK_SIZE =
       "io.storefile.bloom.block.size";
 
+  /**
+   * Whether to write blocked Bloom filters, which check all the bits of a key
+   * in one cache line. Older versions of HBase can not read them.
+   */
+  public static final String IO_STOREFILE_BLOOM_BLOCKED =
+      "io.storefile.bloom.blocked";
+
+  /**
+   * Length of the row prefix used as key by {@link BloomType#ROWPREFIX_FIXED_LENGTH} Bloom
+   * filters. Usually set in the column family configuration.
+   */
+  public static final String PREFIX_LENGTH_KEY = "RowPrefixBloomFilter.prefix_length";
+
+  /**
+   * Delimiter that ends the row prefix used as key by {@link BloomType#ROWPREFIX_DELIMITED}
+   * Bloom filters. Usually set in the column family configuration.
+   */
+  public static final String DELIMITER_KEY = "RowPrefixDelimitedBloomFilter.delimiter";
+
   /** Maximum number of times a Bloom filter can be "folded" if oversized */
   private static final int MAX_ALLOWED_FOLD_FACTOR = 7;
 
@@ -106,7 +125,8 @@ public final class BloomFilterFactory {
         return new ByteBloomFilter(meta);
 
       case CompoundBloomFilterBase.VERSION:
-        return new CompoundBloomFilter(meta, reader);
+      case CompoundBloomFilterBase.BLOCKED_VERSION:
+        return new CompoundBloomFilter(meta, reader, version);
 
       default:
         throw new IllegalArgumentException(
@@ -149,6 +169,13 @@ public final class BloomFilterFactory {
     return conf.getInt(IO_STOREFILE_BLOOM_BLOCK_SIZE, 128 * 1024);
   }
 
+  /**
+   * @return true if blocked Bloom filters are enabled in the given configuration
+   */
+  public static boolean isBlockedBloomEnabled(Configuration conf) {
+    return conf.getBoolean(IO_STOREFILE_BLOOM_BLOCKED, false);
+  }
+
   /**
   * @return max key for the Bloom filter from the configuration
   */
@@ -156,6 +183,87 @@ public final class BloomFilterFactory {
     return conf.getInt(IO_STOREFILE_BLOOM_MAX_KEYS, 128 * 1000 * 1000);
   }
 
+  /**
+   * Reads the parameter of a row prefix Bloom filter from the configuration.
+   * @param bloomType the Bloom filter type
+   * @param conf the store configuration, including the column family configuration
+   * @return the prefix length as an int for {@link BloomType#ROWPREFIX_FIXED_LENGTH}, the
+   *         delimiter for {@link BloomType#ROWPREFIX_DELIMITED}, or null for other types
+   * @throws IllegalArgumentException if the parameter is missing or invalid
+   */
+  public static byte[] getBloomFilterParam(BloomType bloomType, Configuration conf) {
+    switch (bloomType) {
+      case ROWPREFIX_FIXED_LENGTH:
+        String length = conf.get(PREFIX_LENGTH_KEY);
+        int prefixLength;
+        try {
+          prefixLength = length == null ? -1 : Integer.parseInt(length.trim());
+        } catch (NumberFormatException e) {
+          prefixLength = -1;
+        }
+        if (prefixLength <= 0) {
+          throw new IllegalArgumentException(PREFIX_LENGTH_KEY + " must be a positive integer"
+              + " for Bloom filter type " + bloomType + ", but is " + length);
+        }
+        return Bytes.toBytes(prefixLength);
+      case ROWPREFIX_DELIMITED:
+        String delimiter = conf.get(DELIMITER_KEY);
+        if (delimiter == null || delimiter.isEmpty()) {
+          throw new IllegalArgumentException(DELIMITER_KEY + " must be set for Bloom filter type "
+              + bloomType);
+        }
+        return Bytes.toBytes(delimiter);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return true if Bloom filters of the given type are keyed by a prefix of the row
+   */
+  public static boolean isRowPrefixBloom(BloomType bloomType) {
+    return bloomType == BloomType.ROWPREFIX_FIXED_LENGTH
+        || bloomType == BloomType.ROWPREFIX_DELIMITED;
+  }
+
+  /**
+   * Computes the key of a row prefix Bloom filter for a row. The key of a row shorter than the
+   * prefix length, or without the delimiter, is the whole row. Keys of rows in sorted order are
+   * in sorted order too, which is why a delimited prefix includes the delimiter.
+   * @param bloomType {@link BloomType#ROWPREFIX_FIXED_LENGTH} or
+   *          {@link BloomType#ROWPREFIX_DELIMITED}
+   * @param bloomParam the parameter from {@link #getBloomFilterParam(BloomType, Configuration)}
+   * @return the length of the key, which starts at the offset of the row
+   */
+  public static int getRowPrefixLength(BloomType bloomType, byte[] bloomParam, byte[] row,
+      int offset, int length) {
+    if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH) {
+      return Math.min(Bytes.toInt(bloomParam), length);
+    }
+    int end = offset + length - bloomParam.length;
+    for (int i = offset; i <= end; i++) {
+      if (Bytes.equals(row, i, bloomParam.length, bloomParam, 0, bloomParam.length)) {
+        return i - offset + bloomParam.length;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Whether the Bloom key of the row is a complete prefix, and so shared with every row that
+   * starts with it, rather than just the whole of a short row.
+   */
+  public static boolean isCompleteRowPrefix(BloomType bloomType, byte[] bloomParam, byte[] row,
+      int offset, int length) {
+    int prefixLength = getRowPrefixLength(bloomType, bloomParam, row, offset, length);
+    if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH) {
+      return prefixLength == Bytes.toInt(bloomParam);
+    }
+    return prefixLength >= bloomParam.length && Bytes.equals(row,
+        offset + prefixLength - bloomParam.length, bloomParam.length, bloomParam, 0,
+        bloomParam.length);
+  }
+
   /**
    * Creates a new general (Row or RowCol) Bloom filter at the time of
    * {@link org.apache.hadoop.hbase.regionserver.StoreFile} writing.
@@ -199,7 +307,8 @@ public final class BloomFilterFactory {
     // In case of compound Bloom filters we ignore the maxKeys hint.
     CompoundBloomFilterWriter bloomWriter = new CompoundBloomFilterWriter(getBloomBlockSize(conf),
         err, Hash.getHashType(conf), maxFold, cacheConf.shouldCacheBloomsOnWrite(),
-        bloomType == BloomType.ROWCOL ? KeyValue.COMPARATOR : KeyValue.RAW_COMPARATOR);
+        bloomType == BloomType.ROWCOL ? KeyValue.COMPARATOR : KeyValue.RAW_COMPARATOR,
+        isBlockedBloomEnabled(conf));
     writer.addInlineBlockWriter(bloomWriter);
     return bloomWriter;
   }
@@ -230,7 +339,7 @@ public final class BloomFilterFactory {
     // In case of compound Bloom filters we ignore the maxKeys hint.
     CompoundBloomFilterWriter bloomWriter = new CompoundBloomFilterWriter(getBloomBlockSize(conf),
         err, Hash.getHashType(conf), maxFold, cacheConf.shouldCacheBloomsOnWrite(),
-        KeyValue.RAW_COMPARATOR);
+        KeyValue.RAW_COMPARATOR, isBlockedBloomEnabled(conf));
     writer.addInlineBlockWriter(bloomWriter);
     return bloomWriter;
   }
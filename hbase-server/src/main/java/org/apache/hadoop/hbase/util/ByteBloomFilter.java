@@ -111,7 +111,7 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
    * A random number generator to use for "fake lookups" when testing to
    * estimate the ideal false positive rate.
    */
-  private static Random randomGeneratorForTest;
+  static Random randomGeneratorForTest;
 
   /** Bit-value lookup array to prevent doing the same work over and over */
   private static final byte [] bitvals = {
@@ -245,7 +245,7 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
     return (int) byteSizeLong;
   }
 
-  private static int optimalFunctionCount(int maxKeys, long bitSize) {
+  static int optimalFunctionCount(int maxKeys, long bitSize) {
     long i = bitSize / maxKeys;
     double result = Math.ceil(Math.log(2) * i);
     if (result > Integer.MAX_VALUE){
@@ -254,8 +254,8 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
     return (int)result;
   }
 
-  /** Private constructor used by other constructors. */
-  private ByteBloomFilter(int hashType) {
+  /** Constructor used by other constructors and subclasses. */
+  protected ByteBloomFilter(int hashType) {
     this.hashType = hashType;
     this.hash = Hash.getInstance(hashType);
   }
@@ -507,7 +507,7 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
       int newMaxKeys = this.maxKeys;
 
       // while exponentially smaller & folding is lossless
-      while ( (newByteSize & 1) == 0 && newMaxKeys > (this.keyCount<<1) ) {
+      while ( newByteSize % (getFoldUnit() << 1) == 0 && newMaxKeys > (this.keyCount<<1) ) {
         pieces <<= 1;
         newByteSize >>= 1;
         newMaxKeys >>= 1;
@@ -535,6 +535,13 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
   }
 
 
+  /**
+   * @return the number of bytes the bloom size must stay a multiple of when folding
+   */
+  protected int getFoldUnit() {
+    return 1;
+  }
+
   //---------------------------------------------------------------------------
 
   /**
@@ -50,6 +50,8 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
 
   private int hashCount;
   private Hash hash;
+  /** Whether the chunks are {@link BlockedByteBloomFilter}s */
+  private boolean blocked;
 
   private long[] numQueriesPerChunk;
   private long[] numPositivesPerChunk;
@@ -63,7 +65,20 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
    */
   public CompoundBloomFilter(DataInput meta, HFile.Reader reader)
       throws IOException {
+    this(meta, reader, VERSION);
+  }
+
+  /**
+   * De-serialization for compound Bloom filter metadata of the given version.
+   *
+   * @param meta serialized Bloom filter metadata without any magic blocks
+   * @param version {@link #VERSION} or {@link #BLOCKED_VERSION}
+   * @throws IOException
+   */
+  public CompoundBloomFilter(DataInput meta, HFile.Reader reader, int version)
+      throws IOException {
     this.reader = reader;
+    this.blocked = version == BLOCKED_VERSION;
 
     totalByteSize = meta.readLong();
     hashCount = meta.readInt();
@@ -116,9 +131,15 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
       }
 
       ByteBuffer bloomBuf = bloomBlock.getBufferReadOnly();
-      result = ByteBloomFilter.contains(key, keyOffset, keyLength,
-          bloomBuf, bloomBlock.headerSize(),
-          bloomBlock.getUncompressedSizeWithoutHeader(), hash, hashCount);
+      if (blocked) {
+        result = BlockedByteBloomFilter.contains(key, keyOffset, keyLength,
+            bloomBuf, bloomBlock.headerSize(),
+            bloomBlock.getUncompressedSizeWithoutHeader(), hash, hashCount);
+      } else {
+        result = ByteBloomFilter.contains(key, keyOffset, keyLength,
+            bloomBuf, bloomBlock.headerSize(),
+            bloomBlock.getUncompressedSizeWithoutHeader(), hash, hashCount);
+      }
     }
 
     if (numQueriesPerChunk != null && block >= 0) {
@@ -135,6 +156,11 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
     return true;
   }
 
+  /** @return true if the chunks are blocked Bloom filters */
+  public boolean isBlocked() {
+    return blocked;
+  }
+
   public int getNumChunks() {
     return numChunks;
   }
@@ -179,6 +205,8 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
     sb.append(ByteBloomFilter.formatStats(this));
     sb.append(ByteBloomFilter.STATS_RECORD_SEP + 
         "Number of chunks: " + numChunks);
+    sb.append(ByteBloomFilter.STATS_RECORD_SEP +
+        "Blocked: " + blocked);
     sb.append(ByteBloomFilter.STATS_RECORD_SEP + 
         "Comparator: " + comparator.getClass().getSimpleName());
     return sb.toString();
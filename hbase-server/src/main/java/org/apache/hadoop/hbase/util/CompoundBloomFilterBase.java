@@ -40,6 +40,12 @@ public class CompoundBloomFilterBase implements BloomFilterBase {
    */
   public static final int VERSION = 3;
 
+  /**
+   * The version of compound Bloom filters with {@link BlockedByteBloomFilter}
+   * chunks. Older versions of HBase can not read such Bloom filters.
+   */
+  public static final int BLOCKED_VERSION = 4;
+
   /** Target error rate for configuring the filter and for information */
   protected float errorRate;
 
@@ -0,0 +1,85 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.NamespaceDescriptor;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.wal.RegionGroupingProvider.RegionGroupingStrategy;
+
+/**
+ * A WAL grouping strategy that keeps the regions of the namespaces written with a weak durability,
+ * such as ASYNC_WAL, listed in "hbase.wal.regiongrouping.durability.async.namespaces", apart from
+ * all other regions. Each class of regions gets WALs of its own, each with its own ring buffer
+ * and sync runners, so that a flood of appends nobody waits for does not delay the syncs of the
+ * edits that are waited for.
+ * <p>
+ * The split is per namespace only: a strategy only learns the encoded name and the namespace of
+ * a region, so table names are not accepted, and a table written with ASYNC_WAL in a namespace
+ * that is not listed shares the WALs of the other regions.
+ * <p>
+ * The regions of each class are spread over "hbase.wal.regiongrouping.durability.numgroups"
+ * groups, see {@link BoundedGroupingStrategy}.
+ * Notice: a region only has one WAL, so the grouping is by region, not by column family.
+ */
+@InterfaceAudience.Private
+public class DurabilityGroupingStrategy implements RegionGroupingStrategy {
+
+  static final String ASYNC_NAMESPACES = "hbase.wal.regiongrouping.durability.async.namespaces";
+  static final String NUM_GROUPS_PER_CLASS = "hbase.wal.regiongrouping.durability.numgroups";
+  static final int DEFAULT_NUM_GROUPS_PER_CLASS = 1;
+
+  static final String SYNC_CLASS = "sync";
+  static final String ASYNC_CLASS = "async";
+
+  private Set<String> asyncNamespaces;
+  private RegionGroupingStrategy syncGroups;
+  private RegionGroupingStrategy asyncGroups;
+
+  @Override
+  public String group(byte[] identifier, byte[] namespace) {
+    String namespaceString;
+    if (namespace == null || namespace.length == 0) {
+      namespaceString = NamespaceDescriptor.DEFAULT_NAMESPACE_NAME_STR;
+    } else {
+      namespaceString = Bytes.toString(namespace);
+    }
+    if (asyncNamespaces.contains(namespaceString)) {
+      return asyncGroups.group(identifier, namespace);
+    }
+    return syncGroups.group(identifier, namespace);
+  }
+
+  @Override
+  public void init(Configuration config, String providerId) {
+    asyncNamespaces = new HashSet<String>(config.getTrimmedStringCollection(ASYNC_NAMESPACES));
+    Configuration groupConf = new Configuration(config);
+    groupConf.setInt(BoundedGroupingStrategy.NUM_REGION_GROUPS,
+        config.getInt(NUM_GROUPS_PER_CLASS, DEFAULT_NUM_GROUPS_PER_CLASS));
+    syncGroups = new BoundedGroupingStrategy();
+    syncGroups.init(groupConf, providerId + GROUP_NAME_DELIMITER + SYNC_CLASS);
+    asyncGroups = new BoundedGroupingStrategy();
+    asyncGroups.init(groupConf, providerId + GROUP_NAME_DELIMITER + ASYNC_CLASS);
+  }
+
+}
@@ -0,0 +1,72 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+
+// imports for things that haven't moved from regionserver.wal yet.
+import org.apache.hadoop.hbase.regionserver.wal.FanOutLogWriter;
+import org.apache.hadoop.hbase.regionserver.wal.FanOutReplica;
+import org.apache.hadoop.hbase.regionserver.wal.ProtobufLogWriter;
+import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
+
+/**
+ * A WAL Provider laid out like {@link DefaultWALProvider} whose WALs are written by a
+ * {@link FanOutLogWriter}: the bytes of the edits go to the WAL file and to the replicas made by
+ * the {@link FanOutReplica.Factory} configured with
+ * {@link FanOutLogWriter#REPLICA_FACTORY_KEY} in parallel, and syncs complete asynchronously as
+ * the replicas acknowledge them.
+ * <p>
+ * A custom writer configured with "hbase.regionserver.hlog.writer.impl", like the one for WAL
+ * encryption, is kept, and the WALs are then written as by {@link DefaultWALProvider}.
+ * <p>
+ * With replicas, the WAL file stream is wrapped and FSHLog cannot see its HDFS replication: the
+ * checks of "hbase.regionserver.hlog.tolerable.lowreplication" and the rolls on low replication
+ * do nothing for these WALs. Without replicas the WAL file is written as by
+ * {@link DefaultWALProvider}, and the checks apply.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class FanOutWALProvider extends DefaultWALProvider {
+  private static final Log LOG = LogFactory.getLog(FanOutWALProvider.class);
+
+  static final String WRITER_IMPL = "hbase.regionserver.hlog.writer.impl";
+
+  @Override
+  public void init(final WALFactory factory, final Configuration conf,
+      final List<WALActionsListener> listeners, String providerId) throws IOException {
+    Class<?> writerClass = conf.getClass(WRITER_IMPL, ProtobufLogWriter.class);
+    if (writerClass != ProtobufLogWriter.class && writerClass != FanOutLogWriter.class) {
+      LOG.warn("Keeping the configured WAL writer " + writerClass.getName()
+          + ", the WALs will not be fanned out");
+      super.init(factory, conf, listeners, providerId);
+      return;
+    }
+    Configuration fanOutConf = new Configuration(conf);
+    fanOutConf.setClass(WRITER_IMPL, FanOutLogWriter.class, DefaultWALProvider.Writer.class);
+    super.init(factory, fanOutConf, listeners, providerId);
+  }
+}
@@ -51,6 +51,9 @@ import org.apache.hadoop.hbase.util.IdReadWriteLock;
  *                                  "bounded".</li>
  *   <li><em>identity</em> : each region belongs to its own group.</li>
  *   <li><em>bounded</em> : bounded number of groups and region evenly assigned to each group.</li>
+ *   <li><em>namespace</em> : a group per namespace.</li>
+ *   <li><em>durability</em> : regions of namespaces written with a weak durability kept apart
+ *                             from the others, see {@link DurabilityGroupingStrategy}.</li>
  * </ul>
  * Optionally, a FQCN to a custom implementation may be given.
  */
@@ -78,7 +81,8 @@ public class RegionGroupingProvider implements WALProvider {
     defaultStrategy(BoundedGroupingStrategy.class),
     identity(IdentityGroupingStrategy.class),
     bounded(BoundedGroupingStrategy.class),
-    namespace(NamespaceGroupingStrategy.class);
+    namespace(NamespaceGroupingStrategy.class),
+    durability(DurabilityGroupingStrategy.class);
 
     final Class<? extends RegionGroupingStrategy> clazz;
     Strategies(Class<? extends RegionGroupingStrategy> clazz) {
@@ -62,6 +62,8 @@ import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
  *                             FileSystem interface, normally HDFS.</li>
  *   <li><em>multiwal</em> : a provider that will use multiple "filesystem" wal instances per region
  *                           server.</li>
+ *   <li><em>fanout</em> : a "filesystem" provider whose writers send the edits to the wal file and
+ *                         to pluggable replicas in parallel, see {@link FanOutWALProvider}.</li>
  * </ul>
  *
  * Alternatively, you may provide a custome implementation of {@link WALProvider} by class name.
@@ -77,7 +79,8 @@ public class WALFactory {
   static enum Providers {
     defaultProvider(DefaultWALProvider.class),
     filesystem(DefaultWALProvider.class),
-    multiwal(RegionGroupingProvider.class);
+    multiwal(RegionGroupingProvider.class),
+    fanout(FanOutWALProvider.class);
 
     final Class<? extends WALProvider> clazz;
 
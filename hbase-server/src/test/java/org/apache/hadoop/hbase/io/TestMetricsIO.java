@@ -34,6 +34,15 @@ public class TestMetricsIO {
     MetricsIO metrics = new MetricsIO(new MetricsIOWrapper() {
       @Override
       public long getChecksumFailures() { return 40; }
+
+      @Override
+      public long getReadaheadBlocks() { return 50; }
+
+      @Override
+      public long getReadaheadHits() { return 45; }
+
+      @Override
+      public long getReadaheadWaste() { return 5; }
     });
 
     metrics.updateFsReadTime(100);
@@ -46,6 +55,9 @@ public class TestMetricsIO {
     metrics.updateFsWriteTime(600);
 
     HELPER.assertCounter("fsChecksumFailureCount", 40, metrics.getMetricsSource());
+    HELPER.assertCounter("fsReadaheadBlockCount", 50, metrics.getMetricsSource());
+    HELPER.assertCounter("fsReadaheadHitCount", 45, metrics.getMetricsSource());
+    HELPER.assertCounter("fsReadaheadWasteCount", 5, metrics.getMetricsSource());
 
     HELPER.assertCounter("fsReadTime_numOps", 2, metrics.getMetricsSource());
     HELPER.assertCounter("fsPReadTime_numOps", 1, metrics.getMetricsSource());
@@ -17,6 +17,7 @@
 package org.apache.hadoop.hbase.io.encoding;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
@@ -411,6 +412,40 @@ public class TestDataBlockEncoders {
     testEncodersOnDataset(kvList, includesMemstoreTS, includesTags);
   }
 
+  /**
+   * Test wide rows that repeat the same qualifiers and values, which the columnar dictionary
+   * encoding should store in less space than the key delta encodings.
+   */
+  @Test
+  public void testWideRepetitiveRows() throws IOException {
+    List<KeyValue> kvList = new ArrayList<KeyValue>();
+    byte[] family = Bytes.toBytes("f");
+    long now = 1500000000000L;
+    for (int row = 0; row < 20; row++) {
+      byte[] rowKey = Bytes.toBytes(String.format("host%04d-%d", row, now));
+      for (int q = 0; q < 200; q++) {
+        byte[] qualifier = Bytes.toBytes("metric." + q);
+        byte[] value = Bytes.toBytes((long) randomizer.nextInt(8));
+        long ts = now + randomizer.nextInt(1000);
+        if (includesTags) {
+          kvList.add(new KeyValue(rowKey, family, qualifier, ts, value, new Tag[] { new Tag(
+              (byte) 1, "ttl") }));
+        } else {
+          kvList.add(new KeyValue(rowKey, family, qualifier, ts, Type.Put, value));
+        }
+      }
+    }
+    testEncodersOnDataset(kvList, includesMemstoreTS, includesTags);
+
+    int columnarSize = encodeKeyValues(DataBlockEncoding.COLUMNAR_DICT, kvList,
+        getEncodingContext(Compression.Algorithm.NONE, DataBlockEncoding.COLUMNAR_DICT))
+        .remaining();
+    int fastDiffSize = encodeKeyValues(DataBlockEncoding.FAST_DIFF, kvList,
+        getEncodingContext(Compression.Algorithm.NONE, DataBlockEncoding.FAST_DIFF)).remaining();
+    LOG.info("COLUMNAR_DICT: " + columnarSize + " bytes, FAST_DIFF: " + fastDiffSize + " bytes");
+    assertTrue(columnarSize < fastDiffSize);
+  }
+
   private void testAlgorithm(byte[] encodedData, ByteBuffer unencodedDataBuf,
       DataBlockEncoder encoder) throws IOException {
     // decode
@@ -291,6 +291,12 @@ public class CacheTestUtils {
           throws IOException {
         return deserialize(b);
       }
+
+      @Override
+      public Cacheable deserialize(ByteBuffer b, boolean reuse, MemoryType memType)
+          throws IOException {
+        return deserialize(b);
+      }
     };
 
     final byte[] buf;
@@ -332,6 +338,11 @@ public class CacheTestUtils {
     public BlockType getBlockType() {
       return BlockType.DATA;
     }
+
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.EXCLUSIVE;
+    }
   }
 
 
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.fs.HFileSystem;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestBlockReadahead {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final int DATA_BLOCK_SIZE = 1024;
+  private static final int NUM_KV = 2000;
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private Configuration conf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(BlockReadahead.READAHEAD_BLOCKS_KEY, 8);
+    conf.setInt(BlockReadahead.READAHEAD_THRESHOLD_KEY, 2);
+    fs = HFileSystem.get(conf);
+  }
+
+  @Test
+  public void testReadBlocksData() throws IOException {
+    Path path = writeHFile("testReadBlocksData");
+    HFileReaderV2 reader =
+        (HFileReaderV2) HFile.createReader(fs, path, new CacheConfig(conf), conf);
+    try {
+      HFileBlock.FSReader fsReader = reader.getUncachedBlockReader();
+      long end = reader.getTrailer().getLoadOnOpenDataOffset();
+      // Cut the read off in the middle of a block, which must be left out
+      List<HFileBlock> blocks = fsReader.readBlocksData(0, (int) end - 10);
+      assertTrue(blocks.size() > 1);
+      long offset = 0;
+      for (HFileBlock block : blocks) {
+        assertEquals(offset, block.getOffset());
+        HFileBlock expected = fsReader.readBlockData(offset, -1, true, false);
+        assertEquals(expected.getOnDiskSizeWithHeader(), block.getOnDiskSizeWithHeader());
+        assertEquals(expected.getBlockType(), block.getBlockType());
+        assertEquals(expected.getBufferWithoutHeader(), block.getBufferWithoutHeader());
+        offset += block.getOnDiskSizeWithHeader();
+      }
+      assertTrue(offset < end);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testScanWithReadahead() throws IOException {
+    Path path = writeHFile("testScanWithReadahead");
+    HFileReaderV2 reader =
+        (HFileReaderV2) HFile.createReader(fs, path, new CacheConfig(conf), conf);
+    long blocksRead = BlockReadahead.getBlocksRead();
+    long blocksUsed = BlockReadahead.getBlocksUsed();
+    long blocksWasted = BlockReadahead.getBlocksWasted();
+    try {
+      HFileScanner scanner = reader.getScanner(false, true, false);
+      assertTrue(scanner.seekTo());
+      int count = 0;
+      do {
+        assertEquals(count, Bytes.toInt(scanner.getKeyValue().getRow()));
+        count++;
+      } while (scanner.next());
+      assertEquals(NUM_KV, count);
+      scanner.close();
+      assertEquals(0, ((HFileReaderV2.AbstractScannerV2) scanner).readahead.getBufferedBlocks());
+    } finally {
+      reader.close();
+    }
+    long read = BlockReadahead.getBlocksRead() - blocksRead;
+    long used = BlockReadahead.getBlocksUsed() - blocksUsed;
+    long wasted = BlockReadahead.getBlocksWasted() - blocksWasted;
+    assertTrue(used > 0);
+    assertEquals(read, used + wasted);
+  }
+
+  @Test
+  public void testNoReadaheadForStreamReads() throws IOException {
+    Path path = writeHFile("testNoReadaheadForStreamReads");
+    HFileReaderV2 reader =
+        (HFileReaderV2) HFile.createReader(fs, path, new CacheConfig(conf), conf);
+    try {
+      assertNull(((HFileReaderV2.AbstractScannerV2) reader.getScanner(false, false, false))
+          .readahead);
+      assertNull(((HFileReaderV2.AbstractScannerV2) reader.getScanner(false, true, true))
+          .readahead);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private Path writeHFile(String name) throws IOException {
+    Path path = new Path(TEST_UTIL.getDataTestDir(), name);
+    FSDataOutputStream fout = fs.create(path);
+    HFileContext meta = new HFileContextBuilder().withBlockSize(DATA_BLOCK_SIZE).build();
+    HFile.Writer writer = HFile.getWriterFactory(conf, new CacheConfig(conf))
+        .withOutputStream(fout).withFileContext(meta).withComparator(KeyValue.COMPARATOR)
+        .create();
+    for (int i = 0; i < NUM_KV; i++) {
+      writer.append(new KeyValue(Bytes.toBytes(i), FAMILY, QUALIFIER, Bytes.toBytes("value" + i)));
+    }
+    writer.close();
+    fout.close();
+    return path;
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(MediumTests.class)
+public class TestBlockTimeRangeIndex {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final int DATA_BLOCK_SIZE = 1024;
+  private static final int NUM_KV = 2000;
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private Configuration conf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setBoolean(BlockTimeRangeIndex.BLOCK_TIME_RANGE_INDEX_KEY, true);
+    fs = FileSystem.get(conf);
+  }
+
+  @Test
+  public void testIndex() throws IOException {
+    Path path = writeHFile("testIndex", -1);
+    HFileReaderV2 reader = (HFileReaderV2) HFile.createReader(fs, path, new CacheConfig(conf),
+        conf);
+    try {
+      BlockTimeRangeIndex index = reader.getBlockTimeRangeIndex();
+      assertNotNull(index);
+      assertEquals(reader.getTrailer().getDataIndexCount(), index.size());
+      assertTrue(index.canSkip(0, new TimeRange(NUM_KV / 2, NUM_KV)));
+      assertFalse(index.canSkip(0, new TimeRange(0, 1)));
+      assertFalse(index.canSkip(1, new TimeRange(NUM_KV / 2, NUM_KV)));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testNoIndexWhenDisabled() throws IOException {
+    conf.setBoolean(BlockTimeRangeIndex.BLOCK_TIME_RANGE_INDEX_KEY, false);
+    Path path = writeHFile("testNoIndexWhenDisabled", -1);
+    HFileReaderV2 reader = (HFileReaderV2) HFile.createReader(fs, path, new CacheConfig(conf),
+        conf);
+    try {
+      assertNull(reader.getBlockTimeRangeIndex());
+      assertEquals(NUM_KV, scan(reader, new TimeRange(1500, 1600), 1500, 1600));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testScanSkipsBlocks() throws IOException {
+    Path path = writeHFile("testScanSkipsBlocks", -1);
+    HFileReaderV2 reader = (HFileReaderV2) HFile.createReader(fs, path, new CacheConfig(conf),
+        conf);
+    try {
+      long skipped = BlockTimeRangeIndex.getSkippedBlockCount();
+      int read = scan(reader, new TimeRange(1500, 1600), 1500, 1600);
+      assertTrue(read < NUM_KV / 4);
+      assertTrue(BlockTimeRangeIndex.getSkippedBlockCount() > skipped);
+
+      // A time range past the file leaves only the first block to read
+      read = scan(reader, new TimeRange(NUM_KV * 2, NUM_KV * 3), 0, 0);
+      assertTrue(read < NUM_KV / 10);
+
+      // Without a time range every block is read
+      assertEquals(NUM_KV, scan(reader, null, 0, NUM_KV));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testBlocksWithDeletesNotSkipped() throws IOException {
+    int deleteAt = 1800;
+    Path path = writeHFile("testBlocksWithDeletesNotSkipped", deleteAt);
+    HFileReaderV2 reader = (HFileReaderV2) HFile.createReader(fs, path, new CacheConfig(conf),
+        conf);
+    try {
+      // The block holding the newer delete marker must still be read
+      HFileScanner scanner = reader.getScanner(false, true, false);
+      scanner.setSkipTimeRange(new TimeRange(100, 200));
+      assertTrue(scanner.seekTo());
+      boolean sawDelete = false;
+      do {
+        sawDelete |= CellUtil.isDelete(scanner.getKeyValue());
+      } while (scanner.next());
+      scanner.close();
+      assertTrue(sawDelete);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testRegionScanWithTimeRange() throws IOException {
+    TEST_UTIL.getConfiguration().setBoolean(BlockTimeRangeIndex.BLOCK_TIME_RANGE_INDEX_KEY, true);
+    HRegion region = TEST_UTIL.createTestRegion("testRegionScanWithTimeRange",
+        new HColumnDescriptor(FAMILY).setBlocksize(DATA_BLOCK_SIZE));
+    try {
+      for (int i = 0; i < NUM_KV; i++) {
+        Put put = new Put(Bytes.toBytes(i));
+        put.addColumn(FAMILY, QUALIFIER, i, Bytes.toBytes("value" + i));
+        put.setDurability(Durability.SKIP_WAL);
+        region.put(put);
+      }
+      region.flush(true);
+      // A newer delete in a file of its own masks a cell in the time range
+      Delete delete = new Delete(Bytes.toBytes(1510));
+      delete.addColumns(FAMILY, QUALIFIER, NUM_KV * 2);
+      region.delete(delete);
+      region.flush(true);
+
+      long skipped = BlockTimeRangeIndex.getSkippedBlockCount();
+      Scan scan = new Scan().setTimeRange(1500, 1600);
+      RegionScanner scanner = region.getScanner(scan);
+      List<Cell> cells = new ArrayList<Cell>();
+      List<Cell> row = new ArrayList<Cell>();
+      boolean more;
+      do {
+        more = scanner.next(row);
+        cells.addAll(row);
+        row.clear();
+      } while (more);
+      scanner.close();
+      assertTrue(BlockTimeRangeIndex.getSkippedBlockCount() > skipped);
+      assertEquals(99, cells.size());
+      for (Cell cell : cells) {
+        int r = Bytes.toInt(CellUtil.cloneRow(cell));
+        assertTrue(r >= 1500 && r < 1600 && r != 1510);
+        assertEquals(r, cell.getTimestamp());
+      }
+    } finally {
+      TEST_UTIL.getConfiguration().setBoolean(BlockTimeRangeIndex.BLOCK_TIME_RANGE_INDEX_KEY,
+          false);
+      HRegion.closeHRegion(region);
+    }
+  }
+
+  /**
+   * Scans the whole file and checks all the cells of the given rows are returned.
+   * @return the number of cells read
+   */
+  private int scan(HFile.Reader reader, TimeRange timeRange, int fromRow, int toRow)
+      throws IOException {
+    HFileScanner scanner = reader.getScanner(false, true, false);
+    scanner.setSkipTimeRange(timeRange);
+    assertTrue(scanner.seekTo());
+    int read = 0;
+    int expected = fromRow;
+    do {
+      int row = Bytes.toInt(scanner.getKeyValue().getRow());
+      if (row >= fromRow && row < toRow) {
+        assertEquals(expected, row);
+        expected++;
+      }
+      read++;
+    } while (scanner.next());
+    scanner.close();
+    assertEquals(toRow, expected);
+    return read;
+  }
+
+  /**
+   * Writes a file with a cell per row whose timestamp is its row number, and a delete marker at
+   * the given row if it is not negative.
+   */
+  private Path writeHFile(String name, int deleteAt) throws IOException {
+    Path path = new Path(TEST_UTIL.getDataTestDir(), name);
+    FSDataOutputStream fout = fs.create(path);
+    HFileContext meta = new HFileContextBuilder().withBlockSize(DATA_BLOCK_SIZE).build();
+    HFile.Writer writer = HFile.getWriterFactory(conf, new CacheConfig(conf))
+        .withOutputStream(fout).withFileContext(meta).withComparator(KeyValue.COMPARATOR)
+        .create();
+    for (int i = 0; i < NUM_KV; i++) {
+      if (i == deleteAt) {
+        writer.append(new KeyValue(Bytes.toBytes(i), FAMILY, QUALIFIER, NUM_KV * 2,
+            KeyValue.Type.DeleteColumn));
+      }
+      writer.append(new KeyValue(Bytes.toBytes(i), FAMILY, QUALIFIER, i,
+          Bytes.toBytes("value" + i)));
+    }
+    writer.close();
+    fout.close();
+    return path;
+  }
+}
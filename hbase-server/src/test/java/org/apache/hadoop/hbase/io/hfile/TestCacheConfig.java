@@ -37,6 +37,7 @@ import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.testclassification.LargeTests;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.io.util.HeapMemorySizeUtil;
 import org.apache.hadoop.hbase.util.Threads;
@@ -82,6 +83,13 @@ public class TestCacheConfig {
       LOG.info("Deserialized " + b);
       return cacheable;
     }
+
+    @Override
+    public Cacheable deserialize(ByteBuffer b, boolean reuse, MemoryType memType)
+        throws IOException {
+      LOG.info("Deserialized " + b + ", reuse=" + reuse + ", memType=" + memType);
+      return cacheable;
+    }
   };
 
   static class IndexCacheEntry extends DataCacheEntry {
@@ -139,6 +147,11 @@ public class TestCacheConfig {
     public BlockType getBlockType() {
       return BlockType.DATA;
     }
+
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.EXCLUSIVE;
+    }
   };
 
   static class MetaCacheEntry extends DataCacheEntry {
@@ -213,6 +226,21 @@ public class TestCacheConfig {
     assertTrue(cc.getBlockCache() instanceof LruBlockCache);
   }
 
+  @Test
+  public void testCacheConfigShardedLRUBlockCache() {
+    this.conf.set(CacheConfig.BLOCKCACHE_POLICY_KEY, "ShardedLRU");
+    CacheConfig cc = new CacheConfig(this.conf);
+    basicBlockCacheOps(cc, false, true);
+    assertTrue(cc.getBlockCache() instanceof ShardedLruBlockCache);
+    this.conf.setInt(HConstants.BUCKET_CACHE_SIZE_KEY, 100);
+    this.conf.set(HConstants.BUCKET_CACHE_IOENGINE_KEY, "offheap");
+    CacheConfig.clearGlobalInstances();
+    cc = new CacheConfig(this.conf);
+    basicBlockCacheOps(cc, false, false);
+    assertTrue(cc.getBlockCache() instanceof CombinedBlockCache);
+    assertTrue(cc.getBlockCache().getBlockCaches()[0] instanceof ShardedLruBlockCache);
+  }
+
   /**
    * Assert that the caches are deployed with CombinedBlockCache and of the appropriate sizes.
    */
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that a compaction caches on write the blocks of its output that hold keys whose blocks
+ * were cached in its input files.
+ */
+@Category(MediumTests.class)
+public class TestCacheHotBlocksOnCompaction {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int NUM_FILES = 3;
+  private static final int ROWS_PER_FILE = 300;
+
+  private Configuration conf;
+  private LruBlockCache blockCache;
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    conf.setBoolean(CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_KEY, true);
+    blockCache = (LruBlockCache) new CacheConfig(conf).getBlockCache();
+    blockCache.clearCache();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (region != null) {
+      HRegion.closeHRegion(region);
+    }
+    blockCache.clearCache();
+  }
+
+  @Test
+  public void testCachedKeyRanges() throws IOException {
+    region = TEST_UTIL.createTestRegion("testCachedKeyRanges",
+        new HColumnDescriptor(FAMILY).setBlocksize(1024));
+    loadRegion();
+    region.compact(true);
+    blockCache.clearCache();
+
+    StoreFile file = region.getStore(FAMILY).getStorefiles().iterator().next();
+    HFile.Reader reader = file.getReader().getHFileReader();
+    assertEquals(1, reader.getTrailer().getNumDataIndexLevels());
+    verifyCachedKeyRanges(reader);
+  }
+
+  @Test
+  public void testCachedKeyRangesMultiLevelIndex() throws IOException {
+    // Small index blocks, so the data block index gets a leaf level under the root
+    conf.setInt(HFileBlockIndex.MAX_CHUNK_SIZE_KEY, 256);
+    try {
+      region = TEST_UTIL.createTestRegion("testCachedKeyRangesMultiLevelIndex",
+          new HColumnDescriptor(FAMILY).setBlocksize(1024));
+      loadRegion();
+      region.compact(true);
+    } finally {
+      conf.unset(HFileBlockIndex.MAX_CHUNK_SIZE_KEY);
+    }
+    blockCache.clearCache();
+
+    StoreFile file = region.getStore(FAMILY).getStorefiles().iterator().next();
+    HFile.Reader reader = file.getReader().getHFileReader();
+    assertTrue(reader.getTrailer().getNumDataIndexLevels() > 1);
+    verifyCachedKeyRanges(reader);
+  }
+
+  private void verifyCachedKeyRanges(HFile.Reader reader) throws IOException {
+    assertTrue(CachedKeyRanges.fromBlockCache(blockCache, Collections.singletonList(reader),
+        KeyValue.COMPARATOR).isEmpty());
+
+    get(100, 110);
+    get(700, 705);
+    CachedKeyRanges ranges = CachedKeyRanges.fromBlockCache(blockCache,
+        Collections.singletonList(reader), KeyValue.COMPARATOR);
+    assertEquals(2, ranges.size());
+    assertTrue(ranges.overlaps(key(105), key(105)));
+    assertTrue(ranges.overlaps(key(0), key(100)));
+    assertTrue(ranges.overlaps(key(702), key(800)));
+    assertFalse(ranges.overlaps(key(400), key(500)));
+    assertFalse(ranges.overlaps(key(0), key(10)));
+    assertTrue(ranges.overlaps(key(0), key(899)));
+  }
+
+  @Test
+  public void testCompactionCachesHotBlocks() throws IOException {
+    region = TEST_UTIL.createTestRegion("testCompactionCachesHotBlocks",
+        new HColumnDescriptor(FAMILY).setBlocksize(1024));
+    loadRegion();
+    blockCache.clearCache();
+
+    // Only a narrow range of rows is read before the compaction
+    get(300, 320);
+    region.compact(true);
+
+    Store store = region.getStore(FAMILY);
+    assertEquals(1, store.getStorefilesCount());
+    StoreFile file = store.getStorefiles().iterator().next();
+    FixedFileTrailer trailer = file.getReader().getHFileReader().getTrailer();
+    assertEquals(1, trailer.getNumDataIndexLevels());
+    int cachedDataBlocks = countCachedDataBlocks(file.getPath().getName());
+    assertTrue(cachedDataBlocks > 0);
+    assertTrue(cachedDataBlocks < trailer.getDataIndexCount() / 4);
+
+    // The data blocks of the rows read before the compaction are still cached
+    long misses = blockCache.getStats().getDataMissCount();
+    get(300, 320);
+    assertEquals(misses, blockCache.getStats().getDataMissCount());
+  }
+
+  @Test
+  public void testCompactionWithoutCachedBlocks() throws IOException {
+    region = TEST_UTIL.createTestRegion("testCompactionWithoutCachedBlocks",
+        new HColumnDescriptor(FAMILY).setBlocksize(1024));
+    loadRegion();
+    blockCache.clearCache();
+    region.compact(true);
+
+    StoreFile file = region.getStore(FAMILY).getStorefiles().iterator().next();
+    assertEquals(0, countCachedDataBlocks(file.getPath().getName()));
+  }
+
+  private void loadRegion() throws IOException {
+    // Every file holds rows from the whole key space
+    for (int f = 0; f < NUM_FILES; f++) {
+      for (int i = 0; i < ROWS_PER_FILE; i++) {
+        int row = i * NUM_FILES + f;
+        Put put = new Put(row(row));
+        put.addColumn(FAMILY, QUALIFIER, Bytes.toBytes("value-" + row));
+        put.setDurability(Durability.SKIP_WAL);
+        region.put(put);
+      }
+      region.flush(true);
+    }
+  }
+
+  private void get(int from, int to) throws IOException {
+    for (int row = from; row <= to; row++) {
+      assertFalse(region.get(new Get(row(row))).isEmpty());
+    }
+  }
+
+  private int countCachedDataBlocks(String fileName) {
+    int count = 0;
+    for (CachedBlock block : blockCache) {
+      if (block.getFilename().equals(fileName) && block.getBlockType().isData()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static byte[] row(int row) {
+    return Bytes.toBytes(String.format("row%05d", row));
+  }
+
+  private static KeyValue key(int row) {
+    return KeyValue.createFirstOnRow(row(row));
+  }
+}
@@ -272,7 +272,8 @@ public class TestCacheOnWrite {
           encodingInCache);
       BlockCacheKey blockCacheKey = new BlockCacheKey(reader.getName(),
           offset);
-      HFileBlock fromCache = (HFileBlock) blockCache.getBlock(blockCacheKey, true, false, true);
+      HFileBlock cachedBlock = (HFileBlock) blockCache.getBlock(blockCacheKey, true, false, true);
+      HFileBlock fromCache = cachedBlock;
       boolean isCached = fromCache != null;
       boolean shouldBeCached = cowType.shouldBeCached(block.getBlockType());
       assertTrue("shouldBeCached: " + shouldBeCached+ "\n" +
@@ -299,7 +300,9 @@ public class TestCacheOnWrite {
         assertEquals(block.getOnDiskSizeWithoutHeader(), fromCache.getOnDiskSizeWithoutHeader());
         assertEquals(
           block.getUncompressedSizeWithoutHeader(), fromCache.getUncompressedSizeWithoutHeader());
+        blockCache.returnBlock(blockCacheKey, cachedBlock);
       }
+      reader.returnBlock(block);
       offset += block.getOnDiskSizeWithHeader();
       BlockType bt = block.getBlockType();
       Integer count = blockCountByType.get(bt);
@@ -320,6 +323,7 @@ public class TestCacheOnWrite {
     while (scanner.next()) {
       scanner.getKeyValue();
     }
+    scanner.close();
     reader.close();
   }
 
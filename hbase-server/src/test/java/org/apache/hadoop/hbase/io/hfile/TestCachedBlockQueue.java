@@ -140,6 +140,11 @@ public class TestCachedBlockQueue extends TestCase {
               return BlockType.DATA;
             }
 
+            @Override
+            public MemoryType getMemoryType() {
+              return MemoryType.EXCLUSIVE;
+            }
+
           }, accessTime, false);
     }
   }
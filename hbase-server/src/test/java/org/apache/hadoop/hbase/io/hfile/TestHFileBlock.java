@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.io.hfile;
 
 import static org.apache.hadoop.hbase.io.compress.Compression.Algorithm.GZ;
 import static org.apache.hadoop.hbase.io.compress.Compression.Algorithm.NONE;
+import static org.apache.hadoop.hbase.io.compress.Compression.Algorithm.LZ4;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayOutputStream;
@@ -273,6 +274,56 @@ public class TestHFileBlock {
       testBlockStr.substring(0, correctGzipBlockLength - 4));
   }
 
+  /**
+   * LZ4 blocks go through the block codec, which does not need the native Hadoop codec
+   */
+  @Test
+  public void testLz4Compression() throws IOException {
+    for (boolean pread : new boolean[] { false, true }) {
+      Path path = new Path(TEST_UTIL.getDataTestDir(), "blocks_lz4");
+      FSDataOutputStream os = fs.create(path);
+      HFileContext meta = new HFileContextBuilder()
+                         .withCompression(LZ4)
+                         .withIncludesMvcc(includesMemstoreTS)
+                         .withIncludesTags(includesTag)
+                         .withBytesPerCheckSum(HFile.DEFAULT_BYTES_PER_CHECKSUM)
+                         .build();
+      HFileBlock.Writer hbw = new HFileBlock.Writer(null, meta);
+      long totalSize = 0;
+      for (int blockId = 0; blockId < 2; ++blockId) {
+        DataOutputStream dos = hbw.startWriting(BlockType.DATA);
+        for (int i = 0; i < 1234; ++i)
+          dos.writeInt(i % 100);
+        hbw.writeHeaderAndData(os);
+        totalSize += hbw.getOnDiskSizeWithHeader();
+      }
+      os.close();
+
+      FSDataInputStream is = fs.open(path);
+      meta = new HFileContextBuilder()
+      .withHBaseCheckSum(true)
+      .withIncludesMvcc(includesMemstoreTS)
+      .withIncludesTags(includesTag)
+      .withCompression(LZ4).build();
+      HFileBlock.FSReader hbr = new HFileBlock.FSReaderImpl(is, totalSize, meta);
+      long offset = 0;
+      for (int blockId = 0; blockId < 2; ++blockId) {
+        HFileBlock b = hbr.readBlockData(offset, -1, pread, false);
+        assertEquals(0, HFile.getAndResetChecksumFailuresCount());
+        b.sanityCheck();
+        b = b.unpack(meta, hbr);
+        assertEquals(4936, b.getUncompressedSizeWithoutHeader());
+        assertTrue(b.getOnDiskSizeWithoutHeader() - b.totalChecksumBytes() < 1000);
+        ByteBuffer buf = b.getBufferWithoutHeader();
+        for (int i = 0; i < 1234; ++i) {
+          assertEquals(i % 100, buf.getInt());
+        }
+        offset += b.getOnDiskSizeWithHeader();
+      }
+      is.close();
+    }
+  }
+
   @Test
   public void testReaderV2() throws IOException {
     testReaderV2Internals();
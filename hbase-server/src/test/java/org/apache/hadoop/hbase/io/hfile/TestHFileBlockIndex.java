@@ -21,6 +21,7 @@ package org.apache.hadoop.hbase.io.hfile;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
@@ -184,6 +185,10 @@ public class TestHFileBlockIndex {
 
       return prevBlock;
     }
+
+    @Override
+    public void returnBlock(HFileBlock block) {
+    }
   }
 
   private void readIndex(boolean useTags) throws IOException {
@@ -491,10 +496,10 @@ public class TestHFileBlockIndex {
         new HFileBlockIndex.BlockIndexReader(KeyValue.RAW_COMPARATOR, 1);
     long actual = bi.heapSize();
 
-    // Since the arrays in BlockIndex(byte [][] blockKeys, long [] blockOffsets,
-    // int [] blockDataSizes) are all null they are not going to show up in the
-    // HeapSize calculation, so need to remove those array costs from expected.
-    expected -= ClassSize.align(3 * ClassSize.ARRAY);
+    // Since the arrays in BlockIndex(byte [] rootKeys, int [] rootKeyOffsets, byte [] firstKey,
+    // long [] blockOffsets, int [] blockDataSizes) are all null they are not going to show up
+    // in the HeapSize calculation, so need to remove those array costs from expected.
+    expected -= ClassSize.align(5 * ClassSize.ARRAY);
 
     if (expected != actual) {
       ClassSize.estimateBase(cl, true);
@@ -569,6 +574,61 @@ public class TestHFileBlockIndex {
    assertFalse(hasArrayIndexOutOfBoundsException);
  }
 
+  @Test
+  public void testIndexBlocksCachedInMemory() throws IOException {
+    Path hfilePath = new Path(TEST_UTIL.getDataTestDir(), "hfile_for_inmemory_index_" + compr);
+    Configuration conf = new Configuration(this.conf);
+    conf.setInt(HFileBlockIndex.MAX_CHUNK_SIZE_KEY, 512);
+    conf.setBoolean(HFileBlockIndex.INDEX_BLOCKS_IN_MEMORY_KEY, true);
+    CacheConfig cacheConf = new CacheConfig(conf);
+    BlockCache blockCache = cacheConf.getBlockCache();
+
+    HFileContext meta = new HFileContextBuilder().withBlockSize(SMALL_BLOCK_SIZE)
+        .withCompression(compr).build();
+    HFile.Writer writer = HFile.getWriterFactory(conf, cacheConf).withPath(fs, hfilePath)
+        .withFileContext(meta).create();
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    Random rand = new Random(19231737);
+    for (int i = 0; i < 64; ++i) {
+      byte[] row = TestHFileWriterV2.randomOrderedFixedLengthKey(rand, i, 30);
+      KeyValue kv = new KeyValue(row, Bytes.toBytes("f"), Bytes.toBytes("q"), 1L,
+          TestHFileWriterV2.randomFixedLengthValue(rand, SMALL_BLOCK_SIZE));
+      writer.append(kv);
+      kvs.add(kv);
+    }
+    writer.close();
+    blockCache.evictBlocksByHfileName(hfilePath.getName());
+
+    HFile.Reader reader = HFile.createReader(fs, hfilePath, cacheConf, conf);
+    try {
+      assertTrue(reader.getTrailer().getNumDataIndexLevels() > 1);
+      HFileScanner scanner = reader.getScanner(true, true);
+      for (KeyValue kv : kvs) {
+        assertEquals(0, scanner.seekTo(kv));
+      }
+    } finally {
+      reader.close(false);
+    }
+
+    int indexBlocks = 0;
+    int dataBlocks = 0;
+    for (CachedBlock block : blockCache) {
+      if (!block.getFilename().equals(hfilePath.getName())) {
+        continue;
+      }
+      if (block.getBlockType().getCategory() == BlockType.BlockCategory.INDEX) {
+        assertEquals(BlockPriority.MEMORY, block.getBlockPriority());
+        indexBlocks++;
+      } else if (block.getBlockType().isData()) {
+        assertFalse(block.getBlockPriority() == BlockPriority.MEMORY);
+        dataBlocks++;
+      }
+    }
+    assertTrue(indexBlocks > 1);
+    assertTrue(dataBlocks > 0);
+    blockCache.evictBlocksByHfileName(hfilePath.getName());
+  }
+
   /**
    * Testing block index through the HFile writer/reader APIs. Allows to test
    * setting index block size through configuration, intermediate-level index
@@ -637,6 +697,8 @@ public class TestHFileBlockIndex {
           reader.getTrailer().getNumDataIndexLevels());
 
       assertTrue(Bytes.equals(keys[0], reader.getFirstKey()));
+      // The first key is kept, not copied, for each call
+      assertSame(reader.getFirstKey(), reader.getFirstKey());
       assertTrue(Bytes.equals(keys[NUM_KV - 1], reader.getLastKey()));
       LOG.info("Last key: " + Bytes.toStringBinary(keys[NUM_KV - 1]));
 
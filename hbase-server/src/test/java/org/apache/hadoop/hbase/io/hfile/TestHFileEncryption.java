@@ -128,7 +128,10 @@ public class TestHFileEncryption {
     for (int i = 0; i < blocks; i++) {
       blockSizes[i] = (1024 + RNG.nextInt(1024 * 63)) / Bytes.SIZEOF_INT;
     }
-    for (Compression.Algorithm compression : TestHFileBlock.COMPRESSION_ALGORITHMS) {
+    // LZ4 blocks are decompressed by the block codec after decryption
+    Compression.Algorithm[] algorithms = { Compression.Algorithm.NONE,
+        Compression.Algorithm.GZ, Compression.Algorithm.LZ4 };
+    for (Compression.Algorithm compression : algorithms) {
       Path path = new Path(TEST_UTIL.getDataTestDir(), "block_v3_" + compression + "_AES");
       LOG.info("testDataBlockEncryption: encryption=AES compression=" + compression);
       long totalSize = 0;
@@ -605,6 +605,46 @@ public class TestLruBlockCache {
 
   }
 
+  @Test
+  public void testTinyLfuAdmission() throws Exception {
+    long maxSize = 100000;
+    long blockSize = calculateBlockSizeDefault(maxSize, 10);
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(LruBlockCache.LRU_TINYLFU_ADMISSION_CONFIG_NAME, true);
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false, conf);
+
+    CachedItem [] usedBlocks = generateFixedBlocks(10, blockSize, "used");
+    CachedItem [] scanBlocks = generateFixedBlocks(100, blockSize, "scan");
+
+    // Fill the cache with blocks which were each asked for three times
+    for (CachedItem block : usedBlocks) {
+      for (int i = 0; i < 3; i++) {
+        cache.getBlock(block.cacheKey, true, false, true);
+      }
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    assertEquals(1, cache.getStats().getEvictionCount());
+    long blockCount = cache.getBlockCount();
+
+    // A scan asks for every block once; none is worth more than the blocks the cache evicts
+    for (CachedItem block : scanBlocks) {
+      assertNull(cache.getBlock(block.cacheKey, true, false, true));
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    assertEquals(scanBlocks.length, cache.getStats().getRejectedAdmissionCount());
+    assertEquals(1, cache.getStats().getEvictionCount());
+    assertEquals(blockCount, cache.getBlockCount());
+
+    // A block asked for more often than the evicted ones is admitted
+    CachedItem block = new CachedItem("hot", (int) blockSize);
+    for (int i = 0; i < 4; i++) {
+      cache.getBlock(block.cacheKey, true, false, true);
+    }
+    cache.cacheBlock(block.cacheKey, block);
+    assertTrue(cache.containsBlock(block.cacheKey));
+    assertEquals(scanBlocks.length, cache.getStats().getRejectedAdmissionCount());
+  }
+
   @Test
   public void testMaxBlockSize() throws Exception {
     long maxSize = 100000;
@@ -890,6 +930,10 @@ public class TestLruBlockCache {
       return BlockType.DATA;
     }
 
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.EXCLUSIVE;
+    }
   }
 
 }
@@ -0,0 +1,259 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the ShardedLruBlockCache: eviction on insert, block priorities and resizing.
+ */
+@Category(SmallTests.class)
+public class TestShardedLruBlockCache {
+
+  private static final int BLOCK_SIZE = 1000;
+
+  private static ShardedLruBlockCache createCache(long maxSize, int shards) {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(ShardedLruBlockCache.SHARDS_CONFIG_NAME, shards);
+    return new ShardedLruBlockCache(maxSize, BLOCK_SIZE, conf);
+  }
+
+  private static long acceptableBytes(ShardedLruBlockCache cache) {
+    return (long) (cache.getMaxSize() * LruBlockCache.DEFAULT_ACCEPTABLE_FACTOR);
+  }
+
+  @Test
+  public void testShardCount() {
+    assertEquals(4, createCache(100 * 1000 * 1000, 4).getShardCount());
+    assertEquals(8, createCache(100 * 1000 * 1000, 12).getShardCount());
+    // Too small for more shards of at least 64 blocks each
+    assertEquals(2, createCache(200 * BLOCK_SIZE, 16).getShardCount());
+    assertEquals(1, createCache(10 * BLOCK_SIZE, 16).getShardCount());
+  }
+
+  @Test
+  public void testCacheAndEvict() {
+    ShardedLruBlockCache cache = createCache(1000 * BLOCK_SIZE, 4);
+    CachedItem[] blocks = generateBlocks(5000, "block");
+    for (CachedItem block : blocks) {
+      cache.cacheBlock(block.cacheKey, block);
+      // Eviction is part of the insert, the cache never outgrows its acceptable size
+      assertTrue(cache.getCurrentSize() <= acceptableBytes(cache));
+      assertNotNull(cache.getBlock(block.cacheKey, true, false, true));
+    }
+    assertTrue(cache.getStats().getEvictedCount() > 0);
+    assertEquals(blocks.length, cache.getBlockCount() + cache.getStats().getEvictedCount());
+    assertEquals(cache.getBlockCount(), cache.getDataBlockCount());
+    assertEquals(cache.getBlockCount(), countBlocks(cache));
+    // The most recent blocks are still there
+    assertNotNull(cache.getBlock(blocks[blocks.length - 1].cacheKey, true, false, true));
+    assertNull(cache.getBlock(blocks[0].cacheKey, true, false, true));
+
+    long evicted = cache.getStats().getEvictedCount();
+    assertTrue(cache.evictBlock(blocks[blocks.length - 1].cacheKey));
+    assertEquals(evicted + 1, cache.getStats().getEvictedCount());
+    assertEquals(countBlocks(cache), cache.getBlockCount());
+  }
+
+  @Test
+  public void testScanResistance() {
+    ShardedLruBlockCache cache = createCache(1000 * BLOCK_SIZE, 2);
+    CachedItem[] hotBlocks = generateBlocks(300, "hot");
+    for (CachedItem block : hotBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+      cache.getBlock(block.cacheKey, true, false, true);
+    }
+    // A scan of single access blocks can only take the single access part of the cache
+    for (CachedItem block : generateBlocks(3000, "scan")) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    for (CachedItem block : hotBlocks) {
+      assertNotNull(cache.getBlock(block.cacheKey, true, false, true));
+    }
+    int multi = 0;
+    for (CachedBlock block : cache) {
+      if (block.getBlockPriority() == BlockPriority.MULTI) {
+        multi++;
+      }
+    }
+    assertEquals(hotBlocks.length, multi);
+  }
+
+  @Test
+  public void testInMemory() {
+    ShardedLruBlockCache cache = createCache(1000 * BLOCK_SIZE, 1);
+    CachedItem[] memoryBlocks = generateBlocks(2000, "memory");
+    for (CachedItem block : memoryBlocks) {
+      cache.cacheBlock(block.cacheKey, block, true, false);
+    }
+    // Without other blocks, in-memory blocks may use the whole cache
+    assertTrue(cache.getCurrentSize() > acceptableBytes(cache) - 2 * blockHeapSize());
+    for (CachedItem block : generateBlocks(2000, "single")) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    // Then they give up room until they exceed their share by no more than the single access
+    // blocks; with the multi access share unused, that leaves both with half of the cache
+    long memorySize = 0;
+    for (CachedBlock block : cache) {
+      if (block.getBlockPriority() == BlockPriority.MEMORY) {
+        memorySize += blockHeapSize();
+      }
+    }
+    long half = (acceptableBytes(cache)
+        - ShardedLruBlockCache.calculateOverhead(1000 * BLOCK_SIZE, BLOCK_SIZE, 1)) / 2;
+    assertTrue("memorySize=" + memorySize, memorySize <= half + 2 * blockHeapSize());
+    assertTrue("memorySize=" + memorySize, memorySize >= half - 2 * blockHeapSize());
+  }
+
+  @Test
+  public void testResize() {
+    ShardedLruBlockCache cache = createCache(1000 * BLOCK_SIZE, 4);
+    for (CachedItem block : generateBlocks(2000, "block")) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    cache.setMaxSize(500 * BLOCK_SIZE);
+    assertTrue(cache.getCurrentSize() <= acceptableBytes(cache));
+    assertEquals(cache.getBlockCount(), countBlocks(cache));
+    for (CachedItem block : generateBlocks(2000, "more")) {
+      cache.cacheBlock(block.cacheKey, block);
+      assertTrue(cache.getCurrentSize() <= acceptableBytes(cache));
+    }
+  }
+
+  @Test
+  public void testEvictBlocksByHfileName() {
+    ShardedLruBlockCache cache = createCache(1000 * BLOCK_SIZE, 4);
+    CachedItem[] blocks = generateBlocks(100, "file1");
+    for (CachedItem block : blocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    for (CachedItem block : generateBlocks(50, "file2")) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    assertEquals(100, cache.evictBlocksByHfileName("file1"));
+    assertEquals(50, cache.getBlockCount());
+    assertNull(cache.getBlock(blocks[0].cacheKey, true, false, true));
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final ShardedLruBlockCache cache = createCache(1000 * BLOCK_SIZE, 8);
+    final CachedItem[] blocks = generateBlocks(4000, "block");
+    ExecutorService service = Executors.newFixedThreadPool(8);
+    for (int t = 0; t < 8; t++) {
+      final int seed = t;
+      service.execute(new Runnable() {
+        @Override
+        public void run() {
+          Random rand = new Random(seed);
+          for (int i = 0; i < 20000; i++) {
+            CachedItem block = blocks[rand.nextInt(blocks.length)];
+            if (cache.getBlock(block.cacheKey, true, false, true) == null) {
+              cache.cacheBlock(block.cacheKey, block);
+            }
+            if (i % 100 == 0) {
+              cache.evictBlock(blocks[rand.nextInt(blocks.length)].cacheKey);
+            }
+          }
+        }
+      });
+    }
+    service.shutdown();
+    assertTrue(service.awaitTermination(1, TimeUnit.MINUTES));
+    assertTrue(cache.getCurrentSize() <= acceptableBytes(cache));
+    assertEquals(countBlocks(cache), cache.getBlockCount());
+    assertEquals(cache.getBlockCount() * blockHeapSize(),
+        cache.getCurrentSize() - ShardedLruBlockCache.calculateOverhead(1000 * BLOCK_SIZE,
+            BLOCK_SIZE, cache.getShardCount()));
+  }
+
+  private static int countBlocks(ShardedLruBlockCache cache) {
+    int count = 0;
+    for (Iterator<CachedBlock> it = cache.iterator(); it.hasNext(); it.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  private static long blockHeapSize() {
+    return new ShardedLruBlockCache.Entry(new BlockCacheKey("block", 0),
+        new CachedItem(new BlockCacheKey("block", 0)), 0, false).heapSize();
+  }
+
+  private static CachedItem[] generateBlocks(int numBlocks, String hfileName) {
+    CachedItem[] blocks = new CachedItem[numBlocks];
+    for (int i = 0; i < numBlocks; i++) {
+      blocks[i] = new CachedItem(new BlockCacheKey(hfileName, i * (long) BLOCK_SIZE));
+    }
+    return blocks;
+  }
+
+  private static class CachedItem implements Cacheable {
+    BlockCacheKey cacheKey;
+
+    CachedItem(BlockCacheKey cacheKey) {
+      this.cacheKey = cacheKey;
+    }
+
+    @Override
+    public long heapSize() {
+      return ClassSize.align(BLOCK_SIZE);
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.EXCLUSIVE;
+    }
+  }
+}
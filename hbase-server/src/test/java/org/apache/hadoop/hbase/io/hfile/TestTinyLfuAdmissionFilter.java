@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestTinyLfuAdmissionFilter {
+
+  @Test
+  public void testFrequency() {
+    TinyLfuAdmissionFilter filter = new TinyLfuAdmissionFilter(1024);
+    BlockCacheKey key = new BlockCacheKey("hfile", 0);
+    assertEquals(0, filter.frequency(key));
+    for (int i = 1; i <= 20; i++) {
+      filter.record(key);
+      // Counters saturate at 15
+      assertEquals(Math.min(i, 15), filter.frequency(key));
+    }
+    // Other blocks are hardly affected
+    int collisions = 0;
+    for (int i = 1; i < 1000; i++) {
+      collisions += filter.frequency(new BlockCacheKey("hfile", i * 65536L));
+    }
+    assertTrue("collisions=" + collisions, collisions < 15);
+  }
+
+  @Test
+  public void testAdmission() {
+    TinyLfuAdmissionFilter filter = new TinyLfuAdmissionFilter(1024);
+    BlockCacheKey victim = new BlockCacheKey("victim", 0);
+    BlockCacheKey candidate = new BlockCacheKey("candidate", 0);
+    // Nothing evicted yet, so every block that was asked for is admitted
+    filter.record(candidate);
+    assertTrue(filter.admit(candidate));
+
+    filter.record(victim);
+    filter.record(victim);
+    filter.evicted(victim);
+    filter.evictionRunFinished();
+    assertEquals(2, filter.getVictimFrequency());
+    assertFalse(filter.admit(candidate));
+    filter.record(candidate);
+    assertFalse(filter.admit(candidate));
+    filter.record(candidate);
+    assertTrue(filter.admit(candidate));
+  }
+
+  @Test
+  public void testAging() {
+    TinyLfuAdmissionFilter filter = new TinyLfuAdmissionFilter(1024);
+    BlockCacheKey key = new BlockCacheKey("hfile", 0);
+    for (int i = 0; i < 8; i++) {
+      filter.record(key);
+    }
+    filter.evicted(key);
+    filter.evictionRunFinished();
+    assertEquals(8, filter.getVictimFrequency());
+    // Enough other accesses halve all counters, and the bar with them
+    for (int i = 1; i < 10 * 1024; i++) {
+      filter.record(new BlockCacheKey("other", i));
+    }
+    assertTrue(filter.frequency(key) <= 4);
+    assertEquals(4, filter.getVictimFrequency());
+  }
+}
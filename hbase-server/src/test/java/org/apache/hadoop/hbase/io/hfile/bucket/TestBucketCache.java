@@ -20,10 +20,13 @@ package org.apache.hadoop.hbase.io.hfile.bucket;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -41,8 +44,10 @@ import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
 import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.BucketSizeInfo;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.IndexStatistics;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.junit.After;
 import org.junit.Before;
@@ -228,6 +233,47 @@ public class TestBucketCache {
     assertTrue("We should have a block!", cache.iterator().hasNext());
   }
 
+  @Test
+  public void testSharedBlockFreedWhenReturned() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(constructedBlockSize, 8);
+    for (HFileBlockPair block : blocks) {
+      cacheAndWaitUntilFlushedToBucket(cache, block.getBlockName(), block.getBlock());
+    }
+    while (!cache.ramCache.isEmpty()) {
+      Thread.sleep(100);
+    }
+
+    // The heap engine hands out blocks backed by the bucket itself, unless they straddle two of
+    // its buffers
+    BlockCacheKey cacheKey = null;
+    Cacheable block = null;
+    for (HFileBlockPair pair : blocks) {
+      Cacheable cached = cache.getBlock(pair.getBlockName(), true, false, true);
+      assertEquals(pair.getBlock(), cached);
+      if (cached.getMemoryType() == MemoryType.SHARED) {
+        cacheKey = pair.getBlockName();
+        block = cached;
+        break;
+      }
+      assertEquals(0, cache.backingMap.get(pair.getBlockName()).getRefCount());
+    }
+    assertTrue("No block was served from shared memory", block != null);
+    BucketCache.BucketEntry bucketEntry = cache.backingMap.get(cacheKey);
+    assertEquals(1, bucketEntry.getRefCount());
+
+    // Evicting a block in use defers freeing its bucket until it is returned
+    long blockCount = cache.getBlockCount();
+    assertFalse(cache.evictBlock(cacheKey));
+    assertTrue(cache.backingMap.containsKey(cacheKey));
+    assertNull(cache.getBlock(cacheKey, true, false, true));
+    assertEquals(blockCount, cache.getBlockCount());
+
+    cache.returnBlock(cacheKey, block);
+    assertEquals(0, bucketEntry.getRefCount());
+    assertFalse(cache.backingMap.containsKey(cacheKey));
+    assertEquals(blockCount - 1, cache.getBlockCount());
+  }
+
   @Test
   public void testRetrieveFromFile() throws Exception {
     HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
@@ -273,6 +319,80 @@ public class TestBucketCache {
     TEST_UTIL.cleanupTestDir();
   }
 
+  @Test
+  public void testRetrieveFromCheckpointAfterCrash() throws Exception {
+    HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+    Path testDir = TEST_UTIL.getDataTestDir();
+    TEST_UTIL.getTestFileSystem().mkdirs(testDir);
+    String ioEngine = "file:" + testDir + "/bucket.cache";
+    String persistencePath = testDir + "/bucket.persistence";
+
+    BucketCache bucketCache = new BucketCache(ioEngine, capacitySize, constructedBlockSize,
+        constructedBlockSizes, writeThreads, writerQLen, persistencePath);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(constructedBlockSize, 4);
+    for (HFileBlockPair block : blocks) {
+      cacheAndWaitUntilFlushedToBucket(bucketCache, block.getBlockName(), block.getBlock());
+    }
+    bucketCache.checkpoint();
+    // The bucket of the first block is overwritten after the checkpoint
+    BucketEntry reused = bucketCache.backingMap.get(blocks[0].getBlockName());
+    byte[] garbage = new byte[reused.getLength()];
+    RAND.nextBytes(garbage);
+    bucketCache.ioEngine.write(ByteBuffer.wrap(garbage), reused.offset());
+
+    // Restart without shutting down, as after a crash
+    BucketCache restarted = new BucketCache(ioEngine, capacitySize, constructedBlockSize,
+        constructedBlockSizes, writeThreads, writerQLen, persistencePath);
+    assertEquals(blocks.length, restarted.getBlockCount());
+    assertNull(restarted.getBlock(blocks[0].getBlockName(), false, false, false));
+    assertFalse(restarted.backingMap.containsKey(blocks[0].getBlockName()));
+    assertEquals(blocks.length - 1, restarted.getBlockCount());
+    for (int i = 1; i < blocks.length; i++) {
+      assertEquals(blocks[i].getBlock(),
+        restarted.getBlock(blocks[i].getBlockName(), false, false, false));
+    }
+    restarted.shutdown();
+    bucketCache.shutdown();
+
+    TEST_UTIL.cleanupTestDir();
+  }
+
+  @Test
+  public void testRetrieveFromDamagedFile() throws Exception {
+    HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+    Path testDir = TEST_UTIL.getDataTestDir();
+    TEST_UTIL.getTestFileSystem().mkdirs(testDir);
+    String ioEngine = "file:" + testDir + "/bucket.cache";
+    String persistencePath = testDir + "/bucket.persistence";
+
+    BucketCache bucketCache = new BucketCache(ioEngine, capacitySize, constructedBlockSize,
+        constructedBlockSizes, writeThreads, writerQLen, persistencePath);
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(constructedBlockSize, 4);
+    for (HFileBlockPair block : blocks) {
+      cacheAndWaitUntilFlushedToBucket(bucketCache, block.getBlockName(), block.getBlock());
+    }
+    bucketCache.shutdown();
+
+    RandomAccessFile raf = new RandomAccessFile(persistencePath, "rw");
+    try {
+      long pos = raf.length() / 2;
+      raf.seek(pos);
+      int b = raf.read();
+      raf.seek(pos);
+      raf.write(b ^ 0xFF);
+    } finally {
+      raf.close();
+    }
+
+    bucketCache = new BucketCache(ioEngine, capacitySize, constructedBlockSize,
+        constructedBlockSizes, writeThreads, writerQLen, persistencePath);
+    assertEquals(0, bucketCache.getAllocator().getUsedSize());
+    assertEquals(0, bucketCache.backingMap.size());
+    bucketCache.shutdown();
+
+    TEST_UTIL.cleanupTestDir();
+  }
+
   @Test
   public void testGetPartitionSize() throws IOException {
     //Test default values
@@ -0,0 +1,101 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Basic test for {@link FileMmapEngine}
+ */
+@Category(SmallTests.class)
+public class TestFileMmapEngine {
+
+  private static final long TOTAL_CAPACITY = 6 * 1024 * 1024; // 6 MB
+  private static final String FILE_PATH = "testFileMmapEngine";
+
+  private FileMmapEngine fileMmapEngine;
+
+  @Before
+  public void setUp() throws IOException {
+    fileMmapEngine = new FileMmapEngine(FILE_PATH, TOTAL_CAPACITY);
+  }
+
+  @After
+  public void cleanUp() throws IOException {
+    fileMmapEngine.shutdown();
+    File file = new File(FILE_PATH);
+    if (file.exists()) {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testFileMmapEngine() throws IOException {
+    for (int i = 0; i < 500; i++) {
+      int len = (int) Math.floor(Math.random() * 100) + 1;
+      long offset = (long) Math.floor(Math.random() * TOTAL_CAPACITY % (TOTAL_CAPACITY - len));
+      byte[] data1 = new byte[len];
+      for (int j = 0; j < data1.length; ++j) {
+        data1[j] = (byte) (Math.random() * 255);
+      }
+      byte[] data2 = new byte[len];
+      fileMmapEngine.write(ByteBuffer.wrap(data1), offset);
+      fileMmapEngine.read(ByteBuffer.wrap(data2), offset);
+      assertArrayEquals(data1, data2);
+
+      ByteBuffer shared = fileMmapEngine.readShared(offset, len);
+      if (shared != null) {
+        assertTrue(shared.isDirect());
+        assertEquals(len, shared.remaining());
+        byte[] data3 = new byte[len];
+        shared.get(data3);
+        assertArrayEquals(data1, data3);
+      }
+    }
+  }
+
+  @Test
+  public void testDataSurvivesReopen() throws IOException {
+    byte[] data1 = new byte[1024];
+    for (int j = 0; j < data1.length; ++j) {
+      data1[j] = (byte) (Math.random() * 255);
+    }
+    long offset = TOTAL_CAPACITY / 2 - data1.length / 2;
+    fileMmapEngine.write(ByteBuffer.wrap(data1), offset);
+    fileMmapEngine.sync();
+    fileMmapEngine.shutdown();
+
+    fileMmapEngine = new FileMmapEngine(FILE_PATH, TOTAL_CAPACITY);
+    byte[] data2 = new byte[data1.length];
+    fileMmapEngine.read(ByteBuffer.wrap(data2), offset);
+    assertArrayEquals(data1, data2);
+  }
+}
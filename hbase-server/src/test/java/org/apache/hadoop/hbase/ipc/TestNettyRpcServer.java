@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.apache.hadoop.hbase.ipc.TestProtobufRpcServiceImpl.SERVICE;
+import static org.apache.hadoop.hbase.ipc.TestProtobufRpcServiceImpl.newBlockingStub;
+import static org.apache.hadoop.hbase.ipc.TestProtobufRpcServiceImpl.newStub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.protobuf.ServiceException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ipc.RpcServer.BlockingServiceAndInterface;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoRequestProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoResponseProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EmptyRequestProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestRpcServiceProtos.TestProtobufRpcProto.BlockingInterface;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestRpcServiceProtos.TestProtobufRpcProto.Interface;
+import org.apache.hadoop.hbase.testclassification.RPCTests;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs both rpc clients against a {@link NettyRpcServer}.
+ */
+@RunWith(Parameterized.class)
+@Category({ RPCTests.class, SmallTests.class })
+public class TestNettyRpcServer {
+
+  private static final byte[] CELL_BYTES = Bytes.toBytes("xyz");
+  private static final KeyValue CELL = new KeyValue(CELL_BYTES, CELL_BYTES, CELL_BYTES, CELL_BYTES);
+  // Spans several socket reads but keeps the echoed cell block within its initial buffer.
+  private static final KeyValue MEDIUM_CELL =
+      new KeyValue(CELL_BYTES, CELL_BYTES, CELL_BYTES, new byte[8 * 1024]);
+  private static final KeyValue BIG_CELL =
+      new KeyValue(CELL_BYTES, CELL_BYTES, CELL_BYTES, new byte[100 * 1024]);
+
+  @Parameters(name = "{index}: client={0}")
+  public static Collection<Object[]> parameters() {
+    return Arrays.asList(new Object[] { BlockingRpcClient.class },
+      new Object[] { NettyRpcClient.class });
+  }
+
+  @Parameter
+  public Class<? extends RpcClient> clientClass;
+
+  private Configuration conf;
+
+  private RpcServerInterface rpcServer;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = HBaseConfiguration.create();
+    conf.set(RpcServerFactory.CUSTOM_RPC_SERVER_IMPL_CONF_KEY, NettyRpcServer.class.getName());
+    conf.set(RpcClientFactory.CUSTOM_RPC_CLIENT_IMPL_CONF_KEY, clientClass.getName());
+    conf.setInt(RpcServer.MAX_REQUEST_SIZE, 200 * 1024);
+    rpcServer = RpcServerFactory.createRpcServer(null, "testNettyRpcServer",
+      Lists.newArrayList(new BlockingServiceAndInterface(SERVICE, null)),
+      new InetSocketAddress("localhost", 0), conf, new FifoRpcScheduler(conf, 1));
+    assertTrue(rpcServer instanceof NettyRpcServer);
+    rpcServer.start();
+  }
+
+  @After
+  public void tearDown() {
+    rpcServer.stop();
+  }
+
+  @Test
+  public void testEchoWithCellBlocks() throws IOException, ServiceException {
+    try (RpcClient client = RpcClientFactory.createClient(conf, "testcluster")) {
+      BlockingInterface stub = newBlockingStub(client, rpcServer.getListenerAddress());
+      // Enough rounds, some with bigger cell blocks, to recycle pooled request buffers.
+      for (int i = 0; i < 100; i++) {
+        List<Cell> cells = new ArrayList<>();
+        for (int j = 0; j < 5; j++) {
+          cells.add(i % 10 == 0 && j == 0 ? MEDIUM_CELL : CELL);
+        }
+        HBaseRpcController pcrc = new HBaseRpcControllerImpl(CellUtil.createCellScanner(cells));
+        String message = "hello-" + i;
+        assertEquals(message, stub.echo(pcrc,
+          EchoRequestProto.newBuilder().setMessage(message).build()).getMessage());
+        CellScanner cellScanner = pcrc.cellScanner();
+        assertNotNull(cellScanner);
+        int index = 0;
+        while (cellScanner.advance()) {
+          assertEquals(cells.get(index++), cellScanner.current());
+        }
+        assertEquals(cells.size(), index);
+      }
+    }
+  }
+
+  @Test
+  public void testAsyncEcho() throws IOException {
+    try (RpcClient client = RpcClientFactory.createClient(conf, "testcluster")) {
+      Interface stub = newStub(client, rpcServer.getListenerAddress());
+      // Stay under the FifoRpcScheduler queue limit of 10 calls per handler.
+      int num = 8;
+      List<BlockingRpcCallback<EchoResponseProto>> callbackList = new ArrayList<>();
+      for (int i = 0; i < num; i++) {
+        BlockingRpcCallback<EchoResponseProto> done = new BlockingRpcCallback<>();
+        stub.echo(new HBaseRpcControllerImpl(),
+          EchoRequestProto.newBuilder().setMessage("hello-" + i).build(), done);
+        callbackList.add(done);
+      }
+      for (int i = 0; i < num; i++) {
+        assertEquals("hello-" + i, callbackList.get(i).get().getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void testRemoteError() throws IOException {
+    try (RpcClient client = RpcClientFactory.createClient(conf, "testcluster")) {
+      BlockingInterface stub = newBlockingStub(client, rpcServer.getListenerAddress());
+      stub.error(null, EmptyRequestProto.getDefaultInstance());
+      fail("Should have thrown a remote error");
+    } catch (ServiceException e) {
+      assertTrue(StringUtils.stringifyException(e).contains("server error!"));
+    }
+  }
+
+  @Test
+  public void testRpcMaxRequestSize() throws IOException {
+    try (RpcClient client = RpcClientFactory.createClient(conf, "testcluster")) {
+      BlockingInterface stub = newBlockingStub(client, rpcServer.getListenerAddress());
+      List<Cell> cells = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        cells.add(BIG_CELL);
+      }
+      stub.echo(new HBaseRpcControllerImpl(CellUtil.createCellScanner(cells)),
+        EchoRequestProto.newBuilder().setMessage("hello").build());
+      fail("RPC should have failed because it exceeds max request size");
+    } catch (ServiceException e) {
+      assertTrue(e.toString(),
+        StringUtils.stringifyException(e).contains("RequestTooBigException"));
+    }
+    // The server is still serving other connections.
+    try (RpcClient client = RpcClientFactory.createClient(conf, "testcluster")) {
+      BlockingInterface stub = newBlockingStub(client, rpcServer.getListenerAddress());
+      assertEquals("hello", stub.echo(new HBaseRpcControllerImpl(
+        CellUtil.createCellScanner(ImmutableList.<Cell> of(CELL))),
+        EchoRequestProto.newBuilder().setMessage("hello").build()).getMessage());
+    } catch (ServiceException e) {
+      throw new IOException(e);
+    }
+  }
+}
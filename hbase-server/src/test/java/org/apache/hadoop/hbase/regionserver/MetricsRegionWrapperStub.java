@@ -70,6 +70,11 @@ public class MetricsRegionWrapperStub implements MetricsRegionWrapper {
     return 104;
   }
 
+  @Override
+  public long getStoreFileIndexSize() {
+    return 106;
+  }
+
   @Override
   public long getReadRequestCount() {
     return 105;
@@ -100,6 +105,21 @@ public class MetricsRegionWrapperStub implements MetricsRegionWrapper {
     return 106;
   }
 
+  @Override
+  public long getRowLockWaitCount() {
+    return 0;
+  }
+
+  @Override
+  public long getRowLockWaitTime() {
+    return 0;
+  }
+
+  @Override
+  public long getNumContendedRows() {
+    return 0;
+  }
+
   @Override
   public long getNumFilesCompacted() {
     return 0;
@@ -0,0 +1,129 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Measures the throughput of {@link MultiVersionConcurrencyControl} writes, begun then completed
+ * and waited for as a region does, for several numbers of handler threads writing on the same
+ * region.
+ */
+@InterfaceAudience.Private
+public final class MultiVersionConcurrencyControlPerformanceEvaluation extends Configured
+    implements Tool {
+
+  @Override
+  public int run(String[] args) throws Exception {
+    int[] threadCounts = new int[] { 1, 2, 4, 8, 16, 32, 64 };
+    long iterations = 1000000;
+    boolean withAction = false;
+    for (int i = 0; i < args.length; i++) {
+      String cmd = args[i];
+      if (cmd.equals("-threads")) {
+        String[] counts = args[++i].split(",");
+        threadCounts = new int[counts.length];
+        for (int j = 0; j < counts.length; j++) {
+          threadCounts[j] = Integer.parseInt(counts[j]);
+        }
+      } else if (cmd.equals("-iterations")) {
+        iterations = Long.parseLong(args[++i]);
+      } else if (cmd.equals("-action")) {
+        withAction = true;
+      } else if (cmd.equals("-h") || cmd.equals("--help")) {
+        printUsage();
+        return 0;
+      } else {
+        System.err.println("UNEXPECTED: " + cmd);
+        printUsage();
+        return 1;
+      }
+    }
+    // Warm up
+    runBenchmark(threadCounts[threadCounts.length - 1], iterations / 10, withAction);
+    for (int threads : threadCounts) {
+      long elapsed = runBenchmark(threads, iterations, withAction);
+      System.out.printf("threads=%d writes=%d time=%dms writes/sec=%.0f%n", threads, iterations,
+          elapsed / 1000000, iterations * 1e9 / elapsed);
+    }
+    return 0;
+  }
+
+  /**
+   * @return the time taken by the given number of threads to do the given number of writes,
+   *         in nanoseconds
+   */
+  private static long runBenchmark(int numThreads, final long iterations,
+      final boolean withAction) throws InterruptedException {
+    final MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    final AtomicLong remaining = new AtomicLong(iterations);
+    final Runnable action = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          while (remaining.getAndDecrement() > 0) {
+            MultiVersionConcurrencyControl.WriteEntry e =
+                withAction ? mvcc.begin(action) : mvcc.begin();
+            mvcc.completeAndWait(e);
+          }
+        }
+      };
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = System.nanoTime() - start;
+    if (mvcc.getReadPoint() != iterations) {
+      throw new IllegalStateException("Read point " + mvcc.getReadPoint() + " after "
+          + iterations + " writes");
+    }
+    return elapsed;
+  }
+
+  private void printUsage() {
+    System.err.printf("Usage: bin/hbase %s [options]\n", getClass().getName());
+    System.err.println(" where [options] are:");
+    System.err.println("  -h|-help          Show this help and exit.");
+    System.err.println("  -threads <N,...>  Numbers of threads to run with.");
+    System.err.println("                    Default: 1,2,4,8,16,32,64");
+    System.err.println("  -iterations <N>   Number of writes per run. Default: 1000000");
+    System.err.println("  -action           Begin the writes with an action, as WAL appends do.");
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(HBaseConfiguration.create(),
+        new MultiVersionConcurrencyControlPerformanceEvaluation(), args));
+  }
+}
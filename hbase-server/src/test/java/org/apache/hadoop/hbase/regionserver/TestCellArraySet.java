@@ -0,0 +1,146 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestCellArraySet extends TestCase {
+  private static final int TOTAL = 10;
+
+  private KeyValue[] kvs;
+  private CellArraySet cas;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    byte [] bytes = Bytes.toBytes(getName());
+    this.kvs = new KeyValue[TOTAL];
+    for (int i = 0; i < TOTAL; i++) {
+      // Every other qualifier so there are keys in between to look up.
+      this.kvs[i] = new KeyValue(bytes, bytes, Bytes.toBytes(2 * i), bytes);
+    }
+    this.cas = new CellArraySet(KeyValue.COMPARATOR, this.kvs.clone());
+  }
+
+  private KeyValue between(int index) {
+    byte [] bytes = Bytes.toBytes(getName());
+    return new KeyValue(bytes, bytes, Bytes.toBytes(2 * index + 1), bytes);
+  }
+
+  public void testGet() throws Exception {
+    assertEquals(TOTAL, this.cas.size());
+    for (int i = 0; i < TOTAL; i++) {
+      KeyValue copy = new KeyValue(this.kvs[i].getRow(), this.kvs[i].getFamily(),
+        this.kvs[i].getQualifier(), this.kvs[i].getValue());
+      assertSame(this.kvs[i], this.cas.get(copy));
+      assertTrue(this.cas.contains(copy));
+      assertNull(this.cas.get(between(i)));
+      assertFalse(this.cas.contains(between(i)));
+    }
+    assertSame(this.kvs[0], this.cas.first());
+    assertSame(this.kvs[TOTAL - 1], this.cas.last());
+  }
+
+  public void testNavigation() throws Exception {
+    for (int i = 0; i < TOTAL; i++) {
+      assertSame(this.kvs[i], this.cas.ceiling(this.kvs[i]));
+      assertSame(this.kvs[i], this.cas.floor(this.kvs[i]));
+      assertSame(i + 1 < TOTAL ? this.kvs[i + 1] : null, this.cas.higher(this.kvs[i]));
+      assertSame(i > 0 ? this.kvs[i - 1] : null, this.cas.lower(this.kvs[i]));
+      assertSame(i + 1 < TOTAL ? this.kvs[i + 1] : null, this.cas.ceiling(between(i)));
+      assertSame(this.kvs[i], this.cas.floor(between(i)));
+    }
+  }
+
+  public void testSubSets() throws Exception {
+    NavigableSet<Cell> tail = this.cas.tailSet(this.kvs[3], true);
+    assertEquals(TOTAL - 3, tail.size());
+    assertSame(this.kvs[3], tail.first());
+    assertEquals(TOTAL - 4, this.cas.tailSet(this.kvs[3], false).size());
+    assertEquals(TOTAL - 4, this.cas.tailSet(between(3)).size());
+
+    NavigableSet<Cell> head = this.cas.headSet(this.kvs[3], false);
+    assertEquals(3, head.size());
+    assertSame(this.kvs[2], head.last());
+    assertEquals(4, this.cas.headSet(this.kvs[3], true).size());
+
+    NavigableSet<Cell> sub = this.cas.subSet(this.kvs[2], true, this.kvs[6], false);
+    assertEquals(4, sub.size());
+    assertSame(this.kvs[2], sub.first());
+    assertSame(this.kvs[5], sub.last());
+    // A view only sees its own range.
+    assertFalse(sub.contains(this.kvs[7]));
+    assertNull(sub.higher(this.kvs[5]));
+    assertNull(sub.lower(this.kvs[2]));
+    assertEquals(0, this.cas.tailSet(this.kvs[TOTAL - 1], false).size());
+  }
+
+  public void testIterators() throws Exception {
+    int count = 0;
+    for (Cell kv : this.cas) {
+      assertSame(this.kvs[count++], kv);
+    }
+    assertEquals(TOTAL, count);
+    Iterator<Cell> descending = this.cas.descendingIterator();
+    while (descending.hasNext()) {
+      assertSame(this.kvs[--count], descending.next());
+    }
+    assertEquals(0, count);
+  }
+
+  public void testImmutable() throws Exception {
+    try {
+      this.cas.add(between(0));
+      fail("Set should be immutable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      this.cas.remove(this.kvs[0]);
+      fail("Set should be immutable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    assertEquals(TOTAL, this.cas.size());
+  }
+
+  public void testWithout() throws Exception {
+    CellArraySet without = this.cas.without(this.kvs[4]);
+    assertEquals(TOTAL - 1, without.size());
+    assertNull(without.get(this.kvs[4]));
+    assertSame(this.kvs[5], without.higher(this.kvs[3]));
+    // The original is left as it was.
+    assertEquals(TOTAL, this.cas.size());
+    assertSame(this.kvs[4], this.cas.get(this.kvs[4]));
+    // Copying a view keeps only the cells of the view.
+    CellArraySet tailWithout =
+      ((CellArraySet) this.cas.tailSet(this.kvs[6], true)).without(this.kvs[6]);
+    assertEquals(TOTAL - 7, tailWithout.size());
+    assertSame(this.kvs[7], tailWithout.first());
+  }
+}
@@ -0,0 +1,231 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MemoryCompactionPolicy;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.Waiter;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.testclassification.RegionServerTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+/**
+ * Tests the {@link CompactingMemStore} in a region.
+ */
+@Category({RegionServerTests.class, MediumTests.class})
+public class TestCompactingMemStore {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  @Rule
+  public TestName name = new TestName();
+
+  private HRegion region;
+  private CompactingMemStore memstore;
+
+  @After
+  public void tearDown() throws IOException {
+    if (region != null) {
+      HBaseTestingUtility.closeRegionAndWAL(region);
+    }
+  }
+
+  private void init(MemoryCompactionPolicy policy, double inMemoryFlushFactor)
+      throws IOException {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    conf.setDouble(CompactingMemStore.IN_MEMORY_FLUSH_THRESHOLD_FACTOR_KEY, inMemoryFlushFactor);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf(name.getMethodName()));
+    htd.addFamily(new HColumnDescriptor(FAMILY).setMaxVersions(1).setInMemoryCompaction(policy));
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    region = TEST_UTIL.createLocalHRegion(info, htd);
+    memstore = (CompactingMemStore) ((HStore) region.getStore(FAMILY)).memstore;
+    assertEquals(policy, memstore.getPolicy());
+  }
+
+  private void put(int row, long ts, String value) throws IOException {
+    Put put = new Put(Bytes.toBytes(row));
+    put.addColumn(FAMILY, QUALIFIER, ts, Bytes.toBytes(value));
+    region.put(put);
+  }
+
+  private void assertValue(int row, String value) throws IOException {
+    Result result = region.get(new Get(Bytes.toBytes(row)));
+    assertEquals(value, Bytes.toString(result.getValue(FAMILY, QUALIFIER)));
+  }
+
+  private int countMemStoreCells() throws IOException {
+    int count = 0;
+    for (KeyValueScanner scanner : memstore.getScanners(Long.MAX_VALUE)) {
+      scanner.seek(KeyValue.LOWESTKEY);
+      while (scanner.next() != null) {
+        count++;
+      }
+      scanner.close();
+    }
+    return count;
+  }
+
+  private void assertAccounting() {
+    // The region only holds this store, so it must account what the store would flush
+    assertEquals(memstore.getFlushableSize(), region.getMemstoreSize());
+  }
+
+  @Test
+  public void testInMemoryFlushFlattensAndMerges() throws IOException {
+    init(MemoryCompactionPolicy.BASIC, 1000);
+    for (int round = 1; round <= 5; round++) {
+      for (int i = 0; i < 10; i++) {
+        put(round * 100 + i, 1, "v" + round);
+      }
+      long sizeBefore = memstore.size();
+      memstore.flushInMemory();
+      assertTrue(memstore.size() < sizeBefore);
+      assertAccounting();
+      // The fifth segment is one too many: the pipeline gets merged
+      assertEquals(round <= 4 ? round : 1, memstore.getPipelineSize());
+    }
+    assertEquals(50, countMemStoreCells());
+    for (int round = 1; round <= 5; round++) {
+      assertValue(round * 100 + 9, "v" + round);
+    }
+    // And a reverse scan across the segments
+    Scan scan = new Scan();
+    scan.setReversed(true);
+    RegionScanner scanner = region.getScanner(scan);
+    List<Cell> cells = new ArrayList<Cell>();
+    scanner.next(cells);
+    scanner.close();
+    assertEquals(509, Bytes.toInt(CellUtil.cloneRow(cells.get(0))));
+  }
+
+  @Test
+  public void testEagerCompactionDropsVersions() throws IOException {
+    init(MemoryCompactionPolicy.EAGER, 1000);
+    for (int round = 1; round <= 3; round++) {
+      for (int i = 0; i < 10; i++) {
+        put(i, round, "v" + round);
+      }
+      memstore.flushInMemory();
+      assertEquals(1, memstore.getPipelineSize());
+      assertAccounting();
+    }
+    // With one version per cell only the last round is left
+    assertEquals(10, countMemStoreCells());
+    assertValue(5, "v3");
+
+    region.flush(true);
+    assertEquals(0, region.getMemstoreSize());
+    assertEquals(0, memstore.getPipelineSize());
+    assertEquals(CompactingMemStore.DEEP_OVERHEAD, memstore.heapSize());
+    assertValue(5, "v3");
+  }
+
+  @Test
+  public void testFlushAfterInMemoryFlush() throws IOException {
+    init(MemoryCompactionPolicy.BASIC, 1000);
+    for (int i = 0; i < 10; i++) {
+      put(i, 1, "v1");
+    }
+    memstore.flushInMemory();
+    for (int i = 10; i < 20; i++) {
+      put(i, 1, "v1");
+    }
+    assertAccounting();
+    // Both the pipeline and the active segment go to disk
+    region.flush(true);
+    assertEquals(0, region.getMemstoreSize());
+    assertEquals(0, countMemStoreCells());
+    assertEquals(1, region.getStore(FAMILY).getStorefilesCount());
+    assertValue(3, "v1");
+    assertValue(13, "v1");
+  }
+
+  @Test
+  public void testRollbackFromPipeline() throws IOException {
+    init(MemoryCompactionPolicy.BASIC, 1000);
+    KeyValue kv = new KeyValue(Bytes.toBytes(1), FAMILY, QUALIFIER, 1, Bytes.toBytes("v"));
+    kv.setSequenceId(1);
+    memstore.add(kv);
+    memstore.flushInMemory();
+    assertEquals(1, countMemStoreCells());
+
+    // A cell of another sequence id is left alone
+    KeyValue other = new KeyValue(Bytes.toBytes(1), FAMILY, QUALIFIER, 1, Bytes.toBytes("v"));
+    other.setSequenceId(2);
+    memstore.rollback(other);
+    assertEquals(1, countMemStoreCells());
+
+    memstore.rollback(kv);
+    assertEquals(0, countMemStoreCells());
+    assertEquals(0, memstore.getFlushableSize());
+  }
+
+  @Test
+  public void testBackgroundInMemoryFlush() throws Exception {
+    // Flush in memory at about 128KB
+    init(MemoryCompactionPolicy.BASIC, 0.001);
+    final byte[] value = new byte[1024];
+    for (int i = 0; i < 200; i++) {
+      Put put = new Put(Bytes.toBytes(i));
+      put.addColumn(FAMILY, QUALIFIER, value);
+      region.put(put);
+    }
+    TEST_UTIL.waitFor(30000, new Waiter.Predicate<Exception>() {
+      @Override
+      public boolean evaluate() throws Exception {
+        return memstore.getPipelineSize() > 0 && !memstore.isInMemoryFlushInProgress();
+      }
+    });
+    assertAccounting();
+    assertEquals(200, countMemStoreCells());
+    Result result = region.get(new Get(Bytes.toBytes(0)));
+    assertNotNull(result.getValue(FAMILY, QUALIFIER));
+    assertNull(region.get(new Get(Bytes.toBytes(200))).getValue(FAMILY, QUALIFIER));
+    assertFalse(memstore.getPipelineSize() > 4);
+  }
+}
@@ -365,6 +365,50 @@ public class TestCompoundBloomFilter {
     assertEquals(0, rowKV.getQualifier().length);
   }
 
+  @Test
+  public void testBlockedCompoundBloomFilter() throws IOException {
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCKED, true);
+    try {
+      for (int t : new int[] { 1, 3 }) {
+        conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE,
+            (float) TARGET_ERROR_RATES[t]);
+        testIdMsg = "in blocked test #" + t + ":";
+        List<KeyValue> kvs = createSortedKeyValues(new Random(GENERATION_SEED), NUM_KV[t]);
+        BloomType bt = BLOOM_TYPES[t];
+        Path sfPath = writeStoreFile(t, bt, kvs);
+
+        StoreFile sf = new StoreFile(fs, sfPath, conf, cacheConf, bt);
+        StoreFile.Reader r = sf.createReader();
+        StoreFileScanner scanner = r.getStoreFileScanner(true, true, false, 0, 0, false);
+        CompoundBloomFilter cbf = (CompoundBloomFilter) r.getGeneralBloomFilter();
+        assertTrue(cbf.isBlocked());
+        assertTrue(testIdMsg + " expected several chunks", cbf.getNumChunks() > 1);
+
+        for (KeyValue kv : kvs) {
+          assertTrue(testIdMsg + " Bloom filter false negative on row "
+              + Bytes.toStringBinary(kv.getRow()),
+              isInBloom(scanner, kv.getRow(), kv.getQualifier()));
+        }
+        Random rand = new Random(EVALUATION_SEED);
+        int nTrials = NUM_KV[t] * 10;
+        int numFalsePos = 0;
+        for (int i = 0; i < nTrials; ++i) {
+          if (isInBloom(scanner, TestHFileWriterV2.randomRowOrQualifier(rand), bt, rand)) {
+            numFalsePos++;
+          }
+        }
+        double falsePosRate = numFalsePos * 1.0 / nTrials;
+        LOG.info(testIdMsg + " False positive rate is " + falsePosRate);
+        assertTrue(testIdMsg + " False positive rate is too high: " + falsePosRate,
+            falsePosRate < TARGET_ERROR_RATES[t] * 1.25);
+        r.close(true);
+      }
+    } finally {
+      conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCKED, false);
+    }
+  }
+
 
 }
 
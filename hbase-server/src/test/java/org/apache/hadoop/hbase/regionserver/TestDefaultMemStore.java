@@ -87,8 +87,8 @@ public class TestDefaultMemStore extends TestCase {
     byte [] other = Bytes.toBytes("somethingelse");
     KeyValue samekey = new KeyValue(bytes, bytes, bytes, other);
     this.memstore.add(samekey);
-    Cell found = this.memstore.activeSection.getCellSkipListSet().first();
-    assertEquals(1, this.memstore.activeSection.getCellSkipListSet().size());
+    Cell found = this.memstore.activeSection.getCellSet().first();
+    assertEquals(1, this.memstore.activeSection.getCellSet().size());
     assertTrue(Bytes.toString(found.getValue()), CellUtil.matchingValue(samekey, found));
   }
 
@@ -493,10 +493,50 @@ public class TestDefaultMemStore extends TestCase {
     for (int i = 0; i < snapshotCount; i++) {
       addRows(this.memstore);
       runSnapshot(this.memstore);
-      assertEquals("History not being cleared", 0, this.memstore.snapshotSection.getCellSkipListSet().size());
+      assertEquals("History not being cleared", 0, this.memstore.snapshotSection.getCellSet().size());
     }
   }
 
+  /**
+   * Test that a snapshot is only a swap of the active section, and is flattened
+   * into a CellArraySet that scanners can still use once the flush compacts it.
+   * @throws IOException
+   */
+  public void testFlatSnapshot() throws IOException {
+    int rowCount = addRows(this.memstore);
+    Cell first = this.memstore.activeSection.getCellSet().first();
+    DefaultMemStore.Section active = this.memstore.activeSection;
+    MemStoreSnapshot snapshot = this.memstore.snapshot();
+    assertSame(active, this.memstore.snapshotSection);
+    assertEquals(rowCount * QUALIFIER_COUNT, snapshot.getCellsCount());
+    // A rollback before the flush removes the cell in place.
+    long size = this.memstore.getFlushableSize();
+    this.memstore.rollback(first);
+    assertNull(this.memstore.snapshotSection.getCellSet().get(first));
+    assertEquals(size - DefaultMemStore.heapSizeChange(first, true),
+      this.memstore.getFlushableSize());
+    size = this.memstore.getFlushableSize();
+    this.memstore.compactSnapshot();
+    assertTrue(this.memstore.snapshotSection.getCellSet() instanceof CellArraySet);
+    assertEquals(rowCount * QUALIFIER_COUNT - 1,
+      this.memstore.snapshotSection.getCellSet().size());
+    assertEquals(size, this.memstore.getFlushableSize());
+    // Rows are still found when scanning across active and snapshot.
+    addRows(this.memstore, 1);
+    int count = 0;
+    List<KeyValueScanner> memstorescanners = this.memstore.getScanners(Long.MAX_VALUE);
+    for (KeyValueScanner scanner : memstorescanners) {
+      scanner.seek(KeyValueUtil.createFirstOnRow(new byte[0]));
+      while (scanner.next() != null) {
+        count++;
+      }
+      scanner.close();
+    }
+    assertEquals(2 * rowCount * QUALIFIER_COUNT - 1, count);
+    this.memstore.clearSnapshot(snapshot.getId());
+    assertEquals(0, this.memstore.snapshotSection.getCellSet().size());
+  }
+
   public void testMultipleVersionsSimple() throws Exception {
     DefaultMemStore m = new DefaultMemStore(new Configuration(), KeyValue.COMPARATOR);
     byte [] row = Bytes.toBytes("testRow");
@@ -514,7 +554,7 @@ public class TestDefaultMemStore extends TestCase {
     m.add(key2);
 
     assertTrue("Expected memstore to hold 3 values, actually has " +
-        m.activeSection.getCellSkipListSet().size(), m.activeSection.getCellSkipListSet().size() == 3);
+        m.activeSection.getCellSet().size(), m.activeSection.getCellSet().size() == 3);
   }
 
   //////////////////////////////////////////////////////////////////////////////
@@ -588,12 +628,12 @@ public class TestDefaultMemStore extends TestCase {
     memstore.add(new KeyValue(row, fam ,qf3, val));
     //Creating a snapshot
     memstore.snapshot();
-    assertEquals(3, memstore.snapshotSection.getCellSkipListSet().size());
+    assertEquals(3, memstore.snapshotSection.getCellSet().size());
     //Adding value to "new" memstore
-    assertEquals(0, memstore.activeSection.getCellSkipListSet().size());
+    assertEquals(0, memstore.activeSection.getCellSet().size());
     memstore.add(new KeyValue(row, fam ,qf4, val));
     memstore.add(new KeyValue(row, fam ,qf5, val));
-    assertEquals(2, memstore.activeSection.getCellSkipListSet().size());
+    assertEquals(2, memstore.activeSection.getCellSet().size());
   }
 
   //////////////////////////////////////////////////////////////////////////////
@@ -615,7 +655,7 @@ public class TestDefaultMemStore extends TestCase {
     memstore.add(put2);
     memstore.add(put3);
 
-    assertEquals(3, memstore.activeSection.getCellSkipListSet().size());
+    assertEquals(3, memstore.activeSection.getCellSet().size());
 
     KeyValue del2 = new KeyValue(row, fam, qf1, ts2, KeyValue.Type.Delete, val);
     memstore.delete(del2);
@@ -626,9 +666,9 @@ public class TestDefaultMemStore extends TestCase {
     expected.add(put2);
     expected.add(put1);
 
-    assertEquals(4, memstore.activeSection.getCellSkipListSet().size());
+    assertEquals(4, memstore.activeSection.getCellSet().size());
     int i = 0;
-    for(Cell cell : memstore.activeSection.getCellSkipListSet()) {
+    for(Cell cell : memstore.activeSection.getCellSet()) {
       assertEquals(expected.get(i++), cell);
     }
   }
@@ -649,7 +689,7 @@ public class TestDefaultMemStore extends TestCase {
     memstore.add(put2);
     memstore.add(put3);
 
-    assertEquals(3, memstore.activeSection.getCellSkipListSet().size());
+    assertEquals(3, memstore.activeSection.getCellSet().size());
 
     KeyValue del2 =
       new KeyValue(row, fam, qf1, ts2, KeyValue.Type.DeleteColumn, val);
@@ -662,9 +702,9 @@ public class TestDefaultMemStore extends TestCase {
     expected.add(put1);
 
 
-    assertEquals(4, memstore.activeSection.getCellSkipListSet().size());
+    assertEquals(4, memstore.activeSection.getCellSet().size());
     int i = 0;
-    for (Cell cell: memstore.activeSection.getCellSkipListSet()) {
+    for (Cell cell: memstore.activeSection.getCellSet()) {
       assertEquals(expected.get(i++), cell);
     }
   }
@@ -702,9 +742,9 @@ public class TestDefaultMemStore extends TestCase {
 
 
 
-    assertEquals(5, memstore.activeSection.getCellSkipListSet().size());
+    assertEquals(5, memstore.activeSection.getCellSet().size());
     int i = 0;
-    for (Cell cell: memstore.activeSection.getCellSkipListSet()) {
+    for (Cell cell: memstore.activeSection.getCellSet()) {
       assertEquals(expected.get(i++), cell);
     }
   }
@@ -718,8 +758,8 @@ public class TestDefaultMemStore extends TestCase {
     memstore.add(new KeyValue(row, fam, qf, ts, val));
     KeyValue delete = new KeyValue(row, fam, qf, ts, KeyValue.Type.Delete, val);
     memstore.delete(delete);
-    assertEquals(2, memstore.activeSection.getCellSkipListSet().size());
-    assertEquals(delete, memstore.activeSection.getCellSkipListSet().first());
+    assertEquals(2, memstore.activeSection.getCellSet().size());
+    assertEquals(delete, memstore.activeSection.getCellSet().first());
   }
 
   public void testRetainsDeleteVersion() throws IOException {
@@ -731,8 +771,8 @@ public class TestDefaultMemStore extends TestCase {
         "row1", "fam", "a", 100, KeyValue.Type.Delete, "dont-care");
     memstore.delete(delete);
 
-    assertEquals(2, memstore.activeSection.getCellSkipListSet().size());
-    assertEquals(delete, memstore.activeSection.getCellSkipListSet().first());
+    assertEquals(2, memstore.activeSection.getCellSet().size());
+    assertEquals(delete, memstore.activeSection.getCellSet().first());
   }
   public void testRetainsDeleteColumn() throws IOException {
     // add a put to memstore
@@ -743,8 +783,8 @@ public class TestDefaultMemStore extends TestCase {
         KeyValue.Type.DeleteColumn, "dont-care");
     memstore.delete(delete);
 
-    assertEquals(2, memstore.activeSection.getCellSkipListSet().size());
-    assertEquals(delete, memstore.activeSection.getCellSkipListSet().first());
+    assertEquals(2, memstore.activeSection.getCellSet().size());
+    assertEquals(delete, memstore.activeSection.getCellSet().first());
   }
   public void testRetainsDeleteFamily() throws IOException {
     // add a put to memstore
@@ -755,8 +795,8 @@ public class TestDefaultMemStore extends TestCase {
         KeyValue.Type.DeleteFamily, "dont-care");
     memstore.delete(delete);
 
-    assertEquals(2, memstore.activeSection.getCellSkipListSet().size());
-    assertEquals(delete, memstore.activeSection.getCellSkipListSet().first());
+    assertEquals(2, memstore.activeSection.getCellSet().size());
+    assertEquals(delete, memstore.activeSection.getCellSet().first());
   }
 
   ////////////////////////////////////
@@ -870,7 +910,7 @@ public class TestDefaultMemStore extends TestCase {
     long newSize = this.memstore.activeSection.getHeapSize().get();
     assert(newSize > oldSize);
     //The kv1 should be removed.
-    assert(memstore.activeSection.getCellSkipListSet().size() == 2);
+    assert(memstore.activeSection.getCellSet().size() == 2);
 
     KeyValue kv4 = KeyValueTestUtil.create("r", "f", "q", 104, "v");
     kv4.setSequenceId(1);
@@ -878,7 +918,7 @@ public class TestDefaultMemStore extends TestCase {
     this.memstore.upsert(l, 3, null);
     assertEquals(newSize, this.memstore.activeSection.getHeapSize().get());
     //The kv2 should be removed.
-    assert(memstore.activeSection.getCellSkipListSet().size() == 2);
+    assert(memstore.activeSection.getCellSet().size() == 2);
     //this.memstore = null;
   }
 
@@ -1039,10 +1079,10 @@ public class TestDefaultMemStore extends TestCase {
 
   private long runSnapshot(final DefaultMemStore hmc) throws UnexpectedStateException {
     // Save off old state.
-    int oldHistorySize = hmc.snapshotSection.getCellSkipListSet().size();
+    int oldHistorySize = hmc.snapshotSection.getCellSet().size();
     MemStoreSnapshot snapshot = hmc.snapshot();
     // Make some assertions about what just happened.
-    assertTrue("History size has not increased", oldHistorySize < hmc.snapshotSection.getCellSkipListSet().size());
+    assertTrue("History size has not increased", oldHistorySize < hmc.snapshotSection.getCellSet().size());
     long t = memstore.timeOfOldestEdit();
     assertTrue("Time of oldest edit is not Long.MAX_VALUE", t == Long.MAX_VALUE);
     hmc.clearSnapshot(snapshot.getId());
@@ -125,6 +125,7 @@ import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueExcludeFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.util.HeapMemorySizeUtil;
 import org.apache.hadoop.hbase.monitoring.MonitoredRPCHandler;
 import org.apache.hadoop.hbase.monitoring.MonitoredTask;
 import org.apache.hadoop.hbase.monitoring.TaskMonitor;
@@ -273,6 +274,94 @@ public class TestHRegion {
     assertEquals(max, region.getMaxFlushedSeqId());
   }
 
+  /**
+   * Test that cells whose values and tags were copied off heap by the MemStoreLAB read back the
+   * same from the memstore and, once flushed, from the store file.
+   * @throws IOException
+   */
+  @Test (timeout = 100000)
+  public void testOffheapMemStore() throws IOException {
+    // createLocalHRegion builds the region from the shared test configuration
+    CONF.setLong(HeapMemorySizeUtil.OFFHEAP_MEMSTORE_SIZE_KEY, 16);
+    MemStoreChunkPool.clearOffheapPool();
+    HRegion region = initHRegion(tableName, name.getMethodName(), CONF, COLUMN_FAMILY_BYTES);
+    try {
+      MemStoreChunkPool pool = MemStoreChunkPool.getOffheapPool();
+      assertNotNull(pool);
+      int rows = 100;
+      for (int i = 0; i < rows; i++) {
+        byte[] row = Bytes.toBytes(i);
+        Put put = new Put(row);
+        put.add(new KeyValue(row, COLUMN_FAMILY_BYTES, row, HConstants.LATEST_TIMESTAMP,
+          Bytes.toBytes("value" + i), new Tag[] { new Tag((byte) 1, "tag" + i) }));
+        region.put(put);
+      }
+      assertTrue(pool.getDataSize() > 0);
+      verifyOffheapMemStoreRows(region, rows);
+
+      region.flush(true);
+      assertEquals(0, pool.getDataSize());
+      verifyOffheapMemStoreRows(region, rows);
+    } finally {
+      HBaseTestingUtility.closeRegionAndWAL(region);
+      CONF.unset(HeapMemorySizeUtil.OFFHEAP_MEMSTORE_SIZE_KEY);
+      MemStoreChunkPool.clearOffheapPool();
+    }
+  }
+
+  /**
+   * Test that results read from an off heap memstore keep their values once a flush puts the
+   * chunks back to the pool and later writes are copied into them.
+   * @throws IOException
+   */
+  @Test (timeout = 100000)
+  public void testOffheapMemStoreResultsOutliveFlush() throws IOException {
+    CONF.setLong(HeapMemorySizeUtil.OFFHEAP_MEMSTORE_SIZE_KEY, 16);
+    MemStoreChunkPool.clearOffheapPool();
+    HRegion region = initHRegion(tableName, name.getMethodName(), CONF, COLUMN_FAMILY_BYTES);
+    try {
+      MemStoreChunkPool pool = MemStoreChunkPool.getOffheapPool();
+      byte[] row = Bytes.toBytes("row");
+      region.put(new Put(row).addColumn(COLUMN_FAMILY_BYTES, row, Bytes.toBytes("value")));
+      Result result = region.get(new Get(row));
+      region.flush(true);
+      assertEquals(1, pool.getPoolSize());
+      // Copied over the value of the first put
+      byte[] other = Bytes.toBytes("other");
+      region.put(new Put(other).addColumn(COLUMN_FAMILY_BYTES, other, other));
+      assertEquals(0, pool.getPoolSize());
+      assertEquals("value", Bytes.toString(CellUtil.cloneValue(result.rawCells()[0])));
+    } finally {
+      HBaseTestingUtility.closeRegionAndWAL(region);
+      CONF.unset(HeapMemorySizeUtil.OFFHEAP_MEMSTORE_SIZE_KEY);
+      MemStoreChunkPool.clearOffheapPool();
+    }
+  }
+
+  private void verifyOffheapMemStoreRows(HRegion region, int rows) throws IOException {
+    for (int i = 0; i < rows; i++) {
+      byte[] row = Bytes.toBytes(i);
+      Result result = region.get(new Get(row));
+      assertEquals(1, result.size());
+      Cell cell = result.rawCells()[0];
+      assertTrue(CellUtil.matchingQualifier(cell, row));
+      assertEquals("value" + i, Bytes.toString(CellUtil.cloneValue(cell)));
+      Tag tag = Tag.asList(cell.getTagsArray(), cell.getTagsOffset(), cell.getTagsLength()).get(0);
+      assertEquals("tag" + i, Bytes.toString(tag.getValue()));
+    }
+    InternalScanner scanner = region.getScanner(new Scan());
+    List<Cell> cells = new ArrayList<Cell>();
+    int count = 0;
+    boolean more;
+    do {
+      more = scanner.next(cells);
+      count += cells.size();
+      cells.clear();
+    } while (more);
+    scanner.close();
+    assertEquals(rows, count);
+  }
+
   /**
    * Test for Bug 2 of HBASE-10466.
    * "Bug 2: Conditions for the first flush of region close (so-called pre-flush) If memstoreSize
@@ -2557,10 +2646,10 @@ public class TestHRegion {
       // This is kinda hacky, but better than nothing...
       long now = System.currentTimeMillis();
       DefaultMemStore memstore = (DefaultMemStore) ((HStore) region.getStore(fam1)).memstore;
-      Cell firstCell = memstore.activeSection.getCellSkipListSet().first();
+      Cell firstCell = memstore.activeSection.getCellSet().first();
       assertTrue(firstCell.getTimestamp() <= now);
       now = firstCell.getTimestamp();
-      for (Cell cell : memstore.activeSection.getCellSkipListSet()) {
+      for (Cell cell : memstore.activeSection.getCellSet()) {
         assertTrue(cell.getTimestamp() <= now);
         now = cell.getTimestamp();
       }
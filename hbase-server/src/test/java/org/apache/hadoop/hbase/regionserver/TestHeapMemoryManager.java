@@ -558,6 +558,15 @@ public class TestHeapMemoryManager {
       return null;
     }
 
+    @Override
+    public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    }
+
+    @Override
+    public boolean containsBlock(BlockCacheKey cacheKey) {
+      return false;
+    }
+
     @Override
     public boolean evictBlock(BlockCacheKey cacheKey) {
       stats.evicted(0, cacheKey != null ? cacheKey.isPrimary() : true);
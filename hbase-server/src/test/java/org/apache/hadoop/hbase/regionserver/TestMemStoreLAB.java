@@ -27,11 +27,18 @@ import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.MultithreadedTestUtil;
 import org.apache.hadoop.hbase.MultithreadedTestUtil.TestThread;
+import org.apache.hadoop.hbase.Tag;
+import org.apache.hadoop.hbase.io.util.HeapMemorySizeUtil;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.apache.hadoop.hbase.util.ByteRange;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 
 import com.google.common.collect.Iterables;
@@ -201,6 +208,130 @@ public class TestMemStoreLAB {
         + " after mslab closed but actually: " + queueLength, queueLength == 0);
   }
 
+  @Test
+  public void testCopyCellInto() {
+    MemStoreLAB mslab = new HeapMemStoreLAB();
+    byte[] bytes = Bytes.toBytes("testCopyCellInto");
+    KeyValue kv = new KeyValue(bytes, bytes, bytes, 10L, bytes);
+    kv.setSequenceId(5);
+    Cell copy = mslab.copyCellInto(kv);
+    assertTrue(copy instanceof KeyValue);
+    assertNotSame(kv.getBuffer(), ((KeyValue) copy).getBuffer());
+    assertTrue(CellUtil.equals(kv, copy));
+    assertTrue(CellUtil.matchingValue(kv, copy));
+    assertEquals(5, copy.getSequenceId());
+    assertNull("Large cells shouldn't be copied by LAB.",
+      mslab.copyCellInto(new KeyValue(bytes, bytes, bytes, new byte[2 * 1024 * 1024])));
+  }
+
+  /**
+   * Test that with an off heap memstore the values and tags are copied into
+   * direct chunks and accounted in the off heap pool until the LAB is closed
+   */
+  @Test
+  public void testCopyCellIntoOffheap() {
+    Configuration conf = new Configuration();
+    conf.setLong(HeapMemorySizeUtil.OFFHEAP_MEMSTORE_SIZE_KEY, 16);
+    MemStoreChunkPool.clearOffheapPool();
+    try {
+      HeapMemStoreLAB mslab = new HeapMemStoreLAB(conf);
+      MemStoreChunkPool pool = MemStoreChunkPool.getOffheapPool();
+      assertNotNull(pool);
+      byte[] bytes = Bytes.toBytes("testCopyCellIntoOffheap");
+      byte[] value = Bytes.toBytes("value");
+      KeyValue kv = new KeyValue(bytes, bytes, bytes, 10L, value,
+        new Tag[] { new Tag((byte) 1, "tag") });
+      kv.setSequenceId(5);
+      Cell copy = mslab.copyCellInto(kv);
+      assertTrue(copy instanceof OffheapValueCell);
+      assertTrue(mslab.getCurrentOffheapChunk().getData().isDirect());
+      assertEquals(0, KeyValue.COMPARATOR.compare(kv, copy));
+      assertTrue(CellUtil.equals(kv, copy));
+      assertTrue(CellUtil.matchingValue(kv, copy));
+      assertTrue(Bytes.equals(kv.getTagsArray(), kv.getTagsOffset(), kv.getTagsLength(),
+        copy.getTagsArray(), copy.getTagsOffset(), copy.getTagsLength()));
+      assertEquals(kv.getTimestamp(), copy.getTimestamp());
+      assertEquals(5, copy.getSequenceId());
+      assertEquals(value.length + kv.getTagsLength(), pool.getDataSize());
+      assertEquals(KeyValueUtil.length(kv), KeyValueUtil.copyToNewKeyValue(copy).getLength());
+
+      mslab.close();
+      assertEquals(0, pool.getDataSize());
+      assertEquals(1, pool.getPoolSize());
+    } finally {
+      MemStoreChunkPool.clearOffheapPool();
+    }
+  }
+
+  /**
+   * Test that the on heap copy of an off heap cell still reads its value and tags once
+   * its chunk is put back to the pool and reused, and that the cell keeps no copy itself
+   */
+  @Test
+  public void testOnheapCopyOfOffheapCell() {
+    Configuration conf = new Configuration();
+    conf.setLong(HeapMemorySizeUtil.OFFHEAP_MEMSTORE_SIZE_KEY, 16);
+    MemStoreChunkPool.clearOffheapPool();
+    try {
+      byte[] bytes = Bytes.toBytes("testOnheapCopyOfOffheapCell");
+      HeapMemStoreLAB mslab = new HeapMemStoreLAB(conf);
+      KeyValue kv = new KeyValue(bytes, bytes, bytes, 10L, Bytes.toBytes("value"),
+        new Tag[] { new Tag((byte) 1, "tag") });
+      kv.setSequenceId(5);
+      OffheapValueCell offheap = (OffheapValueCell) mslab.copyCellInto(kv);
+      assertNotSame(offheap.getValueArray(), offheap.getValueArray());
+      assertNotSame(offheap.getTagsArray(), offheap.getTagsArray());
+      KeyValue copy = offheap.toKeyValue();
+      assertEquals(KeyValueUtil.length(kv), copy.getLength());
+      assertEquals(5, copy.getSequenceId());
+      mslab.close();
+
+      HeapMemStoreLAB reusing = new HeapMemStoreLAB(conf);
+      KeyValue other = new KeyValue(bytes, bytes, bytes, 10L, Bytes.toBytes("other"),
+        new Tag[] { new Tag((byte) 2, "xyz") });
+      reusing.copyCellInto(other);
+      assertSame(mslab.getCurrentOffheapChunk().getData(),
+        reusing.getCurrentOffheapChunk().getData());
+      assertTrue(CellUtil.equals(kv, copy));
+      assertTrue(CellUtil.matchingValue(kv, copy));
+      assertTrue(Bytes.equals(kv.getTagsArray(), kv.getTagsOffset(), kv.getTagsLength(),
+        copy.getTagsArray(), copy.getTagsOffset(), copy.getTagsLength()));
+      reusing.close();
+    } finally {
+      MemStoreChunkPool.clearOffheapPool();
+    }
+  }
+
+  /**
+   * Test that the off heap pool allocates no more chunks than it is sized for,
+   * leaving cells on heap until chunks are put back
+   */
+  @Test
+  public void testOffheapChunksBounded() {
+    Configuration conf = new Configuration();
+    conf.setLong(HeapMemorySizeUtil.OFFHEAP_MEMSTORE_SIZE_KEY, 1);
+    conf.setInt(HeapMemStoreLAB.CHUNK_SIZE_KEY, 512 * 1024);
+    MemStoreChunkPool.clearOffheapPool();
+    try {
+      byte[] bytes = Bytes.toBytes("testOffheapChunksBounded");
+      KeyValue kv = new KeyValue(bytes, bytes, bytes, new byte[200 * 1024]);
+      HeapMemStoreLAB mslab = new HeapMemStoreLAB(conf);
+      // Two chunks of two values each
+      for (int i = 0; i < 4; i++) {
+        assertTrue(mslab.copyCellInto(kv) instanceof OffheapValueCell);
+      }
+      assertNull(mslab.copyCellInto(kv));
+      HeapMemStoreLAB other = new HeapMemStoreLAB(conf);
+      assertNull(other.copyCellInto(kv));
+      mslab.close();
+      assertEquals(2, MemStoreChunkPool.getOffheapPool().getPoolSize());
+      assertTrue(other.copyCellInto(kv) instanceof OffheapValueCell);
+      other.close();
+    } finally {
+      MemStoreChunkPool.clearOffheapPool();
+    }
+  }
+
   private Thread getChunkQueueTestThread(final HeapMemStoreLAB mslab, String threadName) {
     Thread thread = new Thread() {
       boolean stopped = false;
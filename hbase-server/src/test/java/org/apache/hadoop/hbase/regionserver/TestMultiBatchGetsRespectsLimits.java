@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that the gets of a multi done as a batch stop at the size limit of the response, as they
+ * do when done one at a time, rather than reading rows that are sent back as too large.
+ */
+@Category(MediumTests.class)
+public class TestMultiBatchGetsRespectsLimits {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final TableName TABLE_NAME =
+      TableName.valueOf("TestMultiBatchGetsRespectsLimits");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int MAX_SIZE = 500;
+  private static final int NUM_ROWS = 50;
+
+  private static final AtomicInteger GETS = new AtomicInteger();
+
+  /**
+   * Counts the gets done on the table.
+   */
+  public static class CountingObserver extends BaseRegionObserver {
+    @Override
+    public void postGetOp(ObserverContext<RegionCoprocessorEnvironment> e, Get get,
+        List<Cell> results) throws IOException {
+      if (TABLE_NAME.equals(e.getEnvironment().getRegionInfo().getTable())) {
+        GETS.incrementAndGet();
+      }
+    }
+  }
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.getConfiguration().setLong(HConstants.HBASE_SERVER_SCANNER_MAX_RESULT_SIZE_KEY,
+        MAX_SIZE);
+    TEST_UTIL.getConfiguration().setBoolean(RSRpcServices.BATCH_MULTI_GETS_KEY, true);
+    TEST_UTIL.getConfiguration().set(CoprocessorHost.REGION_COPROCESSOR_CONF_KEY,
+        CountingObserver.class.getName());
+    TEST_UTIL.startMiniCluster(1);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testBatchLargerThanMaxResultSize() throws Exception {
+    Table table = TEST_UTIL.createTable(TABLE_NAME, FAMILY);
+    try {
+      List<Put> puts = new ArrayList<Put>();
+      List<Get> gets = new ArrayList<Get>();
+      for (int i = 0; i < NUM_ROWS; i++) {
+        puts.add(new Put(row(i)).addColumn(FAMILY, QUALIFIER, value(i)));
+        gets.add(new Get(row(i)));
+      }
+      table.put(puts);
+      GETS.set(0);
+
+      // Every get alone is below the limit, but all of them are well above it
+      Result[] results = table.get(gets);
+      assertEquals(NUM_ROWS, results.length);
+      for (int i = 0; i < NUM_ROWS; i++) {
+        assertArrayEquals(value(i), results[i].getValue(FAMILY, QUALIFIER));
+      }
+      // The client sends the gets left out again until all are done. Rows read and thrown away
+      // as too large would be read again for each of these multis.
+      assertTrue("Did " + GETS.get() + " gets", GETS.get() < 2 * NUM_ROWS);
+    } finally {
+      table.close();
+    }
+  }
+
+  private static byte[] row(int row) {
+    return Bytes.toBytes(String.format("row%03d", row));
+  }
+
+  private static byte[] value(int row) {
+    byte[] value = new byte[100];
+    Bytes.putInt(value, 0, row);
+    return value;
+  }
+}
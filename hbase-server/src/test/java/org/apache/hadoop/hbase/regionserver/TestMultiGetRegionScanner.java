@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.ValueFilter;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that a batch of gets returns what the gets return one at a time.
+ */
+@Category(MediumTests.class)
+public class TestMultiGetRegionScanner {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final byte[] FAMILY1 = Bytes.toBytes("f1");
+  private static final byte[] FAMILY2 = Bytes.toBytes("f2");
+  private static final byte[] QUALIFIER1 = Bytes.toBytes("q1");
+  private static final byte[] QUALIFIER2 = Bytes.toBytes("q2");
+  private static final int NUM_ROWS = 500;
+
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestMultiGetRegionScanner"));
+    htd.addFamily(new HColumnDescriptor(FAMILY1).setBlocksize(1024).setMaxVersions(3));
+    htd.addFamily(new HColumnDescriptor(FAMILY2).setMaxVersions(3));
+    region = TEST_UTIL.createLocalHRegion(htd, null, null);
+    // Every other row, spread over a few files and the memstore
+    for (int i = 0; i < NUM_ROWS; i += 2) {
+      Put put = new Put(row(i));
+      put.addColumn(FAMILY1, QUALIFIER1, 1, Bytes.toBytes("v1-" + i));
+      put.addColumn(FAMILY1, QUALIFIER2, 1, Bytes.toBytes("v2-" + i));
+      put.addColumn(FAMILY2, QUALIFIER1, 1, Bytes.toBytes("v3-" + i));
+      put.setDurability(Durability.SKIP_WAL);
+      region.put(put);
+      if (i % 100 == 98) {
+        region.flush(true);
+      }
+    }
+    for (int i = 0; i < NUM_ROWS; i += 10) {
+      Put put = new Put(row(i));
+      put.addColumn(FAMILY1, QUALIFIER1, 2, Bytes.toBytes("v1-new-" + i));
+      region.put(put);
+    }
+    region.flush(true);
+    region.delete(new Delete(row(20)));
+    region.delete(new Delete(row(30)).addColumns(FAMILY1, QUALIFIER2));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HRegion.closeHRegion(region);
+  }
+
+  @Test
+  public void testBatchOfWholeRows() throws IOException {
+    List<Get> gets = new ArrayList<Get>();
+    for (int i = NUM_ROWS - 1; i >= 0; i -= 3) {
+      gets.add(new Get(row(i)));
+    }
+    assertSameAsSingleGets(gets);
+  }
+
+  @Test
+  public void testBatchOfMixedGets() throws IOException {
+    List<Get> gets = new ArrayList<Get>();
+    gets.add(new Get(row(40)));
+    gets.add(new Get(row(20)));
+    gets.add(new Get(row(30)));
+    // Duplicates
+    gets.add(new Get(row(40)));
+    gets.add(new Get(row(30)).addFamily(FAMILY1));
+    // Missing rows, before, between and past the rows present
+    gets.add(new Get(row(-1)));
+    gets.add(new Get(row(41)));
+    gets.add(new Get(row(NUM_ROWS + 10)));
+    // Different columns, versions and time ranges
+    gets.add(new Get(row(50)).addColumn(FAMILY1, QUALIFIER2));
+    gets.add(new Get(row(60)).addColumn(FAMILY1, QUALIFIER1).setMaxVersions(2));
+    gets.add(new Get(row(70)).addColumn(FAMILY1, QUALIFIER1).setMaxVersions(2));
+    gets.add(new Get(row(80)).setTimeRange(0, 2));
+    gets.add(new Get(row(82)).setTimeRange(0, 2));
+    gets.add(new Get(row(84)).addFamily(FAMILY2));
+    gets.add(new Get(row(86)).addFamily(FAMILY2));
+    // Gets that are done on their own
+    gets.add(new Get(row(90)).setFilter(new ValueFilter(CompareOp.EQUAL,
+        new BinaryComparator(Bytes.toBytes("v2-90")))));
+    Get existence = new Get(row(100));
+    existence.setCheckExistenceOnly(true);
+    gets.add(existence);
+    gets.add(new Get(row(102)).setMaxResultsPerColumnFamily(1));
+    assertSameAsSingleGets(gets);
+  }
+
+  @Test
+  public void testFailedGetReportedAlone() throws IOException {
+    List<Get> gets = new ArrayList<Get>();
+    gets.add(new Get(row(2)));
+    gets.add(new Get(row(4)).addFamily(Bytes.toBytes("missing")));
+    gets.add(new Get(row(6)));
+    IOException[] errors = new IOException[gets.size()];
+    Result[] results = region.get(gets, errors);
+    assertNull(errors[0]);
+    assertTrue(errors[1] instanceof NoSuchColumnFamilyException);
+    assertNull(results[1]);
+    assertNull(errors[2]);
+    assertEquals(3, results[0].size());
+    assertEquals(3, results[2].size());
+    try {
+      region.get(gets);
+      fail("Expected the get of a missing family to fail the batch");
+    } catch (NoSuchColumnFamilyException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testBatchStopsAtMaxResultSize() throws IOException {
+    List<Get> gets = new ArrayList<Get>();
+    for (int i = 0; i < 100; i += 2) {
+      gets.add(new Get(row(i)));
+    }
+    long rowSize = 0;
+    for (Cell cell : region.get(gets.get(1)).rawCells()) {
+      rowSize += CellUtil.estimatedHeapSizeOf(cell);
+    }
+    // Stops after the get that takes the results past the limit
+    IOException[] errors = new IOException[gets.size()];
+    Result[] results = region.get(gets, errors, 5 * rowSize - 1, Long.MAX_VALUE);
+    int done = 0;
+    for (int i = 0; i < gets.size(); i++) {
+      assertNull(errors[i]);
+      if (results[i] != null) {
+        assertTrue(CellUtil.equals(region.get(gets.get(i)).rawCells()[0],
+            results[i].rawCells()[0]));
+        done++;
+      }
+    }
+    assertTrue("Did " + done + " gets", done >= 4 && done <= 6);
+    // Rows in different blocks, past the limit once the first is read
+    results = region.get(gets, errors, Long.MAX_VALUE, 0);
+    done = 0;
+    for (Result result : results) {
+      if (result != null) {
+        done++;
+      }
+    }
+    assertEquals(1, done);
+  }
+
+  private void assertSameAsSingleGets(List<Get> gets) throws IOException {
+    Result[] results = region.get(gets);
+    assertEquals(gets.size(), results.length);
+    int nonEmpty = 0;
+    for (int i = 0; i < gets.size(); i++) {
+      Result expected = region.get(gets.get(i));
+      assertEquals(expected.getExists(), results[i].getExists());
+      Cell[] expectedCells = expected.rawCells();
+      Cell[] cells = results[i].rawCells();
+      assertEquals("Get " + i, expectedCells == null ? 0 : expectedCells.length,
+          cells == null ? 0 : cells.length);
+      for (int j = 0; cells != null && j < cells.length; j++) {
+        assertTrue(CellUtil.equals(expectedCells[j], cells[j]));
+        assertTrue(CellUtil.matchingValue(expectedCells[j], cells[j]));
+      }
+      if (!results[i].isEmpty()) {
+        nonEmpty++;
+      }
+    }
+    assertTrue(nonEmpty > 0);
+  }
+
+  private static byte[] row(int row) {
+    return Bytes.toBytes(String.format("row%05d", row));
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests multi requests on several regions with the group commit of their WAL syncs on.
+ */
+@Category(MediumTests.class)
+public class TestMultiGroupCommit {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final TableName TABLE_NAME = TableName.valueOf("TestMultiGroupCommit");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final byte[][] SPLITS = { Bytes.toBytes("row2"), Bytes.toBytes("row4"),
+      Bytes.toBytes("row6") };
+
+  private static Table table;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.getConfiguration().setBoolean(RSRpcServices.GROUP_COMMIT_MULTI_KEY, true);
+    TEST_UTIL.startMiniCluster();
+    table = TEST_UTIL.createTable(TABLE_NAME, new byte[][] { FAMILY }, SPLITS);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    table.close();
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testPutsAndDeletes() throws Exception {
+    List<Row> actions = new ArrayList<Row>();
+    for (int i = 0; i < 80; i++) {
+      actions.add(put("put" + i, i));
+    }
+    table.batch(actions, new Object[actions.size()]);
+    actions.clear();
+    for (int i = 0; i < 80; i += 2) {
+      actions.add(new Delete(row("put" + i)));
+    }
+    Object[] results = new Object[actions.size()];
+    table.batch(actions, results);
+    for (Object result : results) {
+      assertTrue(result instanceof Result);
+    }
+    for (int i = 0; i < 80; i++) {
+      Result result = get("put" + i);
+      if (i % 2 == 0) {
+        assertTrue(result.isEmpty());
+      } else {
+        assertArrayEquals(Bytes.toBytes(i), result.getValue(FAMILY, QUALIFIER));
+      }
+    }
+  }
+
+  @Test
+  public void testMixedActionsNotGrouped() throws Exception {
+    List<Row> actions = new ArrayList<Row>();
+    for (int i = 0; i < 40; i++) {
+      actions.add(put("mixed" + i, i));
+    }
+    // On a missing row, so that the results carry no cells
+    actions.add(new Get(row("missing")));
+    actions.add(new Delete(row("mixed1")));
+    Object[] results = new Object[actions.size()];
+    table.batch(actions, results);
+    for (Object result : results) {
+      assertTrue(result instanceof Result);
+    }
+    for (int i = 0; i < 40; i++) {
+      if (i == 1) {
+        assertTrue(get("mixed" + i).isEmpty());
+      } else {
+        assertArrayEquals(Bytes.toBytes(i), get("mixed" + i).getValue(FAMILY, QUALIFIER));
+      }
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testConcurrentMultis() throws Exception {
+    final int numThreads = 8;
+    final int numBatches = 20;
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(thread);
+          try {
+            for (int b = 0; b < numBatches; b++) {
+              // The same rows from every thread, visiting the regions in any order. Half the
+              // batches have a get, so they are not grouped and wait on the mvcc of every
+              // region in turn.
+              List<Row> actions = new ArrayList<Row>();
+              for (int i = 0; i < 40; i++) {
+                actions.add(put("concurrent" + i, thread));
+              }
+              actions.add(new Delete(row("concurrent" + random.nextInt(40)), 1));
+              if (b % 2 == 0) {
+                actions.add(new Get(row("missing")));
+              }
+              Collections.shuffle(actions, random);
+              table.batch(actions, new Object[actions.size()]);
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+    for (int i = 0; i < 40; i++) {
+      Result result = get("concurrent" + i);
+      assertTrue(Bytes.toInt(result.getValue(FAMILY, QUALIFIER)) < numThreads);
+    }
+  }
+
+  private static Put put(String row, int value) {
+    return new Put(row(row)).addColumn(FAMILY, QUALIFIER, Bytes.toBytes(value));
+  }
+
+  /**
+   * Spreads the rows over the regions.
+   */
+  private static byte[] row(String row) {
+    return Bytes.toBytes("row" + Math.abs(row.hashCode() % 8) + "-" + row);
+  }
+
+  /**
+   * Reads the row from its region directly.
+   */
+  private static Result get(String row) throws IOException {
+    byte[] key = row(row);
+    for (HRegion region : TEST_UTIL.getMiniHBaseCluster().getRegions(TABLE_NAME)) {
+      if (region.getRegionInfo().containsRow(key)) {
+        return region.get(new Get(key));
+      }
+    }
+    throw new IOException("No region for " + row);
+  }
+}
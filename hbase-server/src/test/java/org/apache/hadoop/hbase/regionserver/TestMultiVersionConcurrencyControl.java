@@ -24,6 +24,7 @@ import org.junit.experimental.categories.Category;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This is a hammer test that verifies MultiVersionConcurrencyControl in a
@@ -128,4 +129,157 @@ public class TestMultiVersionConcurrencyControl extends TestCase {
       assertTrue(statuses[i].get());
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Writers with and without actions complete in random order while readers check that every
+   * write up to the read point is completed, and the actions run in write number order.
+   */
+  public void testVisibility() throws Exception {
+    final MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    final int writesPerWriter = 20000;
+    final int numWriters = 16;
+    // More writes than the ring has slots are in progress at once
+    final int inProgressPerWriter = MultiVersionConcurrencyControl.RING_SIZE / 4;
+    final int numWrites = writesPerWriter * numWriters;
+    final AtomicBoolean[] completed = new AtomicBoolean[numWrites + 1];
+    for (int i = 0; i < completed.length; i++) {
+      completed[i] = new AtomicBoolean(false);
+    }
+    // Write number of every action, in the order the actions ran
+    final AtomicLong actions = new AtomicLong(0);
+    final long[] actionWriteNumbers = new long[numWrites];
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final AtomicBoolean finished = new AtomicBoolean(false);
+
+    Thread[] writers = new Thread[numWriters];
+    for (int w = 0; w < numWriters; w++) {
+      writers[w] = new Thread() {
+        @Override
+        public void run() {
+          Random rnd = new Random();
+          MultiVersionConcurrencyControl.WriteEntry[] inProgress =
+              new MultiVersionConcurrencyControl.WriteEntry[inProgressPerWriter];
+          for (int i = 0; i < writesPerWriter; i++) {
+            int at = rnd.nextInt(inProgress.length);
+            if (inProgress[at] != null) {
+              complete(inProgress[at]);
+            }
+            if (rnd.nextBoolean()) {
+              final AtomicLong action = new AtomicLong();
+              inProgress[at] = mvcc.begin(new Runnable() {
+                @Override
+                public void run() {
+                  action.set(actions.getAndIncrement());
+                }
+              });
+              actionWriteNumbers[(int) action.get()] = inProgress[at].getWriteNumber();
+            } else {
+              inProgress[at] = mvcc.begin();
+            }
+          }
+          for (MultiVersionConcurrencyControl.WriteEntry e : inProgress) {
+            if (e != null) {
+              complete(e);
+            }
+          }
+        }
+
+        private void complete(MultiVersionConcurrencyControl.WriteEntry e) {
+          completed[(int) e.getWriteNumber()].set(true);
+          // Not waiting, the writer has other writes in progress
+          if (mvcc.complete(e) && mvcc.getReadPoint() < e.getWriteNumber()) {
+            failure.compareAndSet(null, "Write " + e.getWriteNumber() + " not visible");
+          }
+        }
+      };
+    }
+
+    Thread[] readers = new Thread[4];
+    for (int r = 0; r < readers.length; r++) {
+      readers[r] = new Thread() {
+        @Override
+        public void run() {
+          long checked = 0;
+          while (!finished.get() && failure.get() == null) {
+            long readPoint = mvcc.getReadPoint();
+            if (readPoint < checked) {
+              failure.compareAndSet(null, "Read point went back from " + checked + " to "
+                  + readPoint);
+            }
+            for (long i = checked + 1; i <= readPoint; i++) {
+              if (!completed[(int) i].get()) {
+                failure.compareAndSet(null, "Write " + i + " visible before being completed");
+              }
+            }
+            checked = readPoint;
+          }
+        }
+      };
+      readers[r].start();
+    }
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    finished.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertNull(failure.get(), failure.get());
+    for (int i = 1; i < actions.get(); i++) {
+      assertTrue(actionWriteNumbers[i - 1] < actionWriteNumbers[i]);
+    }
+    assertEquals(numWrites, mvcc.getWritePoint());
+    assertEquals(numWrites, mvcc.getReadPoint());
+  }
+
+  /**
+   * Writers begin and complete writes while the mvcc is stepped forward whenever it is idle. A
+   * write begun and completed right as the mvcc advances must still become visible.
+   */
+  public void testBeginWhileAdvancing() throws Exception {
+    final MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    final AtomicBoolean finished = new AtomicBoolean(false);
+    final AtomicLong advances = new AtomicLong(0);
+    Thread advancer = new Thread() {
+      @Override
+      public void run() {
+        while (!finished.get()) {
+          try {
+            if (mvcc.tryAdvanceTo(mvcc.getWritePoint() + 10, MultiVersionConcurrencyControl.NONE)) {
+              advances.incrementAndGet();
+            }
+          } catch (RuntimeException e) {
+            // Writes in progress, try again
+          }
+        }
+      }
+    };
+    Thread[] writers = new Thread[4];
+    for (int w = 0; w < writers.length; w++) {
+      writers[w] = new Thread() {
+        @Override
+        public void run() {
+          while (!finished.get()) {
+            mvcc.completeAndWait(mvcc.begin());
+          }
+        }
+      };
+    }
+    advancer.start();
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    Thread.sleep(5 * 1000);
+    finished.set(true);
+    advancer.join();
+    for (Thread writer : writers) {
+      writer.join(10 * 1000);
+      assertFalse("Writer stuck at " + mvcc, writer.isAlive());
+    }
+    assertTrue(advances.get() > 0);
+    assertEquals(mvcc.getWritePoint(), mvcc.getReadPoint());
+  }
+}
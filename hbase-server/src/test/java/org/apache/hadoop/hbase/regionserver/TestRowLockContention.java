@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.Waiter;
+import org.apache.hadoop.hbase.regionserver.Region.RowLock;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.HashedBytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the reuse of row lock contexts and the row lock contention counters of a region.
+ */
+@Category(MediumTests.class)
+public class TestRowLockContention {
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] ROW1 = Bytes.toBytes("row1");
+  private static final byte[] ROW2 = Bytes.toBytes("row2");
+
+  private HBaseTestingUtility testUtil;
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(HRegion.ROWLOCK_POOL_SIZE_KEY, 4);
+    testUtil = new HBaseTestingUtility(conf);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestRowLockContention"));
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    region = testUtil.createLocalHRegion(htd, null, null);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HBaseTestingUtility.closeRegionAndWAL(region);
+  }
+
+  @Test
+  public void testContextReused() throws IOException {
+    HRegion.RowLockImpl lock1 = (HRegion.RowLockImpl) region.getRowLock(ROW1);
+    HRegion.RowLockContext context = lock1.getContext();
+    lock1.release();
+    assertTrue(region.getLockedRows().isEmpty());
+
+    // The unlocked context is the one of the next row locked
+    HRegion.RowLockImpl lock2 = (HRegion.RowLockImpl) region.getRowLock(ROW2);
+    assertSame(context, lock2.getContext());
+    assertSame(context, region.getLockedRows().values().iterator().next());
+    // and is no longer the one of its previous row
+    HRegion.RowLockImpl lock3 = (HRegion.RowLockImpl) region.getRowLock(ROW1, true);
+    assertTrue(context != lock3.getContext());
+    assertEquals(2, region.getLockedRows().size());
+    lock2.release();
+    lock3.release();
+    assertTrue(region.getLockedRows().isEmpty());
+  }
+
+  @Test
+  public void testPooledContextUsableOnlyInLockedRows() throws IOException {
+    RowLock held = region.getRowLock(ROW2);
+    try {
+      HRegion.RowLockImpl lock1 = (HRegion.RowLockImpl) region.getRowLock(ROW1);
+      HRegion.RowLockContext pooled = lock1.getContext();
+      lock1.release();
+      // A pooled context taken out for a row whose context was put in lockedRows meanwhile, as
+      // when a thread loses the race to put its context, must not lock the row, even for the
+      // threads that got it from lockedRows before it was pooled
+      HashedBytes row2 = new HashedBytes(ROW2);
+      pooled.reset(row2);
+      assertNull(pooled.newWriteLock(row2));
+      assertNull(pooled.newReadLock(row2));
+    } finally {
+      held.release();
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testPooledContextsExclusive() throws Exception {
+    final int numRows = 2;
+    final AtomicInteger[] holders = new AtomicInteger[numRows];
+    for (int i = 0; i < numRows; i++) {
+      holders[i] = new AtomicInteger();
+    }
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[16];
+    for (int t = 0; t < threads.length; t++) {
+      final Random random = new Random(t);
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            // Few rows, so that contexts keep going back to the pool and out for the same rows
+            for (int i = 0; i < 5000 && failure.get() == null; i++) {
+              int row = random.nextInt(numRows);
+              RowLock lock = region.getRowLock(Bytes.toBytes("row" + row));
+              try {
+                assertEquals(1, holders[row].incrementAndGet());
+                if (random.nextInt(10) == 0) {
+                  Thread.yield();
+                }
+                holders[row].decrementAndGet();
+              } finally {
+                lock.release();
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    assertTrue(region.getLockedRows().isEmpty());
+  }
+
+  @Test
+  public void testContentionCounted() throws Exception {
+    assertEquals(0, region.rowLockWaitCount.get());
+    RowLock held = region.getRowLock(ROW1);
+    final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          region.getRowLock(ROW1).release();
+        } catch (IOException e) {
+          failure.set(e);
+        }
+      }
+    };
+    waiter.start();
+    testUtil.waitFor(10000, new Waiter.Predicate<Exception>() {
+      @Override
+      public boolean evaluate() throws Exception {
+        return region.getNumContendedRows() == 1;
+      }
+    });
+    Thread.sleep(10);
+    held.release();
+    waiter.join();
+    assertNull(failure.get());
+    assertEquals(0, region.getNumContendedRows());
+    assertEquals(1, region.rowLockWaitCount.get());
+    assertTrue(region.rowLockWaitTime.get() > 0);
+
+    // An uncontended lock is not counted
+    region.getRowLock(ROW2).release();
+    assertEquals(1, region.rowLockWaitCount.get());
+  }
+}
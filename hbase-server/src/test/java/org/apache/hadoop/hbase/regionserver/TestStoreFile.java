@@ -725,6 +725,86 @@ public class TestStoreFile extends HBaseTestCase {
     }
   }
 
+  public void testRowPrefixBloomFilter() throws Exception {
+    float err = (float) 0.01;
+    FileSystem fs = FileSystem.getLocal(conf);
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, err);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    // rows are "<prefix>#<suffix>"; fixed length prefixes include the '#'
+    conf.setInt(BloomFilterFactory.PREFIX_LENGTH_KEY, 5);
+    conf.set(BloomFilterFactory.DELIMITER_KEY, "#");
+
+    int prefixCount = 50;
+    int suffixCount = 10;
+    String prefixFormatter = "%04d";
+    String suffixFormatter = "%06d";
+
+    BloomType[] bt = {BloomType.ROWPREFIX_FIXED_LENGTH, BloomType.ROWPREFIX_DELIMITED};
+    for (int x : new int[]{0,1}) {
+      Path f = new Path(ROOT_DIR, getName() + x);
+      HFileContext meta = new HFileContextBuilder().withBlockSize(BLOCKSIZE_SMALL)
+          .withChecksumType(CKTYPE)
+          .withBytesPerCheckSum(CKBYTES).build();
+      StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf, this.fs)
+              .withFilePath(f)
+              .withBloomType(bt[x])
+              .withMaxKeyCount(prefixCount * suffixCount)
+              .withFileContext(meta)
+              .build();
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < prefixCount*2; i += 2) { // prefixes
+        for (int j = 0; j < suffixCount; j++) {   // rows of the prefix
+          String row = String.format(prefixFormatter, i) + "#" + String.format(suffixFormatter, j);
+          KeyValue kv = new KeyValue(row.getBytes(), "family".getBytes(), "col".getBytes(), now,
+              Bytes.toBytes((long)-1));
+          writer.append(kv);
+        }
+      }
+      writer.close();
+
+      StoreFile.Reader reader = new StoreFile.Reader(fs, f, cacheConf, conf);
+      reader.loadFileInfo();
+      reader.loadBloomfilter();
+      StoreFileScanner scanner = getStoreFileScanner(reader, false, false);
+      // one bloom key per prefix
+      assertEquals(prefixCount, reader.generalBloomFilter.getKeyCount());
+
+      Store store = mock(Store.class);
+      HColumnDescriptor hcd = mock(HColumnDescriptor.class);
+      when(hcd.getName()).thenReturn(Bytes.toBytes("family"));
+      when(store.getFamily()).thenReturn(hcd);
+      int falsePos = 0;
+      int falseNeg = 0;
+      for (int i = 0; i < prefixCount*2; i++) {
+        String prefix = String.format(prefixFormatter, i) + "#";
+        boolean shouldExist = i % 2 == 0;
+        // gets, by row
+        for (int j = 0; j < suffixCount; j++) {
+          byte[] row = (prefix + String.format(suffixFormatter, j)).getBytes();
+          Scan scan = new Scan(row, row);
+          boolean exists = scanner.shouldUseScanner(scan, store, Long.MIN_VALUE);
+          if (shouldExist && !exists) falseNeg++;
+          if (!shouldExist && exists) falsePos++;
+        }
+        // scans of all rows with the prefix
+        Scan scan = new Scan(prefix.getBytes(), (prefix + "~").getBytes());
+        boolean exists = scanner.shouldUseScanner(scan, store, Long.MIN_VALUE);
+        if (shouldExist && !exists) falseNeg++;
+        if (!shouldExist && exists) falsePos++;
+      }
+      // scans across prefixes can not use the bloom filter
+      String absent = String.format(prefixFormatter, 1) + "#";
+      String next = String.format(prefixFormatter, 3) + "#";
+      assertTrue(scanner.shouldUseScanner(new Scan(absent.getBytes(), next.getBytes()), store,
+          Long.MIN_VALUE));
+
+      reader.close(true); // evict because we are about to delete the file
+      fs.delete(f, true);
+      assertEquals(0, falseNeg);
+      assertTrue("falsePos=" + falsePos, falsePos < 2 * prefixCount * (suffixCount + 1) * err);
+    }
+  }
+
   public void testSeqIdComparator() {
     assertOrdering(StoreFile.Comparators.SEQ_ID, mockStoreFile(true, 100, 1000, -1, "/foo/123"),
         mockStoreFile(true, 100, 1000, -1, "/foo/124"),
@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.Waiter;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.regionserver.wal.FSHLog;
+import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.wal.WAL;
+import org.apache.hadoop.hbase.wal.WALFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that batches of mutations on several regions left to a {@link WALGroupCommit} sync their
+ * WAL once, and are visible once it commits.
+ */
+@Category(MediumTests.class)
+public class TestWALGroupCommit {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final byte[] SPLIT = Bytes.toBytes("m");
+
+  private final AtomicInteger syncs = new AtomicInteger();
+  private WALFactory wals;
+  private HRegion region1;
+  private HRegion region2;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
+    listeners.add(new WALActionsListener.Base() {
+      @Override
+      public void postSync(long timeInNanos, int handlerSyncs) {
+        syncs.addAndGet(handlerSyncs);
+      }
+    });
+    wals = new WALFactory(conf, listeners, "TestWALGroupCommit");
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestWALGroupCommit"));
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegionInfo info1 = new HRegionInfo(htd.getTableName(), null, SPLIT);
+    HRegionInfo info2 = new HRegionInfo(htd.getTableName(), SPLIT, null);
+    WAL wal = wals.getWAL(info1.getEncodedNameAsBytes(), info1.getTable().getNamespace());
+    region1 = TEST_UTIL.createLocalHRegion(info1, htd, wal);
+    region2 = TEST_UTIL.createLocalHRegion(info2, htd, wal);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    region1.close();
+    region2.close();
+    wals.close();
+  }
+
+  @Test
+  public void testOneSyncForSeveralRegions() throws Exception {
+    WALGroupCommit groupCommit = new WALGroupCommit();
+    RecordingCallback callback1 = new RecordingCallback();
+    RecordingCallback callback2 = new RecordingCallback();
+    region1.batchMutate(puts("a", "b", "c"), groupCommit, callback1);
+    region2.batchMutate(puts("x", "y"), groupCommit, callback2);
+
+    // Applied to the memstores, but neither synced nor visible
+    assertNull(callback1.statuses);
+    assertNull(callback2.statuses);
+    assertTrue(region1.get(new Get(Bytes.toBytes("a"))).isEmpty());
+    assertTrue(region2.get(new Get(Bytes.toBytes("x"))).isEmpty());
+
+    int syncsBefore = syncs.get();
+    groupCommit.commit();
+    assertTrue(groupCommit.isEmpty());
+    waitForSyncs(syncsBefore + 1);
+    assertEquals(syncsBefore + 1, syncs.get());
+
+    assertSucceeded(callback1, 3);
+    assertSucceeded(callback2, 2);
+    assertValue(region1, "b");
+    assertValue(region2, "y");
+  }
+
+  @Test
+  public void testNothingLeftWithoutSync() throws Exception {
+    WALGroupCommit groupCommit = new WALGroupCommit();
+    RecordingCallback callback = new RecordingCallback();
+    Mutation[] puts = puts("a", "b");
+    for (Mutation put : puts) {
+      put.setDurability(Durability.ASYNC_WAL);
+    }
+    region1.batchMutate(puts, groupCommit, callback);
+    // Completed by the call, there is no sync to wait for
+    assertTrue(groupCommit.isEmpty());
+    assertSucceeded(callback, 2);
+    assertValue(region1, "a");
+  }
+
+  @Test
+  public void testFailedSyncRollsBack() throws Exception {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    FailingSyncWAL wal = new FailingSyncWAL(FileSystem.get(conf), TEST_UTIL.getDataTestDir(),
+        "testFailedSyncRollsBack", conf);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("testFailedSyncRollsBack"));
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegion region3 = TEST_UTIL.createLocalHRegion(
+        new HRegionInfo(htd.getTableName(), null, SPLIT), htd, wal);
+    HRegion region4 = TEST_UTIL.createLocalHRegion(
+        new HRegionInfo(htd.getTableName(), SPLIT, null), htd, wal);
+    try {
+      WALGroupCommit groupCommit = new WALGroupCommit();
+      RecordingCallback callback3 = new RecordingCallback();
+      RecordingCallback callback4 = new RecordingCallback();
+      long emptyMemStoreSize = region3.getStore(FAMILY).getMemStoreSize();
+      region3.batchMutate(puts("a", "b"), groupCommit, callback3);
+      region4.batchMutate(puts("x"), groupCommit, callback4);
+      wal.failSyncs = true;
+      groupCommit.commit();
+      wal.failSyncs = false;
+
+      // Every batch is told, and its edits are gone from the memstore
+      assertTrue(callback3.failure != null);
+      assertTrue(callback4.failure != null);
+      assertTrue(region3.get(new Get(Bytes.toBytes("a"))).isEmpty());
+      assertTrue(region4.get(new Get(Bytes.toBytes("x"))).isEmpty());
+      assertEquals(emptyMemStoreSize, region3.getStore(FAMILY).getMemStoreSize());
+
+      // The regions take mutations again
+      region3.put((Put) puts("c")[0]);
+      assertValue(region3, "c");
+      assertTrue(region3.get(new Get(Bytes.toBytes("b"))).isEmpty());
+    } finally {
+      region3.close();
+      region4.close();
+      wal.close();
+    }
+  }
+
+  @Test
+  public void testMiniBatchWaitingOnMvccCommitsFirst() throws Exception {
+    final byte[] lockedRow = Bytes.toBytes("c");
+    final CountDownLatch locked = new CountDownLatch(1);
+    Thread locker = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Region.RowLock lock = region1.getRowLock(lockedRow, false);
+          locked.countDown();
+          Thread.sleep(1000);
+          lock.release();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    locker.start();
+    locked.await();
+
+    WALGroupCommit groupCommit = new WALGroupCommit();
+    RecordingCallback callback1 = new RecordingCallback();
+    RecordingCallback callback2 = new RecordingCallback();
+    region2.batchMutate(puts("x", "y"), groupCommit, callback2);
+    assertNull(callback2.statuses);
+    // "c" is locked, so "a" and "b" go in a mini-batch of their own, which completes the batch
+    // of region2 before waiting on the mvcc of region1
+    region1.batchMutate(puts("a", "b", "c"), groupCommit, callback1);
+    locker.join();
+    assertSucceeded(callback2, 2);
+    assertValue(region2, "x");
+    assertValue(region1, "a");
+    // The last mini-batch is still left to the group commit
+    assertNull(callback1.statuses);
+    assertTrue(region1.get(new Get(lockedRow)).isEmpty());
+
+    groupCommit.commit();
+    assertSucceeded(callback1, 3);
+    assertValue(region1, "c");
+  }
+
+  /**
+   * Two threads leave a batch on one region each to their group commits, then write to the region
+   * of the other. A flush of the first region holds its updates lock while it waits for the
+   * batch on it, and an increment on the second holds the row written while it waits for the
+   * batch on it. Neither thread may wait for these locks before committing its batch.
+   */
+  @Test(timeout = 60000)
+  public void testNoWaitForLocksWhileHoldingBatches() throws Exception {
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    final CountDownLatch handedOver = new CountDownLatch(2);
+    final CountDownLatch locked = new CountDownLatch(1);
+    GroupCommitWriter writer1 = new GroupCommitWriter(region1, "a", region2, "x", handedOver,
+        locked, errors);
+    GroupCommitWriter writer2 = new GroupCommitWriter(region2, "y", region1, "b", handedOver,
+        locked, errors);
+    Thread flusher = new Thread() {
+      @Override
+      public void run() {
+        try {
+          region1.flush(true);
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      }
+    };
+    Thread incrementer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          region2.increment(new Increment(Bytes.toBytes("x")).addColumn(FAMILY,
+              Bytes.toBytes("count"), 1));
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      }
+    };
+    writer1.start();
+    writer2.start();
+    try {
+      handedOver.await();
+      // The flush holds the updates lock of region1, the increment holds row "x" of region2
+      flusher.start();
+      waitForWaitersOnMvcc(region1);
+      incrementer.start();
+      waitForWaitersOnMvcc(region2);
+    } finally {
+      locked.countDown();
+    }
+    for (Thread thread : new Thread[] { writer1, writer2, flusher, incrementer }) {
+      thread.join();
+    }
+    assertTrue(errors.toString(), errors.isEmpty());
+    assertSucceeded(writer1.first, 1);
+    assertSucceeded(writer1.second, 1);
+    assertSucceeded(writer2.first, 1);
+    assertSucceeded(writer2.second, 1);
+    assertValue(region1, "a");
+    assertValue(region1, "b");
+    assertValue(region2, "x");
+    assertValue(region2, "y");
+  }
+
+  /**
+   * Leaves a put to a group commit, then writes another one to a second region once the locks
+   * of that region are held, committing both.
+   */
+  private static class GroupCommitWriter extends Thread {
+    private final WALGroupCommit groupCommit = new WALGroupCommit();
+    private final RecordingCallback first = new RecordingCallback();
+    private final RecordingCallback second = new RecordingCallback();
+    private final HRegion firstRegion;
+    private final String firstRow;
+    private final HRegion secondRegion;
+    private final String secondRow;
+    private final CountDownLatch handedOver;
+    private final CountDownLatch locked;
+    private final List<Throwable> errors;
+
+    GroupCommitWriter(HRegion firstRegion, String firstRow, HRegion secondRegion,
+        String secondRow, CountDownLatch handedOver, CountDownLatch locked,
+        List<Throwable> errors) {
+      this.firstRegion = firstRegion;
+      this.firstRow = firstRow;
+      this.secondRegion = secondRegion;
+      this.secondRow = secondRow;
+      this.handedOver = handedOver;
+      this.locked = locked;
+      this.errors = errors;
+    }
+
+    @Override
+    public void run() {
+      try {
+        try {
+          firstRegion.batchMutate(puts(firstRow), groupCommit, first);
+        } finally {
+          handedOver.countDown();
+        }
+        locked.await();
+        secondRegion.batchMutate(puts(secondRow), groupCommit, second);
+      } catch (Throwable e) {
+        errors.add(e);
+      } finally {
+        groupCommit.commit();
+      }
+    }
+  }
+
+  /**
+   * Waits until a thread waits on the mvcc of the region for the batch left to a group commit.
+   */
+  private static void waitForWaitersOnMvcc(final HRegion region) throws Exception {
+    TEST_UTIL.waitFor(10000, new Waiter.Predicate<Exception>() {
+      @Override
+      public boolean evaluate() throws Exception {
+        MultiVersionConcurrencyControl mvcc = region.getMVCC();
+        return mvcc.getWritePoint() - mvcc.getReadPoint() >= 2;
+      }
+    });
+  }
+
+  private void waitForSyncs(final int expected) throws Exception {
+    // The listener is called once the syncs are released
+    TEST_UTIL.waitFor(10000, new Waiter.Predicate<Exception>() {
+      @Override
+      public boolean evaluate() throws Exception {
+        return syncs.get() >= expected;
+      }
+    });
+  }
+
+  private static Mutation[] puts(String... rows) {
+    Mutation[] puts = new Mutation[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      puts[i] = new Put(Bytes.toBytes(rows[i])).addColumn(FAMILY, QUALIFIER,
+          Bytes.toBytes(rows[i]));
+    }
+    return puts;
+  }
+
+  private static void assertSucceeded(RecordingCallback callback, int count) {
+    assertNull(callback.failure);
+    assertEquals(count, callback.statuses.length);
+    for (OperationStatus status : callback.statuses) {
+      assertEquals(OperationStatus.SUCCESS, status);
+    }
+  }
+
+  private static void assertValue(HRegion region, String row) throws IOException {
+    Result result = region.get(new Get(Bytes.toBytes(row)));
+    assertArrayEquals(Bytes.toBytes(row), result.getValue(FAMILY, QUALIFIER));
+  }
+
+  /**
+   * A WAL whose syncs, such as those of a group commit, can be made to fail.
+   */
+  private static class FailingSyncWAL extends FSHLog {
+    volatile boolean failSyncs = false;
+
+    FailingSyncWAL(FileSystem fs, Path root, String logDir, Configuration conf)
+        throws IOException {
+      super(fs, root, logDir, conf);
+    }
+
+    @Override
+    public void sync(long txid) throws IOException {
+      if (failSyncs) {
+        throw new IOException("Failing sync of " + txid);
+      }
+      super.sync(txid);
+    }
+  }
+
+  private static class RecordingCallback implements WALGroupCommit.Callback {
+    OperationStatus[] statuses;
+    IOException failure;
+
+    @Override
+    public void completed(OperationStatus[] statuses, IOException failure) {
+      this.statuses = statuses;
+      this.failure = failure;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestAdaptiveSyncPolicy {
+
+  private static final long MAX_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private long now = System.nanoTime();
+
+  /**
+   * Completes syncs of the given latency, each releasing the given number of requests, for long
+   * enough for the estimates to settle.
+   */
+  private void run(AdaptiveSyncPolicy policy, long latencyNs, int requestsPerSync,
+      int concurrentSyncs) {
+    for (int i = 0; i < 100; i++) {
+      now += AdaptiveSyncPolicy.RATE_INTERVAL_NS;
+      long syncs = AdaptiveSyncPolicy.RATE_INTERVAL_NS / latencyNs * concurrentSyncs;
+      for (long j = 0; j < syncs; j++) {
+        policy.syncCompleted(latencyNs, requestsPerSync, now);
+      }
+    }
+  }
+
+  @Test
+  public void testStartsAsFixed() {
+    AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(5, 100, MAX_DELAY_NS);
+    assertEquals(5, policy.getInFlightSyncs());
+    assertEquals(1, policy.getBatchSize());
+    assertEquals(0, policy.getDelayNanos(1));
+  }
+
+  @Test
+  public void testFastSyncsBatched() {
+    AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(5, 100, MAX_DELAY_NS);
+    // 0.5ms syncs with 10 requests each on 2 syncers: 40 requests per ms
+    run(policy, TimeUnit.MICROSECONDS.toNanos(500), 10, 2);
+    // One sync at a time makes handlers wait at most 0.5ms for it
+    assertEquals(1, policy.getInFlightSyncs());
+    // and 40 requests come in within the max delay
+    assertEquals(40, policy.getBatchSize());
+    assertEquals(0, policy.getDelayNanos(40));
+    long delay = policy.getDelayNanos(20);
+    assertTrue(delay > 0 && delay <= MAX_DELAY_NS);
+  }
+
+  @Test
+  public void testSlowSyncsRunTogether() {
+    AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(5, 100, MAX_DELAY_NS);
+    run(policy, TimeUnit.MICROSECONDS.toNanos(500), 10, 2);
+    assertEquals(1, policy.getInFlightSyncs());
+    // Syncs slow down to 3ms: more run at once to keep the wait for one under 1ms
+    run(policy, TimeUnit.MILLISECONDS.toNanos(3), 10, 1);
+    assertEquals(3, policy.getInFlightSyncs());
+    // Never more than the syncers
+    run(policy, TimeUnit.MILLISECONDS.toNanos(10), 50, 1);
+    assertEquals(5, policy.getInFlightSyncs());
+  }
+
+  @Test
+  public void testNoBatchingWhenIdle() {
+    AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(5, 100, MAX_DELAY_NS);
+    // A request every 5ms: there is nothing to wait for, nor to sync at once
+    run(policy, TimeUnit.MILLISECONDS.toNanos(5), 1, 1);
+    assertEquals(1, policy.getInFlightSyncs());
+    assertEquals(1, policy.getBatchSize());
+    assertEquals(0, policy.getDelayNanos(1));
+  }
+}
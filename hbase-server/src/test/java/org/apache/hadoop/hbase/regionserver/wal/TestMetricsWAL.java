@@ -51,6 +51,15 @@ public class TestMetricsWAL {
     MetricsWAL metricsWAL = new MetricsWAL(source);
     metricsWAL.postSync(nanos, 1);
     verify(source, times(1)).incrementSyncTime(145);
+    verify(source, times(1)).updateSyncBatchSize(1);
+  }
+
+  @Test
+  public void testPreSync() throws Exception {
+    MetricsWALSource source = mock(MetricsWALSourceImpl.class);
+    MetricsWAL metricsWAL = new MetricsWAL(source);
+    metricsWAL.preSync(3);
+    verify(source, times(1)).updateInFlightSyncs(3);
   }
 
   @Test
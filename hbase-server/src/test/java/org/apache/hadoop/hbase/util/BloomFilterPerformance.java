@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Compares the probe cost of standard and blocked Bloom filter chunks. Every store file of a
+ * store is modelled by one full Bloom chunk, and each lookup probes the chunks of all store
+ * files, as a Get does. Reports the time per probe of a store file and the false positive rate.
+ * <p>
+ * Usage: BloomFilterPerformance [storeFiles] [chunkBytes] [errorRate]
+ */
+public class BloomFilterPerformance {
+  private static final Log LOG = LogFactory.getLog(BloomFilterPerformance.class);
+
+  private static final int KEY_LENGTH = 24;
+
+  static ByteBloomFilter[] createChunks(boolean blocked, int storeFiles, int chunkBytes,
+      double errorRate, Random rand) {
+    ByteBloomFilter[] chunks = new ByteBloomFilter[storeFiles];
+    byte[] key = new byte[KEY_LENGTH];
+    for (int i = 0; i < storeFiles; i++) {
+      chunks[i] = blocked
+          ? BlockedByteBloomFilter.createBySize(chunkBytes, errorRate, Hash.MURMUR_HASH, 0)
+          : ByteBloomFilter.createBySize(chunkBytes, errorRate, Hash.MURMUR_HASH, 0);
+      chunks[i].allocBloom();
+      for (long k = 0; k < chunks[i].getMaxKeys(); k++) {
+        rand.nextBytes(key);
+        chunks[i].add(key, 0, key.length);
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * @return number of positive probes
+   */
+  static long probe(ByteBloomFilter[] chunks, byte[][] keys) {
+    long positives = 0;
+    for (byte[] key : keys) {
+      for (ByteBloomFilter chunk : chunks) {
+        if (chunk.contains(key, 0, key.length, null)) {
+          positives++;
+        }
+      }
+    }
+    return positives;
+  }
+
+  static void run(boolean blocked, int storeFiles, int chunkBytes, double errorRate,
+      byte[][] keys, int cycles) {
+    ByteBloomFilter[] chunks = createChunks(blocked, storeFiles, chunkBytes, errorRate,
+        new Random(1));
+    String name = blocked ? "blocked" : "standard";
+    long positives = 0;
+    long bestNanos = Long.MAX_VALUE;
+    for (int i = 0; i < cycles; i++) {
+      long start = System.nanoTime();
+      positives = probe(chunks, keys);
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+    }
+    long probes = (long) keys.length * storeFiles;
+    LOG.info(String.format("%s: %d store files of %d bytes, %d hash functions, %d keys each;"
+        + " %.1f ns per store file probe, false positive rate %.5f", name, storeFiles,
+        chunks[0].getByteSize(), chunks[0].getHashCount(), chunks[0].getMaxKeys(),
+        bestNanos * 1.0 / probes, positives * 1.0 / probes));
+  }
+
+  public static void main(String[] args) {
+    int storeFiles = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int chunkBytes = args.length > 1 ? Integer.parseInt(args[1]) : 128 * 1024;
+    double errorRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+    // How many times to probe all keys; repeat gives hotspot chance to warm up.
+    final int cycles = 20;
+
+    // Keys that are not in any of the filters, as most Get probes of store files
+    Random rand = new Random(2);
+    byte[][] keys = new byte[100000][KEY_LENGTH];
+    for (byte[] key : keys) {
+      rand.nextBytes(key);
+    }
+    run(false, storeFiles, chunkBytes, errorRate, keys, cycles);
+    run(true, storeFiles, chunkBytes, errorRate, keys, cycles);
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestBlockedByteBloomFilter {
+
+  private static final int KEY_LENGTH = 16;
+
+  private static byte[][] randomKeys(Random rand, int n) {
+    byte[][] keys = new byte[n][KEY_LENGTH];
+    for (byte[] key : keys) {
+      rand.nextBytes(key);
+    }
+    return keys;
+  }
+
+  @Test
+  public void testBasicBloom() throws Exception {
+    BlockedByteBloomFilter bf = BlockedByteBloomFilter.createBySize(4096, 0.01,
+        Hash.MURMUR_HASH, 0);
+    bf.allocBloom();
+    assertEquals(0, bf.getByteSize() % BlockedByteBloomFilter.BLOCK_BYTES);
+
+    byte[][] keys = randomKeys(new Random(1), (int) bf.getMaxKeys());
+    for (byte[] key : keys) {
+      bf.add(key, 0, key.length);
+    }
+    for (byte[] key : keys) {
+      assertTrue(bf.contains(key));
+    }
+
+    // The serialized bits at an offset in a block, as read by CompoundBloomFilter
+    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bOut);
+    out.write(new byte[33]);
+    bf.writeBloom(out);
+    ByteBuffer bb = ByteBuffer.wrap(bOut.toByteArray()).asReadOnlyBuffer();
+    for (byte[] key : keys) {
+      assertTrue(BlockedByteBloomFilter.contains(key, 0, key.length, bb, 33,
+          (int) bf.getByteSize(), Hash.getInstance(Hash.MURMUR_HASH), bf.getHashCount()));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    for (double errorRate : new double[] { 0.05, 0.01, 0.001 }) {
+      BlockedByteBloomFilter bf = BlockedByteBloomFilter.createBySize(64 * 1024, errorRate,
+          Hash.MURMUR_HASH, 0);
+      bf.allocBloom();
+      Random rand = new Random(2);
+      for (byte[] key : randomKeys(rand, (int) bf.getMaxKeys())) {
+        bf.add(key, 0, key.length);
+      }
+      int trials = 200000;
+      int falsePositives = 0;
+      for (byte[] key : randomKeys(rand, trials)) {
+        if (bf.contains(key)) {
+          falsePositives++;
+        }
+      }
+      double rate = falsePositives * 1.0 / trials;
+      assertTrue("errorRate=" + errorRate + ", rate=" + rate, rate < errorRate * 1.1);
+    }
+  }
+
+  @Test
+  public void testBloomFold() {
+    BlockedByteBloomFilter bf = BlockedByteBloomFilter.createBySize(64 * 1024, 0.01,
+        Hash.MURMUR_HASH, 7);
+    bf.allocBloom();
+    long origSize = bf.getByteSize();
+    assertEquals(0, origSize % (BlockedByteBloomFilter.BLOCK_BYTES << 7));
+
+    Random rand = new Random(3);
+    byte[][] keys = randomKeys(rand, (int) (bf.getMaxKeys() / 10));
+    for (byte[] key : keys) {
+      bf.add(key, 0, key.length);
+    }
+    bf.compactBloom();
+    // folded in half three times, to a whole number of blocks
+    assertEquals(origSize >> 3, bf.getByteSize());
+    assertEquals(0, bf.getByteSize() % BlockedByteBloomFilter.BLOCK_BYTES);
+
+    for (byte[] key : keys) {
+      assertTrue(bf.contains(key));
+    }
+    int falsePositives = 0;
+    for (byte[] key : randomKeys(rand, 100000)) {
+      if (bf.contains(key)) {
+        falsePositives++;
+      }
+    }
+    assertTrue("falsePositives=" + falsePositives, falsePositives < 100000 * 0.01);
+  }
+
+  @Test
+  public void testCreateAnother() {
+    BlockedByteBloomFilter bf = BlockedByteBloomFilter.createBySize(4096, 0.01,
+        Hash.MURMUR_HASH, 0);
+    bf.allocBloom();
+    byte[] key = Bytes.toBytes("key");
+    bf.add(key, 0, key.length);
+    BlockedByteBloomFilter other = bf.createAnother();
+    other.allocBloom();
+    assertEquals(bf.getByteSize(), other.getByteSize());
+    assertEquals(bf.getHashCount(), other.getHashCount());
+    assertEquals(0, other.getKeyCount());
+    assertFalse(other.contains(key));
+  }
+}
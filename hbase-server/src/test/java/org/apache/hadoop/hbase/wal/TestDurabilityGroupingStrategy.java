@@ -0,0 +1,99 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import static org.apache.hadoop.hbase.wal.RegionGroupingProvider.REGION_GROUPING_STRATEGY;
+import static org.apache.hadoop.hbase.wal.WALFactory.WAL_PROVIDER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+@Category(MediumTests.class)
+public class TestDurabilityGroupingStrategy {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] TELEMETRY = Bytes.toBytes("telemetry");
+  private static final byte[] CRITICAL = Bytes.toBytes("critical");
+
+  @Rule
+  public final TestName currentTest = new TestName();
+
+  @Test
+  public void testGroups() {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(DurabilityGroupingStrategy.ASYNC_NAMESPACES, "other, telemetry");
+    conf.setInt(DurabilityGroupingStrategy.NUM_GROUPS_PER_CLASS, 2);
+    DurabilityGroupingStrategy strategy = new DurabilityGroupingStrategy();
+    strategy.init(conf, "wals");
+
+    Set<String> syncGroups = new HashSet<String>();
+    Set<String> asyncGroups = new HashSet<String>();
+    for (int i = 0; i < 4; i++) {
+      syncGroups.add(strategy.group(Bytes.toBytes("sync" + i), CRITICAL));
+      syncGroups.add(strategy.group(Bytes.toBytes("default" + i), null));
+      asyncGroups.add(strategy.group(Bytes.toBytes("async" + i), TELEMETRY));
+    }
+    assertEquals(2, syncGroups.size());
+    assertEquals(2, asyncGroups.size());
+    for (String group : syncGroups) {
+      assertEquals("wals.sync.regiongroup-", group.substring(0, group.length() - 1));
+    }
+    for (String group : asyncGroups) {
+      assertEquals("wals.async.regiongroup-", group.substring(0, group.length() - 1));
+    }
+    // A region stays in its group
+    assertEquals(strategy.group(Bytes.toBytes("async0"), TELEMETRY),
+        strategy.group(Bytes.toBytes("async0"), TELEMETRY));
+  }
+
+  @Test
+  public void testSeparateWALs() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setClass(WAL_PROVIDER, RegionGroupingProvider.class, WALProvider.class);
+    conf.set(REGION_GROUPING_STRATEGY, RegionGroupingProvider.Strategies.durability.name());
+    conf.set(DurabilityGroupingStrategy.ASYNC_NAMESPACES, Bytes.toString(TELEMETRY));
+    WALFactory wals = new WALFactory(conf, null, currentTest.getMethodName());
+    try {
+      WAL critical1 = wals.getWAL(Bytes.toBytes("critical1"), CRITICAL);
+      WAL critical2 = wals.getWAL(Bytes.toBytes("critical2"), null);
+      WAL telemetry1 = wals.getWAL(Bytes.toBytes("telemetry1"), TELEMETRY);
+      WAL telemetry2 = wals.getWAL(Bytes.toBytes("telemetry2"), TELEMETRY);
+      assertSame(critical1, critical2);
+      assertSame(telemetry1, telemetry2);
+      assertNotSame(critical1, telemetry1);
+      assertNotEquals(DefaultWALProvider.getCurrentFileName(critical1),
+          DefaultWALProvider.getCurrentFileName(telemetry1));
+    } finally {
+      wals.close();
+    }
+  }
+}
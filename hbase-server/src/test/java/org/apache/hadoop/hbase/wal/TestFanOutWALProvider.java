@@ -0,0 +1,290 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.wal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConcurrencyControl;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+
+// imports for things that haven't moved from regionserver.wal yet.
+import org.apache.hadoop.hbase.regionserver.wal.FanOutLogWriter;
+import org.apache.hadoop.hbase.regionserver.wal.FanOutReplica;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+
+@Category(MediumTests.class)
+public class TestFanOutWALProvider {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final int NUM_REPLICAS = 2;
+
+  private static Configuration conf;
+  private static FileSystem walFs;
+
+  @Rule
+  public final TestName currentTest = new TestName();
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniDFSCluster(1);
+    TEST_UTIL.createWALRootDir();
+    conf = TEST_UTIL.getConfiguration();
+    walFs = FSUtils.getWALFileSystem(conf);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testReplicasGetTheWAL() throws Exception {
+    Configuration localConf = new Configuration(conf);
+    localConf.set(WALFactory.WAL_PROVIDER, WALFactory.Providers.fanout.name());
+    localConf.setClass(FanOutLogWriter.REPLICA_FACTORY_KEY, InMemoryReplicaFactory.class,
+        FanOutReplica.Factory.class);
+    WALFactory wals = new WALFactory(localConf, null, currentTest.getMethodName());
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf(currentTest.getMethodName()))
+        .addFamily(new HColumnDescriptor("f"));
+    HRegionInfo hri = new HRegionInfo(htd.getTableName());
+    MultiVersionConcurrencyControl mvcc = new MultiVersionConcurrencyControl();
+    int numEdits = 100;
+    Path path;
+    try {
+      WAL wal = wals.getWAL(hri.getEncodedNameAsBytes(), null);
+      path = DefaultWALProvider.getCurrentFileName(wal);
+      for (int i = 0; i < numEdits; i++) {
+        WALEdit edit = new WALEdit();
+        byte[] row = Bytes.toBytes("row" + i);
+        edit.add(new KeyValue(row, Bytes.toBytes("f"), row, i, row));
+        wal.append(htd, hri, new WALKey(hri.getEncodedNameAsBytes(), htd.getTableName(),
+            System.currentTimeMillis(), mvcc), edit, true);
+        if (i % 10 == 0) {
+          wal.sync();
+        }
+      }
+      wal.sync();
+      // Every replica acknowledged the bytes synced
+      long length = walFs.getFileStatus(path).getLen();
+      List<InMemoryReplica> replicas = InMemoryReplicaFactory.REPLICAS.get(path.getName());
+      assertNotNull(replicas);
+      assertEquals(NUM_REPLICAS, replicas.size());
+      for (InMemoryReplica replica : replicas) {
+        assertTrue(replica.getBytes().length > 0);
+        assertTrue(replica.getBytes().length >= length);
+      }
+    } finally {
+      wals.shutdown();
+    }
+
+    // The replicas hold the same bytes as the WAL file, which reads back as usual
+    byte[] fileBytes = new byte[(int) walFs.getFileStatus(path).getLen()];
+    FSDataInputStream in = walFs.open(path);
+    try {
+      in.readFully(fileBytes);
+    } finally {
+      in.close();
+    }
+    for (InMemoryReplica replica : InMemoryReplicaFactory.REPLICAS.get(path.getName())) {
+      assertArrayEquals(fileBytes, replica.getBytes());
+    }
+    WAL.Reader reader = wals.createReader(walFs, path);
+    int count = 0;
+    try {
+      while (reader.next() != null) {
+        count++;
+      }
+    } finally {
+      reader.close();
+    }
+    assertEquals(numEdits, count);
+  }
+
+  @Test
+  public void testFailedReplicaFailsSync() throws Exception {
+    Configuration localConf = new Configuration(conf);
+    localConf.setClass(FanOutLogWriter.REPLICA_FACTORY_KEY, FailingReplicaFactory.class,
+        FanOutReplica.Factory.class);
+    Path path = new Path(TEST_UTIL.getDataTestDirOnTestFS(), currentTest.getMethodName());
+    walFs.mkdirs(path.getParent());
+    FanOutLogWriter writer = new FanOutLogWriter();
+    writer.init(walFs, path, localConf, false);
+    try {
+      writer.sync();
+      fail("Sync should fail when a replica fails");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      writer.close();
+      fail("Close should fail when a replica fails");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testHsyncReachesReplicas() throws Exception {
+    Configuration localConf = new Configuration(conf);
+    localConf.setClass(FanOutLogWriter.REPLICA_FACTORY_KEY, InMemoryReplicaFactory.class,
+        FanOutReplica.Factory.class);
+    Path path = new Path(TEST_UTIL.getDataTestDirOnTestFS(), currentTest.getMethodName());
+    walFs.mkdirs(path.getParent());
+    FanOutLogWriter writer = new FanOutLogWriter();
+    writer.init(walFs, path, localConf, false);
+    try {
+      // The header is already acknowledged, the hsync still reaches every replica
+      writer.sync();
+      writer.getStream().hsync();
+      for (InMemoryReplica replica : InMemoryReplicaFactory.REPLICAS.get(path.getName())) {
+        assertEquals(1, replica.getHsyncs());
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testNoReplicasWritesFileStream() throws Exception {
+    Path path = new Path(TEST_UTIL.getDataTestDirOnTestFS(), currentTest.getMethodName());
+    walFs.mkdirs(path.getParent());
+    FanOutLogWriter writer = new FanOutLogWriter();
+    writer.init(walFs, path, conf, false);
+    try {
+      // The HDFS stream itself, so that FSHLog can check its replication
+      assertTrue(writer.getStream() instanceof HdfsDataOutputStream);
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * In-process stand-in for a replica, collecting the bytes it is sent from a thread of its own.
+   */
+  static class InMemoryReplica implements FanOutReplica {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final boolean fail;
+    private volatile int hsyncs = 0;
+
+    InMemoryReplica(boolean fail) {
+      this.fail = fail;
+    }
+
+    @Override
+    public void write(final byte[] buf, final int offset, final int length, final boolean hsync,
+        final Callback callback) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (fail) {
+            callback.failed(new IOException("Failing replica"));
+            return;
+          }
+          synchronized (bytes) {
+            bytes.write(buf, offset, length);
+          }
+          if (hsync) {
+            hsyncs++;
+          }
+          callback.completed();
+        }
+      });
+    }
+
+    int getHsyncs() {
+      return hsyncs;
+    }
+
+    byte[] getBytes() {
+      synchronized (bytes) {
+        return bytes.toByteArray();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(60, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  public static class InMemoryReplicaFactory implements FanOutReplica.Factory {
+    static final Map<String, List<InMemoryReplica>> REPLICAS =
+        new ConcurrentHashMap<String, List<InMemoryReplica>>();
+
+    @Override
+    public List<FanOutReplica> createReplicas(FileSystem fs, Path path, Configuration conf,
+        boolean overwritable) {
+      List<InMemoryReplica> replicas = new ArrayList<InMemoryReplica>();
+      for (int i = 0; i < NUM_REPLICAS; i++) {
+        replicas.add(new InMemoryReplica(false));
+      }
+      REPLICAS.put(path.getName(), replicas);
+      return new ArrayList<FanOutReplica>(replicas);
+    }
+  }
+
+  public static class FailingReplicaFactory implements FanOutReplica.Factory {
+    @Override
+    public List<FanOutReplica> createReplicas(FileSystem fs, Path path, Configuration conf,
+        boolean overwritable) {
+      List<FanOutReplica> replicas = new ArrayList<FanOutReplica>();
+      replicas.add(new InMemoryReplica(true));
+      return replicas;
+    }
+  }
+}